@@ -0,0 +1,462 @@
+package org.cru.contentscoring.core.ledger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Remembers, per URI, the last score sent to the scoring API, when it was sent and whether the API accepted it.
+ * <p>
+ * Every send is appended to a log file as a record of {@code [length][crc32][score][sent at][outcome][uri]}. The
+ * index file is a memory mapped open addressing hash table of {@code [murmur3 hash of the URI][log offset + 1]}
+ * slots, so a lookup costs a few probes plus one positional read of the log, and the heap use doesn't depend on the
+ * number of URIs. Slots only hold hashes, so the URI of the record a slot points to is compared before it is used.
+ * <p>
+ * The index header holds the log length it covers. Records appended after that, because the index wasn't flushed
+ * before the JVM went down, are indexed again when the ledger is opened, and a torn record at the end of the log
+ * is cut off. A missing index is rebuilt from the whole log. Once the log is more than twice as large as its live
+ * records, the live records are copied to a new log and index.
+ */
+public class ScoreLedger implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ScoreLedger.class);
+
+    static final String LOG_FILE = "scores.log";
+    static final String INDEX_FILE = "scores.idx";
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    // Index header: magic, capacity, size, indexed log length
+    private static final int MAGIC = 0x53434c31;
+    private static final int HEADER_SIZE = 24;
+    private static final int SLOT_SIZE = 16;
+    static final int INITIAL_CAPACITY = 1 << 16;
+    private static final double MAX_LOAD = 0.7;
+
+    // Record: length and crc32 of the rest, then score, sent at, outcome and the UTF-8 URI
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int RECORD_FIXED_SIZE = 4 + 8 + 1;
+    private static final int MAX_URI_LENGTH = 64 * 1024;
+
+    // Not compacted below this size, rewriting a small log gains nothing
+    private static final long MIN_COMPACTION_SIZE = 16L * 1024L * 1024L;
+
+    public enum Outcome {
+        ACCEPTED,
+        FAILED
+    }
+
+    /**
+     * What was last sent for a URI.
+     */
+    public static class Entry {
+        private final String uri;
+        private final int score;
+        private final long sentAt;
+        private final Outcome outcome;
+
+        Entry(final String uri, final int score, final long sentAt, final Outcome outcome) {
+            this.uri = uri;
+            this.score = score;
+            this.sentAt = sentAt;
+            this.outcome = outcome;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public long getSentAt() {
+            return sentAt;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+    }
+
+    private final File directory;
+    private FileChannel log;
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int size;
+    private long liveBytes;
+
+    private ScoreLedger(final File directory) {
+        this.directory = directory;
+    }
+
+    public static ScoreLedger open(final File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create the score ledger directory " + directory);
+        }
+        ScoreLedger ledger = new ScoreLedger(directory);
+        ledger.load();
+        return ledger;
+    }
+
+    /**
+     * @return what was last sent for the URI, or null if nothing was ever sent for it
+     */
+    public synchronized Entry get(final String uri) throws IOException {
+        long hash = hashOf(uri);
+        for (int slot = firstSlot(hash); ; slot = nextSlot(slot)) {
+            long slotHash = index.getLong(slotPosition(slot));
+            if (slotHash == 0) {
+                return null;
+            }
+            if (slotHash == hash) {
+                Entry entry = readRecord(index.getLong(slotPosition(slot) + 8) - 1);
+                if (entry.getUri().equals(uri)) {
+                    return entry;
+                }
+            }
+        }
+    }
+
+    public synchronized void record(
+        final String uri,
+        final int score,
+        final long sentAt,
+        final Outcome outcome) throws IOException {
+
+        byte[] uriBytes = uri.getBytes(StandardCharsets.UTF_8);
+        if (uriBytes.length > MAX_URI_LENGTH) {
+            LOG.warn("Not recording {}, the URI is too long", uri);
+            return;
+        }
+
+        long offset = log.size();
+        log.write(encode(uriBytes, score, sentAt, outcome), offset);
+        put(uri, offset, RECORD_HEADER_SIZE + RECORD_FIXED_SIZE + uriBytes.length);
+        index.putLong(16, log.size());
+
+        if (log.size() > MIN_COMPACTION_SIZE && log.size() > 2 * liveBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * @return the number of URIs in the ledger
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Forces the log and index to disk.
+     */
+    public synchronized void flush() throws IOException {
+        log.force(false);
+        index.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        log.close();
+        indexChannel.close();
+    }
+
+    private void load() throws IOException {
+        log = FileChannel.open(
+            new File(directory, LOG_FILE).toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+
+        File indexFile = new File(directory, INDEX_FILE);
+        long indexedLength = 0;
+        if (indexFile.length() >= HEADER_SIZE) {
+            mapIndex(indexFile, 0);
+            // An index covering more than the log belongs to another log
+            if (index.getInt(0) == MAGIC && index.getLong(16) <= log.size()) {
+                capacity = index.getInt(4);
+                size = index.getInt(8);
+                indexedLength = index.getLong(16);
+            } else {
+                capacity = 0;
+                indexChannel.close();
+            }
+        }
+        if (capacity == 0) {
+            // No usable index, it is rebuilt from the whole log
+            createIndex(indexFile, INITIAL_CAPACITY);
+        }
+
+        liveBytes = measureLiveBytes();
+        replay(indexedLength);
+    }
+
+    private void replay(final long from) throws IOException {
+        long offset = from;
+        long length = log.size();
+        int replayed = 0;
+        while (offset < length) {
+            Entry entry = readRecordOrNull(offset);
+            if (entry == null) {
+                LOG.warn("Cutting off a torn record at {} of the score ledger log", offset);
+                log.truncate(offset);
+                break;
+            }
+            int recordSize = recordSize(entry);
+            put(entry.getUri(), offset, recordSize);
+            offset += recordSize;
+            replayed++;
+        }
+        index.putLong(16, log.size());
+        if (replayed > 0) {
+            LOG.info("Indexed {} score ledger records missing from the index", replayed);
+        }
+    }
+
+    private void put(final String uri, final long offset, final int recordSize) throws IOException {
+        long hash = hashOf(uri);
+        for (int slot = firstSlot(hash); ; slot = nextSlot(slot)) {
+            int position = slotPosition(slot);
+            long slotHash = index.getLong(position);
+            if (slotHash == 0) {
+                index.putLong(position, hash);
+                index.putLong(position + 8, offset + 1);
+                size++;
+                index.putInt(8, size);
+                liveBytes += recordSize;
+                if (size > capacity * MAX_LOAD) {
+                    grow();
+                }
+                return;
+            }
+            if (slotHash == hash) {
+                long previousOffset = index.getLong(position + 8) - 1;
+                Entry previous = readRecord(previousOffset);
+                if (previous.getUri().equals(uri)) {
+                    index.putLong(position + 8, offset + 1);
+                    liveBytes += recordSize - recordSize(previous);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void grow() throws IOException {
+        File indexFile = new File(directory, INDEX_FILE);
+        File grownFile = new File(directory, INDEX_FILE + ".tmp");
+        MappedByteBuffer previous = index;
+        int previousCapacity = capacity;
+        int previousSize = size;
+        FileChannel previousChannel = indexChannel;
+
+        createIndex(grownFile, previousCapacity * 2);
+        for (int slot = 0; slot < previousCapacity; slot++) {
+            int position = HEADER_SIZE + slot * SLOT_SIZE;
+            long hash = previous.getLong(position);
+            if (hash != 0) {
+                int newSlot = firstSlot(hash);
+                while (index.getLong(slotPosition(newSlot)) != 0) {
+                    newSlot = nextSlot(newSlot);
+                }
+                index.putLong(slotPosition(newSlot), hash);
+                index.putLong(slotPosition(newSlot) + 8, previous.getLong(position + 8));
+            }
+        }
+        size = previousSize;
+        index.putInt(8, size);
+        index.putLong(16, previous.getLong(16));
+        index.force();
+        previousChannel.close();
+
+        indexChannel.close();
+        Files.move(grownFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        mapIndex(indexFile, 0);
+        LOG.debug("Grew the score ledger index to {} slots", capacity);
+    }
+
+    /**
+     * Copies the live records to a new log and index, then swaps them in.
+     */
+    @VisibleForTesting
+    synchronized void compact() throws IOException {
+        File compactedDirectory = new File(directory, "compacting");
+        if (compactedDirectory.isDirectory()) {
+            for (File file : compactedDirectory.listFiles()) {
+                Files.delete(file.toPath());
+            }
+        }
+
+        long before = log.size();
+        ScoreLedger compacted = open(compactedDirectory);
+        try {
+            for (int slot = 0; slot < capacity; slot++) {
+                if (index.getLong(slotPosition(slot)) != 0) {
+                    Entry entry = readRecord(index.getLong(slotPosition(slot) + 8) - 1);
+                    compacted.record(entry.getUri(), entry.getScore(), entry.getSentAt(), entry.getOutcome());
+                }
+            }
+        } finally {
+            compacted.close();
+        }
+
+        log.close();
+        indexChannel.close();
+        // Without an index, the log is indexed again when opened, so a crash in between loses nothing
+        Files.delete(new File(directory, INDEX_FILE).toPath());
+        Files.move(
+            new File(compactedDirectory, LOG_FILE).toPath(),
+            new File(directory, LOG_FILE).toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+        Files.move(
+            new File(compactedDirectory, INDEX_FILE).toPath(),
+            new File(directory, INDEX_FILE).toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(compactedDirectory.toPath());
+
+        capacity = 0;
+        load();
+        LOG.info("Compacted the score ledger log from {} to {} bytes", before, log.size());
+    }
+
+    private void createIndex(final File indexFile, final int newCapacity) throws IOException {
+        Files.deleteIfExists(indexFile.toPath());
+        mapIndex(indexFile, HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+        index.putInt(0, MAGIC);
+        index.putInt(4, newCapacity);
+        index.putInt(8, 0);
+        index.putLong(16, 0);
+        capacity = newCapacity;
+        size = 0;
+    }
+
+    private void mapIndex(final File indexFile, final long length) throws IOException {
+        indexChannel = FileChannel.open(
+            indexFile.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        long mappedLength = length > 0 ? length : indexChannel.size();
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, mappedLength);
+    }
+
+    private long measureLiveBytes() throws IOException {
+        long live = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (index.getLong(slotPosition(slot)) != 0) {
+                Entry entry = readRecordOrNull(index.getLong(slotPosition(slot) + 8) - 1);
+                if (entry != null) {
+                    live += recordSize(entry);
+                }
+            }
+        }
+        return live;
+    }
+
+    private ByteBuffer encode(final byte[] uriBytes, final int score, final long sentAt, final Outcome outcome) {
+        ByteBuffer body = ByteBuffer.allocate(RECORD_FIXED_SIZE + uriBytes.length);
+        body.putInt(score);
+        body.putLong(sentAt);
+        body.put((byte) outcome.ordinal());
+        body.put(uriBytes);
+        body.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + body.remaining());
+        record.putInt(body.remaining());
+        record.putInt((int) crc.getValue());
+        record.put(body);
+        record.flip();
+        return record;
+    }
+
+    private Entry readRecord(final long offset) throws IOException {
+        Entry entry = readRecordOrNull(offset);
+        if (entry == null) {
+            throw new IOException("The score ledger index points to a corrupt record at " + offset);
+        }
+        return entry;
+    }
+
+    private Entry readRecordOrNull(final long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        if (readFully(header, offset) < RECORD_HEADER_SIZE) {
+            return null;
+        }
+        int length = header.getInt(0);
+        if (length < RECORD_FIXED_SIZE || length > RECORD_FIXED_SIZE + MAX_URI_LENGTH) {
+            return null;
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(length);
+        if (readFully(body, offset + RECORD_HEADER_SIZE) < length) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        if ((int) crc.getValue() != header.getInt(4)) {
+            return null;
+        }
+
+        body.flip();
+        int score = body.getInt();
+        long sentAt = body.getLong();
+        int outcome = body.get();
+        if (outcome < 0 || outcome >= Outcome.values().length) {
+            return null;
+        }
+        String uri = new String(body.array(), RECORD_FIXED_SIZE, length - RECORD_FIXED_SIZE, StandardCharsets.UTF_8);
+        return new Entry(uri, score, sentAt, Outcome.values()[outcome]);
+    }
+
+    private int readFully(final ByteBuffer buffer, final long offset) throws IOException {
+        int read = 0;
+        while (buffer.hasRemaining()) {
+            int count = log.read(buffer, offset + read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        return read;
+    }
+
+    private static int recordSize(final Entry entry) {
+        return RECORD_HEADER_SIZE + RECORD_FIXED_SIZE + entry.getUri().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private static long hashOf(final String uri) {
+        long hash = HASH.hashString(uri, StandardCharsets.UTF_8).asLong();
+        // 0 marks an empty slot
+        return hash == 0 ? 1 : hash;
+    }
+
+    private int firstSlot(final long hash) {
+        return (int) Math.floorMod(hash, (long) capacity);
+    }
+
+    private int nextSlot(final int slot) {
+        return slot + 1 == capacity ? 0 : slot + 1;
+    }
+
+    private static int slotPosition(final int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+}
@@ -1,17 +1,36 @@
 package org.cru.contentscoring.core.listeners;
 
-import javax.jcr.Session;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
 
 import org.apache.sling.api.resource.ResourceResolver;
-import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.Queue;
+import org.apache.sling.event.jobs.QueueConfiguration;
 import org.apache.sling.event.jobs.consumer.JobConsumer;
 import org.apache.sling.settings.SlingSettingsService;
 import org.cru.commons.event.service.impl.ReplicationListenerOnPublishServiceImpl;
+import org.cru.contentscoring.core.queue.PathDebouncer;
 import org.cru.contentscoring.core.service.ContentScoreUpdateService;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.osgi.service.component.annotations.Activate;
 //import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,25 +38,137 @@ import com.day.cq.replication.ReplicationAction;
 import com.day.cq.replication.ReplicationActionType;
 import com.day.cq.wcm.api.Page;
 import com.day.cq.wcm.api.PageManager;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
 
+/**
+ * Scores the pages of replication jobs in groups. Jobs are taken asynchronously and held back until their page
+ * hasn't been activated again for a quiet window. A page activated again within the window is only scored once,
+ * the earlier jobs are finished right away. The pages that have become quiet are handed to the update service at
+ * once, so a tree activation doesn't map URLs and save once per page. Every job is finished as soon as the score of
+ * its own page is delivered, so one undelivered page doesn't fail or hold up the others of its group.
+ * <p>
+ * When many pages become quiet at once and they all live under one tree (as after a tree activation), the tree is
+ * scored in one go: one indexed query finds its scored pages, instead of each page being read on its own.
+ * <p>
+ * The number of jobs that can be held back is bounded by the max parallel jobs of the job queue, so the tree
+ * threshold is capped by it; otherwise no tree would ever get big enough.
+ */
 //@Component(
 //    service = JobConsumer.class,
 //    immediate = true,
 //    property = {
 //        JobConsumer.PROPERTY_TOPICS + "=" + ReplicationListenerOnPublishServiceImpl.SCORING_JOB_NAME})
+@Designate(ocd = IndexerJobConsumer.Config.class)
 public class IndexerJobConsumer implements JobConsumer {
-   
+
+    @ObjectClassDefinition
+    @interface Config {
+        @AttributeDefinition(
+                name = "Quiet Window",
+                description = "Time (in milliseconds) a page has to go without being activated again before it is "
+                        + "scored.")
+        long quietWindow();
+
+        @AttributeDefinition(
+                name = "Max Batch Size",
+                description = "Max number of pages scored as one group.")
+        int maxBatchSize();
+
+        @AttributeDefinition(
+                name = "Tree Threshold",
+                description = "Min number of quiet pages under one tree for the tree to be scored in one go. "
+                        + "Capped by the max parallel jobs of the job queue.")
+        int treeThreshold();
+
+        @AttributeDefinition(
+                name = "Max Pending Pages",
+                description = "Max number of pages held back; jobs for more pages fail and are retried later.")
+        int maxPending();
+    }
+
     private static final Logger LOG = LoggerFactory.getLogger(IndexerJobConsumer.class);
 
+    private static final String SUBSERVICE = "contentScoreSync";
+
+    static final String QUIET_WINDOW = "quietWindow";
+    private static final long DEFAULT_QUIET_WINDOW = 2000L;
+
+    static final String MAX_BATCH_SIZE = "maxBatchSize";
+    private static final int DEFAULT_MAX_BATCH_SIZE = 200;
+
+    static final String TREE_THRESHOLD = "treeThreshold";
+    private static final int DEFAULT_TREE_THRESHOLD = 100;
+
+    // A tree has to be below a site, e.g. /content/site
+    private static final int MIN_TREE_DEPTH = 2;
+
+    // A single page is never a tree
+    private static final int MIN_TREE_THRESHOLD = 2;
+
+    static final String MAX_PENDING = "maxPending";
+    private static final int DEFAULT_MAX_PENDING = 10000;
+
+    static final String DEBOUNCE_METRIC_PREFIX = "cru.contentscoring.indexer.debounce";
+
+    private static final long POLL_INTERVAL = 100L;
+
     @Reference(policyOption = ReferencePolicyOption.GREEDY)
-    private ResourceResolverFactory resolverFactory;
+    SystemUtils systemUtils;
 
     @Reference(policyOption = ReferencePolicyOption.GREEDY)
-    private ContentScoreUpdateService contentScoreUpdateService;
+    ContentScoreUpdateService contentScoreUpdateService;
 
     @Reference(policyOption = ReferencePolicyOption.GREEDY)
     private SlingSettingsService slingSettingsService;
 
+    @Reference(policyOption = ReferencePolicyOption.GREEDY)
+    MetricsService metricsService;
+
+    @Reference(policyOption = ReferencePolicyOption.GREEDY)
+    JobManager jobManager;
+
+    private PathDebouncer<AsyncHandler> pendingJobs;
+
+    private int maxBatchSize;
+    private int treeThreshold;
+    private int maxPending;
+
+    private volatile boolean stop;
+    private Thread batchThread;
+
+    @Activate
+    public void activate(final Map<String, Object> config) {
+        maxBatchSize = PropertiesUtil.toInteger(config.get(MAX_BATCH_SIZE), DEFAULT_MAX_BATCH_SIZE);
+        treeThreshold = PropertiesUtil.toInteger(config.get(TREE_THRESHOLD), DEFAULT_TREE_THRESHOLD);
+        maxPending = PropertiesUtil.toInteger(config.get(MAX_PENDING), DEFAULT_MAX_PENDING);
+        pendingJobs = new PathDebouncer<>(
+            PropertiesUtil.toLong(config.get(QUIET_WINDOW), DEFAULT_QUIET_WINDOW),
+            maxPending,
+            // The later activation of the same page is scored instead
+            AsyncHandler::ok,
+            metricsService,
+            DEBOUNCE_METRIC_PREFIX);
+
+        stop = false;
+        batchThread = new Thread(this::processBatches, "content-scoring-indexer");
+        batchThread.setDaemon(true);
+        batchThread.start();
+    }
+
+    @Deactivate
+    public void deactivate() {
+        stop = true;
+        if (batchThread != null) {
+            batchThread.interrupt();
+        }
+
+        // The job manager hands these jobs out again
+        for (AsyncHandler handler : pendingJobs.drain()) {
+            handler.failed();
+        }
+    }
+
     public JobResult process(final Job job) {
         if (!slingSettingsService.getRunModes().contains("author")) {
             LOG.debug("Not on the author environment, skipping");
@@ -47,33 +178,221 @@ public class IndexerJobConsumer implements JobConsumer {
         ReplicationAction action =
             (ReplicationAction) job.getProperty(ReplicationListenerOnPublishServiceImpl.EVENT_PARAM);
         LOG.debug("Processing content scoring job on: {}", action.getPath());
+        LOG.debug("ReplicationActionType: " + action.getType());
 
-        try (ResourceResolver resourceResolver = resolverFactory.getServiceResourceResolver(null)) {
-            Session session = resourceResolver.adaptTo(Session.class);
-            PageManager pageManager = resourceResolver.adaptTo(PageManager.class);
-            Page page = pageManager.getPage(action.getPath());
+        if (!ReplicationActionType.ACTIVATE.equals(action.getType())
+                && !ReplicationActionType.INTERNAL_POLL.equals(action.getType())) {
+            return JobResult.OK;
+        }
 
-            if (page != null) {
-                LOG.debug("ReplicationActionType: " + action.getType());
+        AsyncHandler handler = (AsyncHandler) job.getProperty(JobConsumer.PROPERTY_JOB_ASYNC_HANDLER);
+        if (stop || handler == null) {
+            return JobResult.FAILED;
+        }
 
-                if (ReplicationActionType.ACTIVATE.equals(action.getType())
-                        || ReplicationActionType.INTERNAL_POLL.equals(action.getType()))
-                {
+        if (!pendingJobs.offer(action.getPath(), handler)) {
+            LOG.warn("Too many pages waiting to be scored, retrying {} later", action.getPath());
+            return JobResult.FAILED;
+        }
+        return JobResult.ASYNC;
+    }
+
+    private void processBatches() {
+        while (!stop) {
+            try {
+                List<Map.Entry<String, AsyncHandler>> quietJobs = pendingJobs.pollQuiet(maxPending);
+                if (quietJobs.isEmpty()) {
+                    Thread.sleep(POLL_INTERVAL);
+                } else {
+                    processQuietJobs(quietJobs);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void processQuietJobs(final List<Map.Entry<String, AsyncHandler>> quietJobs) {
+        if (quietJobs.size() >= effectiveTreeThreshold()) {
+            Set<String> paths = new LinkedHashSet<>();
+            for (Map.Entry<String, AsyncHandler> quietJob : quietJobs) {
+                paths.add(quietJob.getKey());
+            }
+            String rootPath = commonAncestor(paths);
+            if (depthOf(rootPath) >= MIN_TREE_DEPTH) {
+                processTree(rootPath, paths, quietJobs);
+                return;
+            }
+        }
+
+        for (List<Map.Entry<String, AsyncHandler>> batch : Lists.partition(quietJobs, maxBatchSize)) {
+            processBatch(batch);
+        }
+    }
 
-                    LOG.debug("{} path={} ", action.getType(), action.getPath());
+    private void processTree(
+        final String rootPath,
+        final Set<String> paths,
+        final List<Map.Entry<String, AsyncHandler>> quietJobs) {
 
-                    contentScoreUpdateService.updateContentScore(page);
-                    session.save();
+        LOG.debug("Scoring {} replicated pages under {} as one tree", paths.size(), rootPath);
+
+        Map<String, CompletionStage<Void>> deliveries;
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            deliveries = contentScoreUpdateService.updateContentScoresInTree(
+                lease.getResourceResolver(),
+                rootPath,
+                paths);
+        } catch (Exception e) {
+            LOG.error("Failed to process {} incoming jobs under {}: ", quietJobs.size(), rootPath, e);
+            finish(quietJobs, false);
+            return;
+        }
+        finishOnDelivery(quietJobs, deliveries);
+    }
+
+    /**
+     * @return the configured tree threshold, capped by the number of jobs the job queue lets this consumer hold
+     */
+    @VisibleForTesting
+    int effectiveTreeThreshold() {
+        int maxParallel = maxParallelJobs();
+        if (maxParallel <= 0) {
+            return treeThreshold;
+        }
+        return Math.max(MIN_TREE_THRESHOLD, Math.min(treeThreshold, maxParallel));
+    }
+
+    private int maxParallelJobs() {
+        QueueConfiguration mainQueue = null;
+        for (Queue queue : jobManager.getQueues()) {
+            QueueConfiguration configuration = queue.getConfiguration();
+            if (configuration == null) {
+                continue;
+            }
+            String[] topics = configuration.getTopics();
+            if (topics == null || topics.length == 0) {
+                // Takes the jobs no other queue is configured for
+                mainQueue = configuration;
+            } else if (handlesTopic(topics, ReplicationListenerOnPublishServiceImpl.SCORING_JOB_NAME)) {
+                return maxParallelOf(configuration);
+            }
+        }
+        return mainQueue == null ? -1 : maxParallelOf(mainQueue);
+    }
+
+    private static int maxParallelOf(final QueueConfiguration configuration) {
+        // -1 stands for the number of cores
+        return configuration.getMaxParallel() == -1
+            ? Runtime.getRuntime().availableProcessors()
+            : configuration.getMaxParallel();
+    }
+
+    @VisibleForTesting
+    static boolean handlesTopic(final String[] topics, final String topic) {
+        for (String queueTopic : topics) {
+            if (queueTopic.equals(topic)) {
+                return true;
+            }
+            if (queueTopic.endsWith("/**")
+                    && topic.startsWith(queueTopic.substring(0, queueTopic.length() - 2))) {
+                return true;
+            }
+            if (queueTopic.endsWith("/*")) {
+                String prefix = queueTopic.substring(0, queueTopic.length() - 1);
+                if (topic.startsWith(prefix) && topic.indexOf('/', prefix.length()) == -1) {
+                    return true;
                 }
-            } else {
-                LOG.debug("Page was null for {}", action.getPath());
             }
-            return JobResult.OK;
+        }
+        return false;
+    }
+
+    @VisibleForTesting
+    static String commonAncestor(final Collection<String> paths) {
+        String ancestor = null;
+        for (String path : paths) {
+            if (ancestor == null) {
+                ancestor = path;
+                continue;
+            }
+            while (!path.equals(ancestor) && !path.startsWith(ancestor + "/")) {
+                ancestor = ResourceUtil.getParent(ancestor);
+                if (ancestor == null || "/".equals(ancestor)) {
+                    return "/";
+                }
+            }
+        }
+        return ancestor == null ? "/" : ancestor;
+    }
+
+    private static int depthOf(final String path) {
+        return "/".equals(path) ? 0 : path.split("/").length - 1;
+    }
+
+    @VisibleForTesting
+    void processBatch(final List<Map.Entry<String, AsyncHandler>> batch) {
+        LOG.debug("Scoring {} replicated pages as one group", batch.size());
+
+        Map<String, CompletionStage<Void>> deliveries;
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            ResourceResolver resourceResolver = lease.getResourceResolver();
+            PageManager pageManager = resourceResolver.adaptTo(PageManager.class);
+
+            List<Page> pages = new ArrayList<>(batch.size());
+            for (Map.Entry<String, AsyncHandler> pendingJob : batch) {
+                Page page = pageManager.getPage(pendingJob.getKey());
+                if (page != null) {
+                    pages.add(page);
+                } else {
+                    LOG.debug("Page was null for {}", pendingJob.getKey());
+                }
+            }
+
+            // Saves the updated dates itself, in one commit
+            deliveries = contentScoreUpdateService.updateContentScores(pages);
         } catch (Exception e) {
-            LOG.error("Failed to process incoming job: ", e);
-            return JobResult.FAILED;
+            LOG.error("Failed to process {} incoming jobs: ", batch.size(), e);
+            finish(batch, false);
+            return;
+        }
+
+        finishOnDelivery(batch, deliveries);
+    }
+
+    private void finishOnDelivery(
+        final List<Map.Entry<String, AsyncHandler>> batch,
+        final Map<String, CompletionStage<Void>> deliveries) {
+
+        for (Map.Entry<String, AsyncHandler> pendingJob : batch) {
+            CompletionStage<Void> delivery = deliveries.get(pendingJob.getKey());
+            if (delivery == null) {
+                // Nothing to send for this page (no score, or the API already has it)
+                pendingJob.getValue().ok();
+                continue;
+            }
+
+            // The job stays active until the API accepted the score, so an undelivered score is retried as a job
+            delivery.whenComplete((result, e) -> {
+                if (e != null) {
+                    LOG.warn("Failed to deliver the score of {}", pendingJob.getKey(), e);
+                    pendingJob.getValue().failed();
+                } else {
+                    pendingJob.getValue().ok();
+                }
+            });
         }
     }
 
-    
+    private void finish(final List<Map.Entry<String, AsyncHandler>> batch, final boolean succeeded) {
+        for (Map.Entry<String, AsyncHandler> pendingJob : batch) {
+            if (succeeded) {
+                pendingJob.getValue().ok();
+            } else {
+                pendingJob.getValue().failed();
+            }
+        }
+    }
 }
@@ -0,0 +1,161 @@
+package org.cru.contentscoring.core.models;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * The progress of one score backfill, as checkpointed in the repository. Throughput and ETA are measured over the
+ * current run only, so time spent waiting for a restart doesn't count.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "id",
+    "rootPath",
+    "state",
+    "total",
+    "processed",
+    "scored",
+    "started",
+    "updated",
+    "pagesPerSecond",
+    "etaSeconds"})
+public class BackfillStatus {
+    public enum State {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    private final String id;
+    private final String rootPath;
+    private State state;
+    private long total = -1;
+    private long processed;
+    private String lastPath;
+    private long scored;
+    private long started;
+    private long updated;
+    private long runStarted;
+    private long runStartProcessed;
+
+    public BackfillStatus(final String id, final String rootPath) {
+        this.id = id;
+        this.rootPath = rootPath;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(final State state) {
+        this.state = state;
+    }
+
+    /**
+     * @return the number of scored pages under the root, or -1 if they haven't been counted yet
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(final long total) {
+        this.total = total;
+    }
+
+    /**
+     * @return the number of query results that have been handled
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(final long processed) {
+        this.processed = processed;
+    }
+
+    /**
+     * @return the path of the last query result that has been handled, which is where a restart resumes, or null
+     *         if none has been
+     */
+    @JsonIgnore
+    public String getLastPath() {
+        return lastPath;
+    }
+
+    public void setLastPath(final String lastPath) {
+        this.lastPath = lastPath;
+    }
+
+    public long getScored() {
+        return scored;
+    }
+
+    public void setScored(final long scored) {
+        this.scored = scored;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    public void setStarted(final long started) {
+        this.started = started;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(final long updated) {
+        this.updated = updated;
+    }
+
+    @JsonIgnore
+    public long getRunStarted() {
+        return runStarted;
+    }
+
+    public void setRunStarted(final long runStarted) {
+        this.runStarted = runStarted;
+    }
+
+    @JsonIgnore
+    public long getRunStartProcessed() {
+        return runStartProcessed;
+    }
+
+    public void setRunStartProcessed(final long runStartProcessed) {
+        this.runStartProcessed = runStartProcessed;
+    }
+
+    /**
+     * @return the pages handled per second in the current run, or null if it isn't running
+     */
+    public Double getPagesPerSecond() {
+        if (state != State.RUNNING || updated <= runStarted) {
+            return null;
+        }
+        return (processed - runStartProcessed) * 1000.0 / (updated - runStarted);
+    }
+
+    /**
+     * @return the estimated seconds until the backfill is done, or null if there is no estimate
+     */
+    public Long getEtaSeconds() {
+        Double pagesPerSecond = getPagesPerSecond();
+        if (pagesPerSecond == null || pagesPerSecond <= 0 || total < 0) {
+            return null;
+        }
+        return Math.round(Math.max(0, total - processed) / pagesPerSecond);
+    }
+}
@@ -0,0 +1,174 @@
+package org.cru.contentscoring.core.models;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * The progress of one run of moving legacy score properties to score tags, as checkpointed in the repository.
+ * Throughput is measured over the current run only.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "id",
+    "rootPath",
+    "parallelism",
+    "state",
+    "processed",
+    "skipped",
+    "replicated",
+    "pauseMillis",
+    "started",
+    "updated",
+    "pagesPerSecond"})
+public class CopyScoresToTagsStatus {
+    public enum State {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    private final String id;
+    private final String rootPath;
+    private int parallelism = 1;
+    private State state;
+    private long processed;
+    private long skipped;
+    private String lastPath;
+    private long replicated;
+    private long pauseMillis;
+    private long started;
+    private long updated;
+    private long runStarted;
+    private long runStartProcessed;
+
+    public CopyScoresToTagsStatus(final String id, final String rootPath) {
+        this.id = id;
+        this.rootPath = rootPath;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    /**
+     * @return the number of subtrees worked on at the same time
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(final int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(final State state) {
+        this.state = state;
+    }
+
+    /**
+     * @return the number of pages whose score was moved to a tag
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(final long processed) {
+        this.processed = processed;
+    }
+
+    /**
+     * @return the number of pages that still have a score property, because it couldn't be moved
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(final long skipped) {
+        this.skipped = skipped;
+    }
+
+    /**
+     * @return the path of the last page handled by a run that isn't parallel, which is where it continues, or null
+     */
+    @JsonIgnore
+    public String getLastPath() {
+        return lastPath;
+    }
+
+    public void setLastPath(final String lastPath) {
+        this.lastPath = lastPath;
+    }
+
+    public long getReplicated() {
+        return replicated;
+    }
+
+    public void setReplicated(final long replicated) {
+        this.replicated = replicated;
+    }
+
+    /**
+     * @return the current pause between commits, which grows while the repository is busy
+     */
+    public long getPauseMillis() {
+        return pauseMillis;
+    }
+
+    public void setPauseMillis(final long pauseMillis) {
+        this.pauseMillis = pauseMillis;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    public void setStarted(final long started) {
+        this.started = started;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(final long updated) {
+        this.updated = updated;
+    }
+
+    @JsonIgnore
+    public long getRunStarted() {
+        return runStarted;
+    }
+
+    public void setRunStarted(final long runStarted) {
+        this.runStarted = runStarted;
+    }
+
+    @JsonIgnore
+    public long getRunStartProcessed() {
+        return runStartProcessed;
+    }
+
+    public void setRunStartProcessed(final long runStartProcessed) {
+        this.runStartProcessed = runStartProcessed;
+    }
+
+    /**
+     * @return the pages processed per second in the current run, or null if it isn't running
+     */
+    public Double getPagesPerSecond() {
+        if (state != State.RUNNING || updated <= runStarted) {
+            return null;
+        }
+        return (processed - runStartProcessed) * 1000.0 / (updated - runStarted);
+    }
+}
@@ -0,0 +1,143 @@
+package org.cru.contentscoring.core.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * The outcome of one reconciliation of the scores under a root with those the scoring API holds, as checkpointed in
+ * the repository.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({
+    "id",
+    "rootPath",
+    "scope",
+    "state",
+    "pages",
+    "uris",
+    "digestsCompared",
+    "differingBuckets",
+    "sent",
+    "started",
+    "updated"})
+public class ReconciliationStatus {
+    public enum State {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED
+    }
+
+    private final String id;
+    private final String rootPath;
+    private String scope;
+    private State state;
+    private long pages;
+    private long uris;
+    private long digestsCompared;
+    private long differingBuckets;
+    private long sent;
+    private long started;
+    private long updated;
+
+    public ReconciliationStatus(final String id, final String rootPath) {
+        this.id = id;
+        this.rootPath = rootPath;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    /**
+     * @return the URI prefix of the root, which the scores are compared under
+     */
+    public String getScope() {
+        return scope;
+    }
+
+    public void setScope(final String scope) {
+        this.scope = scope;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(final State state) {
+        this.state = state;
+    }
+
+    /**
+     * @return the number of scored pages under the root
+     */
+    public long getPages() {
+        return pages;
+    }
+
+    public void setPages(final long pages) {
+        this.pages = pages;
+    }
+
+    /**
+     * @return the number of URIs of those pages within the scope
+     */
+    public long getUris() {
+        return uris;
+    }
+
+    public void setUris(final long uris) {
+        this.uris = uris;
+    }
+
+    /**
+     * @return the number of tree digests that were fetched and compared, which is all that is transferred when
+     *         nothing differs
+     */
+    public long getDigestsCompared() {
+        return digestsCompared;
+    }
+
+    public void setDigestsCompared(final long digestsCompared) {
+        this.digestsCompared = digestsCompared;
+    }
+
+    public long getDifferingBuckets() {
+        return differingBuckets;
+    }
+
+    public void setDifferingBuckets(final long differingBuckets) {
+        this.differingBuckets = differingBuckets;
+    }
+
+    /**
+     * @return the number of URIs in the differing buckets whose scores were sent
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    public void setSent(final long sent) {
+        this.sent = sent;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    public void setStarted(final long started) {
+        this.started = started;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(final long updated) {
+        this.updated = updated;
+    }
+}
@@ -0,0 +1,28 @@
+package org.cru.contentscoring.core.models;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * One entry of a bulk score sync, as sent by the scale-of-belief lambda.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ScoreSyncItem {
+    private String uri;
+    private Integer score;
+
+    public String getUri() {
+        return uri;
+    }
+
+    public void setUri(final String uri) {
+        this.uri = uri;
+    }
+
+    public Integer getScore() {
+        return score;
+    }
+
+    public void setScore(final Integer score) {
+        this.score = score;
+    }
+}
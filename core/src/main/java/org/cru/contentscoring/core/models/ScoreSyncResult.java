@@ -0,0 +1,57 @@
+package org.cru.contentscoring.core.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * The outcome of one entry of a bulk score sync.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({"uri", "path", "status", "message"})
+public class ScoreSyncResult {
+    public enum Status {
+        SYNCED,
+        SKIPPED,
+        INVALID,
+        NOT_FOUND,
+        FAILED
+    }
+
+    private String uri;
+    private String path;
+    private Status status;
+    private String message;
+
+    public ScoreSyncResult(final String uri, final Status status) {
+        this.uri = uri;
+        this.status = status;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(final String path) {
+        this.path = path;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(final Status status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(final String message) {
+        this.message = message;
+    }
+}
@@ -0,0 +1,118 @@
+package org.cru.contentscoring.core.provider;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.cru.contentscoring.core.service.VanityPathIndexService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The reverse of {@link AbsolutePathUriProvider} and {@link VanityPathUriProvider}: determines the path of the page
+ * behind an external URL from the same /etc/map.publish.[environment] rules, without asking a publisher.
+ */
+public class ExternalUrlPathProvider {
+    private static final Logger LOG = LoggerFactory.getLogger(ExternalUrlPathProvider.class);
+
+    private static final String HTML_EXTENSION = ".html";
+    private static final String INTERNAL_REDIRECT = "sling:internalRedirect";
+    private static final String MATCH = "sling:match";
+
+    private final String environment;
+    private final VanityPathIndexService vanityPathIndexService;
+
+    public ExternalUrlPathProvider(final String environment, final VanityPathIndexService vanityPathIndexService) {
+        this.environment = environment;
+        this.vanityPathIndexService = vanityPathIndexService;
+    }
+
+    /**
+     * @return the path of the page served at the given URL, or null if it can't be determined locally
+     */
+    public String toPath(final URI uri, final ResourceResolver resourceResolver) {
+        Resource slingMap = findSlingMap(uri, resourceResolver);
+        if (slingMap == null) {
+            LOG.debug("No sling map found for {}", uri);
+            return null;
+        }
+
+        String internalRedirect = slingMap.getValueMap().get(INTERNAL_REDIRECT, String.class);
+        String externalPath = uri.getPath() == null ? "" : uri.getPath();
+
+        if (externalPath.endsWith(HTML_EXTENSION)) {
+            String path = externalPath.substring(0, externalPath.length() - HTML_EXTENSION.length());
+            return findPage(candidatePaths(path, internalRedirect), resourceResolver);
+        }
+
+        Set<String> candidates = candidatePaths(externalPath, internalRedirect);
+        for (String candidate : candidates) {
+            String pagePath = vanityPathIndexService.getPagePath(candidate);
+            if (pagePath != null) {
+                return pagePath;
+            }
+        }
+
+        // Extensionless URLs that aren't vanity paths, e.g. the home page of a site
+        return findPage(candidates, resourceResolver);
+    }
+
+    private Resource findSlingMap(final URI uri, final ResourceResolver resourceResolver) {
+        if (uri.getScheme() == null || uri.getHost() == null) {
+            return null;
+        }
+
+        String root = UriProviderUtil.getInstance(environment).getSlingMapRoot();
+        Resource protocolRoot = resourceResolver.getResource(root + "/" + uri.getScheme());
+        if (protocolRoot == null) {
+            return null;
+        }
+
+        String hostName = uri.getPort() == -1 ? uri.getHost() : uri.getHost() + "." + uri.getPort();
+        Resource slingMap = protocolRoot.getChild(hostName);
+        if (isForwardMap(slingMap)) {
+            return slingMap;
+        }
+
+        for (Resource child : protocolRoot.getChildren()) {
+            if (hostName.equals(child.getValueMap().get(MATCH, String.class)) && isForwardMap(child)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    private boolean isForwardMap(final Resource slingMap) {
+        // Names with an underscore hold the reverse mappings, see UriProviderUtil
+        return slingMap != null
+            && !slingMap.getName().contains("_")
+            && slingMap.getValueMap().get(INTERNAL_REDIRECT, String.class) != null;
+    }
+
+    private Set<String> candidatePaths(final String externalPath, final String internalRedirect) {
+        Set<String> candidates = new LinkedHashSet<>();
+        if (externalPath.startsWith(internalRedirect + "/") || externalPath.equals(internalRedirect)) {
+            candidates.add(externalPath);
+        }
+
+        String relativePath = "/".equals(externalPath) ? "" : externalPath;
+        candidates.add(internalRedirect + relativePath);
+
+        if (!relativePath.isEmpty()) {
+            candidates.add(externalPath);
+        }
+        return candidates;
+    }
+
+    private String findPage(final Set<String> candidates, final ResourceResolver resourceResolver) {
+        for (String candidate : candidates) {
+            Resource resource = resourceResolver.getResource(candidate);
+            if (resource != null && "cq:Page".equals(resource.getResourceType())) {
+                return resource.getPath();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,49 @@
+package org.cru.contentscoring.core.provider;
+
+import java.net.URI;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+
+import com.day.cq.commons.jcr.JcrConstants;
+
+/**
+ * Determines the public URIs of a page from the local sling mapping, the same way the URL mapper servlet does on a
+ * publisher: the URI of the page path, plus those of its vanity paths unless they redirect to the page path.
+ */
+public class PageUriProvider {
+    private static final String VANITY_PATH = "sling:vanityPath";
+    private static final String VANITY_REDIRECT = "sling:redirect";
+
+    private final AbsolutePathUriProvider absolutePathUriProvider;
+    private final VanityPathUriProvider vanityPathUriProvider;
+
+    public PageUriProvider(final String environment) {
+        absolutePathUriProvider = new AbsolutePathUriProvider(environment);
+        vanityPathUriProvider = new VanityPathUriProvider(environment);
+    }
+
+    public Set<String> toUris(final Resource page, final ResourceResolver resourceResolver) {
+        Set<String> uris = new LinkedHashSet<>();
+        URI absoluteUri = absolutePathUriProvider.toURI(page, resourceResolver);
+        if (absoluteUri != null) {
+            uris.add(absoluteUri.toString());
+        }
+
+        Resource content = page.getChild(JcrConstants.JCR_CONTENT);
+        ValueMap properties = content == null ? ValueMap.EMPTY : content.getValueMap();
+        // A redirecting vanity URL is never actually landed upon
+        if (!properties.get(VANITY_REDIRECT, false)) {
+            for (String vanityPath : properties.get(VANITY_PATH, new String[0])) {
+                URI vanityUri = vanityPathUriProvider.toURI(vanityPath, resourceResolver);
+                if (vanityUri != null) {
+                    uris.add(vanityUri.toString());
+                }
+            }
+        }
+        return uris;
+    }
+}
@@ -4,7 +4,13 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
 
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
+
 public class UriProviderUtil {
+    private static final Set<String> POSSIBLE_ENVIRONMENTS = ImmutableSet.of("dev", "stage", "prod");
+
     private String environment;
 
     private UriProviderUtil(final String environment) {
@@ -15,8 +21,27 @@ public class UriProviderUtil {
         return new UriProviderUtil(environment);
     }
 
+    /**
+     * Picks the environment (dev, stage or prod) out of the given run modes. The environment determines
+     * which /etc/map.publish.[environment] tree is used for mapping.
+     *
+     * @throws IllegalStateException if none of the run modes is an environment
+     */
+    public static String determineEnvironment(final Set<String> runModes) {
+        for (String runMode : runModes) {
+            if (POSSIBLE_ENVIRONMENTS.contains(runMode)) {
+                return runMode;
+            }
+        }
+        throw new IllegalStateException("Failed to determine environment");
+    }
+
+    public String getSlingMapRoot() {
+        return "/etc/map.publish." + environment;
+    }
+
     public Resource determineSlingMap(final String path, final ResourceResolver resourceResolver) {
-        String httpsPath = "/etc/map.publish." + environment + "/https";
+        String httpsPath = getSlingMapRoot() + "/https";
         Resource httpsRoot = resourceResolver.getResource(httpsPath);
 
         Resource slingMap = null;
@@ -24,7 +49,7 @@ public class UriProviderUtil {
             slingMap = loopThroughSlingMaps(httpsRoot, path);
         }
 
-        String httpPath = "/etc/map.publish." + environment + "/http";
+        String httpPath = getSlingMapRoot() + "/http";
         Resource httpRoot = resourceResolver.getResource(httpPath);
         if (httpRoot != null && slingMap == null) {
             slingMap = loopThroughSlingMaps(httpRoot, path);
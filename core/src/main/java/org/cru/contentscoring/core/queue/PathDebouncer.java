@@ -0,0 +1,126 @@
+package org.cru.contentscoring.core.queue;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Meter;
+import org.apache.sling.commons.metrics.MetricsService;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Holds back work per page path until the path has been quiet for a while. When more work comes in for a path
+ * that is still held back, it replaces the held back work (which is handed to the collapse handler) and the quiet
+ * window starts over, so only the last one is processed. The number of held back paths is bounded.
+ */
+public class PathDebouncer<T> {
+    private final long quietWindowMillis;
+    private final int maxPending;
+    private final Consumer<T> collapseHandler;
+
+    // Ordered by the time a path was last seen, oldest first
+    private final LinkedHashMap<String, Pending<T>> pendingByPath = new LinkedHashMap<>();
+
+    private final Counter pending;
+    private final Meter collapsed;
+    private final Meter rejected;
+
+    public PathDebouncer(
+        final long quietWindowMillis,
+        final int maxPending,
+        final Consumer<T> collapseHandler,
+        final MetricsService metricsService,
+        final String metricPrefix) {
+
+        this.quietWindowMillis = quietWindowMillis;
+        this.maxPending = maxPending;
+        this.collapseHandler = collapseHandler;
+
+        pending = metricsService.counter(metricPrefix + ".pending");
+        collapsed = metricsService.meter(metricPrefix + ".collapsed");
+        rejected = metricsService.meter(metricPrefix + ".rejected");
+    }
+
+    /**
+     * @return false if the work was rejected because too many paths are held back
+     */
+    public boolean offer(final String path, final T value) {
+        T replaced;
+        synchronized (this) {
+            Pending<T> previous = pendingByPath.remove(path);
+            if (previous == null && pendingByPath.size() >= maxPending) {
+                rejected.mark();
+                return false;
+            }
+            pendingByPath.put(path, new Pending<>(value, currentTimeMillis()));
+            if (previous == null) {
+                pending.increment();
+                return true;
+            }
+            replaced = previous.value;
+        }
+
+        collapsed.mark();
+        collapseHandler.accept(replaced);
+        return true;
+    }
+
+    /**
+     * Takes out up to max paths that have been quiet for the whole window, oldest first.
+     */
+    public synchronized List<Map.Entry<String, T>> pollQuiet(final int max) {
+        List<Map.Entry<String, T>> quiet = new ArrayList<>();
+        long now = currentTimeMillis();
+
+        Iterator<Map.Entry<String, Pending<T>>> iterator = pendingByPath.entrySet().iterator();
+        while (iterator.hasNext() && quiet.size() < max) {
+            Map.Entry<String, Pending<T>> entry = iterator.next();
+            if (now - entry.getValue().lastSeen < quietWindowMillis) {
+                // Everything after this one was seen even later
+                break;
+            }
+            quiet.add(new SimpleImmutableEntry<>(entry.getKey(), entry.getValue().value));
+            iterator.remove();
+            pending.decrement();
+        }
+        return quiet;
+    }
+
+    /**
+     * Takes out everything that is held back, quiet or not.
+     */
+    public synchronized List<T> drain() {
+        List<T> values = new ArrayList<>(pendingByPath.size());
+        for (Pending<T> pendingValue : pendingByPath.values()) {
+            values.add(pendingValue.value);
+            pending.decrement();
+        }
+        pendingByPath.clear();
+        return values;
+    }
+
+    public synchronized int size() {
+        return pendingByPath.size();
+    }
+
+    @VisibleForTesting
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private static class Pending<T> {
+        private final T value;
+        private final long lastSeen;
+
+        Pending(final T value, final long lastSeen) {
+            this.value = value;
+            this.lastSeen = lastSeen;
+        }
+    }
+}
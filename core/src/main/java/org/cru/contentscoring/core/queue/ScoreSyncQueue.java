@@ -0,0 +1,242 @@
+package org.cru.contentscoring.core.queue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Applies incoming scores on a fixed number of lanes. Each page path always goes to the same lane, so scores for
+ * different pages are written in parallel while scores for one page are written in the order they came in.
+ * A score for a page that is still waiting replaces the waiting one, so only the latest score gets written.
+ * The number of waiting pages is bounded; scores beyond that are rejected.
+ * <p>
+ * Lanes write behind: a lane collects the scores that come in within a short window (up to a max number) and
+ * hands them to the writer as one group, so they can be saved in a single commit. If the group fails, its scores
+ * are written one by one, so one bad page doesn't fail the others.
+ */
+public class ScoreSyncQueue {
+    private static final Logger LOG = LoggerFactory.getLogger(ScoreSyncQueue.class);
+
+    static final String BACKLOG_METRIC = "cru.contentscoring.sync.queue.backlog";
+    static final String COALESCED_METRIC = "cru.contentscoring.sync.queue.coalesced";
+    static final String REJECTED_METRIC = "cru.contentscoring.sync.queue.rejected";
+    static final String FAILED_GROUPS_METRIC = "cru.contentscoring.sync.queue.failedGroups";
+
+    private static final long POLL_TIMEOUT = 1000L;
+
+    public interface ScoreWriter {
+        /**
+         * Writes all given scores, ideally in one commit. Either all scores are saved, or an exception is thrown.
+         */
+        void write(Map<String, Integer> scoresByPath) throws Exception;
+    }
+
+    private final int maxPending;
+    private final int maxGroupSize;
+    private final long groupWindowMillis;
+    private final ScoreWriter scoreWriter;
+
+    private final ConcurrentMap<String, Integer> pendingScores = new ConcurrentHashMap<>();
+    // Holds one permit per waiting page, so concurrent puts can't push the backlog past maxPending
+    private final Semaphore capacity;
+    private final Lane[] lanes;
+
+    private final Counter backlog;
+    private final Counter coalesced;
+    private final Counter rejected;
+    private final Counter failedGroups;
+
+    private volatile boolean stop;
+
+    public ScoreSyncQueue(
+        final int laneCount,
+        final int maxPending,
+        final int maxGroupSize,
+        final long groupWindowMillis,
+        final ScoreWriter scoreWriter,
+        final MetricsService metricsService) {
+
+        this.maxPending = maxPending;
+        capacity = new Semaphore(maxPending);
+        this.maxGroupSize = maxGroupSize;
+        this.groupWindowMillis = groupWindowMillis;
+        this.scoreWriter = scoreWriter;
+
+        backlog = metricsService.counter(BACKLOG_METRIC);
+        coalesced = metricsService.counter(COALESCED_METRIC);
+        rejected = metricsService.counter(REJECTED_METRIC);
+        failedGroups = metricsService.counter(FAILED_GROUPS_METRIC);
+
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i);
+            lanes[i].start();
+        }
+    }
+
+    /**
+     * @return false if the score was rejected because too many pages are waiting, or the queue is stopped
+     */
+    public boolean put(final String resourcePath, final int score) {
+        if (stop) {
+            return false;
+        }
+        if (!capacity.tryAcquire()) {
+            // A page that is already waiting holds a permit, it can still get a newer score
+            Integer previousScore = pendingScores.replace(resourcePath, score);
+            if (previousScore != null) {
+                LOG.debug("Replaced waiting score {} for {} with {}", previousScore, resourcePath, score);
+                coalesced.increment();
+                return true;
+            }
+            LOG.warn("Score sync backlog is full ({} pages), rejecting score for {}", maxPending, resourcePath);
+            rejected.increment();
+            return false;
+        }
+
+        Integer previousScore = pendingScores.put(resourcePath, score);
+        if (previousScore != null) {
+            capacity.release();
+            // The lane hasn't picked up the previous score yet, it will write this one instead
+            LOG.debug("Replaced waiting score {} for {} with {}", previousScore, resourcePath, score);
+            coalesced.increment();
+            return true;
+        }
+
+        backlog.increment();
+        laneOf(resourcePath).paths.offer(resourcePath);
+        return true;
+    }
+
+    public int getBacklog() {
+        return pendingScores.size();
+    }
+
+    /**
+     * Stops accepting scores and waits up to the given time for the lanes to write the waiting ones.
+     */
+    public void stop(final long timeoutMillis) {
+        stop = true;
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Lane lane : lanes) {
+            try {
+                lane.join(Math.max(1L, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        for (Lane lane : lanes) {
+            if (lane.isAlive()) {
+                lane.interrupt();
+            }
+        }
+        if (!pendingScores.isEmpty()) {
+            LOG.warn("Score sync queue stopped with {} scores not written", pendingScores.size());
+        }
+    }
+
+    @VisibleForTesting
+    int laneIndexOf(final String resourcePath) {
+        return Math.floorMod(resourcePath.hashCode(), lanes.length);
+    }
+
+    private Lane laneOf(final String resourcePath) {
+        return lanes[laneIndexOf(resourcePath)];
+    }
+
+    private void write(final List<String> resourcePaths) {
+        Map<String, Integer> scoresByPath = new LinkedHashMap<>();
+        for (String resourcePath : resourcePaths) {
+            Integer score = pendingScores.remove(resourcePath);
+            if (score != null) {
+                capacity.release();
+                backlog.decrement();
+                scoresByPath.put(resourcePath, score);
+            }
+        }
+        if (scoresByPath.isEmpty()) {
+            return;
+        }
+
+        try {
+            scoreWriter.write(scoresByPath);
+            return;
+        } catch (Exception e) {
+            if (scoresByPath.size() == 1) {
+                LOG.error("Failed to sync score(s) {}", scoresByPath, e);
+                return;
+            }
+            LOG.warn("Failed to sync {} scores at once, retrying one by one", scoresByPath.size(), e);
+            failedGroups.increment();
+        }
+
+        for (Map.Entry<String, Integer> scoreByPath : scoresByPath.entrySet()) {
+            try {
+                scoreWriter.write(Collections.singletonMap(scoreByPath.getKey(), scoreByPath.getValue()));
+            } catch (Exception e) {
+                LOG.error("Failed to sync score {} to {}", scoreByPath.getValue(), scoreByPath.getKey(), e);
+            }
+        }
+    }
+
+    private class Lane extends Thread {
+        private final BlockingQueue<String> paths = new LinkedBlockingQueue<>();
+
+        Lane(final int index) {
+            super("content-score-sync-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!stop || !paths.isEmpty()) {
+                try {
+                    String resourcePath = paths.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                    if (resourcePath != null) {
+                        write(collectGroup(resourcePath));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        private List<String> collectGroup(final String firstPath) throws InterruptedException {
+            List<String> group = new ArrayList<>();
+            group.add(firstPath);
+
+            long deadline = System.currentTimeMillis() + groupWindowMillis;
+            while (group.size() < maxGroupSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                String resourcePath = paths.poll(remaining, TimeUnit.MILLISECONDS);
+                if (resourcePath == null) {
+                    break;
+                }
+                group.add(resourcePath);
+            }
+            return group;
+        }
+    }
+}
@@ -12,9 +12,11 @@ import com.google.common.collect.Maps;
 import org.apache.commons.mail.Email;
 import org.apache.commons.mail.EmailException;
 import org.apache.commons.mail.HtmlEmail;
+import org.cru.contentscoring.core.ledger.ScoreLedger;
 import org.cru.contentscoring.core.models.ContentScoreUpdateRequest;
 import org.cru.contentscoring.core.models.ErrorResponse;
 import org.cru.contentscoring.core.models.RetryElement;
+import org.cru.contentscoring.core.service.ScoreLedgerService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,11 +35,26 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
+/**
+ * Sends score updates to the scoring API in batches. Besides the regular queue there is a bulk lane, used by
+ * backfills: its requests are only sent while the regular queue is empty, a limited number per batch, so scores of
+ * freshly activated pages never wait behind a backfill.
+ * <p>
+ * With a {@link ScoreLedgerService}, the outcome of every request is recorded once the API accepted it, or once
+ * the max number of retries is reached.
+ */
 public class UploadQueue implements Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(UploadQueue.class);
 
+    // Requests of the bulk lane sent per batch
+    static final int BULK_BATCH_SIZE = 100;
+
     private long waitTime;
     private int maxRetries;
     private boolean stop;
@@ -45,10 +62,18 @@ public class UploadQueue implements Runnable {
     private final UUID apiKey;
     private String errorEmailRecipients;
     private MessageGatewayService messageGatewayService;
+    private final ScoreLedgerService scoreLedgerService;
 
     private ConcurrentLinkedQueue<ContentScoreUpdateRequest> queue;
+    private ConcurrentLinkedQueue<ContentScoreUpdateRequest> bulkQueue;
     ArrayDeque<RetryElement> retryQueue;
 
+    // Requests don't override equals, so each put request has its own delivery
+    private final Map<ContentScoreUpdateRequest, CompletableFuture<Void>> deliveries = new ConcurrentHashMap<>();
+
+    // The latest request queued per URI, until the API accepted it or its retries are maxed
+    private final Map<String, ContentScoreUpdateRequest> queuedByUri = new ConcurrentHashMap<>();
+
     public UploadQueue(
         long waitTime,
         int maxRetries,
@@ -58,18 +83,44 @@ public class UploadQueue implements Runnable {
         MessageGatewayService messageGatewayService,
         List<ContentScoreUpdateRequest> pendingBatches) {
 
+        this(
+            waitTime,
+            maxRetries,
+            apiEndpoint,
+            apiKey,
+            errorEmailRecipients,
+            messageGatewayService,
+            pendingBatches,
+            null);
+    }
+
+    public UploadQueue(
+        long waitTime,
+        int maxRetries,
+        String apiEndpoint,
+        UUID apiKey,
+        String errorEmailRecipients,
+        MessageGatewayService messageGatewayService,
+        List<ContentScoreUpdateRequest> pendingBatches,
+        ScoreLedgerService scoreLedgerService) {
+
         this.waitTime = waitTime;
         this.maxRetries = maxRetries;
         this.apiEndpoint = apiEndpoint;
         this.apiKey = apiKey;
         this.errorEmailRecipients = errorEmailRecipients;
         this.messageGatewayService = messageGatewayService;
+        this.scoreLedgerService = scoreLedgerService;
 
         stop = false;
         queue = new ConcurrentLinkedQueue<>();
+        bulkQueue = new ConcurrentLinkedQueue<>();
         retryQueue = new ArrayDeque<>();
 
         if (pendingBatches != null && !pendingBatches.isEmpty()) {
+            for (ContentScoreUpdateRequest request : pendingBatches) {
+                queuedByUri.put(request.getUri(), request);
+            }
             queue.addAll(pendingBatches);
         }
     }
@@ -77,6 +128,7 @@ public class UploadQueue implements Runnable {
     public List<ContentScoreUpdateRequest> getPendingBatches() {
         List<ContentScoreUpdateRequest> pendingBatches =
             Lists.newArrayList(queue.toArray(new ContentScoreUpdateRequest[queue.size()]));
+        pendingBatches.addAll(bulkQueue);
 
         List<RetryElement> retryElements = Lists.newArrayList(retryQueue.toArray(new RetryElement[retryQueue.size()]));
         retryElements
@@ -87,32 +139,71 @@ public class UploadQueue implements Runnable {
         return pendingBatches;
     }
 
-    public void put(ContentScoreUpdateRequest request) {
-        queue.offer(request);
+    /**
+     * @return the score of the latest request for the URI that is still on its way to the API, or null if there is
+     *     none
+     */
+    public Integer getQueuedScore(String uri) {
+        ContentScoreUpdateRequest request = queuedByUri.get(uri);
+        return request == null ? null : request.getScore();
+    }
+
+    /**
+     * @return completes once the API accepted the score, or exceptionally once the max number of retries is reached
+     */
+    public CompletionStage<Void> put(ContentScoreUpdateRequest request) {
+        return enqueue(queue, request);
+    }
+
+    /**
+     * Puts the request in the bulk lane, which is only sent while there are no regular requests.
+     *
+     * @return completes once the API accepted the score, or exceptionally once the max number of retries is reached
+     */
+    public CompletionStage<Void> putBulk(ContentScoreUpdateRequest request) {
+        return enqueue(bulkQueue, request);
+    }
+
+    private CompletionStage<Void> enqueue(
+        ConcurrentLinkedQueue<ContentScoreUpdateRequest> lane,
+        ContentScoreUpdateRequest request) {
+
+        CompletableFuture<Void> delivery = new CompletableFuture<>();
+        deliveries.put(request, delivery);
+        queuedByUri.put(request.getUri(), request);
+        lane.offer(request);
         synchronized (this) {
             this.notify();
         }
+        return delivery;
     }
 
+    /**
+     * Stops sending. Deliveries that are still waiting are cancelled; the pending batches can be handed to a new
+     * queue, but that queue doesn't report their delivery.
+     */
     public void stop() {
         stop = true;
+        for (ContentScoreUpdateRequest request : new ArrayList<>(deliveries.keySet())) {
+            completeExceptionally(request, new CancellationException("Upload queue stopped"));
+        }
     }
 
     @Override
     public void run() {
         while (!stop) {
             try {
-                if (queue.isEmpty() && retryQueue.isEmpty()) {
+                if (queue.isEmpty() && bulkQueue.isEmpty() && retryQueue.isEmpty()) {
                     LOG.debug("Queue goes to sleep until a new element is available.");
                     synchronized (this) {
                         this.wait();
                     }
-                } else if (!queue.isEmpty()) {
+                } else if (!queue.isEmpty() || !bulkQueue.isEmpty()) {
                     if (waitTime > 0) {
                         LOG.debug("Queue waits {} seconds before sending next batch.", waitTime / 1000);
                         Thread.sleep(waitTime);
                     }
-                    LOG.debug("Queue size: {}", queue.size());
+                    LOG.debug("Queue size: {}, bulk lane size: {}", queue.size(), bulkQueue.size());
                     updateContentScoreRequest(getBatch());
                 }
                 if (!retryQueue.isEmpty()) {
@@ -130,6 +221,7 @@ public class UploadQueue implements Runnable {
     void updateContentScoreRequest(List<ContentScoreUpdateRequest> requests) {
         try {
             Map<ContentScoreUpdateRequest, String> failedRequests = sendRequestBatch(requests);
+            completeDelivered(requests, failedRequests);
 
             if (!failedRequests.isEmpty()) {
                 handleFailedFirstAttempt(new ArrayList<>(failedRequests.keySet()));
@@ -150,6 +242,7 @@ public class UploadQueue implements Runnable {
     void updateContentScoreRequest(RetryElement retryElement) throws EmailException, AddressException {
         try {
             Map<ContentScoreUpdateRequest, String> failedRequests = sendRequestBatch(retryElement.getBatch());
+            completeDelivered(retryElement.getBatch(), failedRequests);
 
             if (failedRequests.isEmpty()) {
                 LOG.info("RetryElement successfully indexed {}", retryElement.toString());
@@ -177,10 +270,45 @@ public class UploadQueue implements Runnable {
                 errorMessage);
 
             LOG.error(error);
+            for (ContentScoreUpdateRequest request : retryElement.getBatch()) {
+                record(request, ScoreLedger.Outcome.FAILED);
+                queuedByUri.remove(request.getUri(), request);
+                completeExceptionally(request, new IllegalStateException(error));
+            }
             sendEmail(error);
         }
     }
 
+    private void completeDelivered(
+        List<ContentScoreUpdateRequest> requests,
+        Map<ContentScoreUpdateRequest, String> failedRequests) {
+
+        for (ContentScoreUpdateRequest request : requests) {
+            if (!failedRequests.containsKey(request)) {
+                record(request, ScoreLedger.Outcome.ACCEPTED);
+                // Only after recording, so the URI is never neither queued nor in the ledger
+                queuedByUri.remove(request.getUri(), request);
+                CompletableFuture<Void> delivery = deliveries.remove(request);
+                if (delivery != null) {
+                    delivery.complete(null);
+                }
+            }
+        }
+    }
+
+    private void record(ContentScoreUpdateRequest request, ScoreLedger.Outcome outcome) {
+        if (scoreLedgerService != null) {
+            scoreLedgerService.recordSent(request.getUri(), request.getScore(), outcome);
+        }
+    }
+
+    private void completeExceptionally(ContentScoreUpdateRequest request, Throwable cause) {
+        CompletableFuture<Void> delivery = deliveries.remove(request);
+        if (delivery != null) {
+            delivery.completeExceptionally(cause);
+        }
+    }
+
     @VisibleForTesting
     void sendEmail(String error) throws EmailException, AddressException {
         MessageGateway<HtmlEmail> messageGateway = messageGatewayService.getGateway(HtmlEmail.class);
@@ -262,7 +390,8 @@ public class UploadQueue implements Runnable {
         return errorResponse.getMessage();
     }
 
-    private List<ContentScoreUpdateRequest> getBatch() throws JsonProcessingException {
+    @VisibleForTesting
+    List<ContentScoreUpdateRequest> getBatch() throws JsonProcessingException {
         List<ContentScoreUpdateRequest> requests = Lists.newArrayList();
         ContentScoreUpdateRequest nextRequest = queue.poll();
 
@@ -270,6 +399,19 @@ public class UploadQueue implements Runnable {
             requests.add(nextRequest);
             nextRequest = queue.poll();
         }
+        if (!requests.isEmpty()) {
+            return requests;
+        }
+
+        // Only when nothing else is waiting
+        nextRequest = bulkQueue.poll();
+        while (nextRequest != null) {
+            requests.add(nextRequest);
+            if (requests.size() == BULK_BATCH_SIZE) {
+                break;
+            }
+            nextRequest = bulkQueue.poll();
+        }
         return requests;
     }
 }
@@ -0,0 +1,65 @@
+package org.cru.contentscoring.core.reconciliation;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Asks the digest endpoint of the scoring API for the digests of its tree. The request names the scope, the level,
+ * the node indexes and the shape of the tree; the response is a JSON array of the digests.
+ */
+public class ApiScoreDigestSource implements ScoreDigestSource {
+    private final Client client;
+    private final String digestEndpoint;
+    private final UUID apiKey;
+
+    public ApiScoreDigestSource(final Client client, final String digestEndpoint, final UUID apiKey) {
+        this.client = client;
+        this.digestEndpoint = digestEndpoint;
+        this.apiKey = apiKey;
+    }
+
+    @Override
+    public List<String> getDigests(final String scope, final int level, final List<Integer> indexes)
+        throws IOException {
+
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("scope", scope);
+        request.put("fanout", ScoreHashTree.FANOUT);
+        request.put("depth", ScoreHashTree.DEPTH);
+        request.put("level", level);
+        request.put("indexes", indexes);
+
+        Response response = client
+            .target(digestEndpoint)
+            .request(MediaType.APPLICATION_JSON)
+            .header("X-Api-Key", apiKey)
+            .post(Entity.entity(request, MediaType.APPLICATION_JSON));
+        try {
+            if (response.getStatus() != 200) {
+                throw new IOException(
+                    "Digest request for " + scope + " failed with status " + response.getStatus());
+            }
+            List<String> digests = response.readEntity(new GenericType<List<String>>(){});
+            if (digests == null || digests.size() != indexes.size()) {
+                throw new IOException("Digest response for " + scope + " doesn't match the requested nodes");
+            }
+            return digests;
+        } finally {
+            response.close();
+        }
+    }
+
+    @Override
+    public void reconciled(final String scope, final ScoreHashTree tree) {
+        // The API updates its own tree as it accepts scores
+    }
+}
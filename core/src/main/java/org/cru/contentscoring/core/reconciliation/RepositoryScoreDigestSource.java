@@ -0,0 +1,89 @@
+package org.cru.contentscoring.core.reconciliation;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.cru.contentscoring.core.service.RepositoryWriteService;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.SystemUtils;
+
+import com.day.cq.commons.jcr.JcrUtil;
+import com.google.common.hash.Hashing;
+
+/**
+ * Stands in for the digest endpoint of the scoring API while it has none. Keeps the tree of the last reconciliation
+ * of a scope under {@link #DIGESTS_ROOT} as what the API holds, since every differing pair was sent to it then.
+ * Scores sent outside of reconciliations aren't seen, so their buckets are sent again on the next one.
+ */
+public class RepositoryScoreDigestSource implements ScoreDigestSource {
+    static final String DIGESTS_ROOT = "/var/cru/content-scoring/reconciliation/digests";
+    static final String PN_SCOPE = "scope";
+    static final String PN_LEVEL = "level";
+
+    private final SystemUtils systemUtils;
+    private final RepositoryWriteService repositoryWriteService;
+    private final String subservice;
+
+    public RepositoryScoreDigestSource(
+        final SystemUtils systemUtils,
+        final RepositoryWriteService repositoryWriteService,
+        final String subservice) {
+
+        this.systemUtils = systemUtils;
+        this.repositoryWriteService = repositoryWriteService;
+        this.subservice = subservice;
+    }
+
+    @Override
+    public List<String> getDigests(final String scope, final int level, final List<Integer> indexes)
+        throws IOException {
+
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(subservice)) {
+            Resource digests = lease.getResourceResolver().getResource(pathOf(scope));
+            String[] levelDigests = digests == null
+                ? new String[0]
+                : digests.getValueMap().get(PN_LEVEL + level, new String[0]);
+
+            List<String> result = new ArrayList<>(indexes.size());
+            for (int index : indexes) {
+                result.add(index < levelDigests.length ? levelDigests[index] : null);
+            }
+            return result;
+        } catch (LoginException e) {
+            throw new IOException("Failed to read the digests of " + scope, e);
+        }
+    }
+
+    @Override
+    public void reconciled(final String scope, final ScoreHashTree tree) throws IOException {
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(subservice)) {
+            Session session = lease.getResourceResolver().adaptTo(Session.class);
+            repositoryWriteService.write(session, () -> {
+                Node digests = JcrUtil.createPath(pathOf(scope), "sling:Folder", "nt:unstructured", session, false);
+                digests.setProperty(PN_SCOPE, scope);
+                for (int level = 0; level <= ScoreHashTree.DEPTH; level++) {
+                    String[] levelDigests = new String[ScoreHashTree.size(level)];
+                    for (int index = 0; index < levelDigests.length; index++) {
+                        levelDigests[index] = tree.getDigest(level, index);
+                    }
+                    digests.setProperty(PN_LEVEL + level, levelDigests);
+                }
+                return true;
+            });
+        } catch (LoginException | RepositoryException e) {
+            throw new IOException("Failed to save the digests of " + scope, e);
+        }
+    }
+
+    private static String pathOf(final String scope) {
+        return DIGESTS_ROOT + "/" + Hashing.murmur3_128().hashString(scope, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,20 @@
+package org.cru.contentscoring.core.reconciliation;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The {@link ScoreHashTree} of the scores the scoring API holds. A scope is a URI prefix; the tree of a scope holds
+ * the URIs equal to it or continuing it with a '.' or '/'.
+ */
+public interface ScoreDigestSource {
+    /**
+     * @return the digests of the given nodes of one level, in the same order, with null for unknown nodes
+     */
+    List<String> getDigests(String scope, int level, List<Integer> indexes) throws IOException;
+
+    /**
+     * Told once every pair of the given tree was accepted by the API.
+     */
+    void reconciled(String scope, ScoreHashTree tree) throws IOException;
+}
@@ -0,0 +1,168 @@
+package org.cru.contentscoring.core.reconciliation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.math.IntMath;
+
+/**
+ * A hash tree over (URI, score) pairs with a fixed shape, so that it can be compared with a tree built elsewhere
+ * (e.g. by the scoring API) from the same pairs. Every URI falls into one of {@link #LEAVES} leaf buckets by the
+ * murmur3 hash of its UTF-8 bytes. A leaf's digest is the sum of the murmur3 hashes of its {@code uri + "\t" +
+ * score} pairs, so pairs can be added in any order without being held in memory, and an inner node's digest is the
+ * murmur3 hash of its children's digests.
+ * <p>
+ * Trees are compared top down, only following the nodes whose digests differ. Equal trees cost one digest, and each
+ * differing bucket costs at most {@link #FANOUT} digests per level.
+ */
+public class ScoreHashTree {
+    public static final int FANOUT = 16;
+    public static final int DEPTH = 3;
+    public static final int LEAVES = IntMath.pow(FANOUT, DEPTH);
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final long[] sums = new long[LEAVES * 2];
+    private final int[] counts = new int[LEAVES];
+
+    // Computed on first use after the last change, level 0 is the root
+    private String[][] digests;
+
+    public void add(final String uri, final int score) {
+        int bucket = bucketOf(uri);
+        ByteBuffer hash = ByteBuffer
+            .wrap(HASH.hashString(uri + "\t" + score, StandardCharsets.UTF_8).asBytes())
+            .order(ByteOrder.LITTLE_ENDIAN);
+        sums[bucket * 2] += hash.getLong();
+        sums[bucket * 2 + 1] += hash.getLong();
+        counts[bucket]++;
+        digests = null;
+    }
+
+    public static int bucketOf(final String uri) {
+        return Math.floorMod(HASH.hashString(uri, StandardCharsets.UTF_8).asInt(), LEAVES);
+    }
+
+    /**
+     * @return the number of nodes on the given level, where level 0 is the root and {@link #DEPTH} the leaves
+     */
+    public static int size(final int level) {
+        return IntMath.pow(FANOUT, level);
+    }
+
+    public static List<Integer> children(final int index) {
+        List<Integer> children = new ArrayList<>(FANOUT);
+        for (int child = index * FANOUT; child < (index + 1) * FANOUT; child++) {
+            children.add(child);
+        }
+        return children;
+    }
+
+    /**
+     * @return the number of pairs in the given leaf bucket
+     */
+    public int getCount(final int bucket) {
+        return counts[bucket];
+    }
+
+    public String getDigest(final int level, final int index) {
+        return digests()[level][index];
+    }
+
+    public List<String> getDigests(final int level, final List<Integer> indexes) {
+        List<String> levelDigests = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            levelDigests.add(getDigest(level, index));
+        }
+        return levelDigests;
+    }
+
+    /**
+     * Compares this tree with the one the given source holds for the scope, level by level.
+     */
+    public Difference compareTo(final ScoreDigestSource source, final String scope) throws IOException {
+        List<Integer> differing = new ArrayList<>();
+        differing.add(0);
+        int digestsCompared = 0;
+
+        for (int level = 0; level <= DEPTH && !differing.isEmpty(); level++) {
+            List<Integer> indexes = new ArrayList<>();
+            if (level == 0) {
+                indexes.addAll(differing);
+            } else {
+                for (int parent : differing) {
+                    indexes.addAll(children(parent));
+                }
+            }
+
+            List<String> remoteDigests = source.getDigests(scope, level, indexes);
+            digestsCompared += indexes.size();
+
+            differing = new ArrayList<>();
+            for (int i = 0; i < indexes.size(); i++) {
+                int index = indexes.get(i);
+                if (!Objects.equals(getDigest(level, index), remoteDigests.get(i))) {
+                    differing.add(index);
+                }
+            }
+        }
+        return new Difference(differing, digestsCompared);
+    }
+
+    private String[][] digests() {
+        String[][] current = digests;
+        if (current != null) {
+            return current;
+        }
+
+        current = new String[DEPTH + 1][];
+        current[DEPTH] = new String[LEAVES];
+        for (int bucket = 0; bucket < LEAVES; bucket++) {
+            current[DEPTH][bucket] = String.format("%016x%016x", sums[bucket * 2], sums[bucket * 2 + 1]);
+        }
+        for (int level = DEPTH - 1; level >= 0; level--) {
+            current[level] = new String[size(level)];
+            for (int index = 0; index < current[level].length; index++) {
+                Hasher hasher = HASH.newHasher();
+                for (int child : children(index)) {
+                    hasher.putString(current[level + 1][child], StandardCharsets.UTF_8);
+                }
+                current[level][index] = hasher.hash().toString();
+            }
+        }
+        digests = current;
+        return current;
+    }
+
+    /**
+     * The outcome of comparing two trees.
+     */
+    public static class Difference {
+        private final List<Integer> buckets;
+        private final int digestsCompared;
+
+        Difference(final List<Integer> buckets, final int digestsCompared) {
+            this.buckets = buckets;
+            this.digestsCompared = digestsCompared;
+        }
+
+        /**
+         * @return the leaf buckets whose pairs differ
+         */
+        public List<Integer> getBuckets() {
+            return buckets;
+        }
+
+        public int getDigestsCompared() {
+            return digestsCompared;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package org.cru.contentscoring.core.schedulers;
+
+import static org.cru.contentscoring.core.service.impl.ContentScoreUpdateServiceImpl.CONTENT_SCORE_UPDATED;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.api.SlingException;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.cru.contentscoring.core.service.ContentScoreUpdateService;
+import org.cru.contentscoring.core.service.RepositoryWriteService;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
+import org.cru.contentscoring.core.util.ScoringQueries;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.commons.jcr.JcrUtil;
+import com.day.cq.wcm.api.NameConstants;
+import com.day.cq.wcm.api.Page;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Sends the scores of pages again whose last push is out of date, so missed or failed pushes repair themselves
+ * without a full backfill. A page is stale if its score was never sent, if it was modified after its score was last
+ * sent, or if its score was last sent longer ago than the max age. The sent date is only set once the API accepted
+ * the score or is known to have it already, so a failed push leaves the page stale.
+ * <p>
+ * JCR-SQL2 can't compare two properties of a node, so the indexed queries find the pages modified since the last
+ * sweep, the pages sent before the max age and the scored pages never sent, and the dates of each result are
+ * compared here. The scores go through the bulk lane of the upload queue at a capped rate.
+ * <p>
+ * The sweeper requires the {@link ContentScoreUpdateService}, so it stays inactive while ContentScoreUpdateServiceImpl
+ * isn't registered as a component.
+ */
+@Component(
+    service = Runnable.class,
+    immediate = true,
+    property = {
+        "scheduler.expression=" + StaleScoreSweeper.DEFAULT_SCHEDULE,
+        "scheduler.concurrent:Boolean=false",
+        "scheduler.runOn=LEADER" })
+@Designate(ocd = StaleScoreSweeper.Config.class)
+public class StaleScoreSweeper implements Runnable {
+
+    @ObjectClassDefinition
+    @interface Config {
+        @AttributeDefinition(
+                name = "Schedule",
+                description = "Cron expression of when to sweep.")
+        String scheduler_expression();
+
+        @AttributeDefinition(
+                name = "Root Paths",
+                description = "Paths under which stale pages are looked for.")
+        String[] rootPaths();
+
+        @AttributeDefinition(
+                name = "Max Age",
+                description = "Time (in milliseconds) after which a score is sent again, even if the page is unchanged.")
+        long maxAge();
+
+        @AttributeDefinition(
+                name = "Max Rate",
+                description = "Max number of pages per second a sweep sends.")
+        double maxRate();
+
+        @AttributeDefinition(
+                name = "Max Pages Per Sweep",
+                description = "Number of pages after which a sweep stops. The rest is sent by the next sweeps.")
+        int maxPagesPerSweep();
+
+        @AttributeDefinition(
+                name = "Chunk Size",
+                description = "Number of pages sent together.")
+        int chunkSize();
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(StaleScoreSweeper.class);
+
+    private static final String SUBSERVICE = "contentScoreSync";
+
+    static final String DEFAULT_SCHEDULE = "0 0 * * * ?";
+
+    static final String STATE_PATH = "/var/cru/content-scoring/stale-score-sweeper";
+    static final String PN_LAST_SWEEP = "lastSweep";
+
+    // The async index lags behind, so pages modified just before the last sweep may not have been found by it
+    private static final long INDEX_LAG = 5L * 60L * 1000L;
+
+    static final String ROOT_PATHS = "rootPaths";
+    private static final String[] DEFAULT_ROOT_PATHS = new String[] {"/content"};
+
+    static final String MAX_AGE = "maxAge";
+    private static final long DEFAULT_MAX_AGE = 30L * 24L * 60L * 60L * 1000L;
+
+    static final String MAX_RATE = "maxRate";
+    private static final double DEFAULT_MAX_RATE = 5.0;
+
+    static final String MAX_PAGES_PER_SWEEP = "maxPagesPerSweep";
+    private static final int DEFAULT_MAX_PAGES_PER_SWEEP = 10000;
+
+    static final String CHUNK_SIZE = "chunkSize";
+    private static final int DEFAULT_CHUNK_SIZE = 100;
+
+    @Reference
+    SystemUtils systemUtils;
+
+    @Reference
+    ContentScoreUpdateService contentScoreUpdateService;
+
+    @Reference
+    ScoreTaxonomyService scoreTaxonomyService;
+
+    @Reference
+    RepositoryWriteService repositoryWriteService;
+
+    private String[] rootPaths;
+    private long maxAge;
+    private RateLimiter rateLimiter;
+    private int maxPagesPerSweep;
+    private int chunkSize;
+
+    private volatile boolean stop;
+
+    @Activate
+    public void activate(final Map<String, Object> config) {
+        rootPaths = PropertiesUtil.toStringArray(config.get(ROOT_PATHS), DEFAULT_ROOT_PATHS);
+        maxAge = PropertiesUtil.toLong(config.get(MAX_AGE), DEFAULT_MAX_AGE);
+        rateLimiter = RateLimiter.create(PropertiesUtil.toDouble(config.get(MAX_RATE), DEFAULT_MAX_RATE));
+        maxPagesPerSweep = PropertiesUtil.toInteger(config.get(MAX_PAGES_PER_SWEEP), DEFAULT_MAX_PAGES_PER_SWEEP);
+        chunkSize = PropertiesUtil.toInteger(config.get(CHUNK_SIZE), DEFAULT_CHUNK_SIZE);
+        stop = false;
+    }
+
+    @Deactivate
+    public void deactivate() {
+        // A running sweep stops after its current chunk, the next one looks at the same pages again
+        stop = true;
+    }
+
+    @Override
+    public void run() {
+        // Not pooled, a sweep can hold on to it for a while
+        try (ResourceResolver resourceResolver = systemUtils.getResourceResolver(SUBSERVICE)) {
+            sweep(resourceResolver);
+        } catch (LoginException | RepositoryException | SlingException e) {
+            LOG.error("Failed to sweep stale scores, the next sweep tries again", e);
+        }
+    }
+
+    /**
+     * The time of the last sweep is only moved forward once a sweep got through all stale pages, so an interrupted
+     * or capped sweep is picked up by the next one.
+     *
+     * @return the number of stale pages sent
+     */
+    @VisibleForTesting
+    int sweep(final ResourceResolver resourceResolver) throws RepositoryException {
+        Calendar sweepStarted = Calendar.getInstance();
+        Calendar sentBefore = minus(sweepStarted, maxAge);
+        Calendar lastSweep = getLastSweep(resourceResolver);
+        Calendar modifiedSince = lastSweep == null ? sentBefore : minus(lastSweep, INDEX_LAG);
+
+        Set<String> seenPaths = new HashSet<>();
+        List<Page> chunk = new ArrayList<>(chunkSize);
+        int sent = 0;
+        boolean complete = true;
+
+        sweeping:
+        for (String rootPath : rootPaths) {
+            List<String> statements = Lists.newArrayList(
+                ScoringQueries.pagesModifiedSince(rootPath, modifiedSince),
+                ScoringQueries.pagesScoredBefore(rootPath, sentBefore),
+                ScoringQueries.pagesNeverScored(rootPath));
+
+            for (String statement : statements) {
+                Iterator<Resource> contents = ScoringQueries.findResources(resourceResolver, statement);
+
+                while (contents.hasNext()) {
+                    if (stop || sent + chunk.size() >= maxPagesPerSweep) {
+                        complete = false;
+                        break sweeping;
+                    }
+
+                    Resource content = contents.next();
+                    if (!isStale(content, sentBefore) || !seenPaths.add(content.getPath())) {
+                        continue;
+                    }
+                    Resource pageResource = content.getParent();
+                    Page page = pageResource == null ? null : pageResource.adaptTo(Page.class);
+                    if (page == null) {
+                        continue;
+                    }
+
+                    rateLimiter.acquire();
+                    chunk.add(page);
+                    if (chunk.size() == chunkSize) {
+                        sent += send(chunk);
+                        chunk = new ArrayList<>(chunkSize);
+                    }
+                }
+            }
+        }
+        sent += send(chunk);
+
+        if (complete) {
+            setLastSweep(resourceResolver, sweepStarted);
+        }
+        LOG.info("Sent the scores of {} stale pages{}", sent, complete ? "" : ", the rest is left for the next sweep");
+        return sent;
+    }
+
+    /**
+     * @param content the jcr:content resource of the page
+     * @return whether the page has a score that was never sent, was sent before the page was last modified, or was
+     *         sent before the given time
+     */
+    @VisibleForTesting
+    boolean isStale(final Resource content, final Calendar sentBefore) {
+        try {
+            if (scoreTaxonomyService.scoreOf(content) < 0) {
+                return false;
+            }
+        } catch (IllegalArgumentException e) {
+            LOG.warn("Invalid score on {}, skipping", content.getPath(), e);
+            return false;
+        }
+
+        ValueMap properties = content.getValueMap();
+        Calendar lastSent = properties.get(CONTENT_SCORE_UPDATED, Calendar.class);
+        if (lastSent == null || lastSent.before(sentBefore)) {
+            return true;
+        }
+        Calendar lastModified = properties.get(NameConstants.PN_PAGE_LAST_MOD, Calendar.class);
+        return lastModified != null && lastModified.after(lastSent);
+    }
+
+    /**
+     * Waits for the delivery, so a sweep never fills the upload queue faster than it drains.
+     *
+     * @return the number of pages in the chunk
+     */
+    private int send(final List<Page> chunk) throws RepositoryException {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            contentScoreUpdateService.backfillContentScores(chunk).toCompletableFuture().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while waiting for the delivery of stale scores", e);
+        } catch (ExecutionException e) {
+            throw new RepositoryException("Failed to deliver stale scores", e.getCause());
+        }
+        return chunk.size();
+    }
+
+    private Calendar getLastSweep(final ResourceResolver resourceResolver) {
+        Resource state = resourceResolver.getResource(STATE_PATH);
+        return state == null ? null : state.getValueMap().get(PN_LAST_SWEEP, Calendar.class);
+    }
+
+    private void setLastSweep(final ResourceResolver resourceResolver, final Calendar lastSweep)
+        throws RepositoryException {
+
+        Session session = resourceResolver.adaptTo(Session.class);
+        repositoryWriteService.write(session, () -> {
+            Node state = JcrUtil.createPath(STATE_PATH, "sling:Folder", "nt:unstructured", session, false);
+            state.setProperty(PN_LAST_SWEEP, lastSweep);
+            return true;
+        });
+    }
+
+    private static Calendar minus(final Calendar calendar, final long millis) {
+        Calendar result = Calendar.getInstance();
+        result.setTimeInMillis(calendar.getTimeInMillis() - millis);
+        return result;
+    }
+}
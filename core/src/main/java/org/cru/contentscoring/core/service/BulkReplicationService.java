@@ -0,0 +1,40 @@
+package org.cru.contentscoring.core.service;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.jcr.Session;
+
+import org.apache.sling.api.resource.Resource;
+
+import com.day.cq.replication.ReplicationException;
+
+/**
+ * Activates many pages after a bulk change, without flooding the replication agents.
+ */
+public interface BulkReplicationService {
+    /**
+     * Told after every chunk that was handed to the replication agents.
+     */
+    interface ProgressListener {
+        void onProgress(int replicated, int total);
+    }
+
+    /**
+     * Reads the replication status of the given pages from the {@code cq:lastReplicationAction} of their content,
+     * which is already loaded when the pages were traversed, instead of asking the replicator page by page.
+     *
+     * @return the paths of the pages that are currently activated
+     */
+    List<String> getActivatedPaths(Collection<Resource> pages);
+
+    /**
+     * Activates the given paths asynchronously in bounded chunks. Before each chunk, waits until the replication
+     * agent queues are below a configured depth.
+     *
+     * @return the number of paths handed to the replication agents
+     * @throws ReplicationException if a chunk failed, or the queues didn't drain in time
+     */
+    int activate(Session session, List<String> paths, ProgressListener listener)
+        throws ReplicationException, InterruptedException;
+}
@@ -1,12 +1,55 @@
 package org.cru.contentscoring.core.service;
 
 import com.day.cq.wcm.api.Page;
+import org.apache.sling.api.resource.ResourceResolver;
 
 import javax.jcr.RepositoryException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
 
 public interface ContentScoreUpdateService {
     /**
      * Triggers a request to update the content score for the given content page.
      */
     void updateContentScore(Page page) throws RepositoryException;
+
+    /**
+     * Triggers requests to update the content scores for the given content pages. The URLs of all pages are mapped
+     * in as few calls as possible. Once the scores are delivered, the sent dates of the pages the API accepted are
+     * saved in one commit.
+     *
+     * @return the delivery per page path, which completes once the API accepted all scores of the page. Pages
+     *         without a score to send are left out.
+     */
+    Map<String, CompletionStage<Void>> updateContentScores(Collection<Page> pages) throws RepositoryException;
+
+    /**
+     * Like {@link #updateContentScores(Collection)}, but the scores go through the bulk lane of the upload queue, so
+     * they are only sent while no activated page is waiting. Meant for backfills.
+     *
+     * @return completes once the API accepted all scores
+     */
+    CompletionStage<Void> backfillContentScores(Collection<Page> pages) throws RepositoryException;
+
+    /**
+     * Sends the given scores for exactly the given URIs through the bulk lane of the upload queue, without mapping
+     * pages to URIs. Meant for repairs that already know which URIs the API holds a wrong score for.
+     *
+     * @return completes once the API accepted all scores
+     */
+    CompletionStage<Void> backfillScores(Map<String, Integer> scoresByUri);
+
+    /**
+     * Triggers requests to update the content scores for the given pages, which all live under the given root (as
+     * they do after a tree activation). Instead of reading every page, the scored pages of the whole tree are found
+     * with one indexed query and sent in chunks, with one commit per chunk.
+     *
+     * @return the delivery per page path, as for {@link #updateContentScores(Collection)}
+     */
+    Map<String, CompletionStage<Void>> updateContentScoresInTree(
+        ResourceResolver resourceResolver,
+        String rootPath,
+        Set<String> pagePaths) throws RepositoryException;
 }
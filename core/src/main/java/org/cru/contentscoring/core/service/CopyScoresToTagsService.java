@@ -0,0 +1,31 @@
+package org.cru.contentscoring.core.service;
+
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.sling.api.resource.LoginException;
+import org.cru.contentscoring.core.models.CopyScoresToTagsStatus;
+
+/**
+ * Moves the legacy {@code jcr:content/score} properties under a root to score tags, in a background job.
+ */
+public interface CopyScoresToTagsService {
+    /**
+     * Queues a job that moves the scores under the given root.
+     *
+     * @param parallelism the number of subtrees of the root worked on at the same time, 1 to work through the root
+     *                    as a whole
+     */
+    CopyScoresToTagsStatus start(String rootPath, int parallelism) throws LoginException, RepositoryException;
+
+    /**
+     * @return the checkpointed progress of all runs, oldest first
+     */
+    List<CopyScoresToTagsStatus> getStatuses() throws LoginException;
+
+    /**
+     * @return the checkpointed progress of the given run, or null if there is none
+     */
+    CopyScoresToTagsStatus getStatus(String id) throws LoginException;
+}
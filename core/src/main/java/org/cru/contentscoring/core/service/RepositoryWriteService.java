@@ -0,0 +1,26 @@
+package org.cru.contentscoring.core.service;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+public interface RepositoryWriteService {
+    /**
+     * A change to the repository that can be applied again after the session was reset to the persisted state.
+     */
+    interface Mutation {
+        /**
+         * @return true if anything was changed and needs to be saved
+         */
+        boolean apply() throws RepositoryException;
+    }
+
+    /**
+     * Applies the mutation and saves the session once. When the save fails because another session changed the same
+     * items, the pending changes are dropped and the mutation is applied and saved again, up to a configured number
+     * of times.
+     *
+     * @return true if changes were saved, false if the mutation didn't change anything
+     * @throws RepositoryException if the changes could not be saved, in which case they are dropped
+     */
+    boolean write(Session session, Mutation mutation) throws RepositoryException;
+}
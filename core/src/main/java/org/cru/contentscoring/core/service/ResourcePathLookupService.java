@@ -0,0 +1,25 @@
+package org.cru.contentscoring.core.service;
+
+import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.Map;
+
+public interface ResourcePathLookupService {
+    /**
+     * Determines the path of the resource behind an incoming public URL. The lookup is done locally from the
+     * sling mapping and vanity paths whenever possible, and only falls back to asking a publisher.
+     *
+     * @param incomingUri the public URL, e.g. https://www.cru.org/us/en/page.html
+     * @return the resource path, or null if the URL doesn't belong to a resource
+     */
+    String lookupResourcePath(String incomingUri) throws URISyntaxException;
+
+    /**
+     * Batch variant of {@link #lookupResourcePath(String)}. URLs that can't be resolved locally are sent to
+     * the publisher batch finder in as few requests as possible.
+     *
+     * @param incomingUris the public URLs
+     * @return the resource path per URL; invalid URLs and URLs that don't belong to a resource are left out
+     */
+    Map<String, String> lookupResourcePaths(Collection<String> incomingUris);
+}
@@ -0,0 +1,28 @@
+package org.cru.contentscoring.core.service;
+
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.sling.api.resource.LoginException;
+import org.cru.contentscoring.core.models.BackfillStatus;
+
+/**
+ * (Re)sends the score of every scored page under a root to the scoring API, without activating any content.
+ */
+public interface ScoreBackfillService {
+    /**
+     * Queues a backfill job for the given root.
+     */
+    BackfillStatus start(String rootPath) throws LoginException, RepositoryException;
+
+    /**
+     * @return the checkpointed progress of all backfills, oldest first
+     */
+    List<BackfillStatus> getStatuses() throws LoginException;
+
+    /**
+     * @return the checkpointed progress of the given backfill, or null if there is none
+     */
+    BackfillStatus getStatus(String id) throws LoginException;
+}
@@ -0,0 +1,20 @@
+package org.cru.contentscoring.core.service;
+
+import org.cru.contentscoring.core.ledger.ScoreLedger;
+
+/**
+ * Keeps track of what was last sent to the scoring API for each URI, across restarts.
+ */
+public interface ScoreLedgerService {
+    /**
+     * @return what was last sent for the URI, or null if nothing was sent for it or the ledger can't be read
+     */
+    ScoreLedger.Entry getLastSent(String uri);
+
+    /**
+     * @return true if the API accepted the same score for the URI the last time it was sent
+     */
+    boolean isUnchanged(String uri, int score);
+
+    void recordSent(String uri, int score, ScoreLedger.Outcome outcome);
+}
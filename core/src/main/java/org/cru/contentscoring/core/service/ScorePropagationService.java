@@ -0,0 +1,27 @@
+package org.cru.contentscoring.core.service;
+
+import java.util.List;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
+/**
+ * Carries the score of a page over to its primary experience fragment and every variation of that fragment.
+ */
+public interface ScorePropagationService {
+    /**
+     * Sets the score tag on the primary experience fragment of the page and those of its variations that don't
+     * have the score yet. Nothing is saved, so the caller commits the fragments together with the page.
+     *
+     * @param pageContent the jcr:content resource of the page
+     * @return the number of experience fragment pages whose tags were changed
+     */
+    int propagateScore(ResourceResolver resourceResolver, Resource pageContent, int score);
+
+    /**
+     * @param pageContent the jcr:content resource of the page
+     * @return the jcr:content paths of the page's primary experience fragment and its variations, or an empty list
+     *         if the page has none
+     */
+    List<String> getExperienceFragmentContentPaths(ResourceResolver resourceResolver, Resource pageContent);
+}
@@ -0,0 +1,26 @@
+package org.cru.contentscoring.core.service;
+
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.sling.api.resource.LoginException;
+import org.cru.contentscoring.core.models.ReconciliationStatus;
+
+/**
+ * Finds the scores under a root that differ from what the scoring API holds by comparing hash trees, and sends only
+ * those again.
+ */
+public interface ScoreReconciliationService {
+    /**
+     * Queues a reconciliation of the scored pages under the given root.
+     */
+    ReconciliationStatus start(String rootPath) throws LoginException, RepositoryException;
+
+    List<ReconciliationStatus> getStatuses() throws LoginException;
+
+    /**
+     * @return the status of the reconciliation, or null if there is none with that ID
+     */
+    ReconciliationStatus getStatus(String id) throws LoginException;
+}
@@ -0,0 +1,30 @@
+package org.cru.contentscoring.core.service;
+
+import org.apache.sling.api.resource.Resource;
+
+import com.day.cq.tagging.Tag;
+import com.day.cq.tagging.TagManager;
+
+public interface ScoreTaxonomyService {
+    /**
+     * @param tagManager the tag manager of the caller's resource resolver, which the tag is resolved with
+     * @param score a score between 0 and 10
+     * @return the scale-of-belief tag for the score, or null if the tag doesn't exist
+     */
+    Tag getScoreTag(TagManager tagManager, int score);
+
+    /**
+     * @param tagId a tag ID (e.g. target-audience:scale-of-belief/5) or tag path as stored in {@code cq:tags}
+     * @return the score the tag stands for, or null if it isn't a scale-of-belief tag
+     */
+    Integer getScore(String tagId);
+
+    /**
+     * Determines the score of a page from the {@code cq:tags} property of its content, without resolving any tags.
+     *
+     * @param contentResource the jcr:content resource of the page
+     * @return the score, or -1 if the page has no score tag
+     * @throws IllegalArgumentException if the score tag doesn't hold a score between 0 and 10
+     */
+    int scoreOf(Resource contentResource);
+}
@@ -3,6 +3,8 @@ package org.cru.contentscoring.core.service;
 import org.apache.sling.api.resource.ResourceResolver;
 
 import javax.jcr.RepositoryException;
+import java.util.Map;
+import java.util.Set;
 
 public interface SyncScoreService {
     /**
@@ -15,4 +17,17 @@ public interface SyncScoreService {
         ResourceResolver resourceResolver,
         int score,
         String resourcePath) throws RepositoryException;
+
+    /**
+     * Saves the given scores to their pages in a single commit. Pages that already have their score are
+     * not written again.
+     *
+     * @param resourceResolver the subsystem resource resolver (not the request resource resolver)
+     * @param scoresByPath the score to save per resource path
+     * @return the paths of the resources that now have their score; paths that don't exist are left out
+     * @throws RepositoryException if the commit failed, in which case none of the scores are saved
+     */
+    Set<String> syncScores(
+        ResourceResolver resourceResolver,
+        Map<String, Integer> scoresByPath) throws RepositoryException;
 }
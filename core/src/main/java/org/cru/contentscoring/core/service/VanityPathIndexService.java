@@ -0,0 +1,16 @@
+package org.cru.contentscoring.core.service;
+
+public interface VanityPathIndexService {
+    /**
+     * Looks up the page that owns the given {@code sling:vanityPath} without querying the repository.
+     *
+     * @param vanityPath the vanity path exactly as it is stored on the page content
+     * @return the path of the page that uses this vanity path, or null if no page (or more than one page) uses it
+     */
+    String getPagePath(String vanityPath);
+
+    /**
+     * @return true if more than one page is currently configured with the given vanity path
+     */
+    boolean isDuplicated(String vanityPath);
+}
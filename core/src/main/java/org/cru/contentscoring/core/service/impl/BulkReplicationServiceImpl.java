@@ -0,0 +1,171 @@
+package org.cru.contentscoring.core.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.Session;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.cru.contentscoring.core.service.BulkReplicationService;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.replication.Agent;
+import com.day.cq.replication.AgentConfig;
+import com.day.cq.replication.AgentManager;
+import com.day.cq.replication.ReplicationActionType;
+import com.day.cq.replication.ReplicationException;
+import com.day.cq.replication.ReplicationOptions;
+import com.day.cq.replication.ReplicationQueue;
+import com.day.cq.replication.Replicator;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+
+@Component(service = BulkReplicationService.class)
+@Designate(ocd = BulkReplicationServiceImpl.Config.class)
+public class BulkReplicationServiceImpl implements BulkReplicationService {
+
+    @ObjectClassDefinition
+    @interface Config {
+        @AttributeDefinition(
+                name = "Chunk Size",
+                description = "Number of paths handed to the replication agents at once.")
+        int chunkSize();
+
+        @AttributeDefinition(
+                name = "Max Queue Depth",
+                description = "Number of entries in a replication agent queue at which no more chunks are added.")
+        int maxQueueDepth();
+
+        @AttributeDefinition(
+                name = "Queue Poll Interval",
+                description = "Time (in milliseconds) between checks whether a full queue has drained.")
+        long queuePollInterval();
+
+        @AttributeDefinition(
+                name = "Max Queue Wait",
+                description = "Time (in milliseconds) to wait for a full queue to drain before giving up.")
+        long maxQueueWait();
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(BulkReplicationServiceImpl.class);
+
+    static final String LAST_REPLICATION_ACTION = "cq:lastReplicationAction";
+    private static final String ACTIVATE = "Activate";
+
+    static final String CHUNK_SIZE = "chunkSize";
+    private static final int DEFAULT_CHUNK_SIZE = 50;
+
+    static final String MAX_QUEUE_DEPTH = "maxQueueDepth";
+    private static final int DEFAULT_MAX_QUEUE_DEPTH = 500;
+
+    static final String QUEUE_POLL_INTERVAL = "queuePollInterval";
+    private static final long DEFAULT_QUEUE_POLL_INTERVAL = 1000L;
+
+    static final String MAX_QUEUE_WAIT = "maxQueueWait";
+    private static final long DEFAULT_MAX_QUEUE_WAIT = 10L * 60L * 1000L;
+
+    @Reference
+    Replicator replicator;
+
+    @Reference
+    AgentManager agentManager;
+
+    private int chunkSize;
+    private int maxQueueDepth;
+    private long queuePollInterval;
+    private long maxQueueWait;
+
+    @Activate
+    public void activate(final Map<String, Object> config) {
+        chunkSize = PropertiesUtil.toInteger(config.get(CHUNK_SIZE), DEFAULT_CHUNK_SIZE);
+        maxQueueDepth = PropertiesUtil.toInteger(config.get(MAX_QUEUE_DEPTH), DEFAULT_MAX_QUEUE_DEPTH);
+        queuePollInterval = PropertiesUtil.toLong(config.get(QUEUE_POLL_INTERVAL), DEFAULT_QUEUE_POLL_INTERVAL);
+        maxQueueWait = PropertiesUtil.toLong(config.get(MAX_QUEUE_WAIT), DEFAULT_MAX_QUEUE_WAIT);
+    }
+
+    @Override
+    public List<String> getActivatedPaths(final Collection<Resource> pages) {
+        List<String> activatedPaths = new ArrayList<>();
+        for (Resource page : pages) {
+            Resource content = page.getChild(JcrConstants.JCR_CONTENT);
+            if (content != null
+                    && ACTIVATE.equals(content.getValueMap().get(LAST_REPLICATION_ACTION, String.class))) {
+                activatedPaths.add(page.getPath());
+            }
+        }
+        return activatedPaths;
+    }
+
+    @Override
+    public int activate(final Session session, final List<String> paths, final ProgressListener listener)
+        throws ReplicationException, InterruptedException {
+
+        ReplicationOptions options = new ReplicationOptions();
+        options.setSynchronous(false);
+
+        int replicated = 0;
+        for (List<String> chunk : Lists.partition(paths, chunkSize)) {
+            awaitQueueCapacity();
+            replicator.replicate(session, ReplicationActionType.ACTIVATE, chunk.toArray(new String[0]), options);
+
+            replicated += chunk.size();
+            LOG.debug("Handed {} of {} paths to the replication agents", replicated, paths.size());
+            listener.onProgress(replicated, paths.size());
+        }
+        return replicated;
+    }
+
+    private void awaitQueueCapacity() throws ReplicationException, InterruptedException {
+        long deadline = currentTimeMillis() + maxQueueWait;
+        int queueDepth = getQueueDepth();
+        while (queueDepth >= maxQueueDepth) {
+            if (currentTimeMillis() >= deadline) {
+                throw new ReplicationException(
+                    "Replication queue stayed at " + queueDepth + " entries for " + maxQueueWait + " ms");
+            }
+            LOG.debug("Replication queue has {} entries, waiting for it to drain", queueDepth);
+            sleep(queuePollInterval);
+            queueDepth = getQueueDepth();
+        }
+    }
+
+    /**
+     * @return the number of entries in the fullest queue of the agents used for a plain activation
+     */
+    @VisibleForTesting
+    int getQueueDepth() {
+        int queueDepth = 0;
+        for (Agent agent : agentManager.getAgents().values()) {
+            AgentConfig config = agent.getConfiguration();
+            if (!agent.isEnabled() || config.isSpecific() || config.usedForReverseReplication()) {
+                continue;
+            }
+            ReplicationQueue queue = agent.getQueue();
+            if (queue != null) {
+                queueDepth = Math.max(queueDepth, queue.entries().size());
+            }
+        }
+        return queueDepth;
+    }
+
+    @VisibleForTesting
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @VisibleForTesting
+    void sleep(final long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+}
@@ -1,27 +1,50 @@
 package org.cru.contentscoring.core.service.impl;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.Response;
 
+import org.apache.sling.api.SlingException;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
 import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.cru.contentscoring.core.models.ContentScoreUpdateRequest;
 import org.cru.contentscoring.core.queue.UploadQueue;
 import org.cru.contentscoring.core.service.ContentScoreUpdateService;
+import org.cru.contentscoring.core.service.RepositoryWriteService;
+import org.cru.contentscoring.core.service.ScoreLedgerService;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
 import org.cru.contentscoring.core.util.ExperienceFragmentUtil;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.ScoringQueries;
+import org.cru.contentscoring.core.util.SystemUtils;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.ConfigurationPolicy;
@@ -33,12 +56,16 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.day.cq.commons.jcr.JcrConstants;
 import com.day.cq.mailer.MessageGatewayService;
-import com.day.cq.tagging.Tag;
 import com.day.cq.wcm.api.Page;
 import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
 
 //@Component(service = ContentScoreUpdateService.class, configurationPolicy = ConfigurationPolicy.REQUIRE)
 @Designate(ocd = ContentScoreUpdateServiceImpl.Config.class)
@@ -75,7 +102,9 @@ public class ContentScoreUpdateServiceImpl implements ContentScoreUpdateService
 
     private static final Logger LOG = LoggerFactory.getLogger(ContentScoreUpdateServiceImpl.class);
 
-    static final String CONTENT_SCORE_UPDATED = "contentScoreLastUpdated";
+    public static final String CONTENT_SCORE_UPDATED = "contentScoreLastUpdated";
+
+    private static final String SUBSERVICE = "contentScoreSync";
 
     static final String API_ENDPOINT = "apiEndpoint";
     private String apiEndpoint;
@@ -90,6 +119,15 @@ public class ContentScoreUpdateServiceImpl implements ContentScoreUpdateService
 
     static final String URL_MAPPER_ENDPOINT = "urlMapperEndpoint";
 
+    // Pages per commit when a whole tree is scored
+    static final int TREE_CHUNK_SIZE = 500;
+
+    // Paths per URL mapper request, so the query string stays within URL length limits
+    static final int URL_MAPPER_BATCH_SIZE = 100;
+
+    // Stands in for the delivery of pages whose scores the API already has, so their sent date is set as well
+    private static final CompletionStage<Void> ALREADY_DELIVERED = CompletableFuture.completedFuture(null);
+
     private static final String API_KEY_LOCATION = "AEM_CONTENT_SCORING_API_KEY";
     static final String VANITY_PATH = "sling:vanityPath";
     static final String VANITY_REDIRECT = "sling:redirect";
@@ -98,10 +136,24 @@ public class ContentScoreUpdateServiceImpl implements ContentScoreUpdateService
 
     Client client;
 
+    // Writes the sent dates once the scores are delivered, off the upload queue's thread
+    Executor deliveryExecutor = ForkJoinPool.commonPool();
 
     @Reference
     private MessageGatewayService messageGatewayService;
 
+    @Reference
+    private ScoreTaxonomyService scoreTaxonomyService;
+
+    @Reference
+    private RepositoryWriteService repositoryWriteService;
+
+    @Reference
+    private ScoreLedgerService scoreLedgerService;
+
+    @Reference
+    SystemUtils systemUtils;
+
     static UploadQueue internalQueueManager;
     static Thread queueManagerThread;
 
@@ -134,7 +186,8 @@ public class ContentScoreUpdateServiceImpl implements ContentScoreUpdateService
                 apiKey,
                 errorEmailRecipients,
                 messageGatewayService,
-                null);
+                null,
+                scoreLedgerService);
         } else {
             internalQueueManager = new UploadQueue(
                 waitTime,
@@ -143,7 +196,8 @@ public class ContentScoreUpdateServiceImpl implements ContentScoreUpdateService
                 apiKey,
                 errorEmailRecipients,
                 messageGatewayService,
-                internalQueueManager.getPendingBatches());
+                internalQueueManager.getPendingBatches(),
+                scoreLedgerService);
         }
         queueManagerThread = new Thread(internalQueueManager);
         queueManagerThread.start();
@@ -152,9 +206,7 @@ public class ContentScoreUpdateServiceImpl implements ContentScoreUpdateService
 
     @Override
     public void updateContentScore(final Page page) throws RepositoryException {
-        Resource jcrContent = page.getContentResource();
-        if (ExperienceFragmentUtil.isExperienceFragment(jcrContent)
-            || ExperienceFragmentUtil.isExperienceFragmentVariation(jcrContent)) {
+        if (isExperienceFragment(page)) {
             return;
         }
 
@@ -165,48 +217,253 @@ public class ContentScoreUpdateServiceImpl implements ContentScoreUpdateService
 
         Set<String> urlsToSend = determinePageUrlsToSend(page);
 
+        List<CompletionStage<Void>> deliveries = new ArrayList<>();
+        boolean unchanged = false;
         for (String url : urlsToSend) {
-            handleRequest(page, url, score);
+            if (isUnchanged(url, score, false)) {
+                unchanged = true;
+                continue;
+            }
+            CompletableFuture<Void> delivery = handleRequest(url, score, false);
+            if (delivery != null) {
+                deliveries.add(delivery);
+            }
+        }
+        if (!deliveries.isEmpty()) {
+            // Once per page, no matter how many URLs it has
+            setContentScoreUpdatedDatesOnDelivery(Collections.singletonMap(page.getPath(), allOf(deliveries)));
+        } else if (unchanged) {
+            // The API already has the score, the page is as good as sent and isn't swept again as modified
+            setContentScoreUpdatedDatesOnDelivery(Collections.singletonMap(page.getPath(), ALREADY_DELIVERED));
         }
     }
 
-    private void handleRequest(final Page page, final String pageUrl, final int score) throws RepositoryException {
-        if (pageUrl != null) {
-            ContentScoreUpdateRequest request = new ContentScoreUpdateRequest();
-            request.setUri(pageUrl);
-            request.setScore(score);
+    @Override
+    public Map<String, CompletionStage<Void>> updateContentScores(final Collection<Page> pages)
+        throws RepositoryException {
 
-            sendUpdateRequest(request);
-            setContentScoreUpdatedDate(page);
+        return updateContentScores(pages, false);
+    }
+
+    @Override
+    public CompletionStage<Void> backfillContentScores(final Collection<Page> pages) throws RepositoryException {
+        return allOf(updateContentScores(pages, true).values());
+    }
+
+    @Override
+    public CompletionStage<Void> backfillScores(final Map<String, Integer> scoresByUri) {
+        List<CompletionStage<Void>> deliveries = new ArrayList<>(scoresByUri.size());
+        for (Map.Entry<String, Integer> score : scoresByUri.entrySet()) {
+            CompletableFuture<Void> delivery = handleRequest(score.getKey(), score.getValue(), true);
+            if (delivery != null) {
+                deliveries.add(delivery);
+            }
         }
+        return allOf(deliveries);
     }
 
-    @VisibleForTesting
-    int getScore(final Page page) {
-        String scoreString = null;
+    private Map<String, CompletionStage<Void>> updateContentScores(final Collection<Page> pages, final boolean bulk)
+        throws RepositoryException {
+
+        Map<String, Page> pagesByPath = new LinkedHashMap<>();
+        Map<String, Integer> scoresByPath = new HashMap<>();
+        // A vanity path could be claimed by more than one page
+        ListMultimap<String, String> pagePathsByMappedPath = ArrayListMultimap.create();
+
+        for (Page page : pages) {
+            if (isExperienceFragment(page) || pagesByPath.containsKey(page.getPath())) {
+                continue;
+            }
+            int score = getScore(page);
+            if (score == -1) {
+                continue;
+            }
+            pagesByPath.put(page.getPath(), page);
+            scoresByPath.put(page.getPath(), score);
+            for (String path : determinePathsToMap(page)) {
+                pagePathsByMappedPath.put(path, page.getPath());
+            }
+        }
+        if (pagesByPath.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Set<String>> urlsByPage = new HashMap<>();
+        List<String> pathsToMap = new ArrayList<>(pagePathsByMappedPath.keySet());
+        for (List<String> batch : Lists.partition(pathsToMap, URL_MAPPER_BATCH_SIZE)) {
+            for (Map.Entry<String, Set<String>> urlsByPath : getGroupedUrlsFromPaths(batch).entrySet()) {
+                for (String pagePath : pagePathsByMappedPath.get(urlsByPath.getKey())) {
+                    urlsByPage.computeIfAbsent(pagePath, key -> new HashSet<>()).addAll(urlsByPath.getValue());
+                }
+            }
+        }
+
+        Map<String, CompletionStage<Void>> deliveriesByPath = new LinkedHashMap<>();
+        // The pages whose URLs the API all has the score for already, their sent date is set without a delivery
+        Map<String, CompletionStage<Void>> unchangedByPath = new LinkedHashMap<>();
+        for (Page page : pagesByPath.values()) {
+            int score = scoresByPath.get(page.getPath());
+            List<CompletionStage<Void>> deliveries = new ArrayList<>();
+            boolean unchanged = false;
+            for (String url : urlsByPage.getOrDefault(page.getPath(), Collections.emptySet())) {
+                if (isUnchanged(url, score, bulk)) {
+                    unchanged = true;
+                    continue;
+                }
+                CompletableFuture<Void> delivery = handleRequest(url, score, bulk);
+                if (delivery != null) {
+                    deliveries.add(delivery);
+                }
+            }
+            if (!deliveries.isEmpty()) {
+                deliveriesByPath.put(page.getPath(), allOf(deliveries));
+            } else if (unchanged) {
+                unchangedByPath.put(page.getPath(), ALREADY_DELIVERED);
+            }
+        }
+        LOG.debug(
+            "Sent scores of {} of {} pages, {} were unchanged",
+            deliveriesByPath.size(),
+            pages.size(),
+            unchangedByPath.size());
+
+        Map<String, CompletionStage<Void>> datesByPath = new LinkedHashMap<>(deliveriesByPath);
+        datesByPath.putAll(unchangedByPath);
+        setContentScoreUpdatedDatesOnDelivery(datesByPath);
+        return deliveriesByPath;
+    }
+
+    private static CompletionStage<Void> allOf(final Collection<CompletionStage<Void>> deliveries) {
+        return CompletableFuture.allOf(deliveries.stream()
+            .map(CompletionStage::toCompletableFuture)
+            .toArray(CompletableFuture[]::new));
+    }
 
-        Tag[] tags = page.getTags();
-        for (Tag tag : tags) {
-            if (tag.getTagID().startsWith(SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX)) {
-                scoreString = tag.getTagID().replace(SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX, "");
-                break;
+    @Override
+    public Map<String, CompletionStage<Void>> updateContentScoresInTree(
+        final ResourceResolver resourceResolver,
+        final String rootPath,
+        final Set<String> pagePaths) throws RepositoryException {
+
+        Map<String, CompletionStage<Void>> deliveries = new LinkedHashMap<>();
+        List<Page> chunk = new ArrayList<>(TREE_CHUNK_SIZE);
+        int scored = 0;
+
+        // Only the activated subtrees are queried, not everything under the root they share
+        for (Map.Entry<String, Integer> activationRoot : activationRoots(pagePaths).entrySet()) {
+            Iterator<Resource> pageResources;
+            if (activationRoot.getValue() == 1) {
+                // A page activated on its own, cheaper to read than to query its subtree
+                Resource pageResource = resourceResolver.getResource(activationRoot.getKey());
+                pageResources = pageResource == null
+                    ? Collections.emptyIterator()
+                    : Collections.singletonList(pageResource).iterator();
+            } else {
+                pageResources = Iterators.transform(
+                    ScoringQueries.findResources(
+                        resourceResolver,
+                        ScoringQueries.pagesWithScoreTag(activationRoot.getKey())),
+                    Resource::getParent);
+            }
+
+            try {
+                while (pageResources.hasNext()) {
+                    Resource pageResource = pageResources.next();
+                    if (pageResource == null || !pagePaths.contains(pageResource.getPath())) {
+                        continue;
+                    }
+                    Page page = pageResource.adaptTo(Page.class);
+                    if (page == null) {
+                        continue;
+                    }
+
+                    chunk.add(page);
+                    scored++;
+                    if (chunk.size() == TREE_CHUNK_SIZE) {
+                        deliveries.putAll(updateContentScores(chunk));
+                        chunk = new ArrayList<>(TREE_CHUNK_SIZE);
+                    }
+                }
+            } catch (SlingException e) {
+                throw new RepositoryException("Failed to find scored pages under " + activationRoot.getKey(), e);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            deliveries.putAll(updateContentScores(chunk));
+        }
+
+        LOG.debug("Sent scores of {} of {} pages under {}", scored, pagePaths.size(), rootPath);
+        return deliveries;
+    }
+
+    /**
+     * @return the paths that aren't below another of the given paths, with the number of given paths in their subtree
+     */
+    @VisibleForTesting
+    static Map<String, Integer> activationRoots(final Set<String> pagePaths) {
+        Map<String, Integer> activationRoots = new LinkedHashMap<>();
+        for (String pagePath : pagePaths) {
+            String activationRoot = pagePath;
+            String parent = ResourceUtil.getParent(pagePath);
+            while (parent != null) {
+                if (pagePaths.contains(parent)) {
+                    activationRoot = parent;
+                }
+                parent = ResourceUtil.getParent(parent);
             }
+            activationRoots.merge(activationRoot, 1, Integer::sum);
         }
-        if (scoreString == null) {
-            // Score is required for update
-            return -1;
+        return activationRoots;
+    }
+
+    private boolean isExperienceFragment(final Page page) {
+        Resource jcrContent = page.getContentResource();
+        return ExperienceFragmentUtil.isExperienceFragment(jcrContent)
+            || ExperienceFragmentUtil.isExperienceFragmentVariation(jcrContent);
+    }
+
+    /**
+     * @return whether the API already has the score of the URL, so it needn't be sent again
+     */
+    private boolean isUnchanged(final String pageUrl, final int score, final boolean bulk) {
+        // Not if another score for the URL is still on its way and may land after it. Bulk requests are always sent,
+        // they repair what the ledger can't see.
+        if (pageUrl != null
+                && !bulk
+                && internalQueueManager.getQueuedScore(pageUrl) == null
+                && scoreLedgerService.isUnchanged(pageUrl, score)) {
+            LOG.debug("Score {} of {} is unchanged, not sending it", score, pageUrl);
+            return true;
         }
+        return false;
+    }
 
-        int score = Integer.parseInt(scoreString);
-        Preconditions.checkArgument(
-            score >= 0 && score <= 10,
-            "Score must be between 0 and 10, but is " + score);
+    /**
+     * @return the delivery of the score, or null if there is no URL to send it for
+     */
+    private CompletableFuture<Void> handleRequest(final String pageUrl, final int score, final boolean bulk) {
+        if (pageUrl != null) {
+            ContentScoreUpdateRequest request = new ContentScoreUpdateRequest();
+            request.setUri(pageUrl);
+            request.setScore(score);
 
-        return score;
+            return sendUpdateRequest(request, bulk).toCompletableFuture();
+        }
+        return null;
+    }
+
+    @VisibleForTesting
+    int getScore(final Page page) {
+        // -1 if there is no score, which is required for update
+        return scoreTaxonomyService.scoreOf(page.getContentResource());
     }
 
     @VisibleForTesting
     Set<String> determinePageUrlsToSend(final Page page) {
+        return getUrlsFromPaths(determinePathsToMap(page));
+    }
+
+    private Set<String> determinePathsToMap(final Page page) {
         Set<String> pathsToSend = new HashSet<>();
         pathsToSend.add(page.getPath());
 
@@ -222,7 +479,7 @@ public class ContentScoreUpdateServiceImpl implements ContentScoreUpdateService
             // since it redirects to the page path.
         }
 
-        return getUrlsFromPaths(pathsToSend);
+        return pathsToSend;
     }
 
     private Set<String> getUrlsFromPaths(final Set<String> paths) {
@@ -237,26 +494,77 @@ public class ContentScoreUpdateServiceImpl implements ContentScoreUpdateService
         return response.readEntity(new GenericType<Set<String>>(){});
     }
 
-    private void sendUpdateRequest(final ContentScoreUpdateRequest request) {
+    @VisibleForTesting
+    Map<String, Set<String>> getGroupedUrlsFromPaths(final List<String> paths) {
+        WebTarget webTarget = client.target(urlMapperEndpoint).queryParam("grouped", true);
+
+        for (String path : paths) {
+            webTarget = webTarget.queryParam("path", path);
+        }
+        Response response = webTarget
+            .request()
+            .get();
+        return response.readEntity(new GenericType<Map<String, Set<String>>>(){});
+    }
+
+    private CompletionStage<Void> sendUpdateRequest(final ContentScoreUpdateRequest request, final boolean bulk) {
         if (!queueManagerThread.isAlive()) {
             LOG.debug("Thread is dead. Starting...");
             queueManagerThread.start();
         }
-        internalQueueManager.put(request);
+        CompletionStage<Void> delivery = bulk
+            ? internalQueueManager.putBulk(request)
+            : internalQueueManager.put(request);
         LOG.debug("Page {} added to the queue", request.getUri());
+        return delivery;
     }
 
+    /**
+     * Once all deliveries are done, sets the sent date of the pages whose URLs were all accepted by the API, or
+     * already had their score there. A page whose delivery failed keeps its old date, so the stale score sweeper
+     * sends it again.
+     */
     @VisibleForTesting
-    void setContentScoreUpdatedDate(final Page page) throws RepositoryException {
-        Node node = page.getContentResource().adaptTo(Node.class);
-        try {
-            node.getSession().refresh(true);
-            node.setProperty(CONTENT_SCORE_UPDATED, Calendar.getInstance());
-            node.getSession().save();
-        } catch (RepositoryException e) {
-            node.getSession().refresh(false);
-            node.setProperty(CONTENT_SCORE_UPDATED, Calendar.getInstance());
-            node.getSession().save();
+    void setContentScoreUpdatedDatesOnDelivery(final Map<String, CompletionStage<Void>> deliveriesByPath) {
+        if (deliveriesByPath.isEmpty()) {
+            return;
+        }
+
+        allOf(deliveriesByPath.values()).whenCompleteAsync((ignored, error) -> {
+            List<String> deliveredPaths = deliveriesByPath.entrySet().stream()
+                .filter(delivery -> !delivery.getValue().toCompletableFuture().isCompletedExceptionally())
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+            try {
+                setContentScoreUpdatedDates(deliveredPaths);
+            } catch (LoginException | RepositoryException e) {
+                LOG.warn("Failed to set the sent date of {} pages, they are swept again", deliveredPaths.size(), e);
+            }
+        }, deliveryExecutor);
+    }
+
+    @VisibleForTesting
+    void setContentScoreUpdatedDates(final List<String> pagePaths) throws LoginException, RepositoryException {
+        if (pagePaths.isEmpty()) {
+            return;
+        }
+
+        // The resolver of the pages is long closed by the time their scores are delivered
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            ResourceResolver resourceResolver = lease.getResourceResolver();
+            repositoryWriteService.write(resourceResolver.adaptTo(Session.class), () -> {
+                Calendar now = Calendar.getInstance();
+                boolean changed = false;
+                for (String pagePath : pagePaths) {
+                    Resource content = resourceResolver.getResource(pagePath + "/" + JcrConstants.JCR_CONTENT);
+                    Node node = content == null ? null : content.adaptTo(Node.class);
+                    if (node != null) {
+                        node.setProperty(CONTENT_SCORE_UPDATED, now);
+                        changed = true;
+                    }
+                }
+                return changed;
+            });
         }
     }
 
@@ -0,0 +1,633 @@
+package org.cru.contentscoring.core.service.impl;
+
+import static org.cru.contentscoring.core.service.impl.SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.apache.sling.api.SlingException;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.consumer.JobConsumer;
+import org.apache.sling.settings.SlingSettingsService;
+import org.cru.contentscoring.core.models.CopyScoresToTagsStatus;
+import org.cru.contentscoring.core.models.CopyScoresToTagsStatus.State;
+import org.cru.contentscoring.core.service.BulkReplicationService;
+import org.cru.contentscoring.core.service.CopyScoresToTagsService;
+import org.cru.contentscoring.core.service.RepositoryWriteService;
+import org.cru.contentscoring.core.service.ScorePropagationService;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
+import org.cru.contentscoring.core.util.AdaptiveThrottle;
+import org.cru.contentscoring.core.util.JobCheckpoints;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.ScoringQueries;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.replication.ReplicationException;
+import com.day.cq.tagging.Tag;
+import com.day.cq.tagging.TagManager;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Moves legacy score properties to score tags as a Sling job. The pages with a score property are taken from one
+ * path ordered query per run, one chunk at a time; each chunk is saved in one commit, its already activated pages
+ * are replicated and the progress is checkpointed under {@link #CHECKPOINT_ROOT}, including the path of the last
+ * page of the chunk, so a job that is run again after a restart or failure continues after that page. The paths
+ * still to replicate are saved with the chunk, as moved pages drop out of the query, and are replicated first on a
+ * rerun.
+ * <p>
+ * The pause between chunks adapts to how long their commits take, so the job backs off while the repository is
+ * busy. With a parallelism above one, the subtrees of the root's children (e.g. the language roots of a site, or
+ * the folders holding pages) are worked on at the same time, within a write rate shared by all workers.
+ */
+@Component(
+    service = { CopyScoresToTagsService.class, JobConsumer.class },
+    immediate = true,
+    property = {
+        JobConsumer.PROPERTY_TOPICS + "=" + CopyScoresToTagsServiceImpl.TOPIC })
+@Designate(ocd = CopyScoresToTagsServiceImpl.Config.class)
+public class CopyScoresToTagsServiceImpl implements CopyScoresToTagsService, JobConsumer {
+
+    @ObjectClassDefinition
+    @interface Config {
+        @AttributeDefinition(
+                name = "Chunk Size",
+                description = "Number of pages saved in one commit.")
+        int chunkSize();
+
+        @AttributeDefinition(
+                name = "Target Commit Time",
+                description = "Time (in milliseconds) a commit may take before the job slows down.")
+        long targetCommitTime();
+
+        @AttributeDefinition(
+                name = "Max Write Rate",
+                description = "Max number of pages per second moved by all workers together.")
+        double maxWriteRate();
+
+        @AttributeDefinition(
+                name = "Max Parallelism",
+                description = "Max number of subtrees a job works on at the same time.")
+        int maxParallelism();
+
+        @AttributeDefinition(
+                name = "Max Pause",
+                description = "Max time (in milliseconds) the job pauses between commits while the repository is "
+                        + "busy.")
+        long maxPause();
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(CopyScoresToTagsServiceImpl.class);
+
+    private static final String SUBSERVICE = "contentScoreSync";
+
+    private static final String SCORE = "score";
+
+    static final String TOPIC = "org/cru/contentscoring/copy-scores-to-tags";
+    static final String RUN_ID = "runId";
+
+    static final String CHECKPOINT_ROOT = "/var/cru/content-scoring/copy-scores-to-tags";
+
+    static final String PN_ROOT_PATH = "rootPath";
+    static final String PN_PARALLELISM = "parallelism";
+    static final String PN_STATE = JobCheckpoints.PN_STATE;
+    static final String PN_PROCESSED = "processed";
+    static final String PN_SKIPPED = "skipped";
+    static final String PN_LAST_PATH = "lastPath";
+    static final String PN_REPLICATED = "replicated";
+    static final String PN_PENDING_REPLICATION = "pendingReplication";
+    static final String PN_PAUSE = "pauseMillis";
+    static final String PN_STARTED = JobCheckpoints.PN_STARTED;
+    static final String PN_UPDATED = JobCheckpoints.PN_UPDATED;
+    static final String PN_RUN_STARTED = "runStarted";
+    static final String PN_RUN_START_PROCESSED = "runStartProcessed";
+    static final String PN_DONE = "done";
+
+    // Below a run's checkpoint, one node per subtree when it runs in parallel
+    static final String SUBTREES = "subtrees";
+
+    static final String CHUNK_SIZE = "chunkSize";
+    private static final int DEFAULT_CHUNK_SIZE = 50;
+
+    static final String TARGET_COMMIT_TIME = "targetCommitTime";
+    private static final long DEFAULT_TARGET_COMMIT_TIME = 500L;
+
+    static final String MAX_PAUSE = "maxPause";
+    private static final long DEFAULT_MAX_PAUSE = 10L * 1000L;
+
+    private static final long MIN_PAUSE = 100L;
+
+    static final String MAX_WRITE_RATE = "maxWriteRate";
+    private static final double DEFAULT_MAX_WRITE_RATE = 100.0;
+
+    static final String MAX_PARALLELISM = "maxParallelism";
+    private static final int DEFAULT_MAX_PARALLELISM = 4;
+
+    @Reference
+    JobManager jobManager;
+
+    @Reference
+    SystemUtils systemUtils;
+
+    @Reference
+    SlingSettingsService slingSettingsService;
+
+    @Reference
+    BulkReplicationService bulkReplicationService;
+
+    @Reference
+    ScoreTaxonomyService scoreTaxonomyService;
+
+    @Reference
+    ScorePropagationService scorePropagationService;
+
+    @Reference
+    RepositoryWriteService repositoryWriteService;
+
+    private JobCheckpoints<CopyScoresToTagsStatus> checkpoints;
+    private int chunkSize;
+    private long targetCommitTime;
+    private long maxPause;
+    private int maxParallelism;
+
+    // Shared by all workers of all jobs
+    private RateLimiter writeRateLimiter;
+
+    private volatile boolean stop;
+
+    @Activate
+    public void activate(final Map<String, Object> config) {
+        checkpoints = new JobCheckpoints<>(
+            CHECKPOINT_ROOT,
+            TOPIC,
+            RUN_ID,
+            CopyScoresToTagsServiceImpl::toStatus,
+            jobManager,
+            repositoryWriteService);
+        chunkSize = PropertiesUtil.toInteger(config.get(CHUNK_SIZE), DEFAULT_CHUNK_SIZE);
+        targetCommitTime = PropertiesUtil.toLong(config.get(TARGET_COMMIT_TIME), DEFAULT_TARGET_COMMIT_TIME);
+        maxPause = PropertiesUtil.toLong(config.get(MAX_PAUSE), DEFAULT_MAX_PAUSE);
+        maxParallelism = PropertiesUtil.toInteger(config.get(MAX_PARALLELISM), DEFAULT_MAX_PARALLELISM);
+        writeRateLimiter = RateLimiter.create(
+            PropertiesUtil.toDouble(config.get(MAX_WRITE_RATE), DEFAULT_MAX_WRITE_RATE));
+        stop = false;
+    }
+
+    @Deactivate
+    public void deactivate() {
+        // A running job stops after its current chunk and continues later
+        stop = true;
+    }
+
+    @Override
+    public CopyScoresToTagsStatus start(final String rootPath, final int parallelism)
+        throws LoginException, RepositoryException {
+
+        int boundedParallelism = Math.max(1, Math.min(parallelism, maxParallelism));
+
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            CopyScoresToTagsStatus status = checkpoints.start(lease.getResourceResolver(), checkpoint -> {
+                checkpoint.setProperty(PN_ROOT_PATH, rootPath);
+                checkpoint.setProperty(PN_PARALLELISM, (long) boundedParallelism);
+                checkpoint.setProperty(PN_PROCESSED, 0L);
+                checkpoint.setProperty(PN_SKIPPED, 0L);
+                checkpoint.setProperty(PN_REPLICATED, 0L);
+            });
+            LOG.info("Queued moving the scores under {} to tags as {}", rootPath, status.getId());
+            return status;
+        }
+    }
+
+    @Override
+    public List<CopyScoresToTagsStatus> getStatuses() throws LoginException {
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            return checkpoints.getStatuses(lease.getResourceResolver());
+        }
+    }
+
+    @Override
+    public CopyScoresToTagsStatus getStatus(final String id) throws LoginException {
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            return checkpoints.getStatus(lease.getResourceResolver(), id);
+        }
+    }
+
+    @Override
+    public JobResult process(final Job job) {
+        String id = job.getProperty(RUN_ID, String.class);
+
+        // Not pooled, a run can hold on to it for hours
+        try (ResourceResolver resourceResolver = systemUtils.getResourceResolver(SUBSERVICE)) {
+            CopyScoresToTagsStatus status = checkpoints.getStatus(resourceResolver, id);
+            if (status == null) {
+                LOG.warn("No checkpoint for moving scores to tags as {}, cancelling it", id);
+                return JobResult.CANCEL;
+            }
+            if (status.getState() == State.DONE) {
+                return JobResult.OK;
+            }
+
+            Session session = resourceResolver.adaptTo(Session.class);
+            checkpoints.update(session, id, node -> {
+                Calendar now = Calendar.getInstance();
+                node.setProperty(PN_STATE, State.RUNNING.name());
+                node.setProperty(PN_RUN_STARTED, now);
+                node.setProperty(PN_RUN_START_PROCESSED, status.getProcessed());
+                node.setProperty(PN_UPDATED, now);
+            });
+
+            boolean completed;
+            if (status.getParallelism() > 1) {
+                completed = copyScoresInParallel(resourceResolver, id, status.getRootPath(), status.getParallelism());
+            } else {
+                completed = copyScores(
+                    resourceResolver,
+                    id,
+                    status.getRootPath(),
+                    status.getLastPath(),
+                    checkpoints.getPath(id),
+                    newThrottle());
+            }
+            if (!completed) {
+                // Stopped, the job manager runs it again
+                return JobResult.FAILED;
+            }
+            checkpoints.update(session, id, node -> {
+                node.setProperty(PN_STATE, State.DONE.name());
+                node.setProperty(PN_UPDATED, Calendar.getInstance());
+            });
+            LOG.info("Moved the scores under {} to tags", status.getRootPath());
+            return JobResult.OK;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return JobResult.FAILED;
+        } catch (LoginException | RepositoryException | ReplicationException | SlingException e) {
+            LOG.error("Moving scores to tags as {} failed, it continues on retry", id, e);
+            return JobResult.FAILED;
+        }
+    }
+
+    /**
+     * Splits the root into the subtrees of its children, pages as well as folders, and moves their scores on a
+     * work-stealing pool. Every worker has its own resolver and commit pace; the write rate limit is shared. The
+     * progress of each subtree is checkpointed on its own, below the run's checkpoint.
+     *
+     * @return false if any subtree was stopped or failed
+     */
+    @VisibleForTesting
+    boolean copyScoresInParallel(
+        final ResourceResolver resourceResolver,
+        final String id,
+        final String rootPath,
+        final int parallelism) throws RepositoryException, ReplicationException, InterruptedException {
+
+        Resource root = resourceResolver.getResource(rootPath);
+        if (root == null) {
+            LOG.warn("Root {} of moving scores to tags as {} is gone", rootPath, id);
+            return true;
+        }
+
+        List<Resource> subtreeRoots = new ArrayList<>();
+        List<Resource> scoredSubtreeRoots = new ArrayList<>();
+        for (Resource child : root.getChildren()) {
+            // Folders (e.g. sling:OrderedFolder) hold pages too, only the root's own content has none
+            if (child.getName().equals(JcrConstants.JCR_CONTENT)) {
+                continue;
+            }
+            subtreeRoots.add(child);
+            Resource childContent = getJcrContent(child);
+            if (childContent != null && childContent.getValueMap().containsKey(SCORE)) {
+                scoredSubtreeRoots.add(child);
+            }
+        }
+
+        // The subtree roots aren't part of their own subtree's query
+        String checkpointPath = checkpoints.getPath(id);
+        replicatePending(resourceResolver, id, checkpointPath);
+        AdaptiveThrottle throttle = newThrottle();
+        for (List<Resource> chunk : Lists.partition(scoredSubtreeRoots, chunkSize)) {
+            moveChunk(resourceResolver, id, chunk, checkpointPath, throttle);
+        }
+
+        String subtreesPath = checkpointPath + "/" + SUBTREES;
+        Session session = resourceResolver.adaptTo(Session.class);
+        repositoryWriteService.write(session, () -> {
+            Node checkpoint = session.getNode(checkpointPath);
+            Node subtrees = checkpoint.hasNode(SUBTREES)
+                ? checkpoint.getNode(SUBTREES)
+                : checkpoint.addNode(SUBTREES, JcrConstants.NT_UNSTRUCTURED);
+            for (Resource subtreeRoot : subtreeRoots) {
+                if (!subtrees.hasNode(subtreeRoot.getName())) {
+                    subtrees.addNode(subtreeRoot.getName(), JcrConstants.NT_UNSTRUCTURED);
+                }
+            }
+            return session.hasPendingChanges();
+        });
+
+        List<Callable<Boolean>> tasks = new ArrayList<>(subtreeRoots.size());
+        for (Resource subtreeRoot : subtreeRoots) {
+            String subtreePath = subtreeRoot.getPath();
+            String progressPath = subtreesPath + "/" + subtreeRoot.getName();
+            tasks.add(() -> copySubtree(id, subtreePath, progressPath));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            boolean completed = true;
+            for (Future<Boolean> subtree : pool.invokeAll(tasks)) {
+                try {
+                    completed &= subtree.get();
+                } catch (ExecutionException e) {
+                    LOG.error("Moving the scores of a subtree as {} failed", id, e.getCause());
+                    completed = false;
+                }
+            }
+            return completed;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @VisibleForTesting
+    boolean copySubtree(final String id, final String subtreePath, final String progressPath)
+        throws LoginException, RepositoryException, ReplicationException, InterruptedException {
+
+        try (ResourceResolver resourceResolver = systemUtils.getResourceResolver(SUBSERVICE)) {
+            ValueMap progress = resourceResolver.getResource(progressPath).getValueMap();
+            if (progress.get(PN_DONE, false)) {
+                return true;
+            }
+
+            boolean completed = copyScores(
+                resourceResolver,
+                id,
+                subtreePath,
+                progress.get(PN_LAST_PATH, String.class),
+                progressPath,
+                newThrottle());
+            if (completed) {
+                Session session = resourceResolver.adaptTo(Session.class);
+                repositoryWriteService.write(session, () -> {
+                    session.getNode(progressPath).setProperty(PN_DONE, true);
+                    return true;
+                });
+            }
+            return completed;
+        }
+    }
+
+    /**
+     * @param lastPathBefore the path of the last page handled before, or null to start at the first page
+     * @param progressPath the node that keeps the path of the last page handled, which is where the query continues,
+     *        and the paths of the moved pages still to replicate
+     * @return false if the job was stopped before all scores were moved
+     */
+    private boolean copyScores(
+        final ResourceResolver resourceResolver,
+        final String id,
+        final String rootPath,
+        final String lastPathBefore,
+        final String progressPath,
+        final AdaptiveThrottle throttle) throws RepositoryException, ReplicationException, InterruptedException {
+
+        String statement = ScoringQueries.pagesWithScoreProperty(rootPath);
+        Session session = resourceResolver.adaptTo(Session.class);
+
+        // Pages moved before the last run stopped, but not yet replicated
+        replicatePending(resourceResolver, id, progressPath);
+
+        // One query for the run, the path of the last page handled is only needed to resume a later run
+        Iterator<Resource> results = ScoringQueries.findResources(resourceResolver, statement, lastPathBefore);
+        while (!stop) {
+            List<Resource> chunk = new ArrayList<>(chunkSize);
+            while (chunk.size() < chunkSize && results.hasNext()) {
+                chunk.add(results.next());
+            }
+            if (chunk.isEmpty()) {
+                return true;
+            }
+
+            moveChunk(resourceResolver, id, chunk, progressPath, throttle);
+            String chunkLastPath = chunk.get(chunk.size() - 1).getPath();
+            repositoryWriteService.write(session, () -> {
+                session.getNode(progressPath).setProperty(PN_LAST_PATH, chunkLastPath);
+                return true;
+            });
+        }
+        return false;
+    }
+
+    /**
+     * Moves the scores of the chunk in one commit, replicates the moved pages and checkpoints the counts. The moved
+     * pages that are activated are kept on the progress node in the same commit, until they are replicated.
+     */
+    @VisibleForTesting
+    void moveChunk(
+        final ResourceResolver resourceResolver,
+        final String id,
+        final List<Resource> chunk,
+        final String progressPath,
+        final AdaptiveThrottle throttle) throws RepositoryException, ReplicationException, InterruptedException {
+
+        Session session = resourceResolver.adaptTo(Session.class);
+        TagManager tagManager = resourceResolver.adaptTo(TagManager.class);
+        boolean author = slingSettingsService.getRunModes().contains("author");
+        writeRateLimiter.acquire(chunk.size());
+
+        List<Resource> moved = new ArrayList<>(chunk.size());
+        long commitStarted = System.currentTimeMillis();
+        // The pages and their experience fragments are saved together
+        repositoryWriteService.write(session, () -> {
+            moved.clear();
+            for (Resource page : chunk) {
+                if (moveScoreToTag(page, tagManager)) {
+                    moved.add(page);
+                    propagateScore(page, resourceResolver);
+                }
+            }
+            // Only replicate pages that have already been replicated
+            List<String> pathsToReplicate = author && !moved.isEmpty()
+                ? bulkReplicationService.getActivatedPaths(moved)
+                : Collections.emptyList();
+            if (!pathsToReplicate.isEmpty()) {
+                session.getNode(progressPath).setProperty(
+                    PN_PENDING_REPLICATION,
+                    pathsToReplicate.toArray(new String[0]));
+            }
+            return session.hasPendingChanges();
+        });
+        long pauseMillis = throttle.record(System.currentTimeMillis() - commitStarted);
+
+        replicatePending(resourceResolver, id, progressPath);
+        int chunkSkipped = chunk.size() - moved.size();
+        // Workers update the same checkpoint, a conflicting save is applied again on the fresh counts
+        checkpoints.update(session, id, node -> {
+            node.setProperty(PN_PROCESSED, node.getProperty(PN_PROCESSED).getLong() + moved.size());
+            node.setProperty(PN_SKIPPED, node.getProperty(PN_SKIPPED).getLong() + chunkSkipped);
+            node.setProperty(PN_PAUSE, pauseMillis);
+            node.setProperty(PN_UPDATED, Calendar.getInstance());
+        });
+        LOG.debug("Moved {} scores as {}, pausing {} ms", moved.size(), id, pauseMillis);
+
+        throttle.pause();
+    }
+
+    private AdaptiveThrottle newThrottle() {
+        return new AdaptiveThrottle(targetCommitTime, MIN_PAUSE, maxPause);
+    }
+
+    /**
+     * @return false if the page has no score property to move
+     */
+    @VisibleForTesting
+    boolean moveScoreToTag(final Resource page, final TagManager tagManager) throws RepositoryException {
+        Resource pageContent = getJcrContent(page);
+        Node node = pageContent == null ? null : pageContent.adaptTo(Node.class);
+        if (node == null || !node.hasProperty(SCORE)) {
+            return false;
+        }
+
+        String score = pageContent.getValueMap().get(SCORE, String.class);
+        node.getProperty(SCORE).remove();
+        setTags(pageContent, tagManager, score);
+        return true;
+    }
+
+    /**
+     * Gives the experience fragments of the page the score its tags hold now, which is the existing score tag if the
+     * page had one before its property was moved.
+     */
+    private void propagateScore(final Resource page, final ResourceResolver resourceResolver) {
+        Resource pageContent = getJcrContent(page);
+        int score = scoreTaxonomyService.scoreOf(pageContent);
+        if (score >= 0) {
+            scorePropagationService.propagateScore(resourceResolver, pageContent, score);
+        }
+    }
+
+    private Resource getJcrContent(final Resource resource) {
+        if (resource != null && resource.getResourceType().equals("cq:Page")) {
+            return resource.getChild(JcrConstants.JCR_CONTENT);
+        }
+        return null;
+    }
+
+    private void setTags(final Resource jcrContent, final TagManager tagManager, final String score) {
+        Set<Tag> childTags = buildTagsWithScore(jcrContent, tagManager, score);
+        tagManager.setTags(jcrContent, childTags.toArray(new Tag[0]), false);
+    }
+
+    private Set<Tag> buildTagsWithScore(
+        final Resource contentResource,
+        final TagManager tagManager,
+        final String score) {
+
+        Tag[] existingTags = tagManager.getTags(contentResource);
+        Set<Tag> newTags = Sets.newHashSet();
+
+        for (Tag existingTag : existingTags) {
+            // If there is already a score tag on this resource, prefer it over the property.
+            if (existingTag.getTagID().startsWith(SCALE_OF_BELIEF_TAG_PREFIX)) {
+                return Sets.newHashSet(Arrays.asList(existingTags));
+            }
+            newTags.add(existingTag);
+        }
+
+        Integer parsedScore = score == null ? null : Ints.tryParse(score);
+        Tag scoreTag = parsedScore == null ? null : scoreTaxonomyService.getScoreTag(tagManager, parsedScore);
+        if (scoreTag != null) {
+            newTags.add(scoreTag);
+        }
+
+        return newTags;
+    }
+
+    /**
+     * Replicates the paths kept on the progress node, then removes them and counts them as replicated in one commit.
+     * If the replication fails they stay, and are replicated when the job runs again.
+     */
+    private void replicatePending(
+        final ResourceResolver resourceResolver,
+        final String id,
+        final String progressPath) throws RepositoryException, ReplicationException, InterruptedException {
+
+        Session session = resourceResolver.adaptTo(Session.class);
+        Node progress = session.getNode(progressPath);
+        if (!progress.hasProperty(PN_PENDING_REPLICATION)) {
+            return;
+        }
+
+        List<String> pathsToReplicate = new ArrayList<>();
+        for (Value path : progress.getProperty(PN_PENDING_REPLICATION).getValues()) {
+            pathsToReplicate.add(path.getString());
+        }
+        int replicated = bulkReplicationService.activate(
+            session,
+            pathsToReplicate,
+            (chunkReplicated, total) -> LOG.debug("Replicated {} of {} moved pages", chunkReplicated, total));
+
+        repositoryWriteService.write(session, () -> {
+            Node pending = session.getNode(progressPath);
+            if (pending.hasProperty(PN_PENDING_REPLICATION)) {
+                pending.getProperty(PN_PENDING_REPLICATION).remove();
+            }
+            Node checkpoint = session.getNode(checkpoints.getPath(id));
+            checkpoint.setProperty(PN_REPLICATED, checkpoint.getProperty(PN_REPLICATED).getLong() + replicated);
+            return true;
+        });
+    }
+
+    @VisibleForTesting
+    static CopyScoresToTagsStatus toStatus(final Resource checkpoint) {
+        ValueMap properties = checkpoint.getValueMap();
+
+        CopyScoresToTagsStatus status =
+            new CopyScoresToTagsStatus(checkpoint.getName(), properties.get(PN_ROOT_PATH, String.class));
+        status.setState(State.valueOf(properties.get(PN_STATE, State.QUEUED.name())));
+        status.setParallelism(properties.get(PN_PARALLELISM, 1));
+        status.setProcessed(properties.get(PN_PROCESSED, 0L));
+        status.setSkipped(properties.get(PN_SKIPPED, 0L));
+        status.setLastPath(properties.get(PN_LAST_PATH, String.class));
+        status.setReplicated(properties.get(PN_REPLICATED, 0L));
+        status.setPauseMillis(properties.get(PN_PAUSE, 0L));
+        status.setStarted(JobCheckpoints.toMillis(properties.get(PN_STARTED, Calendar.class)));
+        status.setUpdated(JobCheckpoints.toMillis(properties.get(PN_UPDATED, Calendar.class)));
+        status.setRunStarted(JobCheckpoints.toMillis(properties.get(PN_RUN_STARTED, Calendar.class)));
+        status.setRunStartProcessed(properties.get(PN_RUN_START_PROCESSED, 0L));
+        return status;
+    }
+}
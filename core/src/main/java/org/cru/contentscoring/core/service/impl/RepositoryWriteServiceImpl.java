@@ -0,0 +1,108 @@
+package org.cru.contentscoring.core.service.impl;
+
+import java.util.Map;
+
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.commons.metrics.Meter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.cru.contentscoring.core.service.RepositoryWriteService;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@Component(service = RepositoryWriteService.class)
+@Designate(ocd = RepositoryWriteServiceImpl.Config.class)
+public class RepositoryWriteServiceImpl implements RepositoryWriteService {
+
+    @ObjectClassDefinition
+    @interface Config {
+        @AttributeDefinition(
+                name = "Max Retries",
+                description = "Max number of times a write is applied again after a conflicting save.")
+        int maxRetries();
+
+        @AttributeDefinition(
+                name = "Backoff",
+                description = "Time (in milliseconds) to wait before the first retry, doubled for every next one.")
+        long backoff();
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(RepositoryWriteServiceImpl.class);
+
+    static final String WRITES_METRIC = "cru.contentscoring.jcr.writes";
+    static final String CONFLICTS_METRIC = "cru.contentscoring.jcr.conflicts";
+    static final String FAILURES_METRIC = "cru.contentscoring.jcr.failures";
+
+    static final String MAX_RETRIES = "maxRetries";
+    private static final int DEFAULT_MAX_RETRIES = 3;
+
+    static final String BACKOFF = "backoff";
+    private static final long DEFAULT_BACKOFF = 50L;
+
+    @Reference
+    MetricsService metricsService;
+
+    private int maxRetries;
+    private long backoff;
+
+    private Meter writes;
+    private Meter conflicts;
+    private Meter failures;
+
+    @Activate
+    public void activate(final Map<String, Object> config) {
+        maxRetries = PropertiesUtil.toInteger(config.get(MAX_RETRIES), DEFAULT_MAX_RETRIES);
+        backoff = PropertiesUtil.toLong(config.get(BACKOFF), DEFAULT_BACKOFF);
+
+        writes = metricsService.meter(WRITES_METRIC);
+        conflicts = metricsService.meter(CONFLICTS_METRIC);
+        failures = metricsService.meter(FAILURES_METRIC);
+    }
+
+    @Override
+    public boolean write(final Session session, final Mutation mutation) throws RepositoryException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                if (!mutation.apply()) {
+                    return false;
+                }
+                session.save();
+                writes.mark();
+                return true;
+            } catch (InvalidItemStateException e) {
+                conflicts.mark();
+                session.refresh(false);
+
+                if (attempt >= maxRetries) {
+                    LOG.warn("Giving up after {} conflicting saves", attempt + 1);
+                    failures.mark();
+                    throw e;
+                }
+                LOG.debug("Conflicting save, applying the changes again (attempt {})", attempt + 2);
+                sleep(backoff << attempt);
+            } catch (RepositoryException | RuntimeException e) {
+                failures.mark();
+                session.refresh(false);
+                throw e;
+            }
+        }
+    }
+
+    private void sleep(final long millis) throws RepositoryException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while waiting to retry a write", e);
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package org.cru.contentscoring.core.service.impl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Form;
+import javax.ws.rs.core.Response;
+
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.apache.sling.settings.SlingSettingsService;
+import org.glassfish.jersey.client.ClientProperties;
+import org.cru.contentscoring.core.provider.ExternalUrlPathProvider;
+import org.cru.contentscoring.core.provider.UriProviderUtil;
+import org.cru.contentscoring.core.service.ResourcePathLookupService;
+import org.cru.contentscoring.core.service.VanityPathIndexService;
+import org.cru.contentscoring.core.util.SingleFlightCache;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.ListMultimap;
+
+@Component(service = ResourcePathLookupService.class)
+@Designate(ocd = ResourcePathLookupServiceImpl.Config.class)
+public class ResourcePathLookupServiceImpl implements ResourcePathLookupService {
+
+    @ObjectClassDefinition
+    @interface Config {
+        @AttributeDefinition(
+                name = "Cache Size",
+                description = "Max number of URIs for which the resource path is cached.")
+        long cacheSize();
+
+        @AttributeDefinition(
+                name = "Positive TTL",
+                description = "Time (in milliseconds) a found resource path is cached.")
+        long positiveTtl();
+
+        @AttributeDefinition(
+                name = "Negative TTL",
+                description = "Time (in milliseconds) a URI without resource path is cached.")
+        long negativeTtl();
+
+        @AttributeDefinition(
+                name = "Request Timeout",
+                description = "Time (in milliseconds) a publisher has to accept the connection, and again to answer "
+                    + "a lookup.")
+        long requestTimeout();
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourcePathLookupServiceImpl.class);
+
+    private static final String SUBSERVICE = "contentScoreSync";
+
+    // The publisher batch finder resolves at most this many URLs per request
+    private static final int REMOTE_BATCH_SIZE = 1000;
+
+    static final String CACHE_SIZE = "cacheSize";
+    private static final long DEFAULT_CACHE_SIZE = 10000L;
+
+    static final String POSITIVE_TTL = "positiveTtl";
+    private static final long DEFAULT_POSITIVE_TTL = 10L * 60L * 1000L;
+
+    static final String NEGATIVE_TTL = "negativeTtl";
+    private static final long DEFAULT_NEGATIVE_TTL = 60L * 1000L;
+
+    static final String REQUEST_TIMEOUT = "requestTimeout";
+    private static final long DEFAULT_REQUEST_TIMEOUT = 10L * 1000L;
+
+    @Reference
+    private SlingSettingsService slingSettingsService;
+
+    @Reference
+    SystemUtils systemUtils;
+
+    @Reference
+    private VanityPathIndexService vanityPathIndexService;
+
+    ExternalUrlPathProvider externalUrlPathProvider;
+
+    SingleFlightCache<String, String> lookupCache;
+
+    private int requestTimeout;
+
+    @Activate
+    public void activate(final Map<String, Object> config) {
+        requestTimeout = (int) PropertiesUtil.toLong(config.get(REQUEST_TIMEOUT), DEFAULT_REQUEST_TIMEOUT);
+        // Callers joining a lookup wait as long as one publisher call may take, connecting and answering
+        lookupCache = new SingleFlightCache<>(
+            PropertiesUtil.toLong(config.get(CACHE_SIZE), DEFAULT_CACHE_SIZE),
+            PropertiesUtil.toLong(config.get(POSITIVE_TTL), DEFAULT_POSITIVE_TTL),
+            PropertiesUtil.toLong(config.get(NEGATIVE_TTL), DEFAULT_NEGATIVE_TTL),
+            2L * requestTimeout);
+
+        try {
+            String environment = UriProviderUtil.determineEnvironment(slingSettingsService.getRunModes());
+            externalUrlPathProvider = new ExternalUrlPathProvider(environment, vanityPathIndexService);
+        } catch (IllegalStateException e) {
+            LOG.warn("No environment run mode, resource paths will always be looked up on a publisher");
+            externalUrlPathProvider = null;
+        }
+    }
+
+    @Override
+    public String lookupResourcePath(final String incomingUri) throws URISyntaxException {
+        // A burst of scores often holds the same URIs, those share one lookup instead of each calling a publisher.
+        try {
+            return lookupCache.get(incomingUri, () -> lookupUncached(incomingUri));
+        } catch (URISyntaxException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to look up resource path for " + incomingUri, e);
+        }
+    }
+
+    private String lookupUncached(final String incomingUri) throws URISyntaxException {
+        String resourcePath = determineLocalResourcePath(new URI(incomingUri));
+        if (resourcePath != null) {
+            LOG.debug("Resolved {} locally to {}", incomingUri, resourcePath);
+            return resourcePath;
+        }
+
+        Client client = newClient();
+        try {
+            return determineResourcePath(client, incomingUri);
+        } finally {
+            client.close();
+        }
+    }
+
+    private Client newClient() {
+        return ClientBuilder.newBuilder()
+            .property(ClientProperties.CONNECT_TIMEOUT, requestTimeout)
+            .property(ClientProperties.READ_TIMEOUT, requestTimeout)
+            .build();
+    }
+
+    @Override
+    public Map<String, String> lookupResourcePaths(final Collection<String> incomingUris) {
+        Map<String, URI> uris = new LinkedHashMap<>();
+        for (String incomingUri : new LinkedHashSet<>(incomingUris)) {
+            try {
+                uris.put(incomingUri, new URI(incomingUri));
+            } catch (URISyntaxException e) {
+                LOG.debug("Skipping invalid URI {}", incomingUri);
+            }
+        }
+
+        // Shares the cache of single lookups, so a bulk sync of recently scored URIs doesn't call a publisher again
+        try {
+            return lookupCache.getAll(uris.keySet(), keys -> lookupUncached(Maps.filterKeys(uris, keys::contains)));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to look up resource paths for " + uris.size() + " URIs", e);
+        }
+    }
+
+    /**
+     * @return the resource path per URI, null for URIs without one. URIs whose publisher couldn't be reached are left
+     *         out, so they aren't cached as misses.
+     */
+    private Map<String, String> lookupUncached(final Map<String, URI> uris) {
+        Map<String, String> resourcePaths = determineLocalResourcePaths(uris);
+
+        ListMultimap<String, String> unresolvedByServer = ArrayListMultimap.create();
+        for (Map.Entry<String, URI> uri : uris.entrySet()) {
+            if (resourcePaths.containsKey(uri.getKey())) {
+                continue;
+            }
+            try {
+                unresolvedByServer.put(determineServerUri(uri.getValue()), uri.getKey());
+            } catch (URISyntaxException e) {
+                LOG.debug("Skipping URI without server {}", uri.getKey());
+            }
+        }
+        LOG.debug("Resolved {} of {} URIs locally", resourcePaths.size(), uris.size());
+
+        if (!unresolvedByServer.isEmpty()) {
+            Client client = newClient();
+            try {
+                for (String serverUri : unresolvedByServer.keySet()) {
+                    for (List<String> batch : Lists.partition(unresolvedByServer.get(serverUri), REMOTE_BATCH_SIZE)) {
+                        Map<String, String> batchPaths = determineResourcePaths(client, serverUri, batch);
+                        if (batchPaths == null) {
+                            continue;
+                        }
+                        for (String incomingUri : batch) {
+                            resourcePaths.put(incomingUri, batchPaths.get(incomingUri));
+                        }
+                    }
+                }
+            } finally {
+                client.close();
+            }
+        }
+        return resourcePaths;
+    }
+
+    private Map<String, String> determineLocalResourcePaths(final Map<String, URI> uris) {
+        Map<String, String> resourcePaths = new LinkedHashMap<>();
+        if (externalUrlPathProvider == null || uris.isEmpty()) {
+            return resourcePaths;
+        }
+
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            ResourceResolver resourceResolver = lease.getResourceResolver();
+            for (Map.Entry<String, URI> uri : uris.entrySet()) {
+                String resourcePath = externalUrlPathProvider.toPath(uri.getValue(), resourceResolver);
+                if (resourcePath != null) {
+                    resourcePaths.put(uri.getKey(), resourcePath);
+                }
+            }
+        } catch (LoginException e) {
+            LOG.error("Failed to get resource resolver for {}", SUBSERVICE, e);
+        }
+        return resourcePaths;
+    }
+
+    /**
+     * @return the resource path per URI that has one, or null if the batch path finder couldn't be reached
+     */
+    @VisibleForTesting
+    Map<String, String> determineResourcePaths(
+        final Client client,
+        final String serverUri,
+        final List<String> incomingUris) {
+
+        Form form = new Form();
+        for (String incomingUri : incomingUris) {
+            form.param("path", incomingUri);
+        }
+
+        LOG.debug("Calling {} with {} paths", serverUri + "/bin/cru/path/batch-finder", incomingUris.size());
+        try {
+            Response pathFinderResponse = client.target(serverUri + "/bin/cru/path/batch-finder")
+                .request()
+                .post(Entity.form(form));
+
+            if (pathFinderResponse.getStatus() != 200) {
+                LOG.warn("Batch path finder on {} responded with {}", serverUri, pathFinderResponse.getStatus());
+                return null;
+            }
+
+            Map<String, String> resourcePaths = new ObjectMapper().readValue(
+                pathFinderResponse.readEntity(String.class),
+                new TypeReference<Map<String, String>>() {});
+            resourcePaths.values().removeIf(resourcePath -> resourcePath == null || !resourcePath.startsWith("/"));
+            return resourcePaths;
+        } catch (IOException | ProcessingException e) {
+            LOG.warn("Failed to look up resource paths on {}", serverUri, e);
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    String determineLocalResourcePath(final URI uri) {
+        if (externalUrlPathProvider == null) {
+            return null;
+        }
+
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            ResourceResolver resourceResolver = lease.getResourceResolver();
+            return externalUrlPathProvider.toPath(uri, resourceResolver);
+        } catch (LoginException e) {
+            LOG.error("Failed to get resource resolver for {}", SUBSERVICE, e);
+            return null;
+        }
+    }
+
+    @VisibleForTesting
+    String determineResourcePath(final Client client, final String incomingUri) throws URISyntaxException {
+        Response pathFinderResponse;
+
+        // We're only scoring html pages
+        if (incomingUri.endsWith(".html")) {
+            pathFinderResponse = client.target(incomingUri.replace(".html", "") + ".find.path.txt")
+                .request()
+                .get();
+        } else {
+            String serverUri = determineServerUri(new URI(incomingUri));
+            LOG.debug("Calling {} with path {}", serverUri + "/bin/cru/path/finder.txt", incomingUri);
+            pathFinderResponse = client.target(serverUri + "/bin/cru/path/finder.txt")
+                .queryParam("path", incomingUri)
+                .request()
+                .get();
+        }
+
+        String resourcePath = pathFinderResponse.readEntity(String.class);
+
+        if (Strings.isNullOrEmpty(resourcePath) || !resourcePath.startsWith("/")) {
+            LOG.warn("Resource path not found");
+            return null;
+        }
+        return resourcePath;
+    }
+
+    private String determineServerUri(final URI uri) throws URISyntaxException {
+        // This should be the load-balanced URL (e.g. https://www.cru.org), but could be a publisher URL.
+        return new URIBuilder()
+            .setScheme(uri.getScheme())
+            .setPort(uri.getPort())
+            .setHost(uri.getHost())
+            .build()
+            .toString();
+    }
+}
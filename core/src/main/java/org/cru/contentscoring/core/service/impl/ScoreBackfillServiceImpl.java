@@ -0,0 +1,318 @@
+package org.cru.contentscoring.core.service.impl;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.api.SlingException;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.consumer.JobConsumer;
+import org.cru.contentscoring.core.models.BackfillStatus;
+import org.cru.contentscoring.core.models.BackfillStatus.State;
+import org.cru.contentscoring.core.service.ContentScoreUpdateService;
+import org.cru.contentscoring.core.service.RepositoryWriteService;
+import org.cru.contentscoring.core.service.ScoreBackfillService;
+import org.cru.contentscoring.core.util.JobCheckpoints;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.ScoringQueries;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.wcm.api.Page;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Runs score backfills as Sling jobs. A backfill walks the scored pages under its root in path order with the score
+ * tag query and hands them to the update service in chunks, through the bulk lane of the upload queue. After a chunk
+ * has been delivered, the path of its last query result is checkpointed under {@link #CHECKPOINT_ROOT}, so when
+ * the job is run again after a restart or failure it resumes after that path. Pages are taken at a capped rate.
+ */
+@Component(
+    service = { ScoreBackfillService.class, JobConsumer.class },
+    immediate = true,
+    property = {
+        JobConsumer.PROPERTY_TOPICS + "=" + ScoreBackfillServiceImpl.TOPIC })
+@Designate(ocd = ScoreBackfillServiceImpl.Config.class)
+public class ScoreBackfillServiceImpl implements ScoreBackfillService, JobConsumer {
+
+    @ObjectClassDefinition
+    @interface Config {
+        @AttributeDefinition(
+                name = "Max Rate",
+                description = "Max number of pages per second a backfill sends.")
+        double maxRate();
+
+        @AttributeDefinition(
+                name = "Chunk Size",
+                description = "Number of pages sent and checkpointed together.")
+        int chunkSize();
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScoreBackfillServiceImpl.class);
+
+    private static final String SUBSERVICE = "contentScoreSync";
+
+    static final String TOPIC = "org/cru/contentscoring/backfill";
+    static final String BACKFILL_ID = "backfillId";
+
+    static final String CHECKPOINT_ROOT = "/var/cru/content-scoring/backfill";
+
+    static final String PN_ROOT_PATH = "rootPath";
+    static final String PN_STATE = JobCheckpoints.PN_STATE;
+    static final String PN_TOTAL = "total";
+    static final String PN_PROCESSED = "processed";
+    static final String PN_LAST_PATH = "lastPath";
+    static final String PN_SCORED = "scored";
+    static final String PN_STARTED = JobCheckpoints.PN_STARTED;
+    static final String PN_UPDATED = JobCheckpoints.PN_UPDATED;
+    static final String PN_RUN_STARTED = "runStarted";
+    static final String PN_RUN_START_PROCESSED = "runStartProcessed";
+
+    static final String MAX_RATE = "maxRate";
+    private static final double DEFAULT_MAX_RATE = 10.0;
+
+    static final String CHUNK_SIZE = "chunkSize";
+    private static final int DEFAULT_CHUNK_SIZE = 100;
+
+    // Time between checks whether the backfill was stopped while a chunk is being delivered
+    private static final long DELIVERY_POLL_INTERVAL = 1000L;
+
+    @Reference
+    JobManager jobManager;
+
+    @Reference
+    SystemUtils systemUtils;
+
+    @Reference
+    ContentScoreUpdateService contentScoreUpdateService;
+
+    @Reference
+    RepositoryWriteService repositoryWriteService;
+
+    private JobCheckpoints<BackfillStatus> checkpoints;
+    private RateLimiter rateLimiter;
+    private int chunkSize;
+
+    private volatile boolean stop;
+
+    @Activate
+    public void activate(final Map<String, Object> config) {
+        checkpoints = new JobCheckpoints<>(
+            CHECKPOINT_ROOT,
+            TOPIC,
+            BACKFILL_ID,
+            ScoreBackfillServiceImpl::toStatus,
+            jobManager,
+            repositoryWriteService);
+        rateLimiter = RateLimiter.create(PropertiesUtil.toDouble(config.get(MAX_RATE), DEFAULT_MAX_RATE));
+        chunkSize = PropertiesUtil.toInteger(config.get(CHUNK_SIZE), DEFAULT_CHUNK_SIZE);
+        stop = false;
+    }
+
+    @Deactivate
+    public void deactivate() {
+        // A running backfill stops, also while waiting for a delivery, and resumes from its checkpoint later
+        stop = true;
+    }
+
+    @Override
+    public BackfillStatus start(final String rootPath) throws LoginException, RepositoryException {
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            BackfillStatus status = checkpoints.start(lease.getResourceResolver(), checkpoint -> {
+                checkpoint.setProperty(PN_ROOT_PATH, rootPath);
+                checkpoint.setProperty(PN_PROCESSED, 0L);
+                checkpoint.setProperty(PN_SCORED, 0L);
+            });
+            LOG.info("Queued backfill {} of {}", status.getId(), rootPath);
+            return status;
+        }
+    }
+
+    @Override
+    public List<BackfillStatus> getStatuses() throws LoginException {
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            return checkpoints.getStatuses(lease.getResourceResolver());
+        }
+    }
+
+    @Override
+    public BackfillStatus getStatus(final String id) throws LoginException {
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            return checkpoints.getStatus(lease.getResourceResolver(), id);
+        }
+    }
+
+    @Override
+    public JobResult process(final Job job) {
+        String id = job.getProperty(BACKFILL_ID, String.class);
+
+        // Not pooled, a backfill can hold on to it for hours
+        try (ResourceResolver resourceResolver = systemUtils.getResourceResolver(SUBSERVICE)) {
+            BackfillStatus status = checkpoints.getStatus(resourceResolver, id);
+            if (status == null) {
+                LOG.warn("No checkpoint for backfill {}, cancelling it", id);
+                return JobResult.CANCEL;
+            }
+            if (status.getState() == State.DONE) {
+                return JobResult.OK;
+            }
+
+            Session session = resourceResolver.adaptTo(Session.class);
+            String statement = ScoringQueries.pagesWithScoreTag(status.getRootPath());
+            long total = status.getTotal() >= 0
+                ? status.getTotal()
+                : ScoringQueries.countResults(resourceResolver, statement);
+            checkpoints.update(session, id, node -> {
+                Calendar now = Calendar.getInstance();
+                node.setProperty(PN_STATE, State.RUNNING.name());
+                node.setProperty(PN_TOTAL, total);
+                node.setProperty(PN_RUN_STARTED, now);
+                node.setProperty(PN_RUN_START_PROCESSED, status.getProcessed());
+                node.setProperty(PN_UPDATED, now);
+            });
+            LOG.info("Backfill {} of {} starts at {} of {}", id, status.getRootPath(), status.getProcessed(), total);
+
+            if (!backfill(resourceResolver, id, statement, status.getLastPath())) {
+                // Interrupted, the job manager runs it again
+                return JobResult.FAILED;
+            }
+            checkpoints.update(session, id, node -> {
+                node.setProperty(PN_STATE, State.DONE.name());
+                node.setProperty(PN_UPDATED, Calendar.getInstance());
+            });
+            LOG.info("Backfill {} of {} is done", id, status.getRootPath());
+            return JobResult.OK;
+        } catch (LoginException | RepositoryException | SlingException e) {
+            LOG.error("Backfill {} failed, it resumes from its checkpoint on retry", id, e);
+            return JobResult.FAILED;
+        }
+    }
+
+    /**
+     * @return false if the backfill was stopped before it got through all pages
+     */
+    private boolean backfill(
+        final ResourceResolver resourceResolver,
+        final String id,
+        final String statement,
+        final String lastPath) throws RepositoryException {
+
+        Iterator<Resource> scoredContents = ScoringQueries.findResources(resourceResolver, statement, lastPath);
+
+        List<Page> chunk = new ArrayList<>(chunkSize);
+        int chunkResults = 0;
+        String chunkPath = null;
+        while (scoredContents.hasNext()) {
+            if (stop) {
+                return false;
+            }
+
+            Resource content = scoredContents.next();
+            Resource pageResource = content.getParent();
+            Page page = pageResource == null ? null : pageResource.adaptTo(Page.class);
+            chunkPath = content.getPath();
+            chunkResults++;
+            if (page != null) {
+                rateLimiter.acquire();
+                chunk.add(page);
+            }
+
+            if (chunkResults == chunkSize) {
+                if (!sendChunk(resourceResolver.adaptTo(Session.class), id, chunk, chunkResults, chunkPath)) {
+                    return false;
+                }
+                chunk = new ArrayList<>(chunkSize);
+                chunkResults = 0;
+            }
+        }
+        if (chunkResults > 0) {
+            return sendChunk(resourceResolver.adaptTo(Session.class), id, chunk, chunkResults, chunkPath);
+        }
+        return true;
+    }
+
+    /**
+     * Only checkpoints once the API accepted the chunk, the upload queue doesn't survive a restart.
+     *
+     * @param lastPath the path of the last query result of the chunk
+     * @return false if the backfill was stopped before the chunk was delivered, it isn't checkpointed then
+     */
+    @VisibleForTesting
+    boolean sendChunk(
+        final Session session,
+        final String id,
+        final List<Page> chunk,
+        final int chunkResults,
+        final String lastPath) throws RepositoryException {
+
+        CompletableFuture<Void> delivery = contentScoreUpdateService.backfillContentScores(chunk).toCompletableFuture();
+        try {
+            // Waits in steps, so deactivating the service doesn't have to wait for a slow or stuck delivery
+            while (true) {
+                try {
+                    delivery.get(DELIVERY_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    if (stop) {
+                        LOG.info("Backfill {} stopped while waiting for the delivery of a chunk", id);
+                        return false;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while waiting for the delivery of backfill " + id, e);
+        } catch (ExecutionException e) {
+            throw new RepositoryException("Failed to deliver a chunk of backfill " + id, e.getCause());
+        }
+
+        checkpoints.update(session, id, node -> {
+            node.setProperty(PN_LAST_PATH, lastPath);
+            node.setProperty(PN_PROCESSED, node.getProperty(PN_PROCESSED).getLong() + chunkResults);
+            node.setProperty(PN_SCORED, node.getProperty(PN_SCORED).getLong() + chunk.size());
+            node.setProperty(PN_UPDATED, Calendar.getInstance());
+        });
+        return true;
+    }
+
+    @VisibleForTesting
+    static BackfillStatus toStatus(final Resource checkpoint) {
+        ValueMap properties = checkpoint.getValueMap();
+
+        BackfillStatus status = new BackfillStatus(checkpoint.getName(), properties.get(PN_ROOT_PATH, String.class));
+        status.setState(State.valueOf(properties.get(PN_STATE, State.QUEUED.name())));
+        status.setTotal(properties.get(PN_TOTAL, -1L));
+        status.setProcessed(properties.get(PN_PROCESSED, 0L));
+        status.setLastPath(properties.get(PN_LAST_PATH, String.class));
+        status.setScored(properties.get(PN_SCORED, 0L));
+        status.setStarted(JobCheckpoints.toMillis(properties.get(PN_STARTED, Calendar.class)));
+        status.setUpdated(JobCheckpoints.toMillis(properties.get(PN_UPDATED, Calendar.class)));
+        status.setRunStarted(JobCheckpoints.toMillis(properties.get(PN_RUN_STARTED, Calendar.class)));
+        status.setRunStartProcessed(properties.get(PN_RUN_START_PROCESSED, 0L));
+        return status;
+    }
+}
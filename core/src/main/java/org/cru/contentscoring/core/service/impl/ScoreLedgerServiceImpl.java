@@ -0,0 +1,103 @@
+package org.cru.contentscoring.core.service.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.cru.contentscoring.core.ledger.ScoreLedger;
+import org.cru.contentscoring.core.service.ScoreLedgerService;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+
+/**
+ * Keeps the {@link ScoreLedger} in the data area of the bundle, unless another directory is configured. The ledger
+ * is a cache of what the API was told: if it can't be read or written, scores are sent as if it was empty.
+ */
+@Component(service = ScoreLedgerService.class)
+@Designate(ocd = ScoreLedgerServiceImpl.Config.class)
+public class ScoreLedgerServiceImpl implements ScoreLedgerService {
+
+    @ObjectClassDefinition
+    @interface Config {
+        @AttributeDefinition(
+                name = "Directory",
+                description = "Directory of the score ledger files. Empty for the data area of the bundle.")
+        String directory();
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScoreLedgerServiceImpl.class);
+
+    static final String DIRECTORY = "directory";
+    private static final String DEFAULT_DIRECTORY = "score-ledger";
+
+    ScoreLedger ledger;
+
+    @Activate
+    public void activate(final BundleContext bundleContext, final Map<String, Object> config) {
+        String configuredDirectory = PropertiesUtil.toString(config.get(DIRECTORY), null);
+        File directory = Strings.isNullOrEmpty(configuredDirectory)
+            ? bundleContext.getDataFile(DEFAULT_DIRECTORY)
+            : new File(configuredDirectory);
+
+        try {
+            ledger = ScoreLedger.open(directory);
+            LOG.info("Opened the score ledger in {} with {} URIs", directory, ledger.size());
+        } catch (IOException e) {
+            LOG.error("Failed to open the score ledger in {}, every score will be sent", directory, e);
+        }
+    }
+
+    @Override
+    public ScoreLedger.Entry getLastSent(final String uri) {
+        if (ledger == null) {
+            return null;
+        }
+        try {
+            return ledger.get(uri);
+        } catch (IOException e) {
+            LOG.warn("Failed to read the score ledger entry of {}", uri, e);
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isUnchanged(final String uri, final int score) {
+        ScoreLedger.Entry entry = getLastSent(uri);
+        return entry != null && entry.getOutcome() == ScoreLedger.Outcome.ACCEPTED && entry.getScore() == score;
+    }
+
+    @Override
+    public void recordSent(final String uri, final int score, final ScoreLedger.Outcome outcome) {
+        if (ledger == null) {
+            return;
+        }
+        try {
+            ledger.record(uri, score, System.currentTimeMillis(), outcome);
+        } catch (IOException e) {
+            LOG.warn("Failed to record the score of {} in the score ledger", uri, e);
+        }
+    }
+
+    @Deactivate
+    void deactivate() {
+        if (ledger == null) {
+            return;
+        }
+        try {
+            ledger.close();
+        } catch (IOException e) {
+            LOG.warn("Failed to close the score ledger", e);
+        }
+        ledger = null;
+    }
+}
@@ -0,0 +1,183 @@
+package org.cru.contentscoring.core.service.impl;
+
+import static org.cru.contentscoring.core.service.impl.SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.cru.contentscoring.core.service.ScorePropagationService;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
+import org.cru.contentscoring.core.util.ExperienceFragmentUtil;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.tagging.Tag;
+import com.day.cq.tagging.TagManager;
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+@Component(service = ScorePropagationService.class)
+@Designate(ocd = ScorePropagationServiceImpl.Config.class)
+public class ScorePropagationServiceImpl implements ScorePropagationService {
+
+    @ObjectClassDefinition
+    @interface Config {
+        @AttributeDefinition(
+                name = "Cache Size",
+                description = "Number of pages whose experience fragments are cached.")
+        long cacheSize();
+
+        @AttributeDefinition(
+                name = "Cache TTL",
+                description = "Time (in milliseconds) the experience fragments of a page are cached. New variations "
+                    + "of a fragment receive scores once this has passed.")
+        long cacheTtl();
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScorePropagationServiceImpl.class);
+
+    static final String PRIMARY_XF_NAME = "primaryExperienceFragment";
+
+    static final String CACHE_SIZE = "cacheSize";
+    private static final long DEFAULT_CACHE_SIZE = 10000L;
+
+    static final String CACHE_TTL = "cacheTtl";
+    private static final long DEFAULT_CACHE_TTL = 10L * 60L * 1000L;
+
+    @Reference
+    ScoreTaxonomyService scoreTaxonomyService;
+
+    // Page content path to the page's experience fragments
+    Cache<String, ExperienceFragments> experienceFragmentsByPage;
+
+    @Activate
+    public void activate(final Map<String, Object> config) {
+        experienceFragmentsByPage = CacheBuilder.newBuilder()
+            .maximumSize(PropertiesUtil.toLong(config.get(CACHE_SIZE), DEFAULT_CACHE_SIZE))
+            .expireAfterWrite(PropertiesUtil.toLong(config.get(CACHE_TTL), DEFAULT_CACHE_TTL), TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    @Override
+    public int propagateScore(final ResourceResolver resourceResolver, final Resource pageContent, final int score) {
+        List<String> contentPaths = getExperienceFragmentContentPaths(resourceResolver, pageContent);
+        if (contentPaths.isEmpty()) {
+            return 0;
+        }
+
+        TagManager tagManager = resourceResolver.adaptTo(TagManager.class);
+        Tag scoreTag = scoreTaxonomyService.getScoreTag(tagManager, score);
+        if (scoreTag == null) {
+            return 0;
+        }
+
+        int changed = 0;
+        for (String contentPath : contentPaths) {
+            Resource content = resourceResolver.getResource(contentPath);
+            // Read from cq:tags without resolving, most variations already have the score
+            if (content == null || scoreTaxonomyService.scoreOf(content) == score) {
+                continue;
+            }
+
+            List<Tag> newTags = new ArrayList<>();
+            for (Tag existingTag : tagManager.getTags(content)) {
+                if (!existingTag.getTagID().startsWith(SCALE_OF_BELIEF_TAG_PREFIX)) {
+                    newTags.add(existingTag);
+                }
+            }
+            newTags.add(scoreTag);
+            tagManager.setTags(content, newTags.toArray(new Tag[0]), false);
+            changed++;
+        }
+
+        LOG.debug("Set score {} on {} of {} experience fragments of {}",
+            score, changed, contentPaths.size(), pageContent.getPath());
+        return changed;
+    }
+
+    @Override
+    public List<String> getExperienceFragmentContentPaths(
+        final ResourceResolver resourceResolver,
+        final Resource pageContent) {
+
+        String pagePath = pageContent.getPath();
+        String primaryExperienceFragmentPath = pageContent.getValueMap().get(PRIMARY_XF_NAME, String.class);
+        if (Strings.isNullOrEmpty(primaryExperienceFragmentPath)) {
+            experienceFragmentsByPage.invalidate(pagePath);
+            return Collections.emptyList();
+        }
+
+        // The page may have been pointed at another fragment since it was cached
+        ExperienceFragments cached = experienceFragmentsByPage.getIfPresent(pagePath);
+        if (cached != null && cached.primaryPath.equals(primaryExperienceFragmentPath)) {
+            return cached.contentPaths;
+        }
+
+        ExperienceFragments found = new ExperienceFragments(
+            primaryExperienceFragmentPath,
+            findContentPaths(resourceResolver, primaryExperienceFragmentPath));
+        experienceFragmentsByPage.put(pagePath, found);
+        return found.contentPaths;
+    }
+
+    private List<String> findContentPaths(
+        final ResourceResolver resourceResolver,
+        final String primaryExperienceFragmentPath) {
+
+        Resource primaryExperienceFragment = resourceResolver.getResource(primaryExperienceFragmentPath);
+        Resource jcrContent = getJcrContent(primaryExperienceFragment);
+
+        Resource experienceFragment;
+        if (ExperienceFragmentUtil.isExperienceFragmentVariation(jcrContent)) {
+            experienceFragment = primaryExperienceFragment.getParent();
+        } else if (ExperienceFragmentUtil.isExperienceFragment(jcrContent)) {
+            experienceFragment = primaryExperienceFragment;
+        } else {
+            return Collections.emptyList();
+        }
+
+        List<String> contentPaths = new ArrayList<>();
+        Resource experienceFragmentContent = getJcrContent(experienceFragment);
+        if (experienceFragmentContent != null) {
+            contentPaths.add(experienceFragmentContent.getPath());
+        }
+        for (Resource variation : experienceFragment.getChildren()) {
+            Resource variationContent = getJcrContent(variation);
+            if (variationContent != null) {
+                contentPaths.add(variationContent.getPath());
+            }
+        }
+        return Collections.unmodifiableList(contentPaths);
+    }
+
+    private Resource getJcrContent(final Resource resource) {
+        if (resource != null && resource.getResourceType().equals("cq:Page")) {
+            return resource.getChild(JcrConstants.JCR_CONTENT);
+        }
+        return null;
+    }
+
+    static class ExperienceFragments {
+        private final String primaryPath;
+        private final List<String> contentPaths;
+
+        ExperienceFragments(final String primaryPath, final List<String> contentPaths) {
+            this.primaryPath = primaryPath;
+            this.contentPaths = contentPaths;
+        }
+    }
+}
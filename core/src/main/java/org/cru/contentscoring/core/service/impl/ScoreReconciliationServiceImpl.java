@@ -0,0 +1,441 @@
+package org.cru.contentscoring.core.service.impl;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+
+import org.apache.sling.api.SlingException;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.consumer.JobConsumer;
+import org.apache.sling.settings.SlingSettingsService;
+import org.cru.contentscoring.core.models.ReconciliationStatus;
+import org.cru.contentscoring.core.models.ReconciliationStatus.State;
+import org.cru.contentscoring.core.provider.AbsolutePathUriProvider;
+import org.cru.contentscoring.core.provider.PageUriProvider;
+import org.cru.contentscoring.core.provider.UriProviderUtil;
+import org.cru.contentscoring.core.reconciliation.ApiScoreDigestSource;
+import org.cru.contentscoring.core.reconciliation.RepositoryScoreDigestSource;
+import org.cru.contentscoring.core.reconciliation.ScoreDigestSource;
+import org.cru.contentscoring.core.reconciliation.ScoreHashTree;
+import org.cru.contentscoring.core.service.ContentScoreUpdateService;
+import org.cru.contentscoring.core.service.RepositoryWriteService;
+import org.cru.contentscoring.core.service.ScoreReconciliationService;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
+import org.cru.contentscoring.core.util.ExperienceFragmentUtil;
+import org.cru.contentscoring.core.util.JobCheckpoints;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.ScoringQueries;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+/**
+ * Reconciles the scores under a root with the scoring API as Sling jobs. The scored pages are walked once to build a
+ * {@link ScoreHashTree} over their (URI, score) pairs, which is compared with the API's tree level by level. The
+ * pairs are also written to a temporary file while walking; if leaf buckets differ, the pairs in them are read back
+ * and sent for exactly the URIs that were hashed, through the bulk lane of the upload queue. Without a configured
+ * digest endpoint, the tree of the last reconciliation kept in the repository stands in for the API's.
+ * <p>
+ * Sending can't remove pairs that only the API holds, so their buckets keep differing until the API drops them.
+ * <p>
+ * The service requires the {@link ContentScoreUpdateService}, so it stays inactive while
+ * ContentScoreUpdateServiceImpl isn't registered as a component, and the reconciliation servlet with it.
+ */
+@Component(
+    service = { ScoreReconciliationService.class, JobConsumer.class },
+    immediate = true,
+    property = {
+        JobConsumer.PROPERTY_TOPICS + "=" + ScoreReconciliationServiceImpl.TOPIC })
+@Designate(ocd = ScoreReconciliationServiceImpl.Config.class)
+public class ScoreReconciliationServiceImpl implements ScoreReconciliationService, JobConsumer {
+
+    @ObjectClassDefinition
+    @interface Config {
+        @AttributeDefinition(
+                name = "Digest Endpoint",
+                description = "The endpoint of the scoring API that serves the digests of its hash tree. If empty, "
+                    + "the tree of the last reconciliation is used instead.")
+        String digestEndpoint();
+
+        @AttributeDefinition(
+                name = "Chunk Size",
+                description = "Number of URIs sent together.")
+        int chunkSize();
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ScoreReconciliationServiceImpl.class);
+
+    private static final String SUBSERVICE = "contentScoreSync";
+
+    private static final String API_KEY_LOCATION = "AEM_CONTENT_SCORING_API_KEY";
+
+    static final String TOPIC = "org/cru/contentscoring/reconciliation";
+    static final String RECONCILIATION_ID = "reconciliationId";
+
+    static final String CHECKPOINT_ROOT = "/var/cru/content-scoring/reconciliation/runs";
+
+    static final String PN_ROOT_PATH = "rootPath";
+    static final String PN_SCOPE = "scope";
+    static final String PN_STATE = JobCheckpoints.PN_STATE;
+    static final String PN_PAGES = "pages";
+    static final String PN_URIS = "uris";
+    static final String PN_DIGESTS_COMPARED = "digestsCompared";
+    static final String PN_DIFFERING_BUCKETS = "differingBuckets";
+    static final String PN_SENT = "sent";
+    static final String PN_STARTED = JobCheckpoints.PN_STARTED;
+    static final String PN_UPDATED = JobCheckpoints.PN_UPDATED;
+
+    static final String DIGEST_ENDPOINT = "digestEndpoint";
+
+    static final String CHUNK_SIZE = "chunkSize";
+    private static final int DEFAULT_CHUNK_SIZE = 100;
+
+    @Reference
+    JobManager jobManager;
+
+    @Reference
+    SystemUtils systemUtils;
+
+    @Reference
+    SlingSettingsService slingSettingsService;
+
+    @Reference
+    ContentScoreUpdateService contentScoreUpdateService;
+
+    @Reference
+    ScoreTaxonomyService scoreTaxonomyService;
+
+    @Reference
+    RepositoryWriteService repositoryWriteService;
+
+    ScoreDigestSource digestSource;
+    PageUriProvider pageUriProvider;
+    AbsolutePathUriProvider absolutePathUriProvider;
+
+    private JobCheckpoints<ReconciliationStatus> checkpoints;
+    private Client client;
+    private int chunkSize;
+
+    @Activate
+    public void activate(final Map<String, Object> config) {
+        checkpoints = new JobCheckpoints<>(
+            CHECKPOINT_ROOT,
+            TOPIC,
+            RECONCILIATION_ID,
+            ScoreReconciliationServiceImpl::toStatus,
+            jobManager,
+            repositoryWriteService);
+        chunkSize = PropertiesUtil.toInteger(config.get(CHUNK_SIZE), DEFAULT_CHUNK_SIZE);
+
+        String digestEndpoint = PropertiesUtil.toString(config.get(DIGEST_ENDPOINT), null);
+        if (Strings.isNullOrEmpty(digestEndpoint)) {
+            digestSource = new RepositoryScoreDigestSource(systemUtils, repositoryWriteService, SUBSERVICE);
+        } else {
+            String apiKeyString = System.getenv(API_KEY_LOCATION);
+            Preconditions.checkNotNull(apiKeyString, "API Key is null!");
+            client = ClientBuilder.newBuilder().build().register(JacksonJsonProvider.class);
+            digestSource = new ApiScoreDigestSource(client, digestEndpoint, UUID.fromString(apiKeyString));
+        }
+
+        try {
+            String environment = UriProviderUtil.determineEnvironment(slingSettingsService.getRunModes());
+            pageUriProvider = new PageUriProvider(environment);
+            absolutePathUriProvider = new AbsolutePathUriProvider(environment);
+        } catch (IllegalStateException e) {
+            LOG.warn("No environment run mode, the URIs of pages can't be determined for reconciliations");
+            pageUriProvider = null;
+            absolutePathUriProvider = null;
+        }
+    }
+
+    @Deactivate
+    public void deactivate() {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+
+    @Override
+    public ReconciliationStatus start(final String rootPath) throws LoginException, RepositoryException {
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            ReconciliationStatus status = checkpoints.start(
+                lease.getResourceResolver(),
+                checkpoint -> checkpoint.setProperty(PN_ROOT_PATH, rootPath));
+            LOG.info("Queued reconciliation {} of {}", status.getId(), rootPath);
+            return status;
+        }
+    }
+
+    @Override
+    public List<ReconciliationStatus> getStatuses() throws LoginException {
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            return checkpoints.getStatuses(lease.getResourceResolver());
+        }
+    }
+
+    @Override
+    public ReconciliationStatus getStatus(final String id) throws LoginException {
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            return checkpoints.getStatus(lease.getResourceResolver(), id);
+        }
+    }
+
+    @Override
+    public JobResult process(final Job job) {
+        String id = job.getProperty(RECONCILIATION_ID, String.class);
+
+        // Not pooled, walking a large site takes a while
+        try (ResourceResolver resourceResolver = systemUtils.getResourceResolver(SUBSERVICE)) {
+            ReconciliationStatus status = checkpoints.getStatus(resourceResolver, id);
+            if (status == null) {
+                LOG.warn("No checkpoint for reconciliation {}, cancelling it", id);
+                return JobResult.CANCEL;
+            }
+
+            Session session = resourceResolver.adaptTo(Session.class);
+            String rootPath = status.getRootPath();
+            Resource root = resourceResolver.getResource(rootPath);
+            String scope = root == null || absolutePathUriProvider == null
+                ? null
+                : scopeOf(absolutePathUriProvider.toURI(root, resourceResolver));
+            if (scope == null) {
+                LOG.error("Reconciliation {} of {} has no URI to compare scores under, cancelling it", id, rootPath);
+                checkpoints.update(session, id, node -> node.setProperty(PN_STATE, State.FAILED.name()));
+                return JobResult.CANCEL;
+            }
+            checkpoints.update(session, id, node -> {
+                node.setProperty(PN_STATE, State.RUNNING.name());
+                node.setProperty(PN_SCOPE, scope);
+                node.setProperty(PN_SENT, 0L);
+                node.setProperty(PN_UPDATED, Calendar.getInstance());
+            });
+
+            // The pairs as hashed, so a differing bucket is sent without walking the pages again
+            Path pairs = Files.createTempFile("reconciliation-" + id, ".tsv");
+            try {
+                ScoreHashTree tree = new ScoreHashTree();
+                long[] counts = new long[2];
+                try (BufferedWriter writer = Files.newBufferedWriter(pairs, StandardCharsets.UTF_8)) {
+                    forEachScoredPage(resourceResolver, rootPath, scope, (score, uris) -> {
+                        for (String uri : uris) {
+                            tree.add(uri, score);
+                            writer.write(uri + '\t' + score);
+                            writer.newLine();
+                        }
+                        counts[0]++;
+                        counts[1] += uris.size();
+                    });
+                }
+
+                ScoreHashTree.Difference difference = tree.compareTo(digestSource, scope);
+                checkpoints.update(session, id, node -> {
+                    node.setProperty(PN_PAGES, counts[0]);
+                    node.setProperty(PN_URIS, counts[1]);
+                    node.setProperty(PN_DIGESTS_COMPARED, (long) difference.getDigestsCompared());
+                    node.setProperty(PN_DIFFERING_BUCKETS, (long) difference.getBuckets().size());
+                    node.setProperty(PN_UPDATED, Calendar.getInstance());
+                });
+                LOG.info("Reconciliation {} of {} compared {} digests, {} of {} buckets differ",
+                    id,
+                    rootPath,
+                    difference.getDigestsCompared(),
+                    difference.getBuckets().size(),
+                    ScoreHashTree.LEAVES);
+
+                if (!difference.getBuckets().isEmpty()) {
+                    sendBuckets(session, id, pairs, new HashSet<>(difference.getBuckets()));
+                    digestSource.reconciled(scope, tree);
+                }
+            } finally {
+                Files.deleteIfExists(pairs);
+            }
+
+            checkpoints.update(session, id, node -> {
+                node.setProperty(PN_STATE, State.DONE.name());
+                node.setProperty(PN_UPDATED, Calendar.getInstance());
+            });
+            return JobResult.OK;
+        } catch (LoginException | RepositoryException | IOException | SlingException e) {
+            LOG.error("Reconciliation {} failed, it starts over on retry", id, e);
+            return JobResult.FAILED;
+        }
+    }
+
+    /**
+     * Sends the pairs with a URI in one of the given buckets, one chunk at a time.
+     *
+     * @param pairs the file of tab separated (URI, score) pairs, one per line
+     */
+    @VisibleForTesting
+    void sendBuckets(final Session session, final String id, final Path pairs, final Set<Integer> buckets)
+        throws RepositoryException, IOException {
+
+        Map<String, Integer> chunk = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(pairs, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.lastIndexOf('\t');
+                String uri = line.substring(0, separator);
+                if (!buckets.contains(ScoreHashTree.bucketOf(uri))) {
+                    continue;
+                }
+                chunk.put(uri, Integer.parseInt(line.substring(separator + 1)));
+                if (chunk.size() == chunkSize) {
+                    sendChunk(session, id, chunk);
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            sendChunk(session, id, chunk);
+        }
+    }
+
+    /**
+     * Waits for the delivery, the tree may only be taken as the API's once all differing pairs were accepted.
+     */
+    private void sendChunk(final Session session, final String id, final Map<String, Integer> chunk)
+        throws RepositoryException {
+
+        try {
+            contentScoreUpdateService.backfillScores(chunk).toCompletableFuture().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RepositoryException("Interrupted while waiting for the delivery of reconciliation " + id, e);
+        } catch (ExecutionException e) {
+            throw new RepositoryException("Failed to deliver a chunk of reconciliation " + id, e.getCause());
+        }
+
+        checkpoints.update(session, id, node -> {
+            node.setProperty(PN_SENT, node.getProperty(PN_SENT).getLong() + chunk.size());
+            node.setProperty(PN_UPDATED, Calendar.getInstance());
+        });
+    }
+
+    private void forEachScoredPage(
+        final ResourceResolver resourceResolver,
+        final String rootPath,
+        final String scope,
+        final ScoredPageVisitor visitor) throws RepositoryException, IOException {
+
+        Iterator<Resource> scoredContents = ScoringQueries.findResources(
+            resourceResolver,
+            ScoringQueries.pagesWithScoreTag(rootPath));
+
+        while (scoredContents.hasNext()) {
+            Resource content = scoredContents.next();
+            // Experience fragments have no URI of their own, their scores are never sent
+            if (ExperienceFragmentUtil.isExperienceFragment(content)
+                    || ExperienceFragmentUtil.isExperienceFragmentVariation(content)) {
+                continue;
+            }
+
+            int score;
+            try {
+                score = scoreTaxonomyService.scoreOf(content);
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Invalid score on {}, skipping", content.getPath(), e);
+                continue;
+            }
+            Resource pageResource = content.getParent();
+            if (score < 0 || pageResource == null) {
+                continue;
+            }
+
+            Set<String> uris = new LinkedHashSet<>();
+            for (String uri : pageUriProvider.toUris(pageResource, resourceResolver)) {
+                if (inScope(uri, scope)) {
+                    uris.add(uri);
+                }
+            }
+            if (!uris.isEmpty()) {
+                visitor.visit(score, uris);
+            }
+        }
+    }
+
+    /**
+     * @return the URI of the root page without its extension, or null if it has none
+     */
+    @VisibleForTesting
+    static String scopeOf(final URI rootUri) {
+        if (rootUri == null) {
+            return null;
+        }
+        String scope = rootUri.toString();
+        return scope.endsWith(".html") ? scope.substring(0, scope.length() - ".html".length()) : scope;
+    }
+
+    @VisibleForTesting
+    static boolean inScope(final String uri, final String scope) {
+        if (!uri.startsWith(scope)) {
+            return false;
+        }
+        if (uri.length() == scope.length()) {
+            return true;
+        }
+        char next = uri.charAt(scope.length());
+        return next == '.' || next == '/';
+    }
+
+    @VisibleForTesting
+    static ReconciliationStatus toStatus(final Resource checkpoint) {
+        ValueMap properties = checkpoint.getValueMap();
+
+        ReconciliationStatus status = new ReconciliationStatus(
+            checkpoint.getName(),
+            properties.get(PN_ROOT_PATH, String.class));
+        status.setScope(properties.get(PN_SCOPE, String.class));
+        status.setState(State.valueOf(properties.get(PN_STATE, State.QUEUED.name())));
+        status.setPages(properties.get(PN_PAGES, 0L));
+        status.setUris(properties.get(PN_URIS, 0L));
+        status.setDigestsCompared(properties.get(PN_DIGESTS_COMPARED, 0L));
+        status.setDifferingBuckets(properties.get(PN_DIFFERING_BUCKETS, 0L));
+        status.setSent(properties.get(PN_SENT, 0L));
+        status.setStarted(JobCheckpoints.toMillis(properties.get(PN_STARTED, Calendar.class)));
+        status.setUpdated(JobCheckpoints.toMillis(properties.get(PN_UPDATED, Calendar.class)));
+        return status;
+    }
+
+    private interface ScoredPageVisitor {
+        void visit(int score, Set<String> uris) throws IOException;
+    }
+}
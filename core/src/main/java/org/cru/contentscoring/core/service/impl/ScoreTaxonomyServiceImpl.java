@@ -0,0 +1,171 @@
+package org.cru.contentscoring.core.service.impl;
+
+import static org.cru.contentscoring.core.service.impl.SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
+import org.cru.contentscoring.core.util.ScoringQueries;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.tagging.Tag;
+import com.day.cq.tagging.TagConstants;
+import com.day.cq.tagging.TagManager;
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps the IDs of the scale-of-belief tags in memory, so scoring components don't have to look them up for every
+ * page. Only IDs and scores are kept: a {@link Tag} is bound to the resolver that resolved it, so callers resolve
+ * the tag with their own resolver. The IDs are loaded again after anything under the taxonomy changes.
+ */
+@Component(
+    service = { ScoreTaxonomyService.class, ResourceChangeListener.class },
+    property = {
+        ResourceChangeListener.PATHS + "=" + ScoreTaxonomyServiceImpl.SCORE_TAGS_PATH,
+        ResourceChangeListener.CHANGES + "=ADDED",
+        ResourceChangeListener.CHANGES + "=CHANGED",
+        ResourceChangeListener.CHANGES + "=REMOVED" })
+public class ScoreTaxonomyServiceImpl implements ScoreTaxonomyService, ResourceChangeListener {
+    private static final Logger LOG = LoggerFactory.getLogger(ScoreTaxonomyServiceImpl.class);
+
+    private static final String SUBSERVICE = "contentScoreSync";
+
+    static final String SCORE_TAGS_PATH = "/content/cq:tags/target-audience/scale-of-belief";
+
+    // Used while the tags can't be loaded, assumes every score tag exists under its usual ID
+    private static final Taxonomy FALLBACK = fallback();
+
+    @Reference
+    SystemUtils systemUtils;
+
+    private volatile Taxonomy taxonomy;
+
+    @Deactivate
+    public synchronized void deactivate() {
+        taxonomy = null;
+    }
+
+    @Override
+    public void onChange(final List<ResourceChange> changes) {
+        LOG.debug("Scale-of-belief tags changed, reloading them on next use");
+        taxonomy = null;
+    }
+
+    @Override
+    public Tag getScoreTag(final TagManager tagManager, final int score) {
+        if (score < ScoringQueries.MIN_SCORE || score > ScoringQueries.MAX_SCORE) {
+            return null;
+        }
+        String tagId = taxonomy().tagIds[score];
+        return tagId == null ? null : tagManager.resolve(tagId);
+    }
+
+    @Override
+    public Integer getScore(final String tagId) {
+        if (tagId == null) {
+            return null;
+        }
+
+        Integer score = taxonomy().scoresByTagId.get(tagId);
+        if (score != null || !tagId.startsWith(SCALE_OF_BELIEF_TAG_PREFIX)) {
+            return score;
+        }
+
+        // Not a known tag, but the ID still says which score it is meant to be
+        score = Integer.parseInt(tagId.substring(SCALE_OF_BELIEF_TAG_PREFIX.length()));
+        Preconditions.checkArgument(
+            score >= ScoringQueries.MIN_SCORE && score <= ScoringQueries.MAX_SCORE,
+            "Score must be between 0 and 10, but is " + score);
+        return score;
+    }
+
+    @Override
+    public int scoreOf(final Resource contentResource) {
+        if (contentResource == null) {
+            return -1;
+        }
+
+        String[] tagIds = contentResource.getValueMap().get(TagConstants.PN_TAGS, new String[0]);
+        for (String tagId : tagIds) {
+            Integer score = getScore(tagId);
+            if (score != null) {
+                return score;
+            }
+        }
+        return -1;
+    }
+
+    private Taxonomy taxonomy() {
+        Taxonomy current = taxonomy;
+        if (current == null) {
+            synchronized (this) {
+                current = taxonomy;
+                if (current == null) {
+                    current = load();
+                    if (current == null) {
+                        // Not kept, so the next call tries to load the tags again
+                        return FALLBACK;
+                    }
+                    taxonomy = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private Taxonomy load() {
+        String[] tagIds = new String[ScoringQueries.MAX_SCORE + 1];
+        Map<String, Integer> scoresByTagId = new HashMap<>();
+
+        try (ResourceResolver resourceResolver = systemUtils.getResourceResolver(SUBSERVICE)) {
+            TagManager tagManager = resourceResolver.adaptTo(TagManager.class);
+            for (int score = ScoringQueries.MIN_SCORE; score <= ScoringQueries.MAX_SCORE; score++) {
+                Tag tag = tagManager.resolve(SCALE_OF_BELIEF_TAG_PREFIX + score);
+                if (tag == null) {
+                    LOG.warn("Score tag {}{} doesn't exist", SCALE_OF_BELIEF_TAG_PREFIX, score);
+                    continue;
+                }
+                tagIds[score] = tag.getTagID();
+                scoresByTagId.put(tag.getTagID(), score);
+                // cq:tags may hold the tag path instead of the ID
+                scoresByTagId.put(tag.getPath(), score);
+            }
+        } catch (LoginException e) {
+            LOG.error("Failed to get resource resolver for {}, score tags are resolved from their IDs", SUBSERVICE, e);
+            return null;
+        }
+        LOG.debug("Loaded {} score tags", scoresByTagId.size() / 2);
+        return new Taxonomy(tagIds, scoresByTagId);
+    }
+
+    private static Taxonomy fallback() {
+        String[] tagIds = new String[ScoringQueries.MAX_SCORE + 1];
+        for (int score = ScoringQueries.MIN_SCORE; score <= ScoringQueries.MAX_SCORE; score++) {
+            tagIds[score] = SCALE_OF_BELIEF_TAG_PREFIX + score;
+        }
+        return new Taxonomy(tagIds, Collections.emptyMap());
+    }
+
+    private static final class Taxonomy {
+        private final String[] tagIds;
+        private final Map<String, Integer> scoresByTagId;
+
+        private Taxonomy(final String[] tagIds, final Map<String, Integer> scoresByTagId) {
+            this.tagIds = tagIds;
+            this.scoresByTagId = scoresByTagId;
+        }
+    }
+}
@@ -1,15 +1,28 @@
 package org.cru.contentscoring.core.service.impl;
 
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
+import javax.jcr.Session;
 
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.cru.contentscoring.core.service.RepositoryWriteService;
+import org.cru.contentscoring.core.service.ScorePropagationService;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
 import org.cru.contentscoring.core.service.SyncScoreService;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,21 +36,98 @@ public class SyncScoreServiceImpl implements SyncScoreService {
 
     public static final String SCALE_OF_BELIEF_TAG_PREFIX = "target-audience:scale-of-belief/";
 
+    static final String APPLIED_WRITES_METRIC = "cru.contentscoring.sync.writes.applied";
+    static final String SKIPPED_WRITES_METRIC = "cru.contentscoring.sync.writes.skipped";
+
+    private enum Outcome {
+        MISSING,
+        UNCHANGED,
+        APPLIED
+    }
+
+    @Reference
+    MetricsService metricsService;
+
+    @Reference
+    private ScoreTaxonomyService scoreTaxonomyService;
+
+    @Reference
+    private RepositoryWriteService repositoryWriteService;
+
+    @Reference
+    private ScorePropagationService scorePropagationService;
+
+    private Counter appliedWrites;
+    private Counter skippedWrites;
+
+    @Activate
+    public void activate() {
+        appliedWrites = metricsService.counter(APPLIED_WRITES_METRIC);
+        skippedWrites = metricsService.counter(SKIPPED_WRITES_METRIC);
+    }
+
     @Override
     public void syncScore(
         final ResourceResolver resourceResolver,
         final int score,
         final String resourcePath) throws RepositoryException {
 
-        Resource resource = resourceResolver.getResource(resourcePath);
+        syncScores(resourceResolver, Collections.singletonMap(resourcePath, score));
+    }
 
-        if (resource == null) {
-            return;
+    @Override
+    public Set<String> syncScores(
+        final ResourceResolver resourceResolver,
+        final Map<String, Integer> scoresByPath) throws RepositoryException {
+
+        Set<String> syncedPaths = new LinkedHashSet<>();
+        Set<String> appliedPaths = new LinkedHashSet<>();
+        AtomicInteger propagated = new AtomicInteger();
+
+        // Applied again from scratch if the save conflicts, so the outcome is collected anew on each attempt
+        repositoryWriteService.write(resourceResolver.adaptTo(Session.class), () -> {
+            syncedPaths.clear();
+            appliedPaths.clear();
+            propagated.set(0);
+
+            for (Map.Entry<String, Integer> scoreByPath : scoresByPath.entrySet()) {
+                Resource resource = resourceResolver.getResource(scoreByPath.getKey());
+                if (resource == null) {
+                    continue;
+                }
+
+                Outcome outcome = updateScore(resourceResolver, scoreByPath.getValue(), resource);
+                if (outcome != Outcome.MISSING) {
+                    syncedPaths.add(scoreByPath.getKey());
+                    // Also for an unchanged page, its fragment or a new variation may still lack the score
+                    propagated.addAndGet(scorePropagationService.propagateScore(
+                        resourceResolver, resource.getChild("jcr:content"), scoreByPath.getValue()));
+                }
+                if (outcome == Outcome.APPLIED) {
+                    appliedPaths.add(scoreByPath.getKey());
+                }
+            }
+            return !appliedPaths.isEmpty() || propagated.get() > 0;
+        });
+
+        for (String syncedPath : syncedPaths) {
+            if (appliedPaths.contains(syncedPath)) {
+                appliedWrites.increment();
+            } else {
+                skippedWrites.increment();
+            }
         }
-        updateScore(resourceResolver, score, resource);
+        LOG.debug("Saved {} of {} scores and {} experience fragments in one commit",
+            appliedPaths.size(), syncedPaths.size(), propagated.get());
+        return syncedPaths;
     }
 
-    private void updateScore(
+    /**
+     * Sets the score without saving, the caller has to save.
+     *
+     * @return whether the score was set, was already in place, or the page content is missing
+     */
+    private Outcome updateScore(
         final ResourceResolver resourceResolver,
         final int score,
         final Resource resource) throws RepositoryException {
@@ -47,6 +137,15 @@ public class SyncScoreServiceImpl implements SyncScoreService {
         if (contentResource != null) {
             Node node = contentResource.adaptTo(Node.class);
             if (node != null) {
+                TagManager tagManager = resourceResolver.adaptTo(TagManager.class);
+                Tag[] existingTags = tagManager.getTags(contentResource);
+
+                // Every write is a new revision and marks the page as modified, so leave unchanged scores alone
+                if (hasOnlyScoreTag(existingTags, score)) {
+                    LOG.debug("Score on {} is already {}, skipping", node.getPath(), score);
+                    return Outcome.UNCHANGED;
+                }
+
                 LOG.debug("Setting score on {} to {}", node.getPath(), score);
 
                 Calendar now = Calendar.getInstance();
@@ -55,19 +154,33 @@ public class SyncScoreServiceImpl implements SyncScoreService {
                 node.setProperty("cq:lastModified", now);
                 node.setProperty("cq:lastModifiedBy", "scale-of-belief");
 
-                TagManager tagManager = resourceResolver.adaptTo(TagManager.class);
-                List<Tag> newTags = buildTagsWithScore(contentResource, tagManager, score);
-                tagManager.setTags(contentResource, newTags.toArray(new Tag[0]));
+                List<Tag> newTags = buildTagsWithScore(tagManager, existingTags, score);
+                tagManager.setTags(contentResource, newTags.toArray(new Tag[0]), false);
+                return Outcome.APPLIED;
+            }
+        }
+        return Outcome.MISSING;
+    }
+
+    private boolean hasOnlyScoreTag(final Tag[] existingTags, final int score) {
+        boolean hasScoreTag = false;
+        for (Tag existingTag : existingTags) {
+            if (!existingTag.getTagID().startsWith(SCALE_OF_BELIEF_TAG_PREFIX)) {
+                continue;
+            }
+            if (!existingTag.getTagID().equals(SCALE_OF_BELIEF_TAG_PREFIX + score)) {
+                return false;
             }
+            hasScoreTag = true;
         }
+        return hasScoreTag;
     }
 
     private List<Tag> buildTagsWithScore(
-        final Resource contentResource,
         final TagManager tagManager,
+        final Tag[] existingTags,
         final int score) {
 
-        Tag[] existingTags = tagManager.getTags(contentResource);
         List<Tag> newTags = Lists.newArrayList();
 
         for (Tag existingTag : existingTags) {
@@ -77,7 +190,7 @@ public class SyncScoreServiceImpl implements SyncScoreService {
             newTags.add(existingTag);
         }
 
-        Tag scoreTag = tagManager.resolve(SCALE_OF_BELIEF_TAG_PREFIX + score);
+        Tag scoreTag = scoreTaxonomyService.getScoreTag(tagManager, score);
         if (scoreTag != null) {
             newTags.add(scoreTag);
         }
@@ -0,0 +1,252 @@
+package org.cru.contentscoring.core.service.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceUtil;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.cru.contentscoring.core.service.VanityPathIndexService;
+import org.cru.contentscoring.core.util.ScoringQueries;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Keeps every {@code sling:vanityPath} under /content in memory, so vanity lookups don't need a query.
+ * The index is built once on activation and then kept up to date through resource change events.
+ */
+@Component(
+    service = { VanityPathIndexService.class, ResourceChangeListener.class },
+    immediate = true,
+    property = {
+        ResourceChangeListener.PATHS + "=" + VanityPathIndexServiceImpl.CONTENT_ROOT,
+        ResourceChangeListener.CHANGES + "=ADDED",
+        ResourceChangeListener.CHANGES + "=CHANGED",
+        ResourceChangeListener.CHANGES + "=REMOVED" })
+public class VanityPathIndexServiceImpl implements VanityPathIndexService, ResourceChangeListener {
+    private static final Logger LOG = LoggerFactory.getLogger(VanityPathIndexServiceImpl.class);
+
+    private static final String SUBSERVICE = "contentScoreSync";
+
+    static final String CONTENT_ROOT = "/content";
+    private static final String JCR_CONTENT_SUFFIX = "/" + JcrConstants.JCR_CONTENT;
+
+    private final Map<String, Set<String>> pagesByVanityPath = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> vanityPathsByPage = new ConcurrentHashMap<>();
+
+    @Reference
+    SystemUtils systemUtils;
+
+    @Activate
+    public void activate() {
+        try (ResourceResolver resourceResolver = systemUtils.getResourceResolver(SUBSERVICE)) {
+            int pages = indexSubtree(CONTENT_ROOT, resourceResolver);
+            LOG.info("Indexed {} vanity paths on {} pages", pagesByVanityPath.size(), pages);
+        } catch (LoginException e) {
+            LOG.error("Failed to get resource resolver for {}, vanity path index is empty", SUBSERVICE, e);
+        }
+    }
+
+    @Deactivate
+    public void deactivate() {
+        pagesByVanityPath.clear();
+        vanityPathsByPage.clear();
+    }
+
+    @Override
+    public String getPagePath(final String vanityPath) {
+        if (vanityPath == null) {
+            return null;
+        }
+
+        Set<String> pagePaths = pagesByVanityPath.get(vanityPath);
+        if (pagePaths == null || pagePaths.size() != 1) {
+            return null;
+        }
+
+        Iterator<String> iterator = pagePaths.iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    @Override
+    public boolean isDuplicated(final String vanityPath) {
+        Set<String> pagePaths = vanityPath == null ? null : pagesByVanityPath.get(vanityPath);
+        return pagePaths != null && pagePaths.size() > 1;
+    }
+
+    @Override
+    public void onChange(final List<ResourceChange> changes) {
+        Set<String> pagesToRefresh = new LinkedHashSet<>();
+        Set<String> subtreesToRefresh = new LinkedHashSet<>();
+
+        for (ResourceChange change : changes) {
+            String path = change.getPath();
+            if (path == null || path.contains(JCR_CONTENT_SUFFIX + "/")) {
+                // Changes below the page content never touch the vanity path
+                continue;
+            }
+
+            boolean isPageContent = path.endsWith(JCR_CONTENT_SUFFIX);
+            String pagePath = isPageContent ? ResourceUtil.getParent(path) : path;
+
+            switch (change.getType()) {
+                case REMOVED:
+                    if (isPageContent) {
+                        removePage(pagePath);
+                    } else {
+                        removeSubtree(pagePath);
+                    }
+                    break;
+                case ADDED:
+                    if (isPageContent) {
+                        pagesToRefresh.add(pagePath);
+                    } else {
+                        // A moved or copied page only fires an event for the root of the tree
+                        subtreesToRefresh.add(pagePath);
+                    }
+                    break;
+                case CHANGED:
+                    if (isPageContent) {
+                        pagesToRefresh.add(pagePath);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (pagesToRefresh.isEmpty() && subtreesToRefresh.isEmpty()) {
+            return;
+        }
+
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            ResourceResolver resourceResolver = lease.getResourceResolver();
+            for (String pagePath : pagesToRefresh) {
+                refreshPage(pagePath, resourceResolver);
+            }
+            for (String rootPath : subtreesToRefresh) {
+                refreshSubtree(rootPath, resourceResolver);
+            }
+        } catch (LoginException e) {
+            LOG.error("Failed to get resource resolver for {}, vanity path index may be stale", SUBSERVICE, e);
+        }
+    }
+
+    private void refreshPage(final String pagePath, final ResourceResolver resourceResolver) {
+        Resource contentResource = resourceResolver.getResource(pagePath + JCR_CONTENT_SUFFIX);
+        if (contentResource == null) {
+            removePage(pagePath);
+        } else {
+            indexPage(pagePath, readVanityPaths(contentResource));
+        }
+    }
+
+    private void refreshSubtree(final String rootPath, final ResourceResolver resourceResolver) {
+        Resource root = resourceResolver.getResource(rootPath);
+        if (root == null) {
+            return;
+        }
+
+        refreshPage(rootPath, resourceResolver);
+
+        boolean hasChildPages = false;
+        for (Resource child : root.getChildren()) {
+            if (!JcrConstants.JCR_CONTENT.equals(child.getName())) {
+                hasChildPages = true;
+                break;
+            }
+        }
+        if (hasChildPages) {
+            indexSubtree(rootPath, resourceResolver);
+        }
+    }
+
+    private int indexSubtree(final String rootPath, final ResourceResolver resourceResolver) {
+        Iterator<Resource> results = ScoringQueries.findResources(
+            resourceResolver,
+            ScoringQueries.vanityPaths(rootPath));
+
+        int pages = 0;
+        while (results.hasNext()) {
+            Resource contentResource = results.next();
+            indexPage(ResourceUtil.getParent(contentResource.getPath()), readVanityPaths(contentResource));
+            pages++;
+        }
+        return pages;
+    }
+
+    private Set<String> readVanityPaths(final Resource contentResource) {
+        String[] vanityPaths = contentResource.getValueMap()
+            .get(ContentScoreUpdateServiceImpl.VANITY_PATH, new String[0]);
+        return new LinkedHashSet<>(Arrays.asList(vanityPaths));
+    }
+
+    @VisibleForTesting
+    synchronized void indexPage(final String pagePath, final Set<String> vanityPaths) {
+        Set<String> previous = vanityPathsByPage.getOrDefault(pagePath, Collections.emptySet());
+        if (previous.equals(vanityPaths)) {
+            return;
+        }
+
+        for (String vanityPath : previous) {
+            if (!vanityPaths.contains(vanityPath)) {
+                unmap(vanityPath, pagePath);
+            }
+        }
+        for (String vanityPath : vanityPaths) {
+            pagesByVanityPath.computeIfAbsent(vanityPath, key -> ConcurrentHashMap.newKeySet()).add(pagePath);
+            if (isDuplicated(vanityPath)) {
+                LOG.warn("Found more than one page with vanity path {}: {}", vanityPath, pagesByVanityPath.get(vanityPath));
+            }
+        }
+
+        if (vanityPaths.isEmpty()) {
+            vanityPathsByPage.remove(pagePath);
+        } else {
+            vanityPathsByPage.put(pagePath, vanityPaths);
+        }
+    }
+
+    private synchronized void removePage(final String pagePath) {
+        Set<String> previous = vanityPathsByPage.remove(pagePath);
+        if (previous != null) {
+            for (String vanityPath : previous) {
+                unmap(vanityPath, pagePath);
+            }
+        }
+    }
+
+    private synchronized void removeSubtree(final String rootPath) {
+        String prefix = rootPath + "/";
+        for (String pagePath : vanityPathsByPage.keySet()) {
+            if (pagePath.equals(rootPath) || pagePath.startsWith(prefix)) {
+                removePage(pagePath);
+            }
+        }
+    }
+
+    private void unmap(final String vanityPath, final String pagePath) {
+        pagesByVanityPath.computeIfPresent(vanityPath, (key, pagePaths) -> {
+            pagePaths.remove(pagePath);
+            return pagePaths.isEmpty() ? null : pagePaths;
+        });
+    }
+}
@@ -1,59 +1,66 @@
 package org.cru.contentscoring.core.servlets;
 
-import static org.cru.contentscoring.core.service.impl.SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX;
-
 import java.io.IOException;
 import java.security.Principal;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Set;
 
-import javax.jcr.Node;
 import javax.jcr.RepositoryException;
-import javax.jcr.Session;
 import javax.servlet.Servlet;
 
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
-import org.apache.sling.api.resource.Resource;
-import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.servlets.HttpConstants;
 import org.apache.sling.api.servlets.SlingAllMethodsServlet;
-import org.apache.sling.settings.SlingSettingsService;
-import org.cru.contentscoring.core.util.ExperienceFragmentUtil;
+import org.cru.contentscoring.core.models.CopyScoresToTagsStatus;
+import org.cru.contentscoring.core.service.CopyScoresToTagsService;
 import org.osgi.service.component.annotations.Component;
 import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.day.cq.commons.jcr.JcrConstants;
-import com.day.cq.replication.ReplicationActionType;
-import com.day.cq.replication.ReplicationException;
-import com.day.cq.replication.ReplicationOptions;
-import com.day.cq.replication.Replicator;
-import com.day.cq.search.Predicate;
-import com.day.cq.search.SimpleSearch;
-import com.day.cq.search.result.Hit;
-import com.day.cq.search.result.SearchResult;
-import com.day.cq.tagging.Tag;
-import com.day.cq.tagging.TagManager;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 
+/**
+ * Starts moving the legacy score properties under a {@code path} to score tags (PUT), which runs as a background
+ * job, and shows the progress of those jobs (GET, optionally for one {@code id}). A {@code parallelism} above one
+ * works on the subtrees of the path's child pages at the same time.
+ */
 @Component(service = Servlet.class, property = {
+        "sling.servlet.methods=" + HttpConstants.METHOD_GET,
         "sling.servlet.methods=" + HttpConstants.METHOD_PUT,
         "sling.servlet.paths=/bin/cru/content-scoring/move-scores-to-tags" })
 public class CopyScoresToTagsServlet extends SlingAllMethodsServlet {
     private static final Logger LOG = LoggerFactory.getLogger(CopyScoresToTagsServlet.class);
 
-    private static final String PRIMARY_XF_NAME = "primaryExperienceFragment";
+    private final ObjectMapper objectMapper = new ObjectMapper();
 
     @Reference
-    private SlingSettingsService slingSettingsService;
+    CopyScoresToTagsService copyScoresToTagsService;
 
-    @Reference
-    private Replicator replicator;
+    @Override
+    protected void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response)
+        throws IOException {
+
+        String id = request.getParameter("id");
+        try {
+            Object body;
+            if (Strings.isNullOrEmpty(id)) {
+                body = copyScoresToTagsService.getStatuses();
+            } else {
+                body = copyScoresToTagsService.getStatus(id);
+                if (body == null) {
+                    response.sendError(404, "Unknown job");
+                    return;
+                }
+            }
+            writeJson(response, body);
+        } catch (LoginException e) {
+            LOG.error("Failed to read the checkpoints of moving scores to tags", e);
+            response.sendError(500, e.getMessage());
+        }
+    }
 
     @Override
     protected void doPut(final SlingHttpServletRequest request, final SlingHttpServletResponse response)
@@ -74,175 +81,31 @@ public class CopyScoresToTagsServlet extends SlingAllMethodsServlet {
             return;
         }
 
-        ResourceResolver resourceResolver = request.getResourceResolver();
-        Resource root = resourceResolver.getResource(path);
-        if (root == null) {
+        if (request.getResourceResolver().getResource(path) == null) {
             response.sendError(400, "Invalid path");
             return;
         }
 
-        TagManager tagManager = resourceResolver.adaptTo(TagManager.class);
-
-        List<Hit> results = findPagesWithScoreProperty(root);
+        String parallelismParameter = request.getParameter("parallelism");
+        Integer parallelism = Strings.isNullOrEmpty(parallelismParameter) ? 1 : Ints.tryParse(parallelismParameter);
+        if (parallelism == null || parallelism < 1) {
+            response.sendError(400, "Parallelism must be a positive number");
+            return;
+        }
 
         try {
-            moveScoresToTags(results, tagManager, resourceResolver);
-        } catch (RepositoryException | ReplicationException e) {
+            CopyScoresToTagsStatus status = copyScoresToTagsService.start(path, parallelism);
+            response.setStatus(202);
+            writeJson(response, status);
+        } catch (LoginException | RepositoryException | IllegalStateException e) {
             LOG.error(e.getMessage(), e);
             response.sendError(500, e.getMessage());
         }
     }
 
-    private List<Hit> findPagesWithScoreProperty(final Resource root) {
-        SimpleSearch search = root.adaptTo(SimpleSearch.class);
-        search.addPredicate(buildScorePredicate());
-        search.addPredicate(buildTypePredicate());
-        search.setSearchIn(root.getPath());
-        search.setHitsPerPage(0L); // 0 means unlimited
-
-        try {
-            SearchResult searchResult = search.getResult();
-            LOG.debug("Search took {} seconds", searchResult.getExecutionTime());
-            return searchResult.getHits();
-        } catch (RepositoryException e) {
-            LOG.error("Failed to search for pages with a score property under path {}", root.getPath(), e);
-        }
-        return Lists.newArrayList();
-    }
-
-    private Predicate buildScorePredicate() {
-        Predicate scorePredicate = new Predicate("score", "property");
-        scorePredicate.set("property", JcrConstants.JCR_CONTENT + "/" + "score");
-        scorePredicate.set("operation", "exists");
-        return scorePredicate;
-    }
-
-    private Predicate buildTypePredicate() {
-        Predicate typePredicate = new Predicate("type", "type");
-        typePredicate.set("type", "cq:Page");
-        return typePredicate;
-    }
-
-    private void moveScoresToTags(
-        final List<Hit> results,
-        final TagManager tagManager,
-        final ResourceResolver resourceResolver) throws RepositoryException, ReplicationException {
-
-        List<Resource> pages = Lists.newArrayList();
-        for (Hit result : results) {
-            Resource page = result.getResource();
-            copyScoreTagToPrimaryExperienceFragment(page, resourceResolver, tagManager);
-            moveScoreToTag(page, tagManager);
-            pages.add(page);
-        }
-
-        replicatePages(pages, resourceResolver);
-    }
-
-    private void moveScoreToTag(final Resource page, final TagManager tagManager) throws RepositoryException {
-        Resource pageContent = getJcrContent(page);
-
-        String score = pageContent.getValueMap().get("score", String.class);
-        pageContent.adaptTo(Node.class).getProperty("score").remove();
-        setTags(pageContent, tagManager, score);
-    }
-
-    private void copyScoreTagToPrimaryExperienceFragment(
-        final Resource page,
-        final ResourceResolver resourceResolver,
-        final TagManager tagManager) {
-
-        Resource pageContent = getJcrContent(page);
-
-        String score = pageContent.getValueMap().get("score", String.class);
-        String primaryExperienceFragmentPath = pageContent.getValueMap().get(PRIMARY_XF_NAME, String.class);
-
-        if (!Strings.isNullOrEmpty(primaryExperienceFragmentPath)) {
-            Resource primaryExperienceFragment = resourceResolver.getResource(primaryExperienceFragmentPath);
-            Resource experienceFragment;
-
-            if (primaryExperienceFragment != null) {
-                Resource jcrContent = getJcrContent(primaryExperienceFragment);
-                if (ExperienceFragmentUtil.isExperienceFragmentVariation(jcrContent)) {
-                    experienceFragment = primaryExperienceFragment.getParent();
-                } else if (ExperienceFragmentUtil.isExperienceFragment(jcrContent)) {
-                    experienceFragment = primaryExperienceFragment;
-                } else {
-                    return;
-                }
-
-                Resource experienceFragmentContent = getJcrContent(experienceFragment);
-                setTags(experienceFragmentContent, tagManager, score);
-
-                for (Resource child : experienceFragment.getChildren()) {
-                    Resource childContent = getJcrContent(child);
-                    if (childContent != null) {
-                        setTags(childContent, tagManager, score);
-                    }
-                }
-            }
-        }
-    }
-
-    private Resource getJcrContent(final Resource resource) {
-        if (resource != null && resource.getResourceType().equals("cq:Page")) {
-            return resource.getChild(JcrConstants.JCR_CONTENT);
-        }
-        return null;
-    }
-
-    private void setTags(final Resource jcrContent, final TagManager tagManager, final String score) {
-        Set<Tag> childTags = buildTagsWithScore(jcrContent, tagManager, score);
-        tagManager.setTags(jcrContent, childTags.toArray(new Tag[0]));
-    }
-
-    private Set<Tag> buildTagsWithScore(
-        final Resource contentResource,
-        final TagManager tagManager,
-        final String score) {
-
-        Tag[] existingTags = tagManager.getTags(contentResource);
-        Set<Tag> newTags = Sets.newHashSet();
-
-        for (Tag existingTag : existingTags) {
-            // If there is already a score tag on this resource, prefer it over the property.
-            if (existingTag.getTagID().startsWith(SCALE_OF_BELIEF_TAG_PREFIX)) {
-                return Sets.newHashSet(Arrays.asList(existingTags));
-            }
-            newTags.add(existingTag);
-        }
-
-        Tag scoreTag = tagManager.resolve(SCALE_OF_BELIEF_TAG_PREFIX + score);
-        if (scoreTag != null) {
-            newTags.add(scoreTag);
-        }
-
-        return newTags;
-    }
-
-    private void replicatePages(final List<Resource> pages, final ResourceResolver resourceResolver)
-        throws ReplicationException {
-
-        if (slingSettingsService.getRunModes().contains("author")) {
-            Session session = resourceResolver.adaptTo(Session.class);
-
-            List<String> pathsToReplicate = Lists.newArrayList();
-            for (Resource page : pages) {
-                // Only replicate pages that have already been replicated
-                if (replicator.getReplicationStatus(session, page.getPath()).isActivated()) {
-                    pathsToReplicate.add(page.getPath());
-                }
-            }
-
-            if (pathsToReplicate.isEmpty()) {
-                return;
-            }
-
-            replicator.replicate(
-                session,
-                ReplicationActionType.ACTIVATE,
-                pathsToReplicate.toArray(new String[]{}),
-                new ReplicationOptions());
-        }
+    private void writeJson(final SlingHttpServletResponse response, final Object body) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        objectMapper.writeValue(response.getWriter(), body);
     }
 }
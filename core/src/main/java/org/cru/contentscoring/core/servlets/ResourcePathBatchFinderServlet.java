@@ -0,0 +1,111 @@
+package org.cru.contentscoring.core.servlets;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.Servlet;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RequestParameter;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.cru.contentscoring.core.service.VanityPathIndexService;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Batch variant of the path finder servlets. Resolves every given external URL (one "path" parameter each)
+ * in the same resolver session and returns a JSON map from URL to resource path. URLs that can't be resolved
+ * are left out of the map.
+ */
+@Component(service = Servlet.class, property = {
+        "sling.servlet.methods=" + HttpConstants.METHOD_GET,
+        "sling.servlet.methods=" + HttpConstants.METHOD_POST,
+        "sling.servlet.paths=/bin/cru/path/batch-finder" })
+public class ResourcePathBatchFinderServlet extends SlingAllMethodsServlet {
+    private static final Logger LOG = LoggerFactory.getLogger(ResourcePathBatchFinderServlet.class);
+
+    static final int MAX_PATHS = 1000;
+
+    @Reference
+    VanityPathIndexService vanityPathIndexService;
+
+    ResourcePathFinder resourcePathFinder;
+
+    @Activate
+    public void activate() {
+        resourcePathFinder = new ResourcePathFinder(vanityPathIndexService);
+    }
+
+    @Override
+    protected void doGet(
+        final SlingHttpServletRequest request,
+        final SlingHttpServletResponse response) throws IOException {
+
+        RequestParameter[] pathParameters = request.getRequestParameters("path");
+
+        if (pathParameters == null || pathParameters.length == 0) {
+            response.setStatus(400);
+            response.getWriter().write("Path parameter is missing.");
+            return;
+        }
+        if (pathParameters.length > MAX_PATHS) {
+            response.setStatus(400);
+            response.getWriter().write("At most " + MAX_PATHS + " paths can be resolved at once.");
+            return;
+        }
+
+        Set<String> urls = new LinkedHashSet<>();
+        for (RequestParameter pathParameter : pathParameters) {
+            urls.add(pathParameter.getString());
+        }
+
+        Map<String, String> resourcePaths = determineResourcePaths(request, urls);
+
+        response.setHeader("Content-Type", "application/json");
+        response.getWriter().write(new ObjectMapper().writeValueAsString(resourcePaths));
+    }
+
+    @Override
+    protected void doPost(
+        final SlingHttpServletRequest request,
+        final SlingHttpServletResponse response) throws IOException {
+
+        // Long URL lists don't fit in a query string, so they can be sent as a form post as well.
+        doGet(request, response);
+    }
+
+    private Map<String, String> determineResourcePaths(
+        final SlingHttpServletRequest request,
+        final Set<String> urls) {
+
+        ResourceResolver resourceResolver = request.getResourceResolver();
+        Map<String, String> resourcePaths = new LinkedHashMap<>();
+
+        for (String url : urls) {
+            try {
+                Resource resource = resourcePathFinder.findResource(request, resourceResolver, url);
+                if (resource != null) {
+                    resourcePaths.put(url, resource.getPath());
+                }
+            } catch (URISyntaxException e) {
+                LOG.debug("Skipping invalid URI {}", url);
+            }
+        }
+
+        LOG.debug("Resolved {} of {} URLs", resourcePaths.size(), urls.size());
+        return resourcePaths;
+    }
+}
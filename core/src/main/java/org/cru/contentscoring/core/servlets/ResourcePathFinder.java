@@ -0,0 +1,62 @@
+package org.cru.contentscoring.core.servlets;
+
+import java.net.URISyntaxException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.sling.api.resource.NonExistingResource;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.cru.contentscoring.core.service.VanityPathIndexService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves an external URL to the resource it is served from, using the sling mapping of the given resolver
+ * and falling back to the vanity path index for URLs that sling can't resolve.
+ */
+public class ResourcePathFinder {
+    private static final Logger LOG = LoggerFactory.getLogger(ResourcePathFinder.class);
+
+    private final VanityPathIndexService vanityPathIndexService;
+
+    public ResourcePathFinder(final VanityPathIndexService vanityPathIndexService) {
+        this.vanityPathIndexService = vanityPathIndexService;
+    }
+
+    /**
+     * @return the resource for the given URL, or null if there is none
+     * @throws URISyntaxException if the given URL is not a valid URI
+     */
+    public Resource findResource(
+        final HttpServletRequest request,
+        final ResourceResolver resourceResolver,
+        final String url) throws URISyntaxException {
+
+        ResolverRequest resolverRequest = new ResolverRequest(request, url);
+        Resource resource = resourceResolver.resolve(resolverRequest, resolverRequest.getPathInfo());
+
+        // This will be the case if resourceResolver found a vanity path (e.g. ministry designation pages)
+        if (resource instanceof NonExistingResource) {
+            LOG.debug("Resource is non-existing, looking at vanity paths.");
+            return findResourceWithVanityPath(resource.getPath(), resourceResolver);
+        }
+        return resource;
+    }
+
+    private Resource findResourceWithVanityPath(final String vanityPath, final ResourceResolver resourceResolver) {
+        if (vanityPathIndexService.isDuplicated(vanityPath)) {
+            LOG.warn("Found more than one page with vanity path {}, skipping score sync.", vanityPath);
+            return null;
+        }
+
+        String pagePath = vanityPathIndexService.getPagePath(vanityPath);
+        if (pagePath == null) {
+            LOG.debug("No resource found for {}", vanityPath);
+            return null;
+        }
+
+        LOG.debug("Found path: {} for sling:vanityPath", pagePath);
+        return resourceResolver.getResource(pagePath);
+    }
+}
@@ -4,13 +4,14 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import javax.servlet.Servlet;
 
-import com.google.common.collect.ImmutableSet;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.request.RequestParameter;
@@ -22,7 +23,9 @@ import org.apache.sling.api.servlets.HttpConstants;
 import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
 import org.apache.sling.settings.SlingSettingsService;
 import org.cru.contentscoring.core.provider.AbsolutePathUriProvider;
+import org.cru.contentscoring.core.provider.UriProviderUtil;
 import org.cru.contentscoring.core.provider.VanityPathUriProvider;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
 import org.cru.contentscoring.core.util.SystemUtils;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
@@ -34,7 +37,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * This resource url mapper servlet is used to determine the external URL(s) of a given resource
- * based on the publisher's sling mapping.
+ * based on the publisher's sling mapping. With grouped=true, the URLs are returned per requested path,
+ * so the URLs of many pages can be mapped in one request.
  */
 @Component(service = Servlet.class, property = {
         "sling.servlet.methods=" + HttpConstants.METHOD_GET,
@@ -67,13 +71,7 @@ public class ResourceUrlMapperServlet extends SlingSafeMethodsServlet {
     }
 
     private String determineEnvironment() {
-        Set<String> possibleEnvironments = ImmutableSet.of("dev", "stage", "prod");
-        for (String runMode : slingSettingsService.getRunModes()) {
-            if (possibleEnvironments.contains(runMode)) {
-                return runMode;
-            }
-        }
-        throw new IllegalStateException("Failed to determine environment");
+        return UriProviderUtil.determineEnvironment(slingSettingsService.getRunModes());
     }
 
     @Override
@@ -86,12 +84,22 @@ public class ResourceUrlMapperServlet extends SlingSafeMethodsServlet {
             return;
         }
 
-        try (ResourceResolver resourceResolver = systemUtils.getResourceResolver(SUBSERVICE)) {
-            Set<String> urls = determineUrls(pathParameters, resourceResolver);
+        boolean grouped = Boolean.parseBoolean(request.getParameter("grouped"));
+
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            ResourceResolver resourceResolver = lease.getResourceResolver();
+            Map<String, Set<String>> urlsByPath = determineUrls(pathParameters, resourceResolver);
 
             response.setHeader("Content-Type", "application/json");
             ObjectMapper objectMapper = new ObjectMapper();
-            String json = objectMapper.writeValueAsString(urls);
+            String json;
+            if (grouped) {
+                json = objectMapper.writeValueAsString(urlsByPath);
+            } else {
+                Set<String> urls = new HashSet<>();
+                urlsByPath.values().forEach(urls::addAll);
+                json = objectMapper.writeValueAsString(urls);
+            }
             response.getWriter().write(json);
         } catch (LoginException e) {
             LOG.error("Failed to get resource resolver for {}", SUBSERVICE, e);
@@ -99,7 +107,7 @@ public class ResourceUrlMapperServlet extends SlingSafeMethodsServlet {
         }
     }
 
-    private Set<String> determineUrls(
+    private Map<String, Set<String>> determineUrls(
         final RequestParameter[] pathParameters,
         final ResourceResolver resourceResolver) {
 
@@ -107,27 +115,33 @@ public class ResourceUrlMapperServlet extends SlingSafeMethodsServlet {
             .map(RequestParameter::getString)
             .collect(Collectors.toList());
 
-        Set<String> urls = new HashSet<>();
+        Map<String, Set<String>> urlsByPath = new LinkedHashMap<>();
         for (String path : paths) {
-            Resource resource = resourceResolver.getResource(path);
-            if (resource != null) {
-                URI absoluteUri = absolutePathUriProvider.toURI(resource, resourceResolver);
-                if (absoluteUri != null) {
-                    urls.add(absoluteUri.toString());
-                }
-            } else {
-                resource = resourceResolver.resolve(path);
-                if (resource instanceof NonExistingResource) {
-                    continue;
-                }
-                // This means that a resource exists that can be mapped by the given vanity URL
-                URI vanityUri = vanityPathUriProvider.toURI(path, resourceResolver);
-                if (vanityUri != null) {
-                    urls.add(vanityUri.toString());
-                }
-            }
+            urlsByPath.put(path, determineUrls(path, resourceResolver));
         }
 
+        return urlsByPath;
+    }
+
+    private Set<String> determineUrls(final String path, final ResourceResolver resourceResolver) {
+        Set<String> urls = new HashSet<>();
+        Resource resource = resourceResolver.getResource(path);
+        if (resource != null) {
+            URI absoluteUri = absolutePathUriProvider.toURI(resource, resourceResolver);
+            if (absoluteUri != null) {
+                urls.add(absoluteUri.toString());
+            }
+        } else {
+            resource = resourceResolver.resolve(path);
+            if (resource instanceof NonExistingResource) {
+                return urls;
+            }
+            // This means that a resource exists that can be mapped by the given vanity URL
+            URI vanityUri = vanityPathUriProvider.toURI(path, resourceResolver);
+            if (vanityUri != null) {
+                urls.add(vanityUri.toString());
+            }
+        }
         return urls;
     }
 }
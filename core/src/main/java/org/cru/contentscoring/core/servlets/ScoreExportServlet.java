@@ -0,0 +1,205 @@
+package org.cru.contentscoring.core.servlets;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.security.Principal;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.Servlet;
+
+import org.apache.sling.api.SlingException;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingSafeMethodsServlet;
+import org.apache.sling.settings.SlingSettingsService;
+import org.cru.contentscoring.core.provider.PageUriProvider;
+import org.cru.contentscoring.core.provider.UriProviderUtil;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
+import org.cru.contentscoring.core.util.ExperienceFragmentUtil;
+import org.cru.contentscoring.core.util.ScoringQueries;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+
+/**
+ * Exports the URIs and score of every scored page under a {@code path}, as one JSON object per line
+ * ({@code format=ndjson}, the default) or as CSV rows of URI, score and page path ({@code format=csv}). Rows are
+ * written while the results of the score tag query are read and flushed every {@link #FLUSH_INTERVAL} rows, so nothing
+ * is held in memory and the client sees progress right away. Like the other bulk endpoints, only the admin user may
+ * export; pages are read with their resource resolver.
+ */
+@Component(service = Servlet.class, property = {
+        "sling.servlet.methods=" + HttpConstants.METHOD_GET,
+        "sling.servlet.paths=/bin/cru/content-scoring/export" })
+public class ScoreExportServlet extends SlingSafeMethodsServlet {
+    private static final Logger LOG = LoggerFactory.getLogger(ScoreExportServlet.class);
+
+    static final String FORMAT_NDJSON = "ndjson";
+    static final String FORMAT_CSV = "csv";
+
+    // Rows written between flushes of the response
+    static final int FLUSH_INTERVAL = 500;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Reference
+    private SlingSettingsService slingSettingsService;
+
+    @Reference
+    ScoreTaxonomyService scoreTaxonomyService;
+
+    PageUriProvider pageUriProvider;
+
+    @Activate
+    public void activate() {
+        try {
+            pageUriProvider = new PageUriProvider(
+                UriProviderUtil.determineEnvironment(slingSettingsService.getRunModes()));
+        } catch (IllegalStateException e) {
+            LOG.warn("No environment run mode, the URIs of pages can't be determined for exports");
+            pageUriProvider = null;
+        }
+    }
+
+    @Override
+    protected void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response)
+        throws IOException {
+
+        String path = request.getParameter("path");
+        if (Strings.isNullOrEmpty(path)) {
+            response.sendError(400, "Path is required");
+            return;
+        }
+
+        Principal principal = request.getUserPrincipal();
+        if (principal == null || !principal.getName().equals("admin")) {
+            LOG.error(
+                "Unauthorized attempt to export scores by {}",
+                principal == null ? "Anonymous" : principal.getName());
+            response.sendError(401, "You are not authorized to perform this command.");
+            return;
+        }
+
+        String format = Strings.isNullOrEmpty(request.getParameter("format"))
+            ? FORMAT_NDJSON
+            : request.getParameter("format");
+        if (!format.equals(FORMAT_NDJSON) && !format.equals(FORMAT_CSV)) {
+            response.sendError(400, "Format must be " + FORMAT_NDJSON + " or " + FORMAT_CSV);
+            return;
+        }
+
+        ResourceResolver resourceResolver = request.getResourceResolver();
+        if (resourceResolver.getResource(path) == null) {
+            response.sendError(400, "Invalid path");
+            return;
+        }
+        if (pageUriProvider == null) {
+            response.sendError(500, "No environment run mode, the URIs of pages can't be determined");
+            return;
+        }
+
+        response.setContentType(format.equals(FORMAT_CSV) ? "text/csv" : "application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        PrintWriter writer = response.getWriter();
+        if (format.equals(FORMAT_CSV)) {
+            writer.write("uri,score,path\n");
+        }
+
+        long started = System.currentTimeMillis();
+        int exported;
+        try {
+            exported = export(resourceResolver, path, format, writer);
+        } catch (SlingException e) {
+            // Too late for an error status, the client sees a cut off export
+            LOG.error("Failed to export the scores under {}", path, e);
+            return;
+        }
+        writer.flush();
+        LOG.info("Exported the scores of {} pages under {} in {} ms",
+            exported, path, System.currentTimeMillis() - started);
+    }
+
+    /**
+     * @return the number of pages exported, fewer than there are if the client went away
+     */
+    @VisibleForTesting
+    int export(
+        final ResourceResolver resourceResolver,
+        final String rootPath,
+        final String format,
+        final PrintWriter writer) throws IOException {
+
+        Iterator<Resource> scoredContents = ScoringQueries.findResources(
+            resourceResolver,
+            ScoringQueries.pagesWithScoreTag(rootPath));
+
+        int exported = 0;
+        int rows = 0;
+        while (scoredContents.hasNext()) {
+            Resource content = scoredContents.next();
+            // Experience fragments have no URI of their own
+            if (ExperienceFragmentUtil.isExperienceFragment(content)
+                    || ExperienceFragmentUtil.isExperienceFragmentVariation(content)) {
+                continue;
+            }
+
+            int score;
+            try {
+                score = scoreTaxonomyService.scoreOf(content);
+            } catch (IllegalArgumentException e) {
+                LOG.warn("Invalid score on {}, skipping", content.getPath(), e);
+                continue;
+            }
+            Resource pageResource = content.getParent();
+            if (score < 0 || pageResource == null) {
+                continue;
+            }
+
+            Set<String> uris = pageUriProvider.toUris(pageResource, resourceResolver);
+            if (format.equals(FORMAT_CSV)) {
+                for (String uri : uris) {
+                    writer.write(csv(uri) + "," + score + "," + csv(pageResource.getPath()) + "\n");
+                    rows++;
+                }
+            } else {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("path", pageResource.getPath());
+                row.put("score", score);
+                row.put("uris", uris);
+                writer.write(objectMapper.writeValueAsString(row) + "\n");
+                rows++;
+            }
+            exported++;
+
+            if (rows >= FLUSH_INTERVAL) {
+                rows = 0;
+                // Flushes, and tells whether the client is still there
+                if (writer.checkError()) {
+                    LOG.warn("Client went away, stopping the export of {} after {} pages", rootPath, exported);
+                    return exported;
+                }
+            }
+        }
+        return exported;
+    }
+
+    @VisibleForTesting
+    static String csv(final String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
@@ -0,0 +1,102 @@
+package org.cru.contentscoring.core.servlets;
+
+import java.io.IOException;
+import java.security.Principal;
+
+import javax.jcr.RepositoryException;
+import javax.servlet.Servlet;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.cru.contentscoring.core.models.ReconciliationStatus;
+import org.cru.contentscoring.core.service.ScoreReconciliationService;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+
+/**
+ * Starts reconciling the scores under a {@code path} with the scoring API (POST) and shows how many digests were
+ * compared and how many pages differed (GET, optionally for one {@code id}).
+ */
+@Component(service = Servlet.class, property = {
+        "sling.servlet.methods=" + HttpConstants.METHOD_GET,
+        "sling.servlet.methods=" + HttpConstants.METHOD_POST,
+        "sling.servlet.paths=/bin/cru/content-scoring/reconcile" })
+public class ScoreReconciliationServlet extends SlingAllMethodsServlet {
+    private static final Logger LOG = LoggerFactory.getLogger(ScoreReconciliationServlet.class);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Reference
+    ScoreReconciliationService scoreReconciliationService;
+
+    @Override
+    protected void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response)
+        throws IOException {
+
+        String id = request.getParameter("id");
+        try {
+            Object body;
+            if (Strings.isNullOrEmpty(id)) {
+                body = scoreReconciliationService.getStatuses();
+            } else {
+                body = scoreReconciliationService.getStatus(id);
+                if (body == null) {
+                    response.sendError(404, "Unknown reconciliation");
+                    return;
+                }
+            }
+            writeJson(response, body);
+        } catch (LoginException e) {
+            LOG.error("Failed to read the reconciliation checkpoints", e);
+            response.sendError(500, e.getMessage());
+        }
+    }
+
+    @Override
+    protected void doPost(final SlingHttpServletRequest request, final SlingHttpServletResponse response)
+        throws IOException {
+
+        String path = request.getParameter("path");
+        if (Strings.isNullOrEmpty(path)) {
+            response.sendError(400, "Path is required");
+            return;
+        }
+
+        Principal principal = request.getUserPrincipal();
+        if (principal == null || !principal.getName().equals("admin")) {
+            LOG.error(
+                "Unauthorized attempt to reconcile scores by {}",
+                principal == null ? "Anonymous" : principal.getName());
+            response.sendError(401, "You are not authorized to perform this command.");
+            return;
+        }
+
+        if (request.getResourceResolver().getResource(path) == null) {
+            response.sendError(400, "Invalid path");
+            return;
+        }
+
+        try {
+            ReconciliationStatus status = scoreReconciliationService.start(path);
+            response.setStatus(202);
+            writeJson(response, status);
+        } catch (LoginException | RepositoryException | IllegalStateException e) {
+            LOG.error("Failed to start the reconciliation of {}", path, e);
+            response.sendError(500, e.getMessage());
+        }
+    }
+
+    private void writeJson(final SlingHttpServletResponse response, final Object body) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        objectMapper.writeValue(response.getWriter(), body);
+    }
+}
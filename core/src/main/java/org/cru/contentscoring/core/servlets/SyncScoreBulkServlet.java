@@ -0,0 +1,188 @@
+package org.cru.contentscoring.core.servlets;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.servlet.Servlet;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.servlets.HttpConstants;
+import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.cru.contentscoring.core.models.ScoreSyncItem;
+import org.cru.contentscoring.core.models.ScoreSyncResult;
+import org.cru.contentscoring.core.models.ScoreSyncResult.Status;
+import org.cru.contentscoring.core.service.ResourcePathLookupService;
+import org.cru.contentscoring.core.service.SyncScoreService;
+import org.cru.contentscoring.core.util.ScoringQueries;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Bulk variant of {@link SyncScoreServlet}, used when the scale-of-belief lambda re-pushes all scores. The body is
+ * either a JSON array or a newline delimited stream of {"uri": ..., "score": ...} objects. Items are read in chunks
+ * of {@link #CHUNK_SIZE}, the URIs of a chunk are resolved in one go and its scores are saved with one commit, so
+ * only one chunk of items is held in memory at a time. The response holds the outcome per item.
+ */
+@Component(service = Servlet.class, property = {
+        "sling.servlet.methods=" + HttpConstants.METHOD_POST,
+        "sling.servlet.paths=/bin/cru/content-scoring/sync/bulk" })
+public class SyncScoreBulkServlet extends SlingAllMethodsServlet {
+    private static final Logger LOG = LoggerFactory.getLogger(SyncScoreBulkServlet.class);
+
+    private static final String SUBSERVICE = "contentScoreSync";
+
+    static final int CHUNK_SIZE = 500;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Reference
+    SyncScoreService syncScoreService;
+
+    @Reference
+    SystemUtils systemUtils;
+
+    @Reference
+    ResourcePathLookupService resourcePathLookupService;
+
+    @Override
+    protected void doPost(
+        final SlingHttpServletRequest request,
+        final SlingHttpServletResponse response) throws IOException {
+
+        List<ScoreSyncResult> results = new ArrayList<>();
+        // Reads a JSON array as well as a sequence of root level objects (NDJSON)
+        try (MappingIterator<ScoreSyncItem> iterator =
+                 objectMapper.readerFor(ScoreSyncItem.class).readValues(request.getReader())) {
+            List<ScoreSyncItem> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (iterator.hasNextValue()) {
+                chunk.add(iterator.nextValue());
+                if (chunk.size() == CHUNK_SIZE) {
+                    results.addAll(syncScores(chunk));
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                results.addAll(syncScores(chunk));
+            }
+        } catch (JsonProcessingException e) {
+            // The chunks before the invalid item are already saved
+            LOG.debug("Invalid bulk score sync body after {} items", results.size(), e);
+            response.sendError(400, "Invalid JSON after " + results.size() + " items: " + e.getOriginalMessage());
+            return;
+        } catch (LoginException e) {
+            LOG.error("Failed to get resource resolver for {}", SUBSERVICE, e);
+            response.sendError(500);
+            return;
+        }
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("counts", countByStatus(results));
+        summary.put("results", results);
+
+        response.setHeader("Content-Type", "application/json");
+        response.getWriter().write(objectMapper.writeValueAsString(summary));
+    }
+
+    private List<ScoreSyncResult> syncScores(final List<ScoreSyncItem> items) throws LoginException {
+        List<ScoreSyncResult> results = new ArrayList<>(items.size());
+        Set<String> uris = new LinkedHashSet<>();
+
+        for (ScoreSyncItem item : items) {
+            ScoreSyncResult result = new ScoreSyncResult(item.getUri(), null);
+            if (item.getUri() == null || !scoreIsValid(item.getScore())) {
+                result.setStatus(Status.INVALID);
+            } else if (!item.getUri().startsWith("http")) {
+                // Non web URIs (e.g. mobile apps) are not AEM properties
+                result.setStatus(Status.SKIPPED);
+            } else {
+                uris.add(item.getUri());
+            }
+            results.add(result);
+        }
+
+        Map<String, String> resourcePaths = resourcePathLookupService.lookupResourcePaths(uris);
+
+        // When the same page shows up more than once, the last score sent wins
+        Map<String, Integer> scoresByPath = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            ScoreSyncResult result = results.get(i);
+            if (result.getStatus() != null) {
+                continue;
+            }
+            String resourcePath = resourcePaths.get(result.getUri());
+            if (resourcePath == null) {
+                result.setStatus(Status.NOT_FOUND);
+                continue;
+            }
+            result.setPath(resourcePath);
+            scoresByPath.put(resourcePath, items.get(i).getScore());
+        }
+
+        Map<String, Status> statusByPath = new LinkedHashMap<>();
+        Map<String, String> messageByPath = new LinkedHashMap<>();
+
+        if (!scoresByPath.isEmpty()) {
+            try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+                syncChunk(lease.getResourceResolver(), scoresByPath, statusByPath, messageByPath);
+            }
+        }
+
+        for (ScoreSyncResult result : results) {
+            if (result.getStatus() == null) {
+                result.setStatus(statusByPath.get(result.getPath()));
+                result.setMessage(messageByPath.get(result.getPath()));
+            }
+        }
+        return results;
+    }
+
+    private void syncChunk(
+        final ResourceResolver resourceResolver,
+        final Map<String, Integer> chunkScores,
+        final Map<String, Status> statusByPath,
+        final Map<String, String> messageByPath) {
+
+        try {
+            Set<String> syncedPaths = syncScoreService.syncScores(resourceResolver, chunkScores);
+            for (String path : chunkScores.keySet()) {
+                statusByPath.put(path, syncedPaths.contains(path) ? Status.SYNCED : Status.NOT_FOUND);
+            }
+        } catch (RepositoryException | RuntimeException e) {
+            LOG.error("Failed to sync {} scores from scale-of-belief-lambda", chunkScores.size(), e);
+            for (String path : chunkScores.keySet()) {
+                statusByPath.put(path, Status.FAILED);
+                messageByPath.put(path, e.getMessage());
+            }
+        }
+    }
+
+    private boolean scoreIsValid(final Integer score) {
+        return score != null && score >= ScoringQueries.MIN_SCORE && score <= ScoringQueries.MAX_SCORE;
+    }
+
+    private Map<Status, Integer> countByStatus(final List<ScoreSyncResult> results) {
+        Map<Status, Integer> counts = new EnumMap<>(Status.class);
+        for (ScoreSyncResult result : results) {
+            counts.merge(result.getStatus(), 1, Integer::sum);
+        }
+        return counts;
+    }
+}
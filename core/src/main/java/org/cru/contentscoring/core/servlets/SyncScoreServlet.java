@@ -1,41 +1,90 @@
 package org.cru.contentscoring.core.servlets;
 
 import java.io.IOException;
-import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
 
 import javax.servlet.Servlet;
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
-import javax.ws.rs.core.Response;
 
-import org.apache.http.client.utils.URIBuilder;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.servlets.HttpConstants;
 import org.apache.sling.api.servlets.SlingAllMethodsServlet;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.cru.contentscoring.core.queue.ScoreSyncQueue;
+import org.cru.contentscoring.core.service.ResourcePathLookupService;
 import org.cru.contentscoring.core.service.SyncScoreService;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
 import org.cru.contentscoring.core.util.SystemUtils;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Strings;
 
 @Component(service = Servlet.class, property = {
         "sling.servlet.methods=" + HttpConstants.METHOD_POST,
         "sling.servlet.paths=/bin/cru/content-scoring/sync" })
+@Designate(ocd = SyncScoreServlet.Config.class)
 public class SyncScoreServlet extends SlingAllMethodsServlet {
+
+    @ObjectClassDefinition
+    @interface Config {
+        @AttributeDefinition(
+                name = "Lanes",
+                description = "Number of threads writing scores. Scores for the same page always use the same lane.")
+        int lanes();
+
+        @AttributeDefinition(
+                name = "Max Pending",
+                description = "Max number of pages waiting for their score to be written before new scores are rejected.")
+        int maxPending();
+
+        @AttributeDefinition(
+                name = "Max Group Size",
+                description = "Max number of scores a lane saves in one commit.")
+        int maxGroupSize();
+
+        @AttributeDefinition(
+                name = "Group Window",
+                description = "Time (in milliseconds) a lane collects scores before saving them in one commit.")
+        long groupWindow();
+
+        @AttributeDefinition(
+                name = "Shutdown Timeout",
+                description = "Time (in milliseconds) to wait for waiting scores to be written on deactivation.")
+        long shutdownTimeout();
+    }
+
     private static final Logger LOG = LoggerFactory.getLogger(SyncScoreServlet.class);
 
     private static final String SUBSERVICE = "contentScoreSync";
 
-    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    static final String LANES = "lanes";
+    private static final int DEFAULT_LANES = 4;
+
+    static final String MAX_PENDING = "maxPending";
+    private static final int DEFAULT_MAX_PENDING = 10000;
+
+    static final String MAX_GROUP_SIZE = "maxGroupSize";
+    private static final int DEFAULT_MAX_GROUP_SIZE = 100;
+
+    static final String GROUP_WINDOW = "groupWindow";
+    private static final long DEFAULT_GROUP_WINDOW = 200L;
+
+    static final String SHUTDOWN_TIMEOUT = "shutdownTimeout";
+    private static final long DEFAULT_SHUTDOWN_TIMEOUT = 10L * 1000L;
+
+    ScoreSyncQueue scoreSyncQueue;
+    private long shutdownTimeout;
 
     @Reference
     private SyncScoreService syncScoreService;
@@ -43,6 +92,29 @@ public class SyncScoreServlet extends SlingAllMethodsServlet {
     @Reference
     private SystemUtils systemUtils;
 
+    @Reference
+    private ResourcePathLookupService resourcePathLookupService;
+
+    @Reference
+    private MetricsService metricsService;
+
+    @Activate
+    public void activate(final Map<String, Object> config) {
+        shutdownTimeout = PropertiesUtil.toLong(config.get(SHUTDOWN_TIMEOUT), DEFAULT_SHUTDOWN_TIMEOUT);
+        scoreSyncQueue = new ScoreSyncQueue(
+            PropertiesUtil.toInteger(config.get(LANES), DEFAULT_LANES),
+            PropertiesUtil.toInteger(config.get(MAX_PENDING), DEFAULT_MAX_PENDING),
+            PropertiesUtil.toInteger(config.get(MAX_GROUP_SIZE), DEFAULT_MAX_GROUP_SIZE),
+            PropertiesUtil.toLong(config.get(GROUP_WINDOW), DEFAULT_GROUP_WINDOW),
+            this::writeScores,
+            metricsService);
+    }
+
+    @Deactivate
+    public void deactivate() {
+        scoreSyncQueue.stop(shutdownTimeout);
+    }
+
     @Override
     protected void doPost(
         final SlingHttpServletRequest request,
@@ -63,65 +135,26 @@ public class SyncScoreServlet extends SlingAllMethodsServlet {
         }
 
         String resourcePath;
-        Client client = ClientBuilder.newBuilder().build();
         try {
-            resourcePath = determineResourcePath(client, incomingUri);
+            resourcePath = resourcePathLookupService.lookupResourcePath(incomingUri);
             if (resourcePath == null) {
                 return;
             }
         } catch (URISyntaxException e) {
           LOG.error(e.getMessage());
           return;
-        } finally {
-            client.close();
         }
 
-
-
-        executor.submit(() -> {
-            try (ResourceResolver resourceResolver = systemUtils.getResourceResolver(SUBSERVICE)) {
-                syncScoreService.syncScore(
-                    resourceResolver,
-                    score,
-                    resourcePath);
-            } catch (Exception e) {
-                LOG.error("Failed to sync score from scale-of-belief-lambda", e);
-            }
-        });
-    }
-
-    @VisibleForTesting
-    String determineResourcePath(final Client client, final String incomingUri) throws URISyntaxException {
-        Response pathFinderResponse;
-
-        // We're only scoring html pages
-        if (incomingUri.endsWith(".html")) {
-            pathFinderResponse = client.target(incomingUri.replace(".html", "") + ".find.path.txt")
-                .request()
-                .get();
-        } else {
-            URI uri = new URI(incomingUri);
-            // This should be the load-balanced URL (e.g. https://www.cru.org), but could be a publisher URL.
-            String serverUri = new URIBuilder()
-                .setScheme(uri.getScheme())
-                .setPort(uri.getPort())
-                .setHost(uri.getHost())
-                .build()
-                .toString();
-            LOG.debug("Calling {} with path {}", serverUri + "/bin/cru/path/finder.txt", incomingUri);
-            pathFinderResponse = client.target(serverUri + "/bin/cru/path/finder.txt")
-                .queryParam("path", incomingUri)
-                .request()
-                .get();
+        if (!scoreSyncQueue.put(resourcePath, score)) {
+            response.sendError(503, "Too many scores waiting to be synced");
         }
+    }
 
-        String resourcePath = pathFinderResponse.readEntity(String.class);
-
-        if (Strings.isNullOrEmpty(resourcePath) || !resourcePath.startsWith("/")) {
-            LOG.warn("Resource path not found");
-            return null;
+    private void writeScores(final Map<String, Integer> scoresByPath) throws Exception {
+        try (ResourceResolverLease lease = systemUtils.leaseResourceResolver(SUBSERVICE)) {
+            ResourceResolver resourceResolver = lease.getResourceResolver();
+            syncScoreService.syncScores(resourceResolver, scoresByPath);
         }
-        return resourcePath;
     }
 
     @VisibleForTesting
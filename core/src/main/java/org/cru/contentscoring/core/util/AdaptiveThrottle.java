@@ -0,0 +1,55 @@
+package org.cru.contentscoring.core.util;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Paces a long running writer by how long its commits take. While commits stay within the target time the pause
+ * between them is halved, down to none; a slower commit means the repository is busy, so the pause is doubled, up
+ * to a max.
+ */
+public class AdaptiveThrottle {
+    private final long targetCommitMillis;
+    private final long minPauseMillis;
+    private final long maxPauseMillis;
+
+    private long pauseMillis;
+
+    public AdaptiveThrottle(final long targetCommitMillis, final long minPauseMillis, final long maxPauseMillis) {
+        this.targetCommitMillis = targetCommitMillis;
+        this.minPauseMillis = minPauseMillis;
+        this.maxPauseMillis = maxPauseMillis;
+    }
+
+    /**
+     * Adjusts the pause to the time the last commit took.
+     *
+     * @return the pause before the next commit
+     */
+    public synchronized long record(final long commitMillis) {
+        if (commitMillis > targetCommitMillis) {
+            pauseMillis = Math.min(maxPauseMillis, Math.max(minPauseMillis, pauseMillis * 2));
+        } else {
+            pauseMillis = pauseMillis / 2 < minPauseMillis ? 0L : pauseMillis / 2;
+        }
+        return pauseMillis;
+    }
+
+    public synchronized long getPauseMillis() {
+        return pauseMillis;
+    }
+
+    /**
+     * Waits for the current pause, if there is one.
+     */
+    public void pause() throws InterruptedException {
+        long pause = getPauseMillis();
+        if (pause > 0) {
+            sleep(pause);
+        }
+    }
+
+    @VisibleForTesting
+    void sleep(final long millis) throws InterruptedException {
+        Thread.sleep(millis);
+    }
+}
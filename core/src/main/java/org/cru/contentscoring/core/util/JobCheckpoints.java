@@ -0,0 +1,142 @@
+package org.cru.contentscoring.core.util;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.cru.contentscoring.core.service.RepositoryWriteService;
+
+import com.day.cq.commons.jcr.JcrUtil;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Keeps the progress of the runs of a Sling job in the repository. Every run has a checkpoint node under the root,
+ * named after the id its job carries, which the job updates as it goes and which is read back as the run's status.
+ * The checkpoints of all jobs share their state and timestamps; the state names are those of the jobs' status enums.
+ */
+public class JobCheckpoints<S> {
+    public static final String PN_STATE = "state";
+    public static final String PN_STARTED = "started";
+    public static final String PN_UPDATED = "updated";
+
+    private static final String QUEUED = "QUEUED";
+    private static final String FAILED = "FAILED";
+
+    /**
+     * Changes a checkpoint. It is applied again on the saved checkpoint if saving the change conflicts.
+     */
+    public interface Update {
+        void apply(Node checkpoint) throws RepositoryException;
+    }
+
+    private final String root;
+    private final String topic;
+    private final String idProperty;
+    private final Function<Resource, S> toStatus;
+    private final JobManager jobManager;
+    private final RepositoryWriteService repositoryWriteService;
+
+    /**
+     * @param idProperty the job property that holds the id of the run
+     * @param toStatus reads the status of a run from its checkpoint
+     */
+    public JobCheckpoints(
+        final String root,
+        final String topic,
+        final String idProperty,
+        final Function<Resource, S> toStatus,
+        final JobManager jobManager,
+        final RepositoryWriteService repositoryWriteService) {
+
+        this.root = root;
+        this.topic = topic;
+        this.idProperty = idProperty;
+        this.toStatus = toStatus;
+        this.jobManager = jobManager;
+        this.repositoryWriteService = repositoryWriteService;
+    }
+
+    public String getPath(final String id) {
+        return root + "/" + id;
+    }
+
+    /**
+     * Creates the checkpoint of a new, queued run and adds the job for it.
+     *
+     * @param init sets the properties of the run on its new checkpoint
+     * @return the status of the run
+     * @throws IllegalStateException if the job couldn't be added, the checkpoint is marked as failed then
+     */
+    public S start(final ResourceResolver resourceResolver, final Update init) throws RepositoryException {
+        String id = UUID.randomUUID().toString();
+        Session session = resourceResolver.adaptTo(Session.class);
+        repositoryWriteService.write(session, () -> {
+            Calendar now = Calendar.getInstance();
+            Node checkpoint = JcrUtil.createPath(getPath(id), "sling:Folder", "nt:unstructured", session, false);
+            checkpoint.setProperty(PN_STATE, QUEUED);
+            checkpoint.setProperty(PN_STARTED, now);
+            checkpoint.setProperty(PN_UPDATED, now);
+            init.apply(checkpoint);
+            return true;
+        });
+
+        Job job = jobManager.addJob(topic, ImmutableMap.<String, Object>of(idProperty, id));
+        if (job == null) {
+            update(session, id, checkpoint -> checkpoint.setProperty(PN_STATE, FAILED));
+            throw new IllegalStateException("Failed to queue run " + id + " of " + topic);
+        }
+        return toStatus.apply(resourceResolver.getResource(getPath(id)));
+    }
+
+    /**
+     * @return the statuses of all runs, the first started first
+     */
+    public List<S> getStatuses(final ResourceResolver resourceResolver) {
+        Resource checkpoints = resourceResolver.getResource(root);
+        if (checkpoints == null) {
+            return Collections.emptyList();
+        }
+
+        List<Resource> sorted = new ArrayList<>();
+        checkpoints.getChildren().forEach(sorted::add);
+        sorted.sort(Comparator.comparingLong(checkpoint ->
+            toMillis(checkpoint.getValueMap().get(PN_STARTED, Calendar.class))));
+
+        List<S> statuses = new ArrayList<>(sorted.size());
+        for (Resource checkpoint : sorted) {
+            statuses.add(toStatus.apply(checkpoint));
+        }
+        return statuses;
+    }
+
+    /**
+     * @return the status of the run, or null if it has no checkpoint
+     */
+    public S getStatus(final ResourceResolver resourceResolver, final String id) {
+        Resource checkpoint = resourceResolver.getResource(getPath(id));
+        return checkpoint == null ? null : toStatus.apply(checkpoint);
+    }
+
+    public void update(final Session session, final String id, final Update update) throws RepositoryException {
+        repositoryWriteService.write(session, () -> {
+            update.apply(session.getNode(getPath(id)));
+            return true;
+        });
+    }
+
+    public static long toMillis(final Calendar calendar) {
+        return calendar == null ? 0L : calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,17 @@
+package org.cru.contentscoring.core.util;
+
+import org.apache.sling.api.resource.ResourceResolver;
+
+/**
+ * A service resource resolver borrowed from a pool. Closing the lease hands the resolver back to the pool, so the
+ * resolver itself must not be closed by the one holding the lease.
+ */
+public interface ResourceResolverLease extends AutoCloseable {
+    ResourceResolver getResourceResolver();
+
+    /**
+     * Returns the resolver to the pool. Unsaved changes are reverted. Closing a lease more than once has no effect.
+     */
+    @Override
+    void close();
+}
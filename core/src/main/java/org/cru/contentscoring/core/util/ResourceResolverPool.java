@@ -0,0 +1,268 @@
+package org.cru.contentscoring.core.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Meter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Keeps idle service resource resolvers of one subservice around, so a request doesn't have to log in (and open a
+ * new repository session) every time. A resolver is refreshed before it is leased, so it sees the latest state.
+ * Resolvers are closed once they are older than the max age or were idle longer than the max idle time.
+ * <p>
+ * Every lease remembers where it was taken. Leases that are held longer than the leak threshold are logged with
+ * that stack trace when the pool is maintained.
+ */
+public class ResourceResolverPool {
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceResolverPool.class);
+
+    static final String METRIC_PREFIX = "cru.contentscoring.resolvers.";
+
+    public interface ResolverFactory {
+        ResourceResolver create() throws LoginException;
+    }
+
+    private final String subservice;
+    private final ResolverFactory resolverFactory;
+    private final int maxIdle;
+    private final long maxAgeMillis;
+    private final long maxIdleMillis;
+    private final long leakThresholdMillis;
+
+    private final Deque<PooledResolver> idle = new ArrayDeque<>();
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+    private boolean closed;
+
+    private final Counter leased;
+    private final Counter idleCount;
+    private final Meter created;
+    private final Meter reused;
+    private final Meter discarded;
+    private final Meter leaks;
+
+    public ResourceResolverPool(
+        final String subservice,
+        final ResolverFactory resolverFactory,
+        final int maxIdle,
+        final long maxAgeMillis,
+        final long maxIdleMillis,
+        final long leakThresholdMillis,
+        final MetricsService metricsService) {
+
+        this.subservice = subservice;
+        this.resolverFactory = resolverFactory;
+        this.maxIdle = maxIdle;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxIdleMillis = maxIdleMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+
+        String prefix = METRIC_PREFIX + subservice;
+        leased = metricsService.counter(prefix + ".leased");
+        idleCount = metricsService.counter(prefix + ".idle");
+        created = metricsService.meter(prefix + ".created");
+        reused = metricsService.meter(prefix + ".reused");
+        discarded = metricsService.meter(prefix + ".discarded");
+        leaks = metricsService.meter(prefix + ".leaks");
+    }
+
+    public ResourceResolverLease lease() throws LoginException {
+        long now = currentTimeMillis();
+
+        PooledResolver pooled;
+        while ((pooled = pollIdle()) != null) {
+            if (isUsable(pooled, now)) {
+                try {
+                    pooled.resolver.refresh();
+                    reused.mark();
+                    break;
+                } catch (RuntimeException e) {
+                    LOG.debug("Failed to refresh pooled resource resolver for {}", subservice, e);
+                }
+            }
+            discard(pooled);
+        }
+
+        if (pooled == null) {
+            pooled = new PooledResolver(resolverFactory.create(), now);
+            created.mark();
+        }
+
+        Lease lease = new Lease(pooled, now, new Throwable(
+            "Resource resolver for " + subservice + " leased by " + Thread.currentThread().getName()));
+        leases.add(lease);
+        leased.increment();
+        return lease;
+    }
+
+    /**
+     * Closes resolvers that have expired while idle and logs leases held longer than the leak threshold.
+     */
+    public void maintain() {
+        long now = currentTimeMillis();
+
+        List<PooledResolver> expired = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<PooledResolver> iterator = idle.iterator(); iterator.hasNext(); ) {
+                PooledResolver pooled = iterator.next();
+                if (!isUsable(pooled, now)) {
+                    iterator.remove();
+                    idleCount.decrement();
+                    expired.add(pooled);
+                }
+            }
+        }
+        for (PooledResolver pooled : expired) {
+            discard(pooled);
+        }
+
+        for (Lease lease : leases) {
+            if (!lease.reported && now - lease.leasedAt > leakThresholdMillis) {
+                lease.reported = true;
+                leaks.mark();
+                LOG.warn(
+                    "Resource resolver for {} was leased {} ms ago and not returned yet",
+                    subservice,
+                    now - lease.leasedAt,
+                    lease.origin);
+            }
+        }
+    }
+
+    /**
+     * Closes all idle resolvers. Leased resolvers are closed when they are returned.
+     */
+    public void close() {
+        List<PooledResolver> remaining;
+        synchronized (this) {
+            closed = true;
+            remaining = new ArrayList<>(idle);
+            idle.clear();
+        }
+        for (PooledResolver pooled : remaining) {
+            idleCount.decrement();
+            discard(pooled);
+        }
+        if (!leases.isEmpty()) {
+            LOG.warn("Closed resource resolver pool for {} with {} resolvers still leased", subservice, leases.size());
+        }
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getLeasedCount() {
+        return leases.size();
+    }
+
+    @VisibleForTesting
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private synchronized PooledResolver pollIdle() {
+        PooledResolver pooled = idle.pollFirst();
+        if (pooled != null) {
+            idleCount.decrement();
+        }
+        return pooled;
+    }
+
+    private void release(final Lease lease) {
+        if (!leases.remove(lease)) {
+            return;
+        }
+        leased.decrement();
+
+        PooledResolver pooled = lease.pooled;
+        long now = currentTimeMillis();
+        pooled.lastReleased = now;
+
+        try {
+            if (pooled.resolver.isLive() && pooled.resolver.hasChanges()) {
+                // The next lease has to start from a clean state
+                LOG.debug("Reverting unsaved changes of returned resource resolver for {}", subservice);
+                pooled.resolver.revert();
+            }
+        } catch (RuntimeException e) {
+            LOG.debug("Failed to revert returned resource resolver for {}", subservice, e);
+            discard(pooled);
+            return;
+        }
+
+        synchronized (this) {
+            if (!closed && idle.size() < maxIdle && isUsable(pooled, now)) {
+                // Most recently used first, so the rest can expire when there's less load
+                idle.addFirst(pooled);
+                idleCount.increment();
+                return;
+            }
+        }
+        discard(pooled);
+    }
+
+    private boolean isUsable(final PooledResolver pooled, final long now) {
+        return now - pooled.createdAt < maxAgeMillis
+            && now - pooled.lastReleased < maxIdleMillis
+            && pooled.resolver.isLive();
+    }
+
+    private void discard(final PooledResolver pooled) {
+        discarded.mark();
+        try {
+            if (pooled.resolver.isLive()) {
+                pooled.resolver.close();
+            }
+        } catch (RuntimeException e) {
+            LOG.debug("Failed to close resource resolver for {}", subservice, e);
+        }
+    }
+
+    private static class PooledResolver {
+        private final ResourceResolver resolver;
+        private final long createdAt;
+        private volatile long lastReleased;
+
+        PooledResolver(final ResourceResolver resolver, final long createdAt) {
+            this.resolver = resolver;
+            this.createdAt = createdAt;
+            this.lastReleased = createdAt;
+        }
+    }
+
+    private class Lease implements ResourceResolverLease {
+        private final PooledResolver pooled;
+        private final long leasedAt;
+        private final Throwable origin;
+        private volatile boolean reported;
+
+        Lease(final PooledResolver pooled, final long leasedAt, final Throwable origin) {
+            this.pooled = pooled;
+            this.leasedAt = leasedAt;
+            this.origin = origin;
+        }
+
+        @Override
+        public ResourceResolver getResourceResolver() {
+            return pooled.resolver;
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+    }
+}
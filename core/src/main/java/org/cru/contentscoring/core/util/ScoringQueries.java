@@ -0,0 +1,208 @@
+package org.cru.contentscoring.core.util;
+
+import static org.cru.contentscoring.core.service.impl.SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX;
+
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.util.ISO8601;
+import org.apache.sling.api.SlingException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+
+/**
+ * The JCR-SQL2 queries run by this bundle. Every one of them is served by an Oak index shipped in ui.apps
+ * under /oak:index/cruContentScoring*, which ScoringQueriesTest verifies, so keep both in sync.
+ * <p>
+ * A pass over the results runs its query once and reads the results from Oak's cursor while they are iterated,
+ * unordered, so memory stays constant and no result is read twice. Jobs that checkpoint the path of the last result
+ * they handled instead run one query per run ordered by path and restricted to the paths after the checkpoint; none
+ * of the shipped indexes can serve that order, so Oak sorts the results of such a run once in memory.
+ */
+public final class ScoringQueries {
+    public static final int MIN_SCORE = 0;
+    public static final int MAX_SCORE = 10;
+
+    // The selector of a single selector statement, e.g. "content" in "SELECT * FROM [cq:PageContent] AS content"
+    private static final Pattern SELECTOR = Pattern.compile("\\sAS\\s+(\\w+)\\s", Pattern.CASE_INSENSITIVE);
+
+    private ScoringQueries() {}
+
+    /**
+     * Page content nodes under the given root that have a {@code sling:vanityPath}.
+     */
+    public static String vanityPaths(final String rootPath) {
+        return "SELECT * FROM [cq:PageContent] AS content"
+            + " WHERE ISDESCENDANTNODE(content, " + literal(rootPath) + ")"
+            + " AND content.[sling:vanityPath] IS NOT NULL";
+    }
+
+    /**
+     * Pages under the given root that still have the legacy {@code jcr:content/score} property.
+     */
+    public static String pagesWithScoreProperty(final String rootPath) {
+        return "SELECT * FROM [cq:Page] AS page"
+            + " WHERE ISDESCENDANTNODE(page, " + literal(rootPath) + ")"
+            + " AND page.[jcr:content/score] IS NOT NULL";
+    }
+
+    /**
+     * Page content nodes under the given root that are tagged with a scale-of-belief score.
+     */
+    public static String pagesWithScoreTag(final String rootPath) {
+        StringBuilder scoreTags = new StringBuilder();
+        for (int score = MIN_SCORE; score <= MAX_SCORE; score++) {
+            if (score > MIN_SCORE) {
+                scoreTags.append(", ");
+            }
+            scoreTags.append(literal(SCALE_OF_BELIEF_TAG_PREFIX + score));
+        }
+
+        return "SELECT * FROM [cq:PageContent] AS content"
+            + " WHERE ISDESCENDANTNODE(content, " + literal(rootPath) + ")"
+            + " AND content.[cq:tags] IN (" + scoreTags + ")";
+    }
+
+    /**
+     * Page content nodes under the given root whose score was last sent before the given time.
+     */
+    public static String pagesScoredBefore(final String rootPath, final Calendar cutoff) {
+        return "SELECT * FROM [cq:PageContent] AS content"
+            + " WHERE ISDESCENDANTNODE(content, " + literal(rootPath) + ")"
+            + " AND content.[contentScoreLastUpdated] < CAST(" + literal(ISO8601.format(cutoff)) + " AS DATE)";
+    }
+
+    /**
+     * Page content nodes under the given root that are tagged with a score that was never sent.
+     */
+    public static String pagesNeverScored(final String rootPath) {
+        return pagesWithScoreTag(rootPath) + " AND content.[contentScoreLastUpdated] IS NULL";
+    }
+
+    /**
+     * Page content nodes under the given root that were modified at or after the given time.
+     */
+    public static String pagesModifiedSince(final String rootPath, final Calendar since) {
+        return "SELECT * FROM [cq:PageContent] AS content"
+            + " WHERE ISDESCENDANTNODE(content, " + literal(rootPath) + ")"
+            + " AND content.[cq:lastModified] >= CAST(" + literal(ISO8601.format(since)) + " AS DATE)";
+    }
+
+    /**
+     * Runs the given JCR-SQL2 statement once and resolves its results one by one while they are iterated, so large
+     * result sets are never held in memory. The results come in no particular order.
+     */
+    public static Iterator<Resource> findResources(final ResourceResolver resourceResolver, final String statement) {
+        try {
+            return new ResultIterator(resourceResolver, execute(resourceResolver, statement), statement);
+        } catch (RepositoryException e) {
+            throw new SlingException("Failed to execute query " + statement, e);
+        }
+    }
+
+    /**
+     * Like {@link #findResources(ResourceResolver, String)}, but the results come in path order and only those whose
+     * path comes after {@code afterPath}, so an interrupted run can pick up after the last result it handled. Oak
+     * sorts the results of the run in memory, so only use it where a run has to be resumed.
+     *
+     * @param afterPath the path of the last result handled, or null to start at the first result
+     */
+    public static Iterator<Resource> findResources(
+        final ResourceResolver resourceResolver,
+        final String statement,
+        final String afterPath) {
+
+        return findResources(resourceResolver, keyset(statement, afterPath));
+    }
+
+    /**
+     * @return the given statement restricted to the results after {@code afterPath} (if any), ordered by path
+     */
+    static String keyset(final String statement, final String afterPath) {
+        Matcher matcher = SELECTOR.matcher(statement);
+        if (!matcher.find()) {
+            throw new IllegalArgumentException("Not a single selector statement: " + statement);
+        }
+        String path = matcher.group(1) + ".[jcr:path]";
+        StringBuilder keyset = new StringBuilder(statement);
+        if (afterPath != null) {
+            keyset.append(" AND ").append(path).append(" > ").append(literal(afterPath));
+        }
+        return keyset.append(" ORDER BY ").append(path).toString();
+    }
+
+    /**
+     * Counts the results of the given JCR-SQL2 statement without resolving them.
+     */
+    public static long countResults(final ResourceResolver resourceResolver, final String statement) {
+        try {
+            NodeIterator nodes = execute(resourceResolver, statement);
+            long count = 0;
+            while (nodes.hasNext()) {
+                nodes.nextNode();
+                count++;
+            }
+            return count;
+        } catch (RepositoryException e) {
+            throw new SlingException("Failed to execute query " + statement, e);
+        }
+    }
+
+    private static NodeIterator execute(
+        final ResourceResolver resourceResolver,
+        final String statement) throws RepositoryException {
+
+        Session session = resourceResolver.adaptTo(Session.class);
+        Query query = session.getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2);
+        return query.execute().getNodes();
+    }
+
+    private static String literal(final String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
+
+    private static class ResultIterator implements Iterator<Resource> {
+        private final ResourceResolver resourceResolver;
+        private final NodeIterator nodes;
+        private final String statement;
+
+        private Resource next;
+
+        ResultIterator(final ResourceResolver resourceResolver, final NodeIterator nodes, final String statement) {
+            this.resourceResolver = resourceResolver;
+            this.nodes = nodes;
+            this.statement = statement;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null && nodes.hasNext()) {
+                    // Results deleted since the query ran are skipped
+                    next = resourceResolver.getResource(nodes.nextNode().getPath());
+                }
+                return next != null;
+            } catch (RepositoryException e) {
+                throw new SlingException("Failed to read the results of query " + statement, e);
+            }
+        }
+
+        @Override
+        public Resource next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Resource resource = next;
+            next = null;
+            return resource;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.cru.contentscoring.core.util;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Caches the results of an expensive lookup. Concurrent calls for the same key share a single in-flight load
+ * instead of each doing their own. Found values and misses (null) are kept for separate amounts of time, so
+ * that a miss can be retried sooner than a found value is refreshed. Failed loads are not cached. Callers wait for
+ * another caller's load for a limited time only, so a hung load doesn't hold up everyone asking for the same key.
+ */
+public class SingleFlightCache<K, V> {
+    private static final Object MISS = new Object();
+
+    /**
+     * Loads the values of many keys at once.
+     */
+    public interface BatchLoader<K, V> {
+        /**
+         * @return the value per key, null for a key known to have none. Keys left out are neither found nor cached,
+         *         e.g. because the source of their values couldn't be reached.
+         */
+        Map<K, V> load(Set<K> keys) throws Exception;
+    }
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Cache<K, V> found;
+    private final Cache<K, Object> missed;
+    private final long awaitTimeoutMillis;
+
+    public SingleFlightCache(
+        final long maximumSize,
+        final long positiveTtlMillis,
+        final long negativeTtlMillis,
+        final long awaitTimeoutMillis) {
+
+        this.awaitTimeoutMillis = awaitTimeoutMillis;
+        found = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(positiveTtlMillis, TimeUnit.MILLISECONDS)
+            .build();
+        missed = CacheBuilder.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(negativeTtlMillis, TimeUnit.MILLISECONDS)
+            .build();
+    }
+
+    /**
+     * @return the cached value for the key, or the value the loader returns. Only one loader runs per key at a time,
+     *         other callers wait for its result.
+     * @throws Exception whatever the loader threw, for every caller waiting on that load
+     * @throws TimeoutException if the load of another caller this one waited for took too long
+     */
+    public V get(final K key, final Callable<V> loader) throws Exception {
+        V value = found.getIfPresent(key);
+        if (value != null || missed.getIfPresent(key) != null) {
+            return value;
+        }
+
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            return await(existing);
+        }
+
+        try {
+            // A load that finished between the lookup above and claiming the key has cached its value by now
+            value = found.getIfPresent(key);
+            if (value != null || missed.getIfPresent(key) != null) {
+                flight.complete(value);
+                return value;
+            }
+
+            value = loader.call();
+            if (value == null) {
+                missed.put(key, MISS);
+            } else {
+                found.put(key, value);
+            }
+            flight.complete(value);
+            return value;
+        } catch (Exception | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * Batch variant of {@link #get(Object, Callable)}. Keys that are cached or already being loaded by another caller
+     * aren't passed to the loader, the others are loaded in one call.
+     *
+     * @return the values of the keys that have one
+     * @throws Exception whatever the loader threw, or the load of another caller this one waited for
+     * @throws TimeoutException if the load of another caller this one waited for took too long
+     */
+    public Map<K, V> getAll(final Collection<K> keys, final BatchLoader<K, V> loader) throws Exception {
+        Map<K, V> values = new LinkedHashMap<>();
+        Map<K, CompletableFuture<V>> claimed = new LinkedHashMap<>();
+        Map<K, CompletableFuture<V>> awaited = new LinkedHashMap<>();
+
+        for (K key : keys) {
+            V value = found.getIfPresent(key);
+            if (value != null) {
+                values.put(key, value);
+            } else if (missed.getIfPresent(key) == null && !claimed.containsKey(key) && !awaited.containsKey(key)) {
+                CompletableFuture<V> flight = new CompletableFuture<>();
+                CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+                if (existing != null) {
+                    awaited.put(key, existing);
+                } else if (!completeIfCached(key, flight, values)) {
+                    claimed.put(key, flight);
+                }
+            }
+        }
+
+        if (!claimed.isEmpty()) {
+            try {
+                Map<K, V> loaded = loader.load(claimed.keySet());
+                for (Map.Entry<K, CompletableFuture<V>> flight : claimed.entrySet()) {
+                    K key = flight.getKey();
+                    V value = loaded.get(key);
+                    if (value != null) {
+                        found.put(key, value);
+                        values.put(key, value);
+                    } else if (loaded.containsKey(key)) {
+                        missed.put(key, MISS);
+                    }
+                    flight.getValue().complete(value);
+                }
+            } catch (Exception | Error e) {
+                for (CompletableFuture<V> flight : claimed.values()) {
+                    flight.completeExceptionally(e);
+                }
+                throw e;
+            } finally {
+                for (Map.Entry<K, CompletableFuture<V>> flight : claimed.entrySet()) {
+                    inFlight.remove(flight.getKey(), flight.getValue());
+                }
+            }
+        }
+
+        for (Map.Entry<K, CompletableFuture<V>> flight : awaited.entrySet()) {
+            V value = await(flight.getValue());
+            if (value != null) {
+                values.put(flight.getKey(), value);
+            }
+        }
+        return values;
+    }
+
+    public void invalidateAll() {
+        found.invalidateAll();
+        missed.invalidateAll();
+    }
+
+    /**
+     * Completes and releases a claimed key whose value a load that just finished has cached.
+     *
+     * @return whether the key was cached
+     */
+    private boolean completeIfCached(final K key, final CompletableFuture<V> flight, final Map<K, V> values) {
+        V value = found.getIfPresent(key);
+        if (value == null && missed.getIfPresent(key) == null) {
+            return false;
+        }
+        if (value != null) {
+            values.put(key, value);
+        }
+        flight.complete(value);
+        inFlight.remove(key, flight);
+        return true;
+    }
+
+    private V await(final CompletableFuture<V> flight) throws Exception {
+        try {
+            return flight.get(awaitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+}
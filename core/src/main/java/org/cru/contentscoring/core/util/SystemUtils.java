@@ -12,4 +12,14 @@ public interface SystemUtils {
      * @throws LoginException if system user can't be retrieved correctly
      */
     ResourceResolver getResourceResolver(final String subservice) throws LoginException;
+
+    /**
+     * Borrows a resource resolver for the subservice from a pool, logging in only if no idle one is available.
+     * Use this for short units of work; close the lease (not the resolver) when done.
+     *
+     * @param subservice the subservice the system user is registered with in User Mapper OSGI Config
+     * @return the lease on a refreshed ResourceResolver instance with correct system user permissions
+     * @throws LoginException if system user can't be retrieved correctly
+     */
+    ResourceResolverLease leaseResourceResolver(final String subservice) throws LoginException;
 }
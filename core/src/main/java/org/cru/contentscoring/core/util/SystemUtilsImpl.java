@@ -2,24 +2,128 @@ package org.cru.contentscoring.core.util;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
 @Component(service = SystemUtils.class, immediate = true, property = {
         Constants.SERVICE_DESCRIPTION + "=SystemUtils for the Cru content scoring application" })
+@Designate(ocd = SystemUtilsImpl.Config.class)
 public class SystemUtilsImpl implements SystemUtils {
+
+    @ObjectClassDefinition
+    @interface Config {
+        @AttributeDefinition(
+                name = "Max Idle Resolvers",
+                description = "Max number of idle resource resolvers kept per subservice.")
+        int maxIdle();
+
+        @AttributeDefinition(
+                name = "Max Age",
+                description = "Time (in milliseconds) after which a pooled resource resolver is closed.")
+        long maxAge();
+
+        @AttributeDefinition(
+                name = "Max Idle Time",
+                description = "Time (in milliseconds) a resource resolver is kept in the pool without being leased.")
+        long maxIdleTime();
+
+        @AttributeDefinition(
+                name = "Leak Threshold",
+                description = "Time (in milliseconds) after which a lease that isn't returned is logged as a leak.")
+        long leakThreshold();
+    }
+
+    static final String MAX_IDLE = "maxIdle";
+    private static final int DEFAULT_MAX_IDLE = 8;
+
+    static final String MAX_AGE = "maxAge";
+    private static final long DEFAULT_MAX_AGE = 10L * 60L * 1000L;
+
+    static final String MAX_IDLE_TIME = "maxIdleTime";
+    private static final long DEFAULT_MAX_IDLE_TIME = 2L * 60L * 1000L;
+
+    static final String LEAK_THRESHOLD = "leakThreshold";
+    private static final long DEFAULT_LEAK_THRESHOLD = 60L * 1000L;
+
+    private static final long MAINTENANCE_INTERVAL = 30L * 1000L;
+
     @Reference
     private ResourceResolverFactory resourceResolverFactory;
 
+    @Reference
+    private MetricsService metricsService;
+
+    private final ConcurrentMap<String, ResourceResolverPool> pools = new ConcurrentHashMap<>();
+
+    private int maxIdle;
+    private long maxAge;
+    private long maxIdleTime;
+    private long leakThreshold;
+
+    private ScheduledExecutorService maintenance;
+
+    @Activate
+    public void activate(final Map<String, Object> config) {
+        maxIdle = PropertiesUtil.toInteger(config.get(MAX_IDLE), DEFAULT_MAX_IDLE);
+        maxAge = PropertiesUtil.toLong(config.get(MAX_AGE), DEFAULT_MAX_AGE);
+        maxIdleTime = PropertiesUtil.toLong(config.get(MAX_IDLE_TIME), DEFAULT_MAX_IDLE_TIME);
+        leakThreshold = PropertiesUtil.toLong(config.get(LEAK_THRESHOLD), DEFAULT_LEAK_THRESHOLD);
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "content-scoring-resolver-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(
+            () -> pools.values().forEach(ResourceResolverPool::maintain),
+            MAINTENANCE_INTERVAL,
+            MAINTENANCE_INTERVAL,
+            TimeUnit.MILLISECONDS);
+    }
+
+    @Deactivate
+    public void deactivate() {
+        if (maintenance != null) {
+            maintenance.shutdownNow();
+        }
+        pools.values().forEach(ResourceResolverPool::close);
+        pools.clear();
+    }
+
     @Override
     public ResourceResolver getResourceResolver(final String subservice) throws LoginException {
         Map<String, Object> authenticationInfo = new HashMap<>();
         authenticationInfo.put(ResourceResolverFactory.SUBSERVICE, subservice);
         return resourceResolverFactory.getServiceResourceResolver(authenticationInfo);
     }
+
+    @Override
+    public ResourceResolverLease leaseResourceResolver(final String subservice) throws LoginException {
+        ResourceResolverPool pool = pools.computeIfAbsent(subservice, key -> new ResourceResolverPool(
+            key,
+            () -> getResourceResolver(key),
+            maxIdle,
+            maxAge,
+            maxIdleTime,
+            leakThreshold,
+            metricsService));
+        return pool.lease();
+    }
 }
@@ -0,0 +1,137 @@
+package org.cru.contentscoring.core;
+
+import org.cru.contentscoring.core.schedulers.StaleScoreSweeper;
+import org.cru.contentscoring.core.service.ContentScoreUpdateService;
+import org.cru.contentscoring.core.service.ScoreReconciliationService;
+import org.cru.contentscoring.core.service.impl.ScoreReconciliationServiceImpl;
+import org.cru.contentscoring.core.servlets.ScoreReconciliationServlet;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the wiring of the components in the descriptors that bnd generates into target/classes/OSGI-INF. A
+ * mandatory reference to a service of this bundle that no active component provides keeps the referencing component
+ * from ever activating, which tests on mocks don't show. Services of other bundles are taken as available.
+ */
+public class ComponentWiringTest {
+    private static final File DESCRIPTORS = new File("target/classes/OSGI-INF");
+    private static final String BUNDLE_PACKAGE = "org.cru.contentscoring.";
+
+    // Not registered as a component (see ContentScoreUpdateServiceImpl), so the components referencing it are inactive
+    private static final Set<String> UPDATE_SERVICE = Collections.singleton(ContentScoreUpdateService.class.getName());
+
+    // The interfaces each component provides and references, by component name
+    private final Map<String, Set<String>> provides = new HashMap<>();
+    private final Map<String, Set<String>> references = new HashMap<>();
+
+    private Set<String> available;
+
+    @Before
+    public void setup() throws Exception {
+        // Only there once the bundle plugin ran, which a build does before the tests
+        assumeTrue(DESCRIPTORS.isDirectory());
+
+        File[] descriptors = DESCRIPTORS.listFiles((directory, name) -> name.endsWith(".xml"));
+        for (File descriptor : descriptors) {
+            Element component = DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder()
+                .parse(descriptor)
+                .getDocumentElement();
+            String name = component.getAttribute("name");
+            provides.put(name, interfaces(component, "provide", false));
+            references.put(name, interfaces(component, "reference", true));
+        }
+        available = availableServices();
+    }
+
+    @Test
+    public void testUpdateServiceIsTheOnlyServiceWithoutComponent() {
+        Set<String> provided = new HashSet<>();
+        provides.values().forEach(provided::addAll);
+
+        for (Map.Entry<String, Set<String>> component : references.entrySet()) {
+            Set<String> missing = new LinkedHashSet<>(component.getValue());
+            missing.removeAll(provided);
+            missing.removeAll(UPDATE_SERVICE);
+            assertThat(component.getKey() + " references " + missing, missing.isEmpty(), is(true));
+        }
+    }
+
+    @Test
+    public void testSweeperIsInactiveWithoutUpdateService() {
+        assertThat(missingServices(StaleScoreSweeper.class.getName()), is(equalTo(UPDATE_SERVICE)));
+    }
+
+    @Test
+    public void testReconciliationIsInactiveWithoutUpdateService() {
+        assertThat(missingServices(ScoreReconciliationServiceImpl.class.getName()), is(equalTo(UPDATE_SERVICE)));
+        assertThat(
+            missingServices(ScoreReconciliationServlet.class.getName()),
+            is(equalTo(Collections.singleton(ScoreReconciliationService.class.getName()))));
+    }
+
+    /**
+     * @return the services of this bundle that the component references, but no active component provides
+     */
+    private Set<String> missingServices(final String component) {
+        Set<String> missing = new LinkedHashSet<>(references.get(component));
+        missing.removeAll(available);
+        return missing;
+    }
+
+    /**
+     * @return the services of this bundle provided by components whose references can all be satisfied, taking
+     *     into account that a component is only active once the components it references are
+     */
+    private Set<String> availableServices() {
+        Set<String> services = new HashSet<>();
+        Set<String> active = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Map.Entry<String, Set<String>> component : references.entrySet()) {
+                if (!active.contains(component.getKey()) && services.containsAll(component.getValue())) {
+                    active.add(component.getKey());
+                    services.addAll(provides.get(component.getKey()));
+                    changed = true;
+                }
+            }
+        }
+        return services;
+    }
+
+    /**
+     * @param mandatoryOnly whether to leave out optional references
+     * @return the interfaces of this bundle named by the given elements of the component
+     */
+    private Set<String> interfaces(final Element component, final String tagName, final boolean mandatoryOnly) {
+        Set<String> interfaces = new LinkedHashSet<>();
+        NodeList elements = component.getElementsByTagName(tagName);
+        for (int i = 0; i < elements.getLength(); i++) {
+            Element element = (Element) elements.item(i);
+            String name = element.getAttribute("interface");
+            // The cardinality defaults to 1..1
+            boolean optional = element.getAttribute("cardinality").startsWith("0");
+            if (name.startsWith(BUNDLE_PACKAGE) && !(mandatoryOnly && optional)) {
+                interfaces.add(name);
+            }
+        }
+        return interfaces;
+    }
+}
@@ -0,0 +1,127 @@
+package org.cru.contentscoring.core.ledger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ScoreLedgerTest {
+    private static final String URI = "https://www.cru.org/us/en/page.html";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private ScoreLedger ledger;
+
+    @Before
+    public void setup() throws IOException {
+        directory = folder.newFolder("ledger");
+        ledger = ScoreLedger.open(directory);
+    }
+
+    @After
+    public void teardown() throws IOException {
+        ledger.close();
+    }
+
+    @Test
+    public void testUnknownUriHasNoEntry() throws IOException {
+        assertThat(ledger.get(URI), is(nullValue()));
+    }
+
+    @Test
+    public void testLastRecordWins() throws IOException {
+        ledger.record(URI, 3, 1000L, ScoreLedger.Outcome.ACCEPTED);
+        ledger.record(URI, 5, 2000L, ScoreLedger.Outcome.FAILED);
+
+        ScoreLedger.Entry entry = ledger.get(URI);
+        assertThat(entry.getScore(), is(equalTo(5)));
+        assertThat(entry.getSentAt(), is(equalTo(2000L)));
+        assertThat(entry.getOutcome(), is(equalTo(ScoreLedger.Outcome.FAILED)));
+        assertThat(ledger.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testEntriesSurviveReopening() throws IOException {
+        ledger.record(URI, 3, 1000L, ScoreLedger.Outcome.ACCEPTED);
+        ledger.close();
+
+        ledger = ScoreLedger.open(directory);
+
+        assertThat(ledger.get(URI).getScore(), is(equalTo(3)));
+    }
+
+    @Test
+    public void testMissingIndexIsRebuiltFromLog() throws IOException {
+        ledger.record(URI, 3, 1000L, ScoreLedger.Outcome.ACCEPTED);
+        ledger.record(URI, 4, 2000L, ScoreLedger.Outcome.ACCEPTED);
+        ledger.close();
+
+        assertThat(new File(directory, ScoreLedger.INDEX_FILE).delete(), is(equalTo(true)));
+        ledger = ScoreLedger.open(directory);
+
+        assertThat(ledger.get(URI).getScore(), is(equalTo(4)));
+        assertThat(ledger.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testTornRecordIsCutOff() throws IOException {
+        ledger.record(URI, 3, 1000L, ScoreLedger.Outcome.ACCEPTED);
+        ledger.record("https://www.cru.org/us/en/other.html", 4, 2000L, ScoreLedger.Outcome.ACCEPTED);
+        ledger.close();
+
+        File logFile = new File(directory, ScoreLedger.LOG_FILE);
+        assertThat(new File(directory, ScoreLedger.INDEX_FILE).delete(), is(equalTo(true)));
+        try (RandomAccessFile log = new RandomAccessFile(logFile, "rw")) {
+            log.setLength(log.length() - 3);
+        }
+        ledger = ScoreLedger.open(directory);
+
+        assertThat(ledger.get(URI).getScore(), is(equalTo(3)));
+        assertThat(ledger.get("https://www.cru.org/us/en/other.html"), is(nullValue()));
+        // Appending continues after the last whole record
+        ledger.record("https://www.cru.org/us/en/other.html", 5, 3000L, ScoreLedger.Outcome.ACCEPTED);
+        assertThat(ledger.get("https://www.cru.org/us/en/other.html").getScore(), is(equalTo(5)));
+    }
+
+    @Test
+    public void testIndexGrowsBeyondInitialCapacity() throws IOException {
+        int count = ScoreLedger.INITIAL_CAPACITY;
+        for (int i = 0; i < count; i++) {
+            ledger.record(URI + "?page=" + i, i % 10, i, ScoreLedger.Outcome.ACCEPTED);
+        }
+
+        assertThat(ledger.size(), is(equalTo(count)));
+        for (int i = 0; i < count; i += 997) {
+            assertThat(ledger.get(URI + "?page=" + i).getScore(), is(equalTo(i % 10)));
+        }
+    }
+
+    @Test
+    public void testCompactionKeepsLastRecords() throws IOException {
+        for (int score = 0; score < 10; score++) {
+            ledger.record(URI, score, score, ScoreLedger.Outcome.ACCEPTED);
+            ledger.record("https://www.cru.org/us/en/other.html", score, score, ScoreLedger.Outcome.FAILED);
+        }
+        long before = new File(directory, ScoreLedger.LOG_FILE).length();
+
+        ledger.compact();
+
+        assertThat(new File(directory, ScoreLedger.LOG_FILE).length() < before, is(equalTo(true)));
+        assertThat(ledger.size(), is(equalTo(2)));
+        assertThat(ledger.get(URI).getScore(), is(equalTo(9)));
+        assertThat(ledger.get("https://www.cru.org/us/en/other.html").getOutcome(),
+            is(equalTo(ScoreLedger.Outcome.FAILED)));
+    }
+}
@@ -0,0 +1,218 @@
+package org.cru.contentscoring.core.listeners;
+
+import com.day.cq.wcm.api.PageManager;
+import com.google.common.collect.Maps;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.Queue;
+import org.apache.sling.event.jobs.QueueConfiguration;
+import org.apache.sling.event.jobs.consumer.JobConsumer.AsyncHandler;
+import org.cru.commons.event.service.impl.ReplicationListenerOnPublishServiceImpl;
+import org.cru.contentscoring.core.service.ContentScoreUpdateService;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IndexerJobConsumerTest {
+    private static final int TREE_THRESHOLD = 3;
+
+    private IndexerJobConsumer indexerJobConsumer;
+    private ContentScoreUpdateService contentScoreUpdateService;
+    private ResourceResolver resourceResolver;
+    private JobManager jobManager;
+
+    @Before
+    public void setup() throws Exception {
+        resourceResolver = mock(ResourceResolver.class);
+        when(resourceResolver.adaptTo(PageManager.class)).thenReturn(mock(PageManager.class));
+        ResourceResolverLease lease = mock(ResourceResolverLease.class);
+        when(lease.getResourceResolver()).thenReturn(resourceResolver);
+        SystemUtils systemUtils = mock(SystemUtils.class);
+        when(systemUtils.leaseResourceResolver(anyString())).thenReturn(lease);
+
+        contentScoreUpdateService = mock(ContentScoreUpdateService.class);
+        when(contentScoreUpdateService.updateContentScores(anyCollection()))
+            .thenReturn(Collections.emptyMap());
+        when(contentScoreUpdateService.updateContentScoresInTree(
+            any(ResourceResolver.class),
+            anyString(),
+            anySetOf(String.class)))
+            .thenReturn(Collections.emptyMap());
+
+        indexerJobConsumer = new IndexerJobConsumer();
+        indexerJobConsumer.systemUtils = systemUtils;
+        indexerJobConsumer.contentScoreUpdateService = contentScoreUpdateService;
+        indexerJobConsumer.metricsService = MetricsService.NOOP;
+        jobManager = mock(JobManager.class);
+        when(jobManager.getQueues()).thenReturn(Collections.emptyList());
+        indexerJobConsumer.jobManager = jobManager;
+
+        Map<String, Object> config = Maps.newHashMap();
+        config.put(IndexerJobConsumer.TREE_THRESHOLD, TREE_THRESHOLD);
+        config.put(IndexerJobConsumer.MAX_BATCH_SIZE, 2);
+        indexerJobConsumer.activate(config);
+    }
+
+    @After
+    public void tearDown() {
+        indexerJobConsumer.deactivate();
+    }
+
+    @Test
+    public void testTreeActivationIsScoredAsOneTree() throws Exception {
+        List<Map.Entry<String, AsyncHandler>> quietJobs = quietJobs(
+            "/content/site/us/en",
+            "/content/site/us/en/about",
+            "/content/site/us/en/about/team");
+
+        indexerJobConsumer.processQuietJobs(quietJobs);
+
+        verify(contentScoreUpdateService).updateContentScoresInTree(
+            eq(resourceResolver),
+            eq("/content/site/us/en"),
+            eq((Set<String>) new HashSet<>(Arrays.asList(
+                "/content/site/us/en",
+                "/content/site/us/en/about",
+                "/content/site/us/en/about/team"))));
+        verify(contentScoreUpdateService, never()).updateContentScores(anyCollection());
+        for (Map.Entry<String, AsyncHandler> quietJob : quietJobs) {
+            verify(quietJob.getValue()).ok();
+        }
+    }
+
+    @Test
+    public void testFewPagesAreScoredInBatches() throws Exception {
+        indexerJobConsumer.processQuietJobs(quietJobs("/content/site/us/en/a", "/content/site/us/en/b"));
+
+        verify(contentScoreUpdateService).updateContentScores(anyCollection());
+        verify(contentScoreUpdateService, never())
+            .updateContentScoresInTree(any(ResourceResolver.class), anyString(), anySetOf(String.class));
+    }
+
+    @Test
+    public void testPagesAcrossSitesAreScoredInBatches() throws Exception {
+        indexerJobConsumer.processQuietJobs(quietJobs(
+            "/content/site/us/en/a",
+            "/content/other/us/en/b",
+            "/content/site/us/en/c"));
+
+        // Two batches of at most two pages
+        verify(contentScoreUpdateService, times(2)).updateContentScores(anyCollection());
+        verify(contentScoreUpdateService, never())
+            .updateContentScoresInTree(any(ResourceResolver.class), anyString(), anySetOf(String.class));
+    }
+
+    @Test
+    public void testUndeliveredPageFailsOnlyItsOwnJob() throws Exception {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("Not delivered"));
+        CompletableFuture<Void> pending = new CompletableFuture<>();
+        Map<String, CompletionStage<Void>> deliveries = new HashMap<>();
+        deliveries.put("/content/site/us/en/a", failed);
+        deliveries.put("/content/site/us/en/b", pending);
+        when(contentScoreUpdateService.updateContentScoresInTree(
+            any(ResourceResolver.class),
+            anyString(),
+            anySetOf(String.class)))
+            .thenReturn(deliveries);
+
+        List<Map.Entry<String, AsyncHandler>> quietJobs = quietJobs(
+            "/content/site/us/en/a",
+            "/content/site/us/en/b",
+            "/content/site/us/en/c");
+        indexerJobConsumer.processQuietJobs(quietJobs);
+
+        verify(quietJobs.get(0).getValue()).failed();
+        // Still being delivered
+        verify(quietJobs.get(1).getValue(), never()).ok();
+        // Nothing to send
+        verify(quietJobs.get(2).getValue()).ok();
+
+        pending.complete(null);
+        verify(quietJobs.get(1).getValue()).ok();
+        verify(quietJobs.get(0).getValue(), never()).ok();
+    }
+
+    @Test
+    public void testTreeThresholdIsCappedByJobQueue() throws Exception {
+        assertThat(indexerJobConsumer.effectiveTreeThreshold(), is(equalTo(TREE_THRESHOLD)));
+
+        QueueConfiguration configuration = mock(QueueConfiguration.class);
+        when(configuration.getTopics()).thenReturn(new String[] {
+            "other/topic",
+            ReplicationListenerOnPublishServiceImpl.SCORING_JOB_NAME});
+        when(configuration.getMaxParallel()).thenReturn(2);
+        Queue queue = mock(Queue.class);
+        when(queue.getConfiguration()).thenReturn(configuration);
+        when(jobManager.getQueues()).thenReturn(Collections.singletonList(queue));
+
+        // The queue never lets more than two jobs be held, so two pages under one tree already are a tree
+        assertThat(indexerJobConsumer.effectiveTreeThreshold(), is(equalTo(2)));
+        indexerJobConsumer.processQuietJobs(quietJobs("/content/site/us/en/a", "/content/site/us/en/b"));
+
+        verify(contentScoreUpdateService).updateContentScoresInTree(
+            any(ResourceResolver.class),
+            eq("/content/site/us/en"),
+            anySetOf(String.class));
+    }
+
+    @Test
+    public void testQueueTopics() {
+        String[] topics = {"org/cru/scoring/*", "org/cru/exact", "org/cru/deep/**"};
+        assertThat(IndexerJobConsumer.handlesTopic(topics, "org/cru/scoring/page"), is(true));
+        assertThat(IndexerJobConsumer.handlesTopic(topics, "org/cru/scoring/page/child"), is(false));
+        assertThat(IndexerJobConsumer.handlesTopic(topics, "org/cru/exact"), is(true));
+        assertThat(IndexerJobConsumer.handlesTopic(topics, "org/cru/deep/a/b"), is(true));
+        assertThat(IndexerJobConsumer.handlesTopic(topics, "org/cru/other"), is(false));
+    }
+
+    @Test
+    public void testCommonAncestor() {
+        assertThat(
+            IndexerJobConsumer.commonAncestor(Arrays.asList("/content/site/us/en/a", "/content/site/us/en/ab")),
+            is(equalTo("/content/site/us/en")));
+        assertThat(
+            IndexerJobConsumer.commonAncestor(Arrays.asList("/content/site/us/en", "/content/site/us/en/a/b")),
+            is(equalTo("/content/site/us/en")));
+        assertThat(
+            IndexerJobConsumer.commonAncestor(Arrays.asList("/content/site/a", "/var/site/a")),
+            is(equalTo("/")));
+    }
+
+    private List<Map.Entry<String, AsyncHandler>> quietJobs(final String... paths) {
+        List<Map.Entry<String, AsyncHandler>> quietJobs = new ArrayList<>();
+        for (String path : paths) {
+            quietJobs.add(new SimpleImmutableEntry<>(path, mock(AsyncHandler.class)));
+        }
+        return quietJobs;
+    }
+}
@@ -0,0 +1,122 @@
+package org.cru.contentscoring.core.provider;
+
+import com.google.common.collect.Lists;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.cru.contentscoring.core.service.VanityPathIndexService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ExternalUrlPathProviderTest {
+    private ExternalUrlPathProvider externalUrlPathProvider;
+    private VanityPathIndexService vanityPathIndexService;
+    private ResourceResolver resourceResolver;
+
+    @Before
+    public void setup() {
+        resourceResolver = mock(ResourceResolver.class);
+        vanityPathIndexService = mock(VanityPathIndexService.class);
+        externalUrlPathProvider = new ExternalUrlPathProvider("dev", vanityPathIndexService);
+        mockSlingMaps();
+    }
+
+    @Test
+    public void testHtmlUrlToPath() {
+        mockPage("/content/primary/us/en/wherever");
+
+        String path = externalUrlPathProvider.toPath(
+            URI.create("https://primary.site.org/us/en/wherever.html"),
+            resourceResolver);
+        assertThat(path, is(equalTo("/content/primary/us/en/wherever")));
+    }
+
+    @Test
+    public void testVanityUrlToPath() {
+        when(vanityPathIndexService.getPagePath("/vanity")).thenReturn("/content/primary/us/en/vanity-page");
+
+        String path = externalUrlPathProvider.toPath(URI.create("https://primary.site.org/vanity"), resourceResolver);
+        assertThat(path, is(equalTo("/content/primary/us/en/vanity-page")));
+    }
+
+    @Test
+    public void testMatchedHostToPath() {
+        mockPage("/content/other/us/en/wherever");
+
+        String path = externalUrlPathProvider.toPath(
+            URI.create("http://www.other.site.com/us/en/wherever.html"),
+            resourceResolver);
+        assertThat(path, is(equalTo("/content/other/us/en/wherever")));
+    }
+
+    @Test
+    public void testUnknownHostReturnsNull() {
+        String path = externalUrlPathProvider.toPath(
+            URI.create("https://unknown.site.org/us/en/wherever.html"),
+            resourceResolver);
+        assertThat(path, is(nullValue()));
+    }
+
+    @Test
+    public void testMissingPageReturnsNull() {
+        String path = externalUrlPathProvider.toPath(
+            URI.create("https://primary.site.org/us/en/nowhere.html"),
+            resourceResolver);
+        assertThat(path, is(nullValue()));
+    }
+
+    private void mockPage(final String path) {
+        Resource page = mock(Resource.class);
+        when(page.getPath()).thenReturn(path);
+        when(page.getResourceType()).thenReturn("cq:Page");
+        when(resourceResolver.getResource(path)).thenReturn(page);
+    }
+
+    private void mockSlingMaps() {
+        Resource primarySiteMap = mockResource("primary.site.org", "/content/primary", null);
+        Resource primarySiteRedirect = mockResource("primary.site_org", "/content/primary/us/en", null);
+
+        Resource httpsMap = mockResource("https", null, Lists.newArrayList(primarySiteRedirect, primarySiteMap));
+        when(httpsMap.getChild("primary.site.org")).thenReturn(primarySiteMap);
+        when(httpsMap.getChild("primary.site_org")).thenReturn(primarySiteRedirect);
+
+        Resource otherSiteMap = mockResource("other", "/content/other", null);
+        otherSiteMap.getValueMap().put("sling:match", "www.other.site.com");
+
+        Resource httpMap = mockResource("http", null, Lists.newArrayList(otherSiteMap));
+
+        when(resourceResolver.getResource("/etc/map.publish.dev/https")).thenReturn(httpsMap);
+        when(resourceResolver.getResource("/etc/map.publish.dev/http")).thenReturn(httpMap);
+    }
+
+    private Resource mockResource(
+        final String name,
+        final String internalRedirect,
+        final List<Resource> children) {
+
+        Resource resource = mock(Resource.class);
+        when(resource.getName()).thenReturn(name);
+        when(resource.getChildren()).thenReturn(children);
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("sling:internalRedirect", internalRedirect);
+
+        ValueMap valueMap = new ValueMapDecorator(properties);
+        when(resource.getValueMap()).thenReturn(valueMap);
+
+        return resource;
+    }
+}
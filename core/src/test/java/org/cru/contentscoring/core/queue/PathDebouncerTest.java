@@ -0,0 +1,117 @@
+package org.cru.contentscoring.core.queue;
+
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Meter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PathDebouncerTest {
+    private static final String PREFIX = "cru.contentscoring.test";
+    private static final long QUIET_WINDOW = 1000L;
+
+    private final AtomicLong now = new AtomicLong(100000L);
+    private final List<String> collapsedValues = new ArrayList<>();
+
+    private Meter collapsed;
+    private Meter rejected;
+    private PathDebouncer<String> debouncer;
+
+    @Before
+    public void setup() {
+        MetricsService metricsService = mock(MetricsService.class);
+        when(metricsService.counter(anyString())).thenReturn(mock(Counter.class));
+        collapsed = mock(Meter.class);
+        rejected = mock(Meter.class);
+        when(metricsService.meter(PREFIX + ".collapsed")).thenReturn(collapsed);
+        when(metricsService.meter(PREFIX + ".rejected")).thenReturn(rejected);
+
+        debouncer = new PathDebouncer<String>(QUIET_WINDOW, 2, collapsedValues::add, metricsService, PREFIX) {
+            @Override
+            long currentTimeMillis() {
+                return now.get();
+            }
+        };
+    }
+
+    @Test
+    public void testPathIsHeldBackUntilQuiet() {
+        debouncer.offer("/content/a", "first");
+
+        now.addAndGet(QUIET_WINDOW - 1);
+        assertThat(debouncer.pollQuiet(10).isEmpty(), is(true));
+
+        now.addAndGet(1);
+        List<Map.Entry<String, String>> quiet = debouncer.pollQuiet(10);
+        assertThat(quiet.size(), is(equalTo(1)));
+        assertThat(quiet.get(0).getKey(), is(equalTo("/content/a")));
+        assertThat(debouncer.size(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testOnlyTheLastValueIsKept() {
+        debouncer.offer("/content/a", "first");
+        now.addAndGet(QUIET_WINDOW - 1);
+        debouncer.offer("/content/a", "second");
+
+        // The window started over with the second value
+        now.addAndGet(1);
+        assertThat(debouncer.pollQuiet(10).isEmpty(), is(true));
+
+        now.addAndGet(QUIET_WINDOW);
+        List<Map.Entry<String, String>> quiet = debouncer.pollQuiet(10);
+        assertThat(quiet.size(), is(equalTo(1)));
+        assertThat(quiet.get(0).getValue(), is(equalTo("second")));
+        assertThat(collapsedValues.size(), is(equalTo(1)));
+        assertThat(collapsedValues.get(0), is(equalTo("first")));
+        verify(collapsed).mark();
+    }
+
+    @Test
+    public void testQuietPathsAreTakenOldestFirst() {
+        debouncer.offer("/content/a", "a");
+        now.addAndGet(10);
+        debouncer.offer("/content/b", "b");
+        now.addAndGet(QUIET_WINDOW);
+
+        List<Map.Entry<String, String>> quiet = debouncer.pollQuiet(1);
+        assertThat(quiet.get(0).getKey(), is(equalTo("/content/a")));
+        quiet = debouncer.pollQuiet(1);
+        assertThat(quiet.get(0).getKey(), is(equalTo("/content/b")));
+    }
+
+    @Test
+    public void testNewPathsAreRejectedWhenFull() {
+        assertThat(debouncer.offer("/content/a", "a"), is(true));
+        assertThat(debouncer.offer("/content/b", "b"), is(true));
+        assertThat(debouncer.offer("/content/c", "c"), is(false));
+
+        // A path that is already held back can still be replaced
+        assertThat(debouncer.offer("/content/a", "a2"), is(true));
+        verify(rejected, times(1)).mark();
+        assertThat(debouncer.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testDrainTakesEverything() {
+        debouncer.offer("/content/a", "a");
+        debouncer.offer("/content/b", "b");
+
+        assertThat(debouncer.drain().size(), is(equalTo(2)));
+        assertThat(debouncer.size(), is(equalTo(0)));
+    }
+}
@@ -0,0 +1,210 @@
+package org.cru.contentscoring.core.queue;
+
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jcr.InvalidItemStateException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ScoreSyncQueueTest {
+    private static final String PATH = "/content/someApp/some/path";
+
+    private MetricsService metricsService;
+    private Counter coalesced;
+    private Counter rejected;
+
+    private final List<String> writes = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseWrites = new CountDownLatch(1);
+
+    private ScoreSyncQueue scoreSyncQueue;
+
+    @Before
+    public void setup() {
+        metricsService = mock(MetricsService.class);
+        when(metricsService.counter(anyString())).thenReturn(mock(Counter.class));
+
+        coalesced = mock(Counter.class);
+        when(metricsService.counter(ScoreSyncQueue.COALESCED_METRIC)).thenReturn(coalesced);
+        rejected = mock(Counter.class);
+        when(metricsService.counter(ScoreSyncQueue.REJECTED_METRIC)).thenReturn(rejected);
+    }
+
+    @After
+    public void tearDown() {
+        releaseWrites.countDown();
+        if (scoreSyncQueue != null) {
+            scoreSyncQueue.stop(1000L);
+        }
+    }
+
+    @Test
+    public void testScoresForWaitingPageAreCoalesced() throws Exception {
+        scoreSyncQueue = new ScoreSyncQueue(2, 100, 1, 0L, this::blockingWrite, metricsService);
+
+        scoreSyncQueue.put(PATH, 1);
+        assertThat(firstWriteStarted.await(5, TimeUnit.SECONDS), is(true));
+
+        // The lane is busy writing score 1, so these wait and only the latest one is written
+        scoreSyncQueue.put(PATH, 2);
+        scoreSyncQueue.put(PATH, 3);
+        scoreSyncQueue.put(PATH, 4);
+        assertThat(scoreSyncQueue.getBacklog(), is(equalTo(1)));
+
+        releaseWrites.countDown();
+        scoreSyncQueue.stop(5000L);
+
+        assertThat(writes, is(equalTo(listOf(PATH + "=1", PATH + "=4"))));
+        verify(coalesced, times(2)).increment();
+    }
+
+    @Test
+    public void testScoresAreRejectedWhenBacklogIsFull() throws Exception {
+        scoreSyncQueue = new ScoreSyncQueue(1, 2, 1, 0L, this::blockingWrite, metricsService);
+
+        scoreSyncQueue.put("/content/page-0", 1);
+        assertThat(firstWriteStarted.await(5, TimeUnit.SECONDS), is(true));
+
+        assertThat(scoreSyncQueue.put("/content/page-1", 1), is(true));
+        assertThat(scoreSyncQueue.put("/content/page-2", 1), is(true));
+        assertThat(scoreSyncQueue.put("/content/page-3", 1), is(false));
+        // A page that is already waiting can still get a newer score
+        assertThat(scoreSyncQueue.put("/content/page-2", 5), is(true));
+
+        verify(rejected).increment();
+    }
+
+    @Test
+    public void testConcurrentPutsDontExceedBacklog() throws Exception {
+        scoreSyncQueue = new ScoreSyncQueue(1, 10, 1, 0L, this::blockingWrite, metricsService);
+
+        scoreSyncQueue.put("/content/page-0", 1);
+        assertThat(firstWriteStarted.await(5, TimeUnit.SECONDS), is(true));
+
+        int callers = 8;
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                int caller = i;
+                results.add(executorService.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < 10; j++) {
+                        if (scoreSyncQueue.put("/content/page-" + caller + "-" + j, 1)) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> result : results) {
+                result.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertThat(accepted.get(), is(equalTo(10)));
+        assertThat(scoreSyncQueue.getBacklog(), is(equalTo(10)));
+    }
+
+    @Test
+    public void testSamePathAlwaysUsesSameLane() {
+        scoreSyncQueue = new ScoreSyncQueue(4, 100, 1, 0L, this::blockingWrite, metricsService);
+
+        int lane = scoreSyncQueue.laneIndexOf(PATH);
+        for (int i = 0; i < 10; i++) {
+            assertThat(scoreSyncQueue.laneIndexOf(PATH), is(equalTo(lane)));
+        }
+    }
+
+    @Test
+    public void testStopWritesWaitingScores() {
+        scoreSyncQueue = new ScoreSyncQueue(2, 100, 10, 50L, this::recordWrite, metricsService);
+
+        for (int i = 0; i < 20; i++) {
+            scoreSyncQueue.put("/content/page-" + i, i % 10);
+        }
+        scoreSyncQueue.stop(5000L);
+
+        assertThat(writes.size(), is(equalTo(20)));
+        assertThat(scoreSyncQueue.put(PATH, 1), is(false));
+    }
+
+    @Test
+    public void testScoresAreWrittenInGroups() {
+        List<Integer> groupSizes = Collections.synchronizedList(new ArrayList<>());
+        scoreSyncQueue = new ScoreSyncQueue(1, 100, 5, 1000L, scoresByPath -> {
+            groupSizes.add(scoresByPath.size());
+            recordWrite(scoresByPath);
+        }, metricsService);
+
+        for (int i = 0; i < 12; i++) {
+            scoreSyncQueue.put("/content/page-" + i, 1);
+        }
+        scoreSyncQueue.stop(5000L);
+
+        assertThat(writes.size(), is(equalTo(12)));
+        assertThat(groupSizes, is(equalTo(listOf(5, 5, 2))));
+    }
+
+    @Test
+    public void testFailedGroupIsRetriedPerItem() {
+        scoreSyncQueue = new ScoreSyncQueue(1, 100, 5, 1000L, scoresByPath -> {
+            if (scoresByPath.containsKey("/content/bad-page")) {
+                throw new InvalidItemStateException("Conflict");
+            }
+            recordWrite(scoresByPath);
+        }, metricsService);
+
+        scoreSyncQueue.put("/content/page-0", 1);
+        scoreSyncQueue.put("/content/bad-page", 2);
+        scoreSyncQueue.put("/content/page-1", 3);
+        scoreSyncQueue.stop(5000L);
+
+        assertThat(writes, is(equalTo(listOf("/content/page-0=1", "/content/page-1=3"))));
+    }
+
+    private void blockingWrite(final Map<String, Integer> scoresByPath) throws Exception {
+        firstWriteStarted.countDown();
+        releaseWrites.await(5, TimeUnit.SECONDS);
+        recordWrite(scoresByPath);
+    }
+
+    private void recordWrite(final Map<String, Integer> scoresByPath) {
+        for (Map.Entry<String, Integer> scoreByPath : scoresByPath.entrySet()) {
+            writes.add(scoreByPath.getKey() + "=" + scoreByPath.getValue());
+        }
+    }
+
+    @SafeVarargs
+    private final <T> List<T> listOf(final T... values) {
+        List<T> list = new ArrayList<>();
+        Collections.addAll(list, values);
+        return list;
+    }
+}
@@ -8,8 +8,10 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.apache.commons.mail.EmailException;
 import org.apache.commons.mail.HtmlEmail;
+import org.cru.contentscoring.core.ledger.ScoreLedger;
 import org.cru.contentscoring.core.models.ContentScoreUpdateRequest;
 import org.cru.contentscoring.core.models.RetryElement;
+import org.cru.contentscoring.core.service.ScoreLedgerService;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -27,9 +29,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
@@ -288,6 +292,53 @@ public class UploadQueueTest {
         verify(uploadQueueSpy).handleFailedRetry(any(RetryElement.class), contains(","));
     }
 
+    @Test
+    public void testAcceptedRequestIsRecordedInLedger() throws Exception {
+        ScoreLedgerService scoreLedgerService = mock(ScoreLedgerService.class);
+        UploadQueue ledgerQueue = spy(new UploadQueue(
+            WAIT_TIME,
+            MAX_RETRIES,
+            API_ENDPOINT,
+            API_KEY,
+            ERROR_EMAIL_RECIPIENTS,
+            messageGatewayService,
+            null,
+            scoreLedgerService));
+
+        ContentScoreUpdateRequest failing = new ContentScoreUpdateRequest();
+        failing.setUri("https://some-uri.com/failing.html");
+        failing.setScore(2);
+        List<ContentScoreUpdateRequest> batch = Lists.newArrayList(request, failing);
+
+        Map<ContentScoreUpdateRequest, String> failedRequests = Maps.newHashMap();
+        failedRequests.put(failing, "Error");
+        doReturn(failedRequests).when(ledgerQueue).sendRequestBatch(batch);
+
+        ledgerQueue.updateContentScoreRequest(batch);
+
+        verify(scoreLedgerService).recordSent(request.getUri(), 1, ScoreLedger.Outcome.ACCEPTED);
+        verify(scoreLedgerService, never()).recordSent(eq(failing.getUri()), eq(2), any(ScoreLedger.Outcome.class));
+    }
+
+    @Test
+    public void testMaxedRetryIsRecordedInLedgerAsFailed() throws Exception {
+        ScoreLedgerService scoreLedgerService = mock(ScoreLedgerService.class);
+        UploadQueue ledgerQueue = new UploadQueue(
+            WAIT_TIME,
+            MAX_RETRIES,
+            API_ENDPOINT,
+            API_KEY,
+            ERROR_EMAIL_RECIPIENTS,
+            messageGatewayService,
+            null,
+            scoreLedgerService);
+
+        RetryElement retryElement = new RetryElement(Lists.newArrayList(request), MAX_RETRIES + 1);
+        ledgerQueue.handleFailedRetry(retryElement, "Failed");
+
+        verify(scoreLedgerService).recordSent(request.getUri(), 1, ScoreLedger.Outcome.FAILED);
+    }
+
     @Test
     public void testUpdateContentScoreRequestFirstTimeSuccess() throws Exception {
         List<ContentScoreUpdateRequest> batch = Lists.newArrayList(request);
@@ -310,4 +361,109 @@ public class UploadQueueTest {
 
         verify(uploadQueueSpy).handleFailedFirstAttempt(new ArrayList<>(failedRequests.keySet()));
     }
+
+    @Test
+    public void testDeliveryCompletesWhenAccepted() throws Exception {
+        CompletableFuture<Void> delivery = uploadQueueSpy.put(request).toCompletableFuture();
+        List<ContentScoreUpdateRequest> batch = Lists.newArrayList(request);
+        doReturn(Maps.newHashMap()).when(uploadQueueSpy).sendRequestBatch(batch);
+
+        assertThat(delivery.isDone(), is(equalTo(false)));
+        uploadQueueSpy.updateContentScoreRequest(batch);
+
+        assertThat(delivery.isDone(), is(equalTo(true)));
+        assertThat(delivery.isCompletedExceptionally(), is(equalTo(false)));
+    }
+
+    @Test
+    public void testDeliveryWaitsForRetry() throws Exception {
+        CompletableFuture<Void> delivery = uploadQueueSpy.put(request).toCompletableFuture();
+        List<ContentScoreUpdateRequest> batch = Lists.newArrayList(request);
+
+        Map<ContentScoreUpdateRequest, String> failedRequests = Maps.newHashMap();
+        failedRequests.put(request, "Error");
+        doReturn(failedRequests).when(uploadQueueSpy).sendRequestBatch(batch);
+
+        uploadQueueSpy.updateContentScoreRequest(batch);
+
+        assertThat(delivery.isDone(), is(equalTo(false)));
+    }
+
+    @Test
+    public void testDeliveryFailsWhenRetriesAreMaxed() throws Exception {
+        CompletableFuture<Void> delivery = uploadQueueSpy.put(request).toCompletableFuture();
+
+        RetryElement retryElement = new RetryElement(Lists.newArrayList(request), MAX_RETRIES + 1);
+        uploadQueueSpy.handleFailedRetry(retryElement, "Failed");
+
+        assertThat(delivery.isCompletedExceptionally(), is(equalTo(true)));
+    }
+
+    @Test
+    public void testQueuedScoreIsKeptUntilAccepted() throws Exception {
+        ContentScoreUpdateRequest newer = new ContentScoreUpdateRequest();
+        newer.setUri(request.getUri());
+        newer.setScore(2);
+
+        uploadQueueSpy.put(request);
+        uploadQueueSpy.put(newer);
+        assertThat(uploadQueueSpy.getQueuedScore(request.getUri()), is(equalTo(2)));
+
+        // The older request being accepted doesn't settle the newer one
+        List<ContentScoreUpdateRequest> batch = Lists.newArrayList(request);
+        doReturn(Maps.newHashMap()).when(uploadQueueSpy).sendRequestBatch(batch);
+        uploadQueueSpy.updateContentScoreRequest(batch);
+        assertThat(uploadQueueSpy.getQueuedScore(request.getUri()), is(equalTo(2)));
+
+        batch = Lists.newArrayList(newer);
+        doReturn(Maps.newHashMap()).when(uploadQueueSpy).sendRequestBatch(batch);
+        uploadQueueSpy.updateContentScoreRequest(batch);
+        assertThat(uploadQueueSpy.getQueuedScore(request.getUri()), is(nullValue()));
+    }
+
+    @Test
+    public void testQueuedScoreIsDroppedWhenRetriesAreMaxed() throws Exception {
+        uploadQueueSpy.put(request);
+
+        RetryElement retryElement = new RetryElement(Lists.newArrayList(request), MAX_RETRIES + 1);
+        uploadQueueSpy.handleFailedRetry(retryElement, "Failed");
+
+        assertThat(uploadQueueSpy.getQueuedScore(request.getUri()), is(nullValue()));
+    }
+
+    @Test
+    public void testDeliveryIsCancelledOnStop() {
+        CompletableFuture<Void> delivery = uploadQueue.put(request).toCompletableFuture();
+
+        uploadQueue.stop();
+
+        assertThat(delivery.isCompletedExceptionally(), is(equalTo(true)));
+        assertThat(uploadQueue.getPendingBatches().contains(request), is(equalTo(true)));
+    }
+
+    @Test
+    public void testBulkLaneWaitsForRegularRequests() throws Exception {
+        ContentScoreUpdateRequest bulkRequest = new ContentScoreUpdateRequest();
+        bulkRequest.setUri("http://some-uri.com/bulk");
+        bulkRequest.setScore(3);
+
+        uploadQueue.putBulk(bulkRequest);
+        uploadQueue.put(request);
+
+        assertThat(uploadQueue.getBatch(), is(equalTo(Lists.newArrayList(request))));
+        assertThat(uploadQueue.getBatch(), is(equalTo(Lists.newArrayList(bulkRequest))));
+    }
+
+    @Test
+    public void testBulkLaneIsSentInLimitedBatches() throws Exception {
+        for (int i = 0; i < UploadQueue.BULK_BATCH_SIZE + 1; i++) {
+            ContentScoreUpdateRequest bulkRequest = new ContentScoreUpdateRequest();
+            bulkRequest.setUri("http://some-uri.com/bulk-" + i);
+            bulkRequest.setScore(3);
+            uploadQueue.putBulk(bulkRequest);
+        }
+
+        assertThat(uploadQueue.getBatch().size(), is(equalTo(UploadQueue.BULK_BATCH_SIZE)));
+        assertThat(uploadQueue.getBatch().size(), is(equalTo(1)));
+    }
 }
@@ -0,0 +1,99 @@
+package org.cru.contentscoring.core.reconciliation;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class ScoreHashTreeTest {
+    private static final String SCOPE = "https://www.cru.org/content/cru/us/en";
+
+    @Test
+    public void testDigestDoesNotDependOnOrder() {
+        ScoreHashTree first = new ScoreHashTree();
+        first.add(SCOPE + "/a.html", 1);
+        first.add(SCOPE + "/b.html", 2);
+
+        ScoreHashTree second = new ScoreHashTree();
+        second.add(SCOPE + "/b.html", 2);
+        second.add(SCOPE + "/a.html", 1);
+
+        assertThat(first.getDigest(0, 0), is(equalTo(second.getDigest(0, 0))));
+    }
+
+    @Test
+    public void testEqualTreesCompareOnlyTheRoot() throws Exception {
+        ScoreHashTree local = tree(1000, -1);
+        ScoreHashTree remote = tree(1000, -1);
+
+        ScoreHashTree.Difference difference = local.compareTo(new TreeDigestSource(remote), SCOPE);
+
+        assertThat(difference.getBuckets().isEmpty(), is(true));
+        assertThat(difference.getDigestsCompared(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testChangedScoreDiffersInItsBucketOnly() throws Exception {
+        ScoreHashTree local = tree(1000, 500);
+        ScoreHashTree remote = tree(1000, -1);
+
+        ScoreHashTree.Difference difference = local.compareTo(new TreeDigestSource(remote), SCOPE);
+
+        assertThat(local.getDigest(0, 0), is(not(equalTo(remote.getDigest(0, 0)))));
+        assertThat(
+            difference.getBuckets(),
+            is(equalTo(Collections.singletonList(ScoreHashTree.bucketOf(SCOPE + "/page-500.html")))));
+        assertThat(difference.getDigestsCompared(), is(equalTo(1 + ScoreHashTree.DEPTH * ScoreHashTree.FANOUT)));
+    }
+
+    @Test
+    public void testUnknownTreeDiffersEverywhere() throws Exception {
+        ScoreHashTree local = tree(10, -1);
+
+        ScoreHashTree.Difference difference = local.compareTo(new ScoreDigestSource() {
+            @Override
+            public List<String> getDigests(final String scope, final int level, final List<Integer> indexes) {
+                return Collections.nCopies(indexes.size(), null);
+            }
+
+            @Override
+            public void reconciled(final String scope, final ScoreHashTree tree) {
+            }
+        }, SCOPE);
+
+        assertThat(difference.getBuckets().size(), is(equalTo(ScoreHashTree.LEAVES)));
+    }
+
+    /**
+     * @param changedPage the page that gets another score, or -1 for none
+     */
+    private ScoreHashTree tree(final int pages, final int changedPage) {
+        ScoreHashTree tree = new ScoreHashTree();
+        for (int page = 0; page < pages; page++) {
+            tree.add(SCOPE + "/page-" + page + ".html", page == changedPage ? 9 : page % 10);
+        }
+        return tree;
+    }
+
+    private static class TreeDigestSource implements ScoreDigestSource {
+        private final ScoreHashTree tree;
+
+        TreeDigestSource(final ScoreHashTree tree) {
+            this.tree = tree;
+        }
+
+        @Override
+        public List<String> getDigests(final String scope, final int level, final List<Integer> indexes) {
+            return tree.getDigests(level, indexes);
+        }
+
+        @Override
+        public void reconciled(final String scope, final ScoreHashTree tree) {
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package org.cru.contentscoring.core.schedulers;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.wcm.api.NameConstants;
+import com.day.cq.wcm.api.Page;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.jackrabbit.commons.iterator.NodeIteratorAdapter;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.cru.contentscoring.core.service.ContentScoreUpdateService;
+import org.cru.contentscoring.core.service.RepositoryWriteService;
+import org.cru.contentscoring.core.service.RepositoryWriteService.Mutation;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.cru.contentscoring.core.service.impl.ContentScoreUpdateServiceImpl.CONTENT_SCORE_UPDATED;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StaleScoreSweeperTest {
+    private static final long DAY = 24L * 60L * 60L * 1000L;
+
+    @Mock
+    private ContentScoreUpdateService contentScoreUpdateService;
+
+    @Mock
+    private ScoreTaxonomyService scoreTaxonomyService;
+
+    @Mock
+    private RepositoryWriteService repositoryWriteService;
+
+    @Mock
+    private ResourceResolver resourceResolver;
+
+    @InjectMocks
+    private StaleScoreSweeper sweeper;
+
+    private final List<Node> results = Lists.newArrayList();
+
+    @Before
+    public void setup() throws Exception {
+        sweeper.activate(ImmutableMap.<String, Object>of(StaleScoreSweeper.MAX_RATE, 1000.0));
+
+        Session session = mock(Session.class);
+        Workspace workspace = mock(Workspace.class);
+        QueryManager queryManager = mock(QueryManager.class);
+        Query query = mock(Query.class);
+        QueryResult queryResult = mock(QueryResult.class);
+        when(resourceResolver.adaptTo(Session.class)).thenReturn(session);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), eq(Query.JCR_SQL2))).thenReturn(query);
+        when(query.execute()).thenReturn(queryResult);
+        when(queryResult.getNodes()).thenAnswer(invocation -> new NodeIteratorAdapter(results));
+
+        when(contentScoreUpdateService.backfillContentScores(anyCollection()))
+            .thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @Test
+    public void testPageModifiedAfterLastSentIsStale() {
+        Resource content = mockContent("/content/site/page", 5, daysAgo(1), daysAgo(2));
+
+        assertThat(sweeper.isStale(content, daysAgo(30)), is(equalTo(true)));
+    }
+
+    @Test
+    public void testPageSentAfterLastModificationIsNotStale() {
+        Resource content = mockContent("/content/site/page", 5, daysAgo(2), daysAgo(1));
+
+        assertThat(sweeper.isStale(content, daysAgo(30)), is(equalTo(false)));
+    }
+
+    @Test
+    public void testPageSentBeforeMaxAgeIsStale() {
+        Resource content = mockContent("/content/site/page", 5, daysAgo(40), daysAgo(31));
+
+        assertThat(sweeper.isStale(content, daysAgo(30)), is(equalTo(true)));
+    }
+
+    @Test
+    public void testPageNeverSentIsStale() {
+        Resource content = mockContent("/content/site/page", 5, daysAgo(40), null);
+
+        assertThat(sweeper.isStale(content, daysAgo(30)), is(equalTo(true)));
+    }
+
+    @Test
+    public void testPageWithoutScoreIsNotStale() {
+        Resource content = mockContent("/content/site/page", -1, daysAgo(1), null);
+
+        assertThat(sweeper.isStale(content, daysAgo(30)), is(equalTo(false)));
+    }
+
+    @Test
+    public void testStalePagesAreSentOnceThroughBulkLane() throws Exception {
+        Page stalePage = mockResult("/content/site/stale", 5, daysAgo(1), daysAgo(2));
+        mockResult("/content/site/fresh", 5, daysAgo(2), daysAgo(1));
+
+        int sent = sweeper.sweep(resourceResolver);
+
+        // Every query returns the stale page, it is still only sent once
+        assertThat(sent, is(equalTo(1)));
+        verify(contentScoreUpdateService).backfillContentScores(Collections.singletonList(stalePage));
+        verify(repositoryWriteService).write(any(Session.class), any(Mutation.class));
+    }
+
+    @Test
+    public void testCappedSweepKeepsLastSweep() throws Exception {
+        sweeper.activate(ImmutableMap.<String, Object>of(
+            StaleScoreSweeper.MAX_RATE, 1000.0,
+            StaleScoreSweeper.MAX_PAGES_PER_SWEEP, 1));
+        Page firstPage = mockResult("/content/site/first", 5, daysAgo(1), daysAgo(2));
+        mockResult("/content/site/second", 5, daysAgo(1), daysAgo(2));
+
+        int sent = sweeper.sweep(resourceResolver);
+
+        assertThat(sent, is(equalTo(1)));
+        verify(contentScoreUpdateService).backfillContentScores(Collections.singletonList(firstPage));
+        verify(repositoryWriteService, never()).write(any(Session.class), any(Mutation.class));
+    }
+
+    private Page mockResult(
+        final String pagePath,
+        final int score,
+        final Calendar lastModified,
+        final Calendar lastSent) throws Exception {
+
+        String contentPath = pagePath + "/" + JcrConstants.JCR_CONTENT;
+        Resource content = mockContent(contentPath, score, lastModified, lastSent);
+        Node node = mock(Node.class);
+        when(node.getPath()).thenReturn(contentPath);
+        when(resourceResolver.getResource(contentPath)).thenReturn(content);
+        results.add(node);
+
+        Page page = mock(Page.class);
+        Resource pageResource = mock(Resource.class);
+        when(pageResource.adaptTo(Page.class)).thenReturn(page);
+        when(content.getParent()).thenReturn(pageResource);
+        return page;
+    }
+
+    private Resource mockContent(
+        final String path,
+        final int score,
+        final Calendar lastModified,
+        final Calendar lastSent) {
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(NameConstants.PN_PAGE_LAST_MOD, lastModified);
+        if (lastSent != null) {
+            properties.put(CONTENT_SCORE_UPDATED, lastSent);
+        }
+
+        Resource content = mock(Resource.class);
+        when(content.getPath()).thenReturn(path);
+        when(content.getValueMap()).thenReturn(new ValueMapDecorator(properties));
+        when(scoreTaxonomyService.scoreOf(content)).thenReturn(score);
+        return content;
+    }
+
+    private Calendar daysAgo(final int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(System.currentTimeMillis() - days * DAY);
+        return calendar;
+    }
+}
@@ -0,0 +1,175 @@
+package org.cru.contentscoring.core.service.impl;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.replication.Agent;
+import com.day.cq.replication.AgentConfig;
+import com.day.cq.replication.AgentManager;
+import com.day.cq.replication.ReplicationActionType;
+import com.day.cq.replication.ReplicationException;
+import com.day.cq.replication.ReplicationOptions;
+import com.day.cq.replication.ReplicationQueue;
+import com.day.cq.replication.Replicator;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.cru.contentscoring.core.service.BulkReplicationService.ProgressListener;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.jcr.Session;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BulkReplicationServiceImplTest {
+    @Mock
+    private Replicator replicator;
+
+    @Mock
+    private AgentManager agentManager;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private ProgressListener listener;
+
+    @Spy
+    @InjectMocks
+    private BulkReplicationServiceImpl bulkReplicationService;
+
+    @Before
+    public void setup() throws Exception {
+        bulkReplicationService.activate(ImmutableMap.<String, Object>of(
+            BulkReplicationServiceImpl.CHUNK_SIZE, 2,
+            BulkReplicationServiceImpl.MAX_QUEUE_DEPTH, 10,
+            BulkReplicationServiceImpl.MAX_QUEUE_WAIT, 5000L));
+        doNothing().when(bulkReplicationService).sleep(anyLong());
+    }
+
+    @Test
+    public void testOnlyActivatedPagesAreReturned() {
+        Resource activated = mockPage("/content/site/activated", "Activate");
+        Resource deactivated = mockPage("/content/site/deactivated", "Deactivate");
+        Resource neverReplicated = mockPage("/content/site/new", null);
+
+        List<String> paths = bulkReplicationService.getActivatedPaths(
+            Lists.newArrayList(activated, deactivated, neverReplicated));
+
+        assertThat(paths, is(equalTo(Collections.singletonList("/content/site/activated"))));
+    }
+
+    @Test
+    public void testPathsAreActivatedAsynchronouslyInChunks() throws Exception {
+        Agent publish = mockAgent(0);
+        when(agentManager.getAgents()).thenReturn(ImmutableMap.of("publish", publish));
+
+        int replicated = bulkReplicationService.activate(
+            session, Lists.newArrayList("/content/a", "/content/b", "/content/c"), listener);
+
+        assertThat(replicated, is(equalTo(3)));
+        ArgumentCaptor<ReplicationOptions> options = ArgumentCaptor.forClass(ReplicationOptions.class);
+        verify(replicator).replicate(
+            eq(session), eq(ReplicationActionType.ACTIVATE), eq(new String[] {"/content/a", "/content/b"}),
+            options.capture());
+        verify(replicator).replicate(
+            eq(session), eq(ReplicationActionType.ACTIVATE), eq(new String[] {"/content/c"}),
+            any(ReplicationOptions.class));
+        assertThat(options.getValue().isSynchronous(), is(equalTo(false)));
+        verify(listener).onProgress(2, 3);
+        verify(listener).onProgress(3, 3);
+    }
+
+    @Test
+    public void testWaitsForFullQueueToDrain() throws Exception {
+        doReturn(12, 10, 3).when(bulkReplicationService).getQueueDepth();
+
+        bulkReplicationService.activate(session, Collections.singletonList("/content/a"), listener);
+
+        verify(bulkReplicationService, times(2)).sleep(anyLong());
+        verify(replicator).replicate(
+            eq(session), eq(ReplicationActionType.ACTIVATE), eq(new String[] {"/content/a"}),
+            any(ReplicationOptions.class));
+    }
+
+    @Test(expected = ReplicationException.class)
+    public void testGivesUpWhenQueueDoesNotDrain() throws Exception {
+        doReturn(12).when(bulkReplicationService).getQueueDepth();
+        doReturn(0L, 1000L, 6000L).when(bulkReplicationService).currentTimeMillis();
+
+        try {
+            bulkReplicationService.activate(session, Collections.singletonList("/content/a"), listener);
+        } finally {
+            verify(replicator, never()).replicate(
+                any(Session.class), any(ReplicationActionType.class), any(String[].class),
+                any(ReplicationOptions.class));
+        }
+    }
+
+    @Test
+    public void testQueueDepthIgnoresSpecificAndDisabledAgents() {
+        Agent specific = mockAgent(50);
+        when(specific.getConfiguration().isSpecific()).thenReturn(true);
+        Agent disabled = mockAgent(40);
+        when(disabled.isEnabled()).thenReturn(false);
+
+        Agent publish = mockAgent(7);
+        when(agentManager.getAgents()).thenReturn(ImmutableMap.of(
+            "publish", publish,
+            "specific", specific,
+            "disabled", disabled));
+
+        assertThat(bulkReplicationService.getQueueDepth(), is(equalTo(7)));
+    }
+
+    private Resource mockPage(final String path, final String lastReplicationAction) {
+        Map<String, Object> properties = new HashMap<>();
+        if (lastReplicationAction != null) {
+            properties.put(BulkReplicationServiceImpl.LAST_REPLICATION_ACTION, lastReplicationAction);
+        }
+        Resource content = mock(Resource.class);
+        when(content.getValueMap()).thenReturn(new ValueMapDecorator(properties));
+
+        Resource page = mock(Resource.class);
+        when(page.getPath()).thenReturn(path);
+        when(page.getChild(JcrConstants.JCR_CONTENT)).thenReturn(content);
+        return page;
+    }
+
+    private Agent mockAgent(final int queueDepth) {
+        ReplicationQueue queue = mock(ReplicationQueue.class);
+        ReplicationQueue.Entry entry = mock(ReplicationQueue.Entry.class);
+        List<ReplicationQueue.Entry> entries = Collections.nCopies(queueDepth, entry);
+        when(queue.entries()).thenReturn(entries);
+
+        Agent agent = mock(Agent.class);
+        when(agent.isEnabled()).thenReturn(true);
+        AgentConfig config = mock(AgentConfig.class);
+        when(agent.getConfiguration()).thenReturn(config);
+        when(agent.getQueue()).thenReturn(queue);
+        return agent;
+    }
+}
@@ -1,26 +1,34 @@
 package org.cru.contentscoring.core.service.impl;
 
-import com.day.cq.tagging.Tag;
+import com.day.cq.tagging.TagConstants;
 import com.day.cq.wcm.api.Page;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ValueMap;
 import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.commons.metrics.MetricsService;
 import org.cru.contentscoring.core.models.ContentScoreUpdateRequest;
 import org.cru.contentscoring.core.queue.UploadQueue;
+import org.cru.contentscoring.core.service.ScoreLedgerService;
 import org.cru.contentscoring.core.util.ExperienceFragmentUtil;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.SystemUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import javax.jcr.InvalidItemStateException;
 import javax.jcr.Node;
-import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Invocation;
@@ -29,10 +37,13 @@ import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.Response;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import static org.cru.contentscoring.core.service.impl.ContentScoreUpdateServiceImpl.API_ENDPOINT;
 import static org.cru.contentscoring.core.service.impl.ContentScoreUpdateServiceImpl.CONTENT_SCORE_UPDATED;
@@ -69,6 +80,18 @@ public class ContentScoreUpdateServiceImplTest {
     @Mock
     private ResourceResolver resolver;
 
+    @Spy
+    private ScoreTaxonomyServiceImpl scoreTaxonomyService = new ScoreTaxonomyServiceImpl();
+
+    @Spy
+    private RepositoryWriteServiceImpl repositoryWriteService = new RepositoryWriteServiceImpl();
+
+    @Mock
+    private ScoreLedgerService scoreLedgerService;
+
+    @Mock
+    private SystemUtils systemUtils;
+
     @InjectMocks
     private ContentScoreUpdateServiceImpl updateService;
 
@@ -79,6 +102,13 @@ public class ContentScoreUpdateServiceImplTest {
         String pagePath = "/content/test/us/en/page-path";
         page = mockPage(pagePath);
         session = mock(Session.class);
+
+        // Score tags are resolved from their IDs
+        scoreTaxonomyService.systemUtils = mock(SystemUtils.class);
+        when(scoreTaxonomyService.systemUtils.getResourceResolver(anyString())).thenThrow(new LoginException());
+
+        repositoryWriteService.metricsService = MetricsService.NOOP;
+        repositoryWriteService.activate(Maps.newHashMap());
     }
 
     @Test
@@ -99,64 +129,76 @@ public class ContentScoreUpdateServiceImplTest {
 
     @Test
     public void testPageHasScore() {
-        Tag scoreTag = mock(Tag.class);
-        when(scoreTag.getTagID()).thenReturn(SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX + UNAWARE_SCORE);
-        when(page.getTags()).thenReturn(new Tag[] {scoreTag});
+        page.getContentResource().getValueMap().put(
+            TagConstants.PN_TAGS,
+            new String[] {"namespace:someTag/1", SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX + UNAWARE_SCORE});
 
         assertThat(updateService.getScore(page), is(Integer.parseInt(UNAWARE_SCORE)));
     }
 
     @Test
     public void testPageMissingScore() {
-        when(page.getTags()).thenReturn(new Tag[0]);
+        page.getContentResource().getValueMap().remove(TagConstants.PN_TAGS);
         assertThat(updateService.getScore(page), is(-1));
     }
 
     @Test(expected = IllegalArgumentException.class)
     public void testInvalidScore() {
-        Tag scoreTag = mock(Tag.class);
-        when(scoreTag.getTagID()).thenReturn(SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX + 100);
-        when(page.getTags()).thenReturn(new Tag[] {scoreTag});
+        page.getContentResource().getValueMap().put(
+            TagConstants.PN_TAGS,
+            new String[] {SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX + 100});
 
         updateService.getScore(page);
     }
 
     @Test
-    public void testSetContentScoreUpdatedDate() throws RepositoryException {
-        Page mockPage = mock(Page.class);
-        Resource mockResource = mock(Resource.class);
-        when(mockPage.getContentResource()).thenReturn(mockResource);
-
-        Node mockNode = mock(Node.class);
-        when(mockResource.adaptTo(Node.class)).thenReturn(mockNode);
-
+    public void testSetContentScoreUpdatedDate() throws Exception {
         Session mockSession = mock(Session.class);
         doNothing().when(mockSession).refresh(true);
         doNothing().when(mockSession).save();
-        when(mockNode.getSession()).thenReturn(mockSession);
+        Node mockNode = mockLeasedContent("/content/test/us/en/page-path", mockSession);
 
-        updateService.setContentScoreUpdatedDate(mockPage);
+        updateService.setContentScoreUpdatedDates(Lists.newArrayList("/content/test/us/en/page-path"));
 
         verify(mockNode, times(1)).setProperty(eq(CONTENT_SCORE_UPDATED), any(Calendar.class));
     }
 
     @Test
-    public void testSetContentScoreUpdateDateRetry() throws RepositoryException {
-        Page mockPage = mock(Page.class);
-        Resource mockResource = mock(Resource.class);
-        when(mockPage.getContentResource()).thenReturn(mockResource);
-
-        Node mockNode = mock(Node.class);
-        when(mockResource.adaptTo(Node.class)).thenReturn(mockNode);
-
+    public void testSetContentScoreUpdateDateRetry() throws Exception {
         Session mockSession = mock(Session.class);
-        doThrow(new RepositoryException()).when(mockSession).refresh(true);
-        when(mockNode.getSession()).thenReturn(mockSession);
+        doThrow(new InvalidItemStateException()).doNothing().when(mockSession).save();
+        Node mockNode = mockLeasedContent("/content/test/us/en/page-path", mockSession);
 
-        updateService.setContentScoreUpdatedDate(mockPage);
+        updateService.setContentScoreUpdatedDates(Lists.newArrayList("/content/test/us/en/page-path"));
 
         verify(mockSession).refresh(false);
-        verify(mockNode).setProperty(eq(CONTENT_SCORE_UPDATED), any(Calendar.class));
+        verify(mockNode, times(2)).setProperty(eq(CONTENT_SCORE_UPDATED), any(Calendar.class));
+        verify(mockSession, times(2)).save();
+    }
+
+    @Test
+    public void testDateIsOnlySetForDeliveredPages() throws Exception {
+        Session mockSession = mock(Session.class);
+        Node deliveredNode = mockLeasedContent("/content/test/us/en/delivered", mockSession);
+        Node failedNode = mock(Node.class);
+        Resource failedContent = mock(Resource.class);
+        when(failedContent.adaptTo(Node.class)).thenReturn(failedNode);
+        when(resolver.getResource("/content/test/us/en/failed/jcr:content")).thenReturn(failedContent);
+
+        CompletableFuture<Void> delivered = new CompletableFuture<>();
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        Map<String, CompletionStage<Void>> deliveries = new LinkedHashMap<>();
+        deliveries.put("/content/test/us/en/delivered", delivered);
+        deliveries.put("/content/test/us/en/failed", failed);
+        updateService.deliveryExecutor = Runnable::run;
+
+        updateService.setContentScoreUpdatedDatesOnDelivery(deliveries);
+        delivered.complete(null);
+        verify(mockSession, never()).save();
+
+        failed.completeExceptionally(new IllegalStateException("Max retries reached"));
+        verify(deliveredNode).setProperty(eq(CONTENT_SCORE_UPDATED), any(Calendar.class));
+        verify(failedNode, never()).setProperty(eq(CONTENT_SCORE_UPDATED), any(Calendar.class));
         verify(mockSession).save();
     }
 
@@ -284,6 +326,95 @@ public class ContentScoreUpdateServiceImplTest {
         assertThat(correctPaths, is(equalTo(2)));
     }
 
+    @Test
+    public void testUnchangedScoreIsNotSentAgain() throws Exception {
+        initializeQueue();
+        String site = "https://vanity.com";
+        String vanityPath = "/vanity-url";
+        String pagePath = "/content/test/us/en/page-path";
+
+        Page page = mockPage(pagePath);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(VANITY_PATH, new String[] {vanityPath});
+        when(page.getContentResource().adaptTo(ValueMap.class)).thenReturn(new ValueMapDecorator(properties));
+        when(scoreLedgerService.isUnchanged(site + vanityPath, 6)).thenReturn(true);
+
+        mockResponse(Sets.newHashSet(site + pagePath + HTML_EXTENSION, site + vanityPath));
+
+        updateService.updateContentScore(page);
+        List<ContentScoreUpdateRequest> pending =
+            ContentScoreUpdateServiceImpl.internalQueueManager.getPendingBatches();
+
+        assertThat(pending.size(), is(equalTo(1)));
+        assertThat(pending.get(0).getUri(), is(equalTo(site + pagePath + HTML_EXTENSION)));
+    }
+
+    @Test
+    public void testUnchangedScoreIsSentWhileAnotherIsQueued() throws Exception {
+        initializeQueue();
+        String site = "https://vanity.com";
+        String pagePath = "/content/test/us/en/page-path";
+        String url = site + pagePath + HTML_EXTENSION;
+
+        ContentScoreUpdateRequest queued = new ContentScoreUpdateRequest();
+        queued.setUri(url);
+        queued.setScore(3);
+        ContentScoreUpdateServiceImpl.internalQueueManager.put(queued);
+
+        Page page = mockPage(pagePath);
+        // The ledger has the score from before the queued one
+        when(scoreLedgerService.isUnchanged(url, 6)).thenReturn(true);
+        mockResponse(Sets.newHashSet(url));
+
+        updateService.updateContentScore(page);
+        List<ContentScoreUpdateRequest> pending =
+            ContentScoreUpdateServiceImpl.internalQueueManager.getPendingBatches();
+
+        assertThat(pending.size(), is(equalTo(2)));
+        assertThat(pending.get(1).getScore(), is(equalTo(6)));
+    }
+
+    @Test
+    public void testUnchangedPageIsDatedWithoutDelivery() throws Exception {
+        initializeQueue();
+        String site = "https://vanity.com";
+        String pagePath = "/content/test/us/en/page-path";
+
+        Page page = mockPage(pagePath);
+        when(scoreLedgerService.isUnchanged(site + pagePath + HTML_EXTENSION, 6)).thenReturn(true);
+        Map<String, Set<String>> urlsByPath = new HashMap<>();
+        urlsByPath.put(pagePath, Sets.newHashSet(site + pagePath + HTML_EXTENSION));
+        mockResponse(urlsByPath);
+        Node content = mockLeasedContent(pagePath, mock(Session.class));
+        updateService.deliveryExecutor = Runnable::run;
+        Calendar lastModified = Calendar.getInstance();
+
+        Map<String, CompletionStage<Void>> deliveries = updateService.updateContentScores(Lists.newArrayList(page));
+
+        assertThat(deliveries.isEmpty(), is(equalTo(true)));
+        assertThat(ContentScoreUpdateServiceImpl.internalQueueManager.getPendingBatches().isEmpty(), is(equalTo(true)));
+        // Not before the last modification, so the stale score sweeper doesn't send the page again as modified
+        ArgumentCaptor<Calendar> sent = ArgumentCaptor.forClass(Calendar.class);
+        verify(content).setProperty(eq(CONTENT_SCORE_UPDATED), sent.capture());
+        assertThat(sent.getValue().before(lastModified), is(equalTo(false)));
+    }
+
+    @Test
+    public void testPageWithoutUrlIsNotDated() throws Exception {
+        initializeQueue();
+        String pagePath = "/content/test/us/en/page-path";
+
+        Page page = mockPage(pagePath);
+        mockResponse(new HashMap<>());
+        Node content = mockLeasedContent(pagePath, mock(Session.class));
+        updateService.deliveryExecutor = Runnable::run;
+
+        Map<String, CompletionStage<Void>> deliveries = updateService.updateContentScores(Lists.newArrayList(page));
+
+        assertThat(deliveries.isEmpty(), is(equalTo(true)));
+        verify(content, never()).setProperty(eq(CONTENT_SCORE_UPDATED), any(Calendar.class));
+    }
+
     @Test
     public void testPageWithoutVanityUrlSendsOneUrl() throws Exception {
         initializeQueue();
@@ -302,6 +433,58 @@ public class ContentScoreUpdateServiceImplTest {
         assertThat(request.getUri(), is(equalTo(site + pagePath + HTML_EXTENSION)));
     }
 
+    @Test
+    public void testPagesAreSentWithOneDeliveryEach() throws Exception {
+        initializeQueue();
+        String site = "https://page.com";
+        String firstPath = "/content/test/us/en/first";
+        String secondPath = "/content/test/us/en/second";
+        String vanityPath = "/vanity-url";
+
+        Page first = mockPage(firstPath);
+        Page second = mockPage(secondPath);
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(VANITY_PATH, new String[] {vanityPath});
+        when(second.getContentResource().adaptTo(ValueMap.class)).thenReturn(new ValueMapDecorator(properties));
+
+        Map<String, Set<String>> urlsByPath = new HashMap<>();
+        urlsByPath.put(firstPath, Sets.newHashSet(site + firstPath + HTML_EXTENSION));
+        urlsByPath.put(secondPath, Sets.newHashSet(site + secondPath + HTML_EXTENSION));
+        urlsByPath.put(vanityPath, Sets.newHashSet(site + vanityPath));
+        mockResponse(urlsByPath);
+
+        Map<String, CompletionStage<Void>> deliveries =
+            updateService.updateContentScores(Lists.newArrayList(first, second, first));
+
+        List<ContentScoreUpdateRequest> pending =
+            ContentScoreUpdateServiceImpl.internalQueueManager.getPendingBatches();
+        assertThat(pending.size(), is(equalTo(3)));
+        // One delivery per page, so each replication job can finish on its own
+        assertThat(deliveries.keySet(), is(equalTo((Set<String>) Sets.newHashSet(firstPath, secondPath))));
+
+        // The sent dates wait for the API to accept the scores
+        verify(session, never()).save();
+    }
+
+    @Test
+    public void testTreeIsQueriedPerActivationRoot() {
+        Set<String> pagePaths = Sets.newLinkedHashSet(Lists.newArrayList(
+            "/content/test/us/en/about",
+            "/content/test/us/en/about/team",
+            "/content/test/us/en/about/team/lead",
+            "/content/test/us/en/about-us",
+            "/content/test/us/en/contact"));
+
+        Map<String, Integer> activationRoots = ContentScoreUpdateServiceImpl.activationRoots(pagePaths);
+
+        Map<String, Integer> expected = new LinkedHashMap<>();
+        expected.put("/content/test/us/en/about", 3);
+        expected.put("/content/test/us/en/about-us", 1);
+        expected.put("/content/test/us/en/contact", 1);
+        assertThat(activationRoots, is(equalTo(expected)));
+    }
+
     @Test
     public void testExperienceFragment() throws Exception {
         String xfPath = "/content/experience-fragments/shared/en/path";
@@ -361,6 +544,38 @@ public class ContentScoreUpdateServiceImplTest {
         updateService.client = client;
     }
 
+    @SuppressWarnings("unchecked")
+    private void mockResponse(Map<String, Set<String>> results) {
+        Response response = mock(Response.class);
+        when(response.readEntity(any(GenericType.class))).thenReturn(results);
+
+        Invocation.Builder builder = mock(Invocation.Builder.class);
+        when(builder.get()).thenReturn(response);
+
+        WebTarget webTarget = mock(WebTarget.class);
+        when(webTarget.queryParam(eq("grouped"), eq(true))).thenReturn(webTarget);
+        when(webTarget.queryParam(eq("path"), anyString())).thenReturn(webTarget);
+        when(webTarget.request()).thenReturn(builder);
+
+        Client client = mock(Client.class);
+        when(client.target(anyString())).thenReturn(webTarget);
+
+        updateService.client = client;
+    }
+
+    private Node mockLeasedContent(final String pagePath, final Session leaseSession) throws Exception {
+        ResourceResolverLease lease = mock(ResourceResolverLease.class);
+        when(lease.getResourceResolver()).thenReturn(resolver);
+        when(systemUtils.leaseResourceResolver(anyString())).thenReturn(lease);
+        when(resolver.adaptTo(Session.class)).thenReturn(leaseSession);
+
+        Node node = mock(Node.class);
+        Resource content = mock(Resource.class);
+        when(content.adaptTo(Node.class)).thenReturn(node);
+        when(resolver.getResource(pagePath + "/jcr:content")).thenReturn(content);
+        return node;
+    }
+
     private Page mockPage(final String pagePath) throws Exception {
         Page page = mock(Page.class);
         when(page.getPath()).thenReturn(pagePath);
@@ -369,6 +584,7 @@ public class ContentScoreUpdateServiceImplTest {
         when(page.adaptTo(Resource.class)).thenReturn(resource);
 
         Map<String, Object> properties = new HashMap<>();
+        properties.put(TagConstants.PN_TAGS, new String[] {SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX + "6"});
 
         Resource contentResource = mock(Resource.class);
         Node contentNode = mock(Node.class);
@@ -379,10 +595,6 @@ public class ContentScoreUpdateServiceImplTest {
         when(contentNode.getSession()).thenReturn(session);
         when(page.getContentResource()).thenReturn(contentResource);
 
-        Tag scoreTag = mock(Tag.class);
-        when(scoreTag.getTagID()).thenReturn(SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX + "6");
-        when(page.getTags()).thenReturn(new Tag[] {scoreTag});
-
         when(resource.getResourceResolver()).thenReturn(resolver);
 
         return page;
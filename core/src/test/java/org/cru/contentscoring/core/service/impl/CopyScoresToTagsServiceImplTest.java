@@ -0,0 +1,292 @@
+package org.cru.contentscoring.core.service.impl;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.tagging.Tag;
+import com.day.cq.tagging.TagManager;
+import com.day.cq.replication.ReplicationException;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.settings.SlingSettingsService;
+import org.cru.contentscoring.core.models.CopyScoresToTagsStatus;
+import org.cru.contentscoring.core.models.CopyScoresToTagsStatus.State;
+import org.cru.contentscoring.core.service.BulkReplicationService;
+import org.cru.contentscoring.core.service.ScorePropagationService;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
+import org.cru.contentscoring.core.util.AdaptiveThrottle;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CopyScoresToTagsServiceImplTest {
+    private static final String CHECKPOINT_PATH = CopyScoresToTagsServiceImpl.CHECKPOINT_ROOT + "/some-run";
+
+    @Mock
+    private ScoreTaxonomyService scoreTaxonomyService;
+
+    @Mock
+    private ScorePropagationService scorePropagationService;
+
+    @Mock
+    private BulkReplicationService bulkReplicationService;
+
+    @Mock
+    private SlingSettingsService slingSettingsService;
+
+    @Mock
+    private TagManager tagManager;
+
+    @Mock
+    private ResourceResolver resourceResolver;
+
+    @Mock
+    private Session session;
+
+    @Spy
+    private RepositoryWriteServiceImpl repositoryWriteService = new RepositoryWriteServiceImpl();
+
+    @InjectMocks
+    private CopyScoresToTagsServiceImpl copyScoresToTagsService;
+
+    @Before
+    public void setup() {
+        repositoryWriteService.metricsService = MetricsService.NOOP;
+        repositoryWriteService.activate(Maps.newHashMap());
+        copyScoresToTagsService.activate(Maps.newHashMap());
+
+        when(resourceResolver.adaptTo(Session.class)).thenReturn(session);
+        when(resourceResolver.adaptTo(TagManager.class)).thenReturn(tagManager);
+        when(slingSettingsService.getRunModes()).thenReturn(ImmutableSet.of("author"));
+        when(scoreTaxonomyService.scoreOf(any(Resource.class))).thenReturn(-1);
+    }
+
+    @Test
+    public void testScoreIsMovedToTag() throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("score", "5");
+        Node node = mock(Node.class);
+        Property score = mock(Property.class);
+        when(node.hasProperty("score")).thenReturn(true);
+        when(node.getProperty("score")).thenReturn(score);
+        Resource content = mockContent(node, properties);
+
+        Tag scoreTag = mock(Tag.class);
+        when(scoreTaxonomyService.getScoreTag(tagManager, 5)).thenReturn(scoreTag);
+        when(tagManager.getTags(content)).thenReturn(new Tag[0]);
+
+        boolean moved = copyScoresToTagsService.moveScoreToTag(mockPage(content), tagManager);
+
+        assertThat(moved, is(equalTo(true)));
+        verify(score).remove();
+        verify(tagManager).setTags(content, new Tag[] {scoreTag}, false);
+    }
+
+    @Test
+    public void testPageWithoutScoreIsSkipped() throws Exception {
+        Node node = mock(Node.class);
+        Resource content = mockContent(node, new HashMap<>());
+
+        boolean moved = copyScoresToTagsService.moveScoreToTag(mockPage(content), tagManager);
+
+        assertThat(moved, is(equalTo(false)));
+        verify(tagManager, never()).setTags(any(Resource.class), any(Tag[].class), anyBoolean());
+    }
+
+    @Test
+    public void testFailedReplicationKeepsPendingPaths() throws Exception {
+        Node node = mock(Node.class);
+        Property score = mock(Property.class);
+        when(node.hasProperty("score")).thenReturn(true);
+        when(node.getProperty("score")).thenReturn(score);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("score", "5");
+        Resource page = mockPage(mockContent(node, properties));
+        when(tagManager.getTags(any(Resource.class))).thenReturn(new Tag[0]);
+
+        when(bulkReplicationService.getActivatedPaths(anyCollection()))
+            .thenReturn(Collections.singletonList("/content/site/page"));
+        Node checkpoint = mockCheckpoint("/content/site/page");
+        when(session.hasPendingChanges()).thenReturn(true);
+        when(bulkReplicationService.activate(
+            eq(session),
+            anyListOf(String.class),
+            any(BulkReplicationService.ProgressListener.class)))
+            .thenThrow(new ReplicationException("Queue is blocked"));
+
+        try {
+            copyScoresToTagsService.moveChunk(
+                resourceResolver,
+                "some-run",
+                Lists.newArrayList(page),
+                CHECKPOINT_PATH,
+                newThrottle());
+            fail();
+        } catch (ReplicationException e) {
+            // The moved page is saved along with the path still to replicate, which the next run picks up
+            verify(score).remove();
+            verify(checkpoint).setProperty(
+                CopyScoresToTagsServiceImpl.PN_PENDING_REPLICATION,
+                new String[] {"/content/site/page"});
+            verify(session).save();
+            verify(checkpoint.getProperty(CopyScoresToTagsServiceImpl.PN_PENDING_REPLICATION), never()).remove();
+        }
+    }
+
+    @Test
+    public void testPendingPathsAreReplicatedFirst() throws Exception {
+        Resource page = mockPage(mockContent(mock(Node.class), new HashMap<>()));
+        Node checkpoint = mockCheckpoint("/content/site/moved-before");
+        when(bulkReplicationService.activate(
+            eq(session),
+            eq(Collections.singletonList("/content/site/moved-before")),
+            any(BulkReplicationService.ProgressListener.class))).thenReturn(1);
+
+        copyScoresToTagsService.moveChunk(
+            resourceResolver,
+            "some-run",
+            Lists.newArrayList(page),
+            CHECKPOINT_PATH,
+            newThrottle());
+
+        verify(checkpoint.getProperty(CopyScoresToTagsServiceImpl.PN_PENDING_REPLICATION)).remove();
+        verify(checkpoint).setProperty(CopyScoresToTagsServiceImpl.PN_REPLICATED, 4L);
+    }
+
+    @Test
+    public void testFoldersAreSubtreesInParallel() throws Exception {
+        Resource page = mockPage(mockContent(mock(Node.class), new HashMap<>()));
+        when(page.getName()).thenReturn("en");
+        when(page.getPath()).thenReturn("/content/site/en");
+        Resource folder = mock(Resource.class);
+        when(folder.getName()).thenReturn("campaigns");
+        when(folder.getPath()).thenReturn("/content/site/campaigns");
+        when(folder.getResourceType()).thenReturn("sling:OrderedFolder");
+        Resource rootContent = mock(Resource.class);
+        when(rootContent.getName()).thenReturn(JcrConstants.JCR_CONTENT);
+        Resource root = mock(Resource.class);
+        when(root.getChildren()).thenReturn(Lists.newArrayList(rootContent, page, folder));
+        when(resourceResolver.getResource("/content/site")).thenReturn(root);
+
+        Node checkpoint = mock(Node.class);
+        Node subtrees = mock(Node.class);
+        when(checkpoint.addNode(CopyScoresToTagsServiceImpl.SUBTREES, JcrConstants.NT_UNSTRUCTURED))
+            .thenReturn(subtrees);
+        when(session.getNode(CHECKPOINT_PATH)).thenReturn(checkpoint);
+        when(session.hasPendingChanges()).thenReturn(true);
+
+        String subtreesPath = CHECKPOINT_PATH + "/" + CopyScoresToTagsServiceImpl.SUBTREES;
+        CopyScoresToTagsServiceImpl service = spy(copyScoresToTagsService);
+        doReturn(true).when(service).copySubtree(anyString(), anyString(), anyString());
+
+        boolean completed = service.copyScoresInParallel(resourceResolver, "some-run", "/content/site", 2);
+
+        assertThat(completed, is(equalTo(true)));
+        verify(subtrees).addNode("en", JcrConstants.NT_UNSTRUCTURED);
+        verify(subtrees).addNode("campaigns", JcrConstants.NT_UNSTRUCTURED);
+        verify(service).copySubtree("some-run", "/content/site/en", subtreesPath + "/en");
+        verify(service).copySubtree("some-run", "/content/site/campaigns", subtreesPath + "/campaigns");
+        verify(service, times(2)).copySubtree(anyString(), anyString(), anyString());
+    }
+
+    @Test
+    public void testStatusOfRunningJob() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(CopyScoresToTagsServiceImpl.PN_ROOT_PATH, "/content/site");
+        properties.put(CopyScoresToTagsServiceImpl.PN_STATE, State.RUNNING.name());
+        properties.put(CopyScoresToTagsServiceImpl.PN_PARALLELISM, 3L);
+        properties.put(CopyScoresToTagsServiceImpl.PN_PROCESSED, 250L);
+        properties.put(CopyScoresToTagsServiceImpl.PN_RUN_START_PROCESSED, 50L);
+        properties.put(CopyScoresToTagsServiceImpl.PN_RUN_STARTED, calendar(0L));
+        properties.put(CopyScoresToTagsServiceImpl.PN_UPDATED, calendar(40000L));
+
+        Resource checkpoint = mock(Resource.class);
+        when(checkpoint.getName()).thenReturn("some-run");
+        when(checkpoint.getValueMap()).thenReturn(new ValueMapDecorator(properties));
+
+        CopyScoresToTagsStatus status = CopyScoresToTagsServiceImpl.toStatus(checkpoint);
+
+        assertThat(status.getParallelism(), is(equalTo(3)));
+        assertThat(status.getPagesPerSecond(), is(equalTo(5.0)));
+    }
+
+    private Node mockCheckpoint(final String pendingPath) throws Exception {
+        Node checkpoint = mock(Node.class);
+        Value pendingValue = mock(Value.class);
+        when(pendingValue.getString()).thenReturn(pendingPath);
+        Property pending = mock(Property.class);
+        when(pending.getValues()).thenReturn(new Value[] {pendingValue});
+        when(checkpoint.hasProperty(CopyScoresToTagsServiceImpl.PN_PENDING_REPLICATION)).thenReturn(true);
+        when(checkpoint.getProperty(CopyScoresToTagsServiceImpl.PN_PENDING_REPLICATION)).thenReturn(pending);
+
+        for (String count : new String[] {
+            CopyScoresToTagsServiceImpl.PN_PROCESSED,
+            CopyScoresToTagsServiceImpl.PN_SKIPPED,
+            CopyScoresToTagsServiceImpl.PN_REPLICATED}) {
+            Property property = mock(Property.class);
+            when(property.getLong()).thenReturn(3L);
+            when(checkpoint.getProperty(count)).thenReturn(property);
+        }
+        when(session.getNode(CHECKPOINT_PATH)).thenReturn(checkpoint);
+        return checkpoint;
+    }
+
+    private AdaptiveThrottle newThrottle() {
+        return new AdaptiveThrottle(500L, 0L, 0L);
+    }
+
+    private Resource mockContent(final Node node, final Map<String, Object> properties) {
+        Resource content = mock(Resource.class);
+        when(content.adaptTo(Node.class)).thenReturn(node);
+        when(content.getValueMap()).thenReturn(new ValueMapDecorator(properties));
+        return content;
+    }
+
+    private Resource mockPage(final Resource content) {
+        Resource page = mock(Resource.class);
+        when(page.getResourceType()).thenReturn("cq:Page");
+        when(page.getChild(JcrConstants.JCR_CONTENT)).thenReturn(content);
+        return page;
+    }
+
+    private Calendar calendar(final long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+}
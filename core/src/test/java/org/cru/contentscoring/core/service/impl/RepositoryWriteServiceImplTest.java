@@ -0,0 +1,130 @@
+package org.cru.contentscoring.core.service.impl;
+
+import com.google.common.collect.Maps;
+import org.apache.sling.commons.metrics.Meter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RepositoryWriteServiceImplTest {
+    @Mock
+    private Session session;
+
+    @Mock
+    private MetricsService metricsService;
+
+    @Mock
+    private Meter writes;
+
+    @Mock
+    private Meter conflicts;
+
+    @Mock
+    private Meter failures;
+
+    @InjectMocks
+    private RepositoryWriteServiceImpl repositoryWriteService;
+
+    @Before
+    public void setup() {
+        when(metricsService.meter(RepositoryWriteServiceImpl.WRITES_METRIC)).thenReturn(writes);
+        when(metricsService.meter(RepositoryWriteServiceImpl.CONFLICTS_METRIC)).thenReturn(conflicts);
+        when(metricsService.meter(RepositoryWriteServiceImpl.FAILURES_METRIC)).thenReturn(failures);
+
+        Map<String, Object> config = Maps.newHashMap();
+        config.put(RepositoryWriteServiceImpl.MAX_RETRIES, 2);
+        config.put(RepositoryWriteServiceImpl.BACKOFF, 1L);
+        repositoryWriteService.activate(config);
+    }
+
+    @Test
+    public void testWriteIsSavedOnce() throws Exception {
+        AtomicInteger applied = new AtomicInteger();
+
+        boolean saved = repositoryWriteService.write(session, () -> applied.incrementAndGet() > 0);
+
+        assertThat(saved, is(true));
+        assertThat(applied.get(), is(equalTo(1)));
+        verify(session, times(1)).save();
+        verify(writes).mark();
+    }
+
+    @Test
+    public void testNothingIsSavedWithoutChanges() throws Exception {
+        boolean saved = repositoryWriteService.write(session, () -> false);
+
+        assertThat(saved, is(false));
+        verify(session, never()).save();
+        verify(writes, never()).mark();
+    }
+
+    @Test
+    public void testConflictingWriteIsAppliedAgain() throws Exception {
+        doThrow(new InvalidItemStateException()).doNothing().when(session).save();
+        AtomicInteger applied = new AtomicInteger();
+
+        boolean saved = repositoryWriteService.write(session, () -> applied.incrementAndGet() > 0);
+
+        assertThat(saved, is(true));
+        assertThat(applied.get(), is(equalTo(2)));
+        verify(session).refresh(false);
+        verify(session, times(2)).save();
+        verify(conflicts).mark();
+        verify(writes).mark();
+        verify(failures, never()).mark();
+    }
+
+    @Test
+    public void testGivesUpAfterMaxRetries() throws Exception {
+        doThrow(new InvalidItemStateException()).when(session).save();
+        AtomicInteger applied = new AtomicInteger();
+
+        try {
+            repositoryWriteService.write(session, () -> applied.incrementAndGet() > 0);
+            fail("Expected the conflict to be rethrown");
+        } catch (InvalidItemStateException e) {
+            // expected
+        }
+
+        assertThat(applied.get(), is(equalTo(3)));
+        verify(session, times(3)).refresh(false);
+        verify(conflicts, times(3)).mark();
+        verify(failures).mark();
+        verify(writes, never()).mark();
+    }
+
+    @Test(expected = RepositoryException.class)
+    public void testOtherFailuresAreNotRetried() throws Exception {
+        doThrow(new RepositoryException()).when(session).save();
+        AtomicInteger applied = new AtomicInteger();
+
+        try {
+            repositoryWriteService.write(session, () -> applied.incrementAndGet() > 0);
+        } finally {
+            assertThat(applied.get(), is(equalTo(1)));
+            verify(session).refresh(false);
+            verify(failures).mark();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.cru.contentscoring.core.service.impl;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.cru.contentscoring.core.provider.ExternalUrlPathProvider;
+import org.cru.contentscoring.core.util.SingleFlightCache;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation.Builder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.net.URI;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResourcePathLookupServiceImplTest {
+    private ResourcePathLookupServiceImpl lookupService = new ResourcePathLookupServiceImpl();
+    private ResourceResolver resourceResolver;
+
+    @Before
+    public void setup() throws Exception {
+        resourceResolver = mock(ResourceResolver.class);
+
+        SystemUtils systemUtils = mock(SystemUtils.class);
+        ResourceResolverLease lease = mock(ResourceResolverLease.class);
+        when(lease.getResourceResolver()).thenReturn(resourceResolver);
+        when(systemUtils.leaseResourceResolver(anyString())).thenReturn(lease);
+        lookupService.systemUtils = systemUtils;
+        lookupService.externalUrlPathProvider = mock(ExternalUrlPathProvider.class);
+        lookupService.lookupCache = new SingleFlightCache<>(100, 60000, 60000, 5000);
+    }
+
+    @Test
+    public void testLocalLookupSkipsPublisher() throws Exception {
+        String incomingUri = "https://somewhere.com/path.html";
+        String resourcePath = "/content/somewhere/us/en/path";
+        when(lookupService.externalUrlPathProvider.toPath(new URI(incomingUri), resourceResolver))
+            .thenReturn(resourcePath);
+
+        assertThat(lookupService.lookupResourcePath(incomingUri), is(equalTo(resourcePath)));
+    }
+
+    @Test
+    public void testRepeatedLookupIsCached() throws Exception {
+        String incomingUri = "https://somewhere.com/path.html";
+        URI uri = new URI(incomingUri);
+        when(lookupService.externalUrlPathProvider.toPath(uri, resourceResolver))
+            .thenReturn("/content/somewhere/us/en/path");
+
+        lookupService.lookupResourcePath(incomingUri);
+        assertThat(lookupService.lookupResourcePath(incomingUri), is(equalTo("/content/somewhere/us/en/path")));
+        verify(lookupService.externalUrlPathProvider, times(1)).toPath(uri, resourceResolver);
+    }
+
+    @Test
+    public void testNoEnvironmentSkipsLocalLookup() {
+        lookupService.externalUrlPathProvider = null;
+        assertThat(lookupService.determineLocalResourcePath(URI.create("https://somewhere.com/path")), is(nullValue()));
+    }
+
+    @Test
+    public void testUrlWithoutHtml() throws Exception {
+        String incomingUri = "https://somewhere.com/path";
+        String resourcePath = "/content/somewhere/us/en/path";
+
+        Response mockResponse = mock(Response.class);
+        when(mockResponse.readEntity(String.class)).thenReturn(resourcePath);
+
+        Builder mockBuilder = mock(Builder.class);
+        when(mockBuilder.get()).thenReturn(mockResponse);
+
+        WebTarget mockTarget = mock(WebTarget.class);
+        when(mockTarget.queryParam(anyString(), anyString())).thenReturn(mockTarget);
+        when(mockTarget.request()).thenReturn(mockBuilder);
+
+        Client client = mock(Client.class);
+        when(client.target("https://somewhere.com/bin/cru/path/finder.txt")).thenReturn(mockTarget);
+
+
+        String returnedPath = lookupService.determineResourcePath(client, incomingUri);
+        assertThat(returnedPath, is(equalTo(resourcePath)));
+    }
+
+    @Test
+    public void testUrlWithHtml() throws Exception {
+        String incomingUri = "http://somewhere.com/path.html";
+        String resourcePath = "/content/somewhere/us/en/path";
+
+        Response mockResponse = mock(Response.class);
+        when(mockResponse.readEntity(String.class)).thenReturn(resourcePath);
+
+        Builder mockBuilder = mock(Builder.class);
+        when(mockBuilder.get()).thenReturn(mockResponse);
+
+        WebTarget mockTarget = mock(WebTarget.class);
+        when(mockTarget.request()).thenReturn(mockBuilder);
+
+        Client client = mock(Client.class);
+        when(client.target("http://somewhere.com/path.find.path.txt")).thenReturn(mockTarget);
+
+
+        String returnedPath = lookupService.determineResourcePath(client, incomingUri);
+        assertThat(returnedPath, is(equalTo(resourcePath)));
+    }
+
+    @Test
+    public void testBatchLookupResolvesLocally() throws Exception {
+        URI uri = new URI("https://somewhere.com/path.html");
+        when(lookupService.externalUrlPathProvider.toPath(uri, resourceResolver))
+            .thenReturn("/content/somewhere/us/en/path");
+
+        Map<String, String> resourcePaths = lookupService.lookupResourcePaths(
+            Lists.newArrayList("https://somewhere.com/path.html", "https://somewhere.com/path.html"));
+
+        assertThat(resourcePaths, is(equalTo(ImmutableMap.of(
+            "https://somewhere.com/path.html", "/content/somewhere/us/en/path"))));
+        verify(lookupService.externalUrlPathProvider, times(1)).toPath(uri, resourceResolver);
+    }
+
+    @Test
+    public void testRepeatedBatchLookupIsCached() throws Exception {
+        URI uri = new URI("https://somewhere.com/path.html");
+        when(lookupService.externalUrlPathProvider.toPath(uri, resourceResolver))
+            .thenReturn("/content/somewhere/us/en/path");
+
+        lookupService.lookupResourcePath("https://somewhere.com/path.html");
+        Map<String, String> resourcePaths = lookupService.lookupResourcePaths(
+            Lists.newArrayList("https://somewhere.com/path.html"));
+
+        assertThat(resourcePaths, is(equalTo(ImmutableMap.of(
+            "https://somewhere.com/path.html", "/content/somewhere/us/en/path"))));
+        verify(lookupService.externalUrlPathProvider, times(1)).toPath(uri, resourceResolver);
+    }
+
+    @Test
+    public void testBatchLookupOnPublisher() throws Exception {
+        Response mockResponse = mock(Response.class);
+        when(mockResponse.getStatus()).thenReturn(200);
+        when(mockResponse.readEntity(String.class)).thenReturn(
+            "{\"https://somewhere.com/path\":\"/content/somewhere/us/en/path\","
+                + "\"https://somewhere.com/other.html\":\"Not found\"}");
+
+        Builder mockBuilder = mock(Builder.class);
+        when(mockBuilder.post(any(Entity.class))).thenReturn(mockResponse);
+
+        WebTarget mockTarget = mock(WebTarget.class);
+        when(mockTarget.request()).thenReturn(mockBuilder);
+
+        Client client = mock(Client.class);
+        when(client.target("https://somewhere.com/bin/cru/path/batch-finder")).thenReturn(mockTarget);
+
+        Map<String, String> resourcePaths = lookupService.determineResourcePaths(
+            client,
+            "https://somewhere.com",
+            Lists.newArrayList("https://somewhere.com/path", "https://somewhere.com/other.html"));
+
+        assertThat(resourcePaths, is(equalTo(ImmutableMap.of(
+            "https://somewhere.com/path", "/content/somewhere/us/en/path"))));
+    }
+}
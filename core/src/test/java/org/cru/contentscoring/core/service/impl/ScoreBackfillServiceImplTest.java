@@ -0,0 +1,175 @@
+package org.cru.contentscoring.core.service.impl;
+
+import com.day.cq.wcm.api.Page;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.cru.contentscoring.core.models.BackfillStatus;
+import org.cru.contentscoring.core.models.BackfillStatus.State;
+import org.cru.contentscoring.core.service.ContentScoreUpdateService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.cru.contentscoring.core.service.impl.ScoreBackfillServiceImpl.CHECKPOINT_ROOT;
+import static org.cru.contentscoring.core.service.impl.ScoreBackfillServiceImpl.PN_LAST_PATH;
+import static org.cru.contentscoring.core.service.impl.ScoreBackfillServiceImpl.PN_PROCESSED;
+import static org.cru.contentscoring.core.service.impl.ScoreBackfillServiceImpl.PN_SCORED;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ScoreBackfillServiceImplTest {
+    private static final String ID = "some-backfill";
+
+    @Mock
+    private ContentScoreUpdateService contentScoreUpdateService;
+
+    @Mock
+    private Session session;
+
+    @Spy
+    private RepositoryWriteServiceImpl repositoryWriteService = new RepositoryWriteServiceImpl();
+
+    @InjectMocks
+    private ScoreBackfillServiceImpl backfillService;
+
+    @Before
+    public void setup() {
+        repositoryWriteService.metricsService = MetricsService.NOOP;
+        repositoryWriteService.activate(Maps.newHashMap());
+        backfillService.activate(Maps.newHashMap());
+    }
+
+    @Test
+    public void testStatusOfRunningBackfill() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(ScoreBackfillServiceImpl.PN_ROOT_PATH, "/content/site");
+        properties.put(ScoreBackfillServiceImpl.PN_STATE, State.RUNNING.name());
+        properties.put(ScoreBackfillServiceImpl.PN_TOTAL, 1000L);
+        properties.put(PN_PROCESSED, 300L);
+        properties.put(ScoreBackfillServiceImpl.PN_RUN_START_PROCESSED, 100L);
+        properties.put(ScoreBackfillServiceImpl.PN_RUN_STARTED, calendar(0L));
+        properties.put(ScoreBackfillServiceImpl.PN_UPDATED, calendar(20000L));
+
+        BackfillStatus status = ScoreBackfillServiceImpl.toStatus(checkpoint(properties));
+
+        assertThat(status.getId(), is(equalTo(ID)));
+        assertThat(status.getPagesPerSecond(), is(equalTo(10.0)));
+        assertThat(status.getEtaSeconds(), is(equalTo(70L)));
+    }
+
+    @Test
+    public void testStatusOfQueuedBackfillHasNoEta() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(ScoreBackfillServiceImpl.PN_ROOT_PATH, "/content/site");
+        properties.put(ScoreBackfillServiceImpl.PN_STATE, State.QUEUED.name());
+
+        BackfillStatus status = ScoreBackfillServiceImpl.toStatus(checkpoint(properties));
+
+        assertThat(status.getTotal(), is(equalTo(-1L)));
+        assertThat(status.getPagesPerSecond(), is(nullValue()));
+        assertThat(status.getEtaSeconds(), is(nullValue()));
+    }
+
+    @Test
+    public void testDeliveredChunkIsCheckpointed() throws Exception {
+        when(contentScoreUpdateService.backfillContentScores(anyCollection()))
+            .thenReturn(CompletableFuture.completedFuture(null));
+        Node checkpoint = mockCheckpoint(100L, 90L);
+
+        List<Page> chunk = Lists.newArrayList(mock(Page.class), mock(Page.class));
+        assertThat(backfillService.sendChunk(session, ID, chunk, 3, "/content/site/third/jcr:content"), is(true));
+
+        verify(checkpoint).setProperty(PN_LAST_PATH, "/content/site/third/jcr:content");
+        verify(checkpoint).setProperty(PN_PROCESSED, 103L);
+        verify(checkpoint).setProperty(PN_SCORED, 92L);
+        verify(session).save();
+    }
+
+    @Test
+    public void testUndeliveredChunkIsNotCheckpointed() throws Exception {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("Max retries reached"));
+        when(contentScoreUpdateService.backfillContentScores(anyCollection())).thenReturn(failed);
+        Node checkpoint = mockCheckpoint(100L, 90L);
+
+        try {
+            backfillService.sendChunk(session, ID, Lists.newArrayList(mock(Page.class)), 1, "/content/site/page");
+            fail();
+        } catch (RepositoryException e) {
+            verify(checkpoint, never()).setProperty(anyString(), anyLong());
+            verify(checkpoint, never()).setProperty(anyString(), anyString());
+            verify(session, never()).save();
+        }
+    }
+
+    @Test
+    public void testStoppedBackfillDoesNotWaitForDelivery() throws Exception {
+        when(contentScoreUpdateService.backfillContentScores(anyCollection())).thenReturn(new CompletableFuture<>());
+        Node checkpoint = mockCheckpoint(100L, 90L);
+
+        backfillService.deactivate();
+        boolean sent = backfillService.sendChunk(
+            session,
+            ID,
+            Lists.newArrayList(mock(Page.class)),
+            1,
+            "/content/site/page");
+
+        assertThat(sent, is(false));
+        verify(checkpoint, never()).setProperty(anyString(), anyLong());
+        verify(session, never()).save();
+    }
+
+    private Node mockCheckpoint(final long processed, final long scored) throws RepositoryException {
+        Node checkpoint = mock(Node.class);
+        Property processedProperty = mock(Property.class);
+        when(processedProperty.getLong()).thenReturn(processed);
+        Property scoredProperty = mock(Property.class);
+        when(scoredProperty.getLong()).thenReturn(scored);
+        when(checkpoint.getProperty(PN_PROCESSED)).thenReturn(processedProperty);
+        when(checkpoint.getProperty(PN_SCORED)).thenReturn(scoredProperty);
+        when(session.getNode(CHECKPOINT_ROOT + "/" + ID)).thenReturn(checkpoint);
+        return checkpoint;
+    }
+
+    private Resource checkpoint(final Map<String, Object> properties) {
+        Resource checkpoint = mock(Resource.class);
+        when(checkpoint.getName()).thenReturn(ID);
+        when(checkpoint.getValueMap()).thenReturn(new ValueMapDecorator(properties));
+        return checkpoint;
+    }
+
+    private Calendar calendar(final long millis) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(millis);
+        return calendar;
+    }
+}
@@ -0,0 +1,166 @@
+package org.cru.contentscoring.core.service.impl;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.day.cq.tagging.Tag;
+import com.day.cq.tagging.TagManager;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
+import org.cru.contentscoring.core.util.ExperienceFragmentUtil;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.cru.contentscoring.core.service.impl.SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ScorePropagationServiceImplTest {
+    private static final String XF_PATH = "/content/experience-fragments/cru/some-xf";
+    private static final int SCORE = 5;
+
+    @Mock
+    private ScoreTaxonomyService scoreTaxonomyService;
+
+    @Mock
+    private ResourceResolver resourceResolver;
+
+    @Mock
+    private TagManager tagManager;
+
+    @InjectMocks
+    private ScorePropagationServiceImpl scorePropagationService;
+
+    private Resource experienceFragmentContent;
+    private Resource masterContent;
+    private Resource webContent;
+
+    @Before
+    public void setup() {
+        scorePropagationService.activate(Maps.newHashMap());
+        when(resourceResolver.adaptTo(TagManager.class)).thenReturn(tagManager);
+
+        experienceFragmentContent = mockContent(XF_PATH, Collections.emptyMap());
+        when(experienceFragmentContent.getResourceType()).thenReturn(ExperienceFragmentUtil.XF_TYPE);
+        Resource experienceFragment = mockPage(XF_PATH, experienceFragmentContent);
+
+        Map<String, Object> variationProperties = new HashMap<>();
+        variationProperties.put(ExperienceFragmentUtil.XF_VARIANT_TYPE, "web");
+        masterContent = mockContent(XF_PATH + "/master", variationProperties);
+        Resource master = mockPage(XF_PATH + "/master", masterContent);
+        when(master.getParent()).thenReturn(experienceFragment);
+        webContent = mockContent(XF_PATH + "/web", variationProperties);
+        Resource web = mockPage(XF_PATH + "/web", webContent);
+
+        when(experienceFragment.getChildren()).thenReturn(Lists.newArrayList(master, web));
+    }
+
+    @Test
+    public void testVariationsWithoutScoreAreTagged() {
+        Tag scoreTag = mock(Tag.class);
+        when(scoreTaxonomyService.getScoreTag(tagManager, SCORE)).thenReturn(scoreTag);
+        when(scoreTaxonomyService.scoreOf(experienceFragmentContent)).thenReturn(SCORE);
+        when(scoreTaxonomyService.scoreOf(masterContent)).thenReturn(-1);
+        when(scoreTaxonomyService.scoreOf(webContent)).thenReturn(2);
+
+        Tag otherTag = mock(Tag.class);
+        when(otherTag.getTagID()).thenReturn("namespace:someTag/1");
+        Tag oldScoreTag = mock(Tag.class);
+        when(oldScoreTag.getTagID()).thenReturn(SCALE_OF_BELIEF_TAG_PREFIX + 2);
+        when(tagManager.getTags(masterContent)).thenReturn(new Tag[] { otherTag });
+        when(tagManager.getTags(webContent)).thenReturn(new Tag[] { oldScoreTag });
+
+        int changed = scorePropagationService.propagateScore(
+            resourceResolver, mockPageContent(XF_PATH + "/master"), SCORE);
+
+        assertThat(changed, is(equalTo(2)));
+        verify(tagManager).setTags(eq(masterContent), aryEq(new Tag[] { otherTag, scoreTag }), eq(false));
+        verify(tagManager).setTags(eq(webContent), aryEq(new Tag[] { scoreTag }), eq(false));
+        verify(tagManager, never()).setTags(eq(experienceFragmentContent), any(Tag[].class), anyBoolean());
+    }
+
+    @Test
+    public void testExperienceFragmentsOfPageAreCached() {
+        Resource pageContent = mockPageContent(XF_PATH + "/master");
+
+        scorePropagationService.getExperienceFragmentContentPaths(resourceResolver, pageContent);
+        assertThat(
+            scorePropagationService.getExperienceFragmentContentPaths(resourceResolver, pageContent),
+            is(equalTo(Lists.newArrayList(
+                XF_PATH + "/jcr:content", XF_PATH + "/master/jcr:content", XF_PATH + "/web/jcr:content"))));
+
+        verify(resourceResolver, times(1)).getResource(XF_PATH + "/master");
+    }
+
+    @Test
+    public void testChangedPrimaryExperienceFragmentIsLookedUpAgain() {
+        scorePropagationService.getExperienceFragmentContentPaths(
+            resourceResolver, mockPageContent(XF_PATH + "/master"));
+        scorePropagationService.getExperienceFragmentContentPaths(
+            resourceResolver, mockPageContent(XF_PATH));
+
+        verify(resourceResolver).getResource(XF_PATH + "/master");
+        verify(resourceResolver).getResource(XF_PATH);
+    }
+
+    @Test
+    public void testPageWithoutExperienceFragmentIsSkipped() {
+        Resource pageContent = mock(Resource.class);
+        when(pageContent.getPath()).thenReturn("/content/site/page/jcr:content");
+        when(pageContent.getValueMap()).thenReturn(new ValueMapDecorator(new HashMap<>()));
+
+        int changed = scorePropagationService.propagateScore(resourceResolver, pageContent, SCORE);
+
+        assertThat(changed, is(equalTo(0)));
+        verify(tagManager, never()).setTags(any(Resource.class), any(Tag[].class), anyBoolean());
+    }
+
+    private Resource mockPageContent(final String primaryExperienceFragmentPath) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(ScorePropagationServiceImpl.PRIMARY_XF_NAME, primaryExperienceFragmentPath);
+
+        Resource pageContent = mock(Resource.class);
+        when(pageContent.getPath()).thenReturn("/content/site/page/jcr:content");
+        when(pageContent.getValueMap()).thenReturn(new ValueMapDecorator(properties));
+        return pageContent;
+    }
+
+    private Resource mockContent(final String pagePath, final Map<String, Object> properties) {
+        String contentPath = pagePath + "/" + JcrConstants.JCR_CONTENT;
+        Resource content = mock(Resource.class);
+        when(content.getPath()).thenReturn(contentPath);
+        when(content.getValueMap()).thenReturn(new ValueMapDecorator(properties));
+        when(resourceResolver.getResource(contentPath)).thenReturn(content);
+        return content;
+    }
+
+    private Resource mockPage(final String path, final Resource content) {
+        Resource page = mock(Resource.class);
+        when(page.getPath()).thenReturn(path);
+        when(page.getResourceType()).thenReturn("cq:Page");
+        when(page.getChild(JcrConstants.JCR_CONTENT)).thenReturn(content);
+        when(resourceResolver.getResource(path)).thenReturn(page);
+        return page;
+    }
+}
@@ -0,0 +1,282 @@
+package org.cru.contentscoring.core.service.impl;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.apache.jackrabbit.commons.iterator.NodeIteratorAdapter;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.consumer.JobConsumer.JobResult;
+import org.apache.sling.settings.SlingSettingsService;
+import org.cru.contentscoring.core.models.ReconciliationStatus;
+import org.cru.contentscoring.core.models.ReconciliationStatus.State;
+import org.cru.contentscoring.core.provider.AbsolutePathUriProvider;
+import org.cru.contentscoring.core.provider.PageUriProvider;
+import org.cru.contentscoring.core.reconciliation.ScoreDigestSource;
+import org.cru.contentscoring.core.reconciliation.ScoreHashTree;
+import org.cru.contentscoring.core.service.ContentScoreUpdateService;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ScoreReconciliationServiceImplTest {
+    private static final String SCOPE = "https://www.cru.org/content/cru/us/en";
+    private static final String ROOT_PATH = "/content/cru/us/en";
+    private static final String ID = "some-run";
+
+    // Two URIs of the same page, the vanity one's score on the API is out of date
+    private static final String PAGE_URI = SCOPE + "/page.html";
+    private static final String VANITY_URI = SCOPE + "/vanity";
+
+    @Mock
+    private SystemUtils systemUtils;
+
+    @Mock
+    private SlingSettingsService slingSettingsService;
+
+    @Mock
+    private ContentScoreUpdateService contentScoreUpdateService;
+
+    @Mock
+    private ScoreTaxonomyService scoreTaxonomyService;
+
+    @Spy
+    private RepositoryWriteServiceImpl repositoryWriteService = new RepositoryWriteServiceImpl();
+
+    @Mock
+    private ResourceResolver resourceResolver;
+
+    @Mock
+    private Session session;
+
+    @Mock
+    private Node checkpointNode;
+
+    @InjectMocks
+    private ScoreReconciliationServiceImpl reconciliationService;
+
+    private final List<Node> results = Lists.newArrayList();
+
+    @Before
+    public void setup() throws Exception {
+        repositoryWriteService.metricsService = MetricsService.NOOP;
+        repositoryWriteService.activate(Maps.newHashMap());
+        when(slingSettingsService.getRunModes()).thenReturn(Collections.emptySet());
+        reconciliationService.activate(ImmutableMap.<String, Object>of(ScoreReconciliationServiceImpl.CHUNK_SIZE, 1));
+
+        when(resourceResolver.adaptTo(Session.class)).thenReturn(session);
+        when(session.getNode(ScoreReconciliationServiceImpl.CHECKPOINT_ROOT + "/" + ID)).thenReturn(checkpointNode);
+        Property sent = mock(Property.class);
+        when(checkpointNode.getProperty(ScoreReconciliationServiceImpl.PN_SENT)).thenReturn(sent);
+
+        when(contentScoreUpdateService.backfillScores(anyMapOf(String.class, Integer.class)))
+            .thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @Test
+    public void testScopeIsRootUriWithoutExtension() {
+        assertThat(
+            ScoreReconciliationServiceImpl.scopeOf(URI.create(SCOPE + ".html")),
+            is(equalTo(SCOPE)));
+    }
+
+    @Test
+    public void testUrisUnderScopeAreInScope() {
+        assertThat(ScoreReconciliationServiceImpl.inScope(SCOPE + ".html", SCOPE), is(true));
+        assertThat(ScoreReconciliationServiceImpl.inScope(SCOPE + "/page.html", SCOPE), is(true));
+        assertThat(ScoreReconciliationServiceImpl.inScope(SCOPE + "glish.html", SCOPE), is(false));
+        assertThat(ScoreReconciliationServiceImpl.inScope("https://www.cru.org/go", SCOPE), is(false));
+    }
+
+    @Test
+    public void testDifferingUrisAreSentAsHashed() throws Exception {
+        assumeThat(ScoreHashTree.bucketOf(VANITY_URI), is(not(equalTo(ScoreHashTree.bucketOf(PAGE_URI)))));
+        mockScoredPage("/content/cru/us/en/page", 5, PAGE_URI, VANITY_URI);
+
+        ScoreHashTree apiTree = new ScoreHashTree();
+        apiTree.add(PAGE_URI, 5);
+        apiTree.add(VANITY_URI, 3);
+        ScoreDigestSource digestSource = mock(ScoreDigestSource.class);
+        when(digestSource.getDigests(eq(SCOPE), anyInt(), anyListOf(Integer.class)))
+            .thenAnswer(invocation -> apiTree.getDigests(
+                (Integer) invocation.getArguments()[1],
+                (List<Integer>) invocation.getArguments()[2]));
+        reconciliationService.digestSource = digestSource;
+
+        JobResult result = reconciliationService.process(mockJob());
+
+        assertThat(result, is(equalTo(JobResult.OK)));
+        // Only the URI that differs, not every URI of its page
+        verify(contentScoreUpdateService).backfillScores(ImmutableMap.of(VANITY_URI, 5));
+        verify(contentScoreUpdateService, times(1)).backfillScores(anyMapOf(String.class, Integer.class));
+        verify(checkpointNode).setProperty(ScoreReconciliationServiceImpl.PN_URIS, 2L);
+        verify(checkpointNode).setProperty(ScoreReconciliationServiceImpl.PN_DIFFERING_BUCKETS, 1L);
+        verify(digestSource).reconciled(eq(SCOPE), any(ScoreHashTree.class));
+    }
+
+    @Test
+    public void testEqualTreesSendNothing() throws Exception {
+        mockScoredPage("/content/cru/us/en/page", 5, PAGE_URI, VANITY_URI);
+
+        ScoreHashTree apiTree = new ScoreHashTree();
+        apiTree.add(PAGE_URI, 5);
+        apiTree.add(VANITY_URI, 5);
+        ScoreDigestSource digestSource = mock(ScoreDigestSource.class);
+        when(digestSource.getDigests(eq(SCOPE), anyInt(), anyListOf(Integer.class)))
+            .thenAnswer(invocation -> apiTree.getDigests(
+                (Integer) invocation.getArguments()[1],
+                (List<Integer>) invocation.getArguments()[2]));
+        reconciliationService.digestSource = digestSource;
+
+        JobResult result = reconciliationService.process(mockJob());
+
+        assertThat(result, is(equalTo(JobResult.OK)));
+        verify(checkpointNode).setProperty(ScoreReconciliationServiceImpl.PN_DIGESTS_COMPARED, 1L);
+        verify(contentScoreUpdateService, times(0)).backfillScores(anyMapOf(String.class, Integer.class));
+        verify(digestSource, times(0)).reconciled(anyString(), any(ScoreHashTree.class));
+    }
+
+    @Test
+    public void testBucketsAreSentInChunks() throws Exception {
+        String otherUri = SCOPE + "/other.html";
+        Path pairs = Files.createTempFile("reconciliation-test", ".tsv");
+        try {
+            Files.write(
+                pairs,
+                Lists.newArrayList(PAGE_URI + "\t5", VANITY_URI + "\t3", otherUri + "\t7"),
+                StandardCharsets.UTF_8);
+
+            reconciliationService.sendBuckets(
+                session,
+                ID,
+                pairs,
+                ImmutableSet.of(ScoreHashTree.bucketOf(PAGE_URI), ScoreHashTree.bucketOf(otherUri)));
+        } finally {
+            Files.delete(pairs);
+        }
+
+        verify(contentScoreUpdateService).backfillScores(ImmutableMap.of(PAGE_URI, 5));
+        verify(contentScoreUpdateService).backfillScores(ImmutableMap.of(otherUri, 7));
+        verify(session, times(2)).save();
+    }
+
+    @Test
+    public void testStatusOfFinishedReconciliation() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(ScoreReconciliationServiceImpl.PN_ROOT_PATH, "/content/cru/us/en");
+        properties.put(ScoreReconciliationServiceImpl.PN_SCOPE, SCOPE);
+        properties.put(ScoreReconciliationServiceImpl.PN_STATE, State.DONE.name());
+        properties.put(ScoreReconciliationServiceImpl.PN_PAGES, 1200L);
+        properties.put(ScoreReconciliationServiceImpl.PN_DIGESTS_COMPARED, 49L);
+        properties.put(ScoreReconciliationServiceImpl.PN_DIFFERING_BUCKETS, 1L);
+        properties.put(ScoreReconciliationServiceImpl.PN_SENT, 1L);
+
+        Resource checkpoint = mock(Resource.class);
+        when(checkpoint.getName()).thenReturn("some-run");
+        when(checkpoint.getValueMap()).thenReturn(new ValueMapDecorator(properties));
+
+        ReconciliationStatus status = ScoreReconciliationServiceImpl.toStatus(checkpoint);
+
+        assertThat(status.getState(), is(equalTo(State.DONE)));
+        assertThat(status.getScope(), is(equalTo(SCOPE)));
+        assertThat(status.getDigestsCompared(), is(equalTo(49L)));
+        assertThat(status.getSent(), is(equalTo(1L)));
+    }
+
+    private Job mockJob() throws Exception {
+        when(systemUtils.getResourceResolver(anyString())).thenReturn(resourceResolver);
+
+        Map<String, Object> checkpointProperties = new HashMap<>();
+        checkpointProperties.put(ScoreReconciliationServiceImpl.PN_ROOT_PATH, ROOT_PATH);
+        Resource checkpoint = mock(Resource.class);
+        when(checkpoint.getValueMap()).thenReturn(new ValueMapDecorator(checkpointProperties));
+        when(resourceResolver.getResource(ScoreReconciliationServiceImpl.CHECKPOINT_ROOT + "/" + ID))
+            .thenReturn(checkpoint);
+
+        Resource root = mock(Resource.class);
+        when(resourceResolver.getResource(ROOT_PATH)).thenReturn(root);
+        AbsolutePathUriProvider absolutePathUriProvider = mock(AbsolutePathUriProvider.class);
+        when(absolutePathUriProvider.toURI(root, resourceResolver)).thenReturn(URI.create(SCOPE + ".html"));
+        reconciliationService.absolutePathUriProvider = absolutePathUriProvider;
+
+        Workspace workspace = mock(Workspace.class);
+        QueryManager queryManager = mock(QueryManager.class);
+        Query query = mock(Query.class);
+        QueryResult queryResult = mock(QueryResult.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), eq(Query.JCR_SQL2))).thenReturn(query);
+        when(query.execute()).thenReturn(queryResult);
+        when(queryResult.getNodes()).thenAnswer(invocation -> new NodeIteratorAdapter(results));
+
+        Job job = mock(Job.class);
+        when(job.getProperty(ScoreReconciliationServiceImpl.RECONCILIATION_ID, String.class)).thenReturn(ID);
+        return job;
+    }
+
+    private void mockScoredPage(final String pagePath, final int score, final String... uris) throws Exception {
+        String contentPath = pagePath + "/jcr:content";
+        Node node = mock(Node.class);
+        when(node.getPath()).thenReturn(contentPath);
+        results.add(node);
+
+        Resource pageResource = mock(Resource.class);
+        Resource content = mock(Resource.class);
+        when(content.getPath()).thenReturn(contentPath);
+        when(content.getResourceType()).thenReturn("cru/components/page/page");
+        when(content.getValueMap()).thenReturn(new ValueMapDecorator(new HashMap<>()));
+        when(content.getParent()).thenReturn(pageResource);
+        when(resourceResolver.getResource(contentPath)).thenReturn(content);
+        when(scoreTaxonomyService.scoreOf(content)).thenReturn(score);
+
+        if (reconciliationService.pageUriProvider == null) {
+            reconciliationService.pageUriProvider = mock(PageUriProvider.class);
+        }
+        when(reconciliationService.pageUriProvider.toUris(pageResource, resourceResolver))
+            .thenReturn(ImmutableSet.copyOf(uris));
+    }
+}
@@ -0,0 +1,147 @@
+package org.cru.contentscoring.core.service.impl;
+
+import com.day.cq.tagging.Tag;
+import com.day.cq.tagging.TagConstants;
+import com.day.cq.tagging.TagManager;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.cru.contentscoring.core.service.impl.SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ScoreTaxonomyServiceImplTest {
+    private static final String TAGS_ROOT = "/content/cq:tags/target-audience/scale-of-belief/";
+
+    @Mock
+    private SystemUtils systemUtils;
+
+    @Mock
+    private ResourceResolver resourceResolver;
+
+    @Mock
+    private TagManager tagManager;
+
+    @Mock
+    private TagManager callerTagManager;
+
+    @InjectMocks
+    private ScoreTaxonomyServiceImpl scoreTaxonomyService;
+
+    @Before
+    public void setup() throws Exception {
+        when(systemUtils.getResourceResolver(anyString())).thenReturn(resourceResolver);
+        when(resourceResolver.adaptTo(TagManager.class)).thenReturn(tagManager);
+
+        for (int score = 0; score <= 10; score++) {
+            Tag tag = mock(Tag.class);
+            when(tag.getTagID()).thenReturn(SCALE_OF_BELIEF_TAG_PREFIX + score);
+            when(tag.getPath()).thenReturn(TAGS_ROOT + score);
+            when(tagManager.resolve(SCALE_OF_BELIEF_TAG_PREFIX + score)).thenReturn(tag);
+
+            // Callers get the tag from their own resolver, never the one the service loaded it with
+            when(callerTagManager.resolve(SCALE_OF_BELIEF_TAG_PREFIX + score)).thenReturn(mock(Tag.class));
+        }
+    }
+
+    @Test
+    public void testScoreTagIdsAreLoadedOnce() throws Exception {
+        Tag callerTag = callerTagManager.resolve(SCALE_OF_BELIEF_TAG_PREFIX + 5);
+
+        assertThat(scoreTaxonomyService.getScoreTag(callerTagManager, 5), is(sameInstance(callerTag)));
+        assertThat(scoreTaxonomyService.getScoreTag(callerTagManager, 5), is(sameInstance(callerTag)));
+        scoreTaxonomyService.getScoreTag(callerTagManager, 7);
+
+        verify(tagManager, times(1)).resolve(SCALE_OF_BELIEF_TAG_PREFIX + 5);
+        verify(systemUtils, times(1)).getResourceResolver(anyString());
+        verify(resourceResolver).close();
+    }
+
+    @Test
+    public void testInvalidScoreHasNoTag() {
+        assertThat(scoreTaxonomyService.getScoreTag(callerTagManager, 11), is(nullValue()));
+        assertThat(scoreTaxonomyService.getScoreTag(callerTagManager, -1), is(nullValue()));
+    }
+
+    @Test
+    public void testChangeReloadsTags() throws Exception {
+        scoreTaxonomyService.getScoreTag(callerTagManager, 5);
+
+        Tag replacedTag = mock(Tag.class);
+        when(replacedTag.getTagID()).thenReturn("target-audience:scale-of-belief/five");
+        when(tagManager.resolve(SCALE_OF_BELIEF_TAG_PREFIX + 5)).thenReturn(replacedTag);
+        Tag callerTag = mock(Tag.class);
+        when(callerTagManager.resolve("target-audience:scale-of-belief/five")).thenReturn(callerTag);
+
+        scoreTaxonomyService.onChange(Collections.singletonList(mock(ResourceChange.class)));
+
+        assertThat(scoreTaxonomyService.getScoreTag(callerTagManager, 5), is(sameInstance(callerTag)));
+        verify(systemUtils, times(2)).getResourceResolver(anyString());
+    }
+
+    @Test
+    public void testLoginFailureResolvesTagsFromTheirIds() throws Exception {
+        when(systemUtils.getResourceResolver(anyString())).thenThrow(new LoginException("No service user"));
+        Tag callerTag = callerTagManager.resolve(SCALE_OF_BELIEF_TAG_PREFIX + 5);
+
+        assertThat(scoreTaxonomyService.getScoreTag(callerTagManager, 5), is(sameInstance(callerTag)));
+        assertThat(scoreTaxonomyService.getScore(SCALE_OF_BELIEF_TAG_PREFIX + 5), is(equalTo(5)));
+        // The failed load isn't kept, the next call tries again
+        verify(systemUtils, times(2)).getResourceResolver(anyString());
+    }
+
+    @Test
+    public void testScoreOfReadsTagIds() {
+        Resource contentResource = mockContentResource("namespace:someTag/1", SCALE_OF_BELIEF_TAG_PREFIX + 3);
+        assertThat(scoreTaxonomyService.scoreOf(contentResource), is(equalTo(3)));
+    }
+
+    @Test
+    public void testScoreOfReadsTagPaths() {
+        Resource contentResource = mockContentResource(TAGS_ROOT + 8);
+        assertThat(scoreTaxonomyService.scoreOf(contentResource), is(equalTo(8)));
+    }
+
+    @Test
+    public void testScoreOfWithoutScoreTag() {
+        Resource contentResource = mockContentResource("namespace:someTag/1");
+        assertThat(scoreTaxonomyService.scoreOf(contentResource), is(equalTo(-1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testScoreOfWithInvalidScoreTag() {
+        scoreTaxonomyService.scoreOf(mockContentResource(SCALE_OF_BELIEF_TAG_PREFIX + 100));
+    }
+
+    private Resource mockContentResource(final String... tagIds) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(TagConstants.PN_TAGS, tagIds);
+
+        Resource contentResource = mock(Resource.class);
+        when(contentResource.getValueMap()).thenReturn(new ValueMapDecorator(properties));
+        return contentResource;
+    }
+}
@@ -3,14 +3,21 @@ package org.cru.contentscoring.core.service.impl;
 import com.day.cq.tagging.Tag;
 import com.day.cq.tagging.TagManager;
 import com.day.crx.JcrConstants;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.cru.contentscoring.core.service.ScorePropagationService;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
 
@@ -19,6 +26,7 @@ import javax.jcr.Property;
 import javax.jcr.Session;
 import java.util.Calendar;
 import java.util.Map;
+import java.util.Set;
 
 import static org.cru.contentscoring.core.service.impl.SyncScoreServiceImpl.SCALE_OF_BELIEF_TAG_PREFIX;
 import static org.hamcrest.CoreMatchers.equalTo;
@@ -32,6 +40,8 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -52,11 +62,36 @@ public class SyncScoreServiceImplTest {
     @Mock
     private Resource jcrContent;
 
+    @Mock
+    private ScoreTaxonomyService scoreTaxonomyService;
+
+    @Mock
+    private ScorePropagationService scorePropagationService;
+
+    @Mock
+    private MetricsService metricsService;
+
+    @Mock
+    private Counter appliedWrites;
+
+    @Mock
+    private Counter skippedWrites;
+
+    @Spy
+    private RepositoryWriteServiceImpl repositoryWriteService = new RepositoryWriteServiceImpl();
+
     @InjectMocks
     private SyncScoreServiceImpl syncScoreService;
 
     @Before
     public void setup() throws Exception {
+        when(metricsService.counter(SyncScoreServiceImpl.APPLIED_WRITES_METRIC)).thenReturn(appliedWrites);
+        when(metricsService.counter(SyncScoreServiceImpl.SKIPPED_WRITES_METRIC)).thenReturn(skippedWrites);
+        syncScoreService.activate();
+
+        repositoryWriteService.metricsService = MetricsService.NOOP;
+        repositoryWriteService.activate(Maps.newHashMap());
+
         when(resourceResolver.adaptTo(Session.class)).thenReturn(session);
         doNothing().when(session).save();
 
@@ -72,7 +107,7 @@ public class SyncScoreServiceImplTest {
 
         Tag scoreTag = mock(Tag.class);
         when(scoreTag.getTagID()).thenReturn(SCALE_OF_BELIEF_TAG_PREFIX + SCORE);
-        when(tagManager.resolve(SCALE_OF_BELIEF_TAG_PREFIX + SCORE)).thenReturn(scoreTag);
+        when(scoreTaxonomyService.getScoreTag(tagManager, SCORE)).thenReturn(scoreTag);
 
         Map<String, Object> propertyMap = Maps.newHashMap();
         mockForUpdateScore(resource, propertyMap);
@@ -93,7 +128,7 @@ public class SyncScoreServiceImplTest {
 
         Tag scoreTag = mock(Tag.class);
         when(scoreTag.getTagID()).thenReturn(SCALE_OF_BELIEF_TAG_PREFIX + SCORE);
-        when(tagManager.resolve(SCALE_OF_BELIEF_TAG_PREFIX + SCORE)).thenReturn(scoreTag);
+        when(scoreTaxonomyService.getScoreTag(tagManager, SCORE)).thenReturn(scoreTag);
 
         Map<String, Object> propertyMap = Maps.newHashMap();
         mockForUpdateScore(resource, propertyMap);
@@ -118,7 +153,7 @@ public class SyncScoreServiceImplTest {
 
         Tag scoreTag = mock(Tag.class);
         when(scoreTag.getTagID()).thenReturn(SCALE_OF_BELIEF_TAG_PREFIX + SCORE);
-        when(tagManager.resolve(SCALE_OF_BELIEF_TAG_PREFIX + SCORE)).thenReturn(scoreTag);
+        when(scoreTaxonomyService.getScoreTag(tagManager, SCORE)).thenReturn(scoreTag);
 
         Map<String, Object> propertyMap = Maps.newHashMap();
         mockForUpdateScore(resource, propertyMap);
@@ -128,6 +163,88 @@ public class SyncScoreServiceImplTest {
         assertSuccessful(propertyMap, new Tag[] { existingTag, scoreTag });
     }
 
+    @Test
+    public void testUnchangedScoreIsSkipped() throws Exception {
+        Resource resource = mock(Resource.class);
+        when(resourceResolver.getResource(ABSOLUTE_PATH)).thenReturn(resource);
+
+        Tag existingTag = mock(Tag.class);
+        when(existingTag.getTagID()).thenReturn("namespace:someTag/1");
+
+        Tag existingScoreTag = mock(Tag.class);
+        when(existingScoreTag.getTagID()).thenReturn(SCALE_OF_BELIEF_TAG_PREFIX + SCORE);
+
+        when(tagManager.getTags(jcrContent)).thenReturn(new Tag[] { existingTag, existingScoreTag });
+
+        Map<String, Object> propertyMap = Maps.newHashMap();
+        mockForUpdateScore(resource, propertyMap);
+
+        syncScoreService.syncScore(resourceResolver, SCORE, ABSOLUTE_PATH);
+
+        assertThat(propertyMap.isEmpty(), is(true));
+        verify(tagManager, never()).setTags(any(Resource.class), any(Tag[].class), any(Boolean.class));
+        verify(skippedWrites).increment();
+        verify(appliedWrites, never()).increment();
+    }
+
+    @Test
+    public void testUnchangedScoresAreNotCommitted() throws Exception {
+        Resource resource = mock(Resource.class);
+        when(resourceResolver.getResource(ABSOLUTE_PATH)).thenReturn(resource);
+
+        Tag existingScoreTag = mock(Tag.class);
+        when(existingScoreTag.getTagID()).thenReturn(SCALE_OF_BELIEF_TAG_PREFIX + SCORE);
+        when(tagManager.getTags(jcrContent)).thenReturn(new Tag[] { existingScoreTag });
+
+        mockForUpdateScore(resource, Maps.newHashMap());
+
+        Set<String> syncedPaths = syncScoreService.syncScores(resourceResolver, ImmutableMap.of(ABSOLUTE_PATH, SCORE));
+
+        assertThat(syncedPaths, is(equalTo(ImmutableSet.of(ABSOLUTE_PATH))));
+        verify(session, never()).save();
+    }
+
+    @Test
+    public void testScoreIsPropagatedForUnchangedPage() throws Exception {
+        Resource resource = mock(Resource.class);
+        when(resourceResolver.getResource(ABSOLUTE_PATH)).thenReturn(resource);
+
+        Tag existingScoreTag = mock(Tag.class);
+        when(existingScoreTag.getTagID()).thenReturn(SCALE_OF_BELIEF_TAG_PREFIX + SCORE);
+        when(tagManager.getTags(jcrContent)).thenReturn(new Tag[] { existingScoreTag });
+        when(scorePropagationService.propagateScore(resourceResolver, jcrContent, SCORE)).thenReturn(2);
+
+        mockForUpdateScore(resource, Maps.newHashMap());
+
+        syncScoreService.syncScores(resourceResolver, ImmutableMap.of(ABSOLUTE_PATH, SCORE));
+
+        verify(tagManager, never()).setTags(any(Resource.class), any(Tag[].class), any(Boolean.class));
+        verify(session, times(1)).save();
+    }
+
+    @Test
+    public void testScoresAreSyncedInOneCommit() throws Exception {
+        Resource resource = mock(Resource.class);
+        when(resourceResolver.getResource(ABSOLUTE_PATH)).thenReturn(resource);
+        when(tagManager.getTags(jcrContent)).thenReturn(new Tag[0]);
+
+        Tag scoreTag = mock(Tag.class);
+        when(scoreTag.getTagID()).thenReturn(SCALE_OF_BELIEF_TAG_PREFIX + SCORE);
+        when(scoreTaxonomyService.getScoreTag(tagManager, SCORE)).thenReturn(scoreTag);
+
+        Map<String, Object> propertyMap = Maps.newHashMap();
+        mockForUpdateScore(resource, propertyMap);
+
+        Set<String> syncedPaths = syncScoreService.syncScores(
+            resourceResolver,
+            ImmutableMap.of(ABSOLUTE_PATH, SCORE, "/content/someApp/missing", SCORE));
+
+        assertThat(syncedPaths, is(equalTo(ImmutableSet.of(ABSOLUTE_PATH))));
+        verify(tagManager).setTags(eq(jcrContent), aryEq(new Tag[] { scoreTag }), eq(false));
+        verify(tagManager, never()).setTags(any(Resource.class), any(Tag[].class));
+        verify(session, times(1)).save();
+    }
+
     private void mockForUpdateScore(final Resource resource, final Map<String, Object> propertyMap) throws Exception {
         when(resource.getPath()).thenReturn(ABSOLUTE_PATH);
         when(resource.getChild("jcr:content")).thenReturn(jcrContent);
@@ -157,6 +274,7 @@ public class SyncScoreServiceImplTest {
         assertThat(propertyMap.get("cq:lastModified"), is(notNullValue()));
         assertThat(propertyMap.get("contentScoreLastUpdated"), is(notNullValue()));
 
-        verify(tagManager).setTags(eq(jcrContent), aryEq(tags));
+        verify(tagManager).setTags(eq(jcrContent), aryEq(tags), eq(false));
+        verify(appliedWrites).increment();
     }
 }
@@ -0,0 +1,159 @@
+package org.cru.contentscoring.core.service.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChange.ChangeType;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.cru.contentscoring.core.service.impl.ContentScoreUpdateServiceImpl.VANITY_PATH;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class VanityPathIndexServiceImplTest {
+    private static final String PAGE_PATH = "/content/test/us/en/page-path";
+    private static final String OTHER_PAGE_PATH = "/content/test/us/en/other-page";
+    private static final String VANITY_URL = "/vanity-url";
+
+    @Mock
+    private ResourceResolver resourceResolver;
+
+    @Mock
+    private SystemUtils systemUtils;
+
+    private VanityPathIndexServiceImpl vanityPathIndexService;
+
+    @Before
+    public void setup() throws Exception {
+        when(systemUtils.getResourceResolver(anyString())).thenReturn(resourceResolver);
+        ResourceResolverLease lease = mock(ResourceResolverLease.class);
+        when(lease.getResourceResolver()).thenReturn(resourceResolver);
+        when(systemUtils.leaseResourceResolver(anyString())).thenReturn(lease);
+
+        vanityPathIndexService = new VanityPathIndexServiceImpl();
+        vanityPathIndexService.systemUtils = systemUtils;
+    }
+
+    @Test
+    public void testIndexIsBuiltOnActivation() throws Exception {
+        Resource content = mockContent(PAGE_PATH, VANITY_URL, "/content/test/us/en/vanity-url");
+        when(resourceResolver.getResource(PAGE_PATH + "/jcr:content")).thenReturn(content);
+        mockQueryResult(PAGE_PATH + "/jcr:content");
+
+        vanityPathIndexService.activate();
+
+        assertThat(vanityPathIndexService.getPagePath(VANITY_URL), is(equalTo(PAGE_PATH)));
+        assertThat(vanityPathIndexService.getPagePath("/content/test/us/en/vanity-url"), is(equalTo(PAGE_PATH)));
+        assertThat(vanityPathIndexService.getPagePath("/unknown"), is(nullValue()));
+    }
+
+    @Test
+    public void testDuplicateVanityPathIsNotReturned() {
+        vanityPathIndexService.indexPage(PAGE_PATH, Sets.newHashSet(VANITY_URL));
+        vanityPathIndexService.indexPage(OTHER_PAGE_PATH, Sets.newHashSet(VANITY_URL));
+
+        assertThat(vanityPathIndexService.isDuplicated(VANITY_URL), is(equalTo(true)));
+        assertThat(vanityPathIndexService.getPagePath(VANITY_URL), is(nullValue()));
+    }
+
+    @Test
+    public void testChangedVanityPathIsReindexed() {
+        vanityPathIndexService.indexPage(PAGE_PATH, Sets.newHashSet(VANITY_URL));
+
+        Resource content = mockContent(PAGE_PATH, "/new-vanity-url");
+        when(resourceResolver.getResource(PAGE_PATH + "/jcr:content")).thenReturn(content);
+
+        vanityPathIndexService.onChange(Lists.newArrayList(mockChange(ChangeType.CHANGED, PAGE_PATH + "/jcr:content")));
+
+        assertThat(vanityPathIndexService.getPagePath(VANITY_URL), is(nullValue()));
+        assertThat(vanityPathIndexService.getPagePath("/new-vanity-url"), is(equalTo(PAGE_PATH)));
+    }
+
+    @Test
+    public void testRemovedPageResolvesDuplicate() {
+        vanityPathIndexService.indexPage(PAGE_PATH, Sets.newHashSet(VANITY_URL));
+        vanityPathIndexService.indexPage(OTHER_PAGE_PATH, Sets.newHashSet(VANITY_URL));
+
+        vanityPathIndexService.onChange(Lists.newArrayList(mockChange(ChangeType.REMOVED, OTHER_PAGE_PATH)));
+
+        assertThat(vanityPathIndexService.isDuplicated(VANITY_URL), is(equalTo(false)));
+        assertThat(vanityPathIndexService.getPagePath(VANITY_URL), is(equalTo(PAGE_PATH)));
+    }
+
+    @Test
+    public void testRemovedSubtreeIsUnindexed() {
+        vanityPathIndexService.indexPage(PAGE_PATH, Sets.newHashSet(VANITY_URL));
+
+        vanityPathIndexService.onChange(Lists.newArrayList(mockChange(ChangeType.REMOVED, "/content/test/us")));
+
+        assertThat(vanityPathIndexService.getPagePath(VANITY_URL), is(nullValue()));
+    }
+
+    private void mockQueryResult(final String path) throws Exception {
+        Node node = mock(Node.class);
+        when(node.getPath()).thenReturn(path);
+
+        NodeIterator nodes = mock(NodeIterator.class);
+        when(nodes.hasNext()).thenReturn(true, false);
+        when(nodes.nextNode()).thenReturn(node);
+
+        QueryResult queryResult = mock(QueryResult.class);
+        when(queryResult.getNodes()).thenReturn(nodes);
+
+        Query query = mock(Query.class);
+        when(query.execute()).thenReturn(queryResult);
+
+        QueryManager queryManager = mock(QueryManager.class);
+        when(queryManager.createQuery(anyString(), eq(Query.JCR_SQL2))).thenReturn(query);
+
+        Workspace workspace = mock(Workspace.class);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+
+        Session session = mock(Session.class);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(resourceResolver.adaptTo(Session.class)).thenReturn(session);
+    }
+
+    private Resource mockContent(final String pagePath, final String... vanityPaths) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(VANITY_PATH, vanityPaths);
+
+        Resource content = mock(Resource.class);
+        when(content.getPath()).thenReturn(pagePath + "/jcr:content");
+        when(content.getValueMap()).thenReturn(new ValueMapDecorator(properties));
+        return content;
+    }
+
+    private ResourceChange mockChange(final ChangeType type, final String path) {
+        ResourceChange change = mock(ResourceChange.class);
+        when(change.getType()).thenReturn(type);
+        when(change.getPath()).thenReturn(path);
+        return change;
+    }
+}
@@ -0,0 +1,94 @@
+package org.cru.contentscoring.core.servlets;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.request.RequestParameter;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.net.URISyntaxException;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResourcePathBatchFinderServletTest {
+    private static final String PAGE_URL = "https://somewhere.com/path.html";
+    private static final String VANITY_URL = "https://somewhere.com/vanity";
+    private static final String UNKNOWN_URL = "https://somewhere.com/unknown";
+
+    private final ResourcePathBatchFinderServlet servlet = new ResourcePathBatchFinderServlet();
+
+    private SlingHttpServletRequest request;
+    private SlingHttpServletResponse response;
+    private ResourceResolver resourceResolver;
+    private ByteArrayOutputStream outputStream;
+    private PrintWriter printWriter;
+
+    @Before
+    public void setup() throws Exception {
+        servlet.resourcePathFinder = mock(ResourcePathFinder.class);
+
+        resourceResolver = mock(ResourceResolver.class);
+        request = mock(SlingHttpServletRequest.class);
+        when(request.getResourceResolver()).thenReturn(resourceResolver);
+
+        response = mock(SlingHttpServletResponse.class);
+        outputStream = new ByteArrayOutputStream();
+        printWriter = new PrintWriter(outputStream);
+        when(response.getWriter()).thenReturn(printWriter);
+    }
+
+    @Test
+    public void testGetWithoutPaths() throws Exception {
+        servlet.doGet(request, response);
+
+        verify(response).setStatus(400);
+        printWriter.flush();
+        assertThat(outputStream.toString(), is(equalTo("Path parameter is missing.")));
+    }
+
+    @Test
+    public void testResolvesAllUrlsInOneResponse() throws Exception {
+        RequestParameter[] paths = new RequestParameter[] {
+            mockParameter(PAGE_URL),
+            mockParameter(VANITY_URL),
+            mockParameter(UNKNOWN_URL),
+            mockParameter("https://somewhere.com/bad path")
+        };
+        when(request.getRequestParameters("path")).thenReturn(paths);
+
+        mockResource(PAGE_URL, "/content/somewhere/us/en/path");
+        mockResource(VANITY_URL, "/content/somewhere/us/en/vanity-page");
+        when(servlet.resourcePathFinder.findResource(request, resourceResolver, "https://somewhere.com/bad path"))
+            .thenThrow(new URISyntaxException("https://somewhere.com/bad path", "Illegal character"));
+
+        servlet.doPost(request, response);
+        printWriter.flush();
+
+        verify(response).setHeader("Content-Type", "application/json");
+        assertThat(
+            outputStream.toString(),
+            is(equalTo("{\"" + PAGE_URL + "\":\"/content/somewhere/us/en/path\","
+                + "\"" + VANITY_URL + "\":\"/content/somewhere/us/en/vanity-page\"}")));
+    }
+
+    private void mockResource(final String url, final String path) throws Exception {
+        Resource resource = mock(Resource.class);
+        when(resource.getPath()).thenReturn(path);
+        when(servlet.resourcePathFinder.findResource(request, resourceResolver, url)).thenReturn(resource);
+    }
+
+    private RequestParameter mockParameter(final String value) {
+        RequestParameter parameter = mock(RequestParameter.class);
+        when(parameter.getString()).thenReturn(value);
+        return parameter;
+    }
+}
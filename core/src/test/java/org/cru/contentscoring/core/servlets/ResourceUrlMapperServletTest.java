@@ -3,18 +3,26 @@ package org.cru.contentscoring.core.servlets;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.request.RequestParameter;
+import org.apache.sling.api.resource.NonExistingResource;
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.cru.contentscoring.core.provider.AbsolutePathUriProvider;
 import org.cru.contentscoring.core.provider.VanityPathUriProvider;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
 import org.cru.contentscoring.core.util.SystemUtils;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
 
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
@@ -39,7 +47,9 @@ public class ResourceUrlMapperServletTest {
         servlet.vanityPathUriProvider = mock(VanityPathUriProvider.class);
 
         SystemUtils mockSystemUtils = mock(SystemUtils.class);
-        when(mockSystemUtils.getResourceResolver(anyString())).thenReturn(resourceResolver);
+        ResourceResolverLease lease = mock(ResourceResolverLease.class);
+        when(lease.getResourceResolver()).thenReturn(resourceResolver);
+        when(mockSystemUtils.leaseResourceResolver(anyString())).thenReturn(lease);
         servlet.systemUtils = mockSystemUtils;
     }
 
@@ -127,6 +137,42 @@ public class ResourceUrlMapperServletTest {
         assertThat(json.contains(BASE_URL + vanityPath), is(equalTo(true)));
     }
 
+    @Test
+    public void testGetGroupedByPath() throws Exception {
+        String absolutePath = "/content/site/us/en/full/absolute/path";
+        String missingPath = "/content/site/us/en/missing";
+        StringParameter[] paths = new StringParameter[] {
+            new StringParameter("path", absolutePath),
+            new StringParameter("path", missingPath)};
+
+        SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        when(request.getRequestParameters("path")).thenReturn(paths);
+        when(request.getParameter("grouped")).thenReturn("true");
+
+        Resource resource = mock(Resource.class);
+        when(resourceResolver.getResource(absolutePath)).thenReturn(resource);
+        when(resourceResolver.resolve(missingPath)).thenReturn(mock(NonExistingResource.class));
+
+        when(servlet.absolutePathUriProvider.toURI(resource, resourceResolver))
+            .thenReturn(new URI(BASE_URL + absolutePath + HTML_EXTENSION));
+
+        SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        PrintWriter printWriter = new PrintWriter(outputStream);
+        when(response.getWriter()).thenReturn(printWriter);
+
+        servlet.doGet(request, response);
+        printWriter.flush();
+
+        Map<String, Set<String>> urlsByPath = new ObjectMapper().readValue(
+            outputStream.toString(),
+            new TypeReference<Map<String, Set<String>>>() {});
+        assertThat(urlsByPath.get(absolutePath), is(equalTo(
+            Collections.singleton(BASE_URL + absolutePath + HTML_EXTENSION))));
+        assertThat(urlsByPath.get(missingPath).isEmpty(), is(equalTo(true)));
+    }
+
     private static class StringParameter implements RequestParameter {
         String name;
         String value;
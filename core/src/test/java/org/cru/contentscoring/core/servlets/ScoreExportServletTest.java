@@ -0,0 +1,191 @@
+package org.cru.contentscoring.core.servlets;
+
+import com.day.cq.commons.jcr.JcrConstants;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.apache.jackrabbit.commons.iterator.NodeIteratorAdapter;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.cru.contentscoring.core.provider.PageUriProvider;
+import org.cru.contentscoring.core.service.ScoreTaxonomyService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.security.Principal;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ScoreExportServletTest {
+    private static final String ROOT_PATH = "/content/site/us/en";
+
+    @Mock
+    private ScoreTaxonomyService scoreTaxonomyService;
+
+    @Mock
+    private PageUriProvider pageUriProvider;
+
+    @Mock
+    private ResourceResolver resourceResolver;
+
+    @InjectMocks
+    private ScoreExportServlet servlet;
+
+    private final List<Node> results = Lists.newArrayList();
+
+    @Before
+    public void setup() throws Exception {
+        Session session = mock(Session.class);
+        Workspace workspace = mock(Workspace.class);
+        QueryManager queryManager = mock(QueryManager.class);
+        Query query = mock(Query.class);
+        QueryResult queryResult = mock(QueryResult.class);
+        when(resourceResolver.adaptTo(Session.class)).thenReturn(session);
+        when(session.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), eq(Query.JCR_SQL2))).thenReturn(query);
+        when(query.execute()).thenReturn(queryResult);
+        when(queryResult.getNodes()).thenAnswer(invocation -> new NodeIteratorAdapter(results));
+    }
+
+    @Test
+    public void testExportWritesOneJsonLinePerPage() throws Exception {
+        mockResult(ROOT_PATH + "/first", 5, "https://www.cru.org/us/en/first.html", "https://www.cru.org/first");
+        mockResult(ROOT_PATH + "/second", 7, "https://www.cru.org/us/en/second.html");
+
+        StringWriter output = new StringWriter();
+        int exported = servlet.export(
+            resourceResolver,
+            ROOT_PATH,
+            ScoreExportServlet.FORMAT_NDJSON,
+            new PrintWriter(output));
+
+        assertThat(exported, is(equalTo(2)));
+        assertThat(output.toString(), is(equalTo(
+            "{\"path\":\"/content/site/us/en/first\",\"score\":5,"
+                + "\"uris\":[\"https://www.cru.org/us/en/first.html\",\"https://www.cru.org/first\"]}\n"
+                + "{\"path\":\"/content/site/us/en/second\",\"score\":7,"
+                + "\"uris\":[\"https://www.cru.org/us/en/second.html\"]}\n")));
+    }
+
+    @Test
+    public void testExportWritesOneCsvRowPerUri() throws Exception {
+        mockResult(ROOT_PATH + "/first", 5, "https://www.cru.org/us/en/first.html", "https://www.cru.org/a,b");
+
+        StringWriter output = new StringWriter();
+        servlet.export(resourceResolver, ROOT_PATH, ScoreExportServlet.FORMAT_CSV, new PrintWriter(output));
+
+        assertThat(output.toString(), is(equalTo(
+            "https://www.cru.org/us/en/first.html,5,/content/site/us/en/first\n"
+                + "\"https://www.cru.org/a,b\",5,/content/site/us/en/first\n")));
+    }
+
+    @Test
+    public void testPagesWithoutScoreAreSkipped() throws Exception {
+        mockResult(ROOT_PATH + "/unscored", -1, "https://www.cru.org/us/en/unscored.html");
+
+        StringWriter output = new StringWriter();
+        int exported = servlet.export(
+            resourceResolver,
+            ROOT_PATH,
+            ScoreExportServlet.FORMAT_NDJSON,
+            new PrintWriter(output));
+
+        assertThat(exported, is(equalTo(0)));
+        assertThat(output.toString(), is(equalTo("")));
+    }
+
+    @Test
+    public void testCsvQuotesSpecialCharacters() {
+        assertThat(ScoreExportServlet.csv("plain"), is(equalTo("plain")));
+        assertThat(ScoreExportServlet.csv("say \"hi\""), is(equalTo("\"say \"\"hi\"\"\"")));
+    }
+
+    @Test
+    public void testNonAdminIsRejected() throws Exception {
+        SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        when(request.getParameter("path")).thenReturn(ROOT_PATH);
+        Principal principal = mock(Principal.class);
+        when(principal.getName()).thenReturn("author");
+        when(request.getUserPrincipal()).thenReturn(principal);
+        SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+
+        servlet.doGet(request, response);
+
+        verify(response).sendError(eq(401), anyString());
+        verify(response, never()).getWriter();
+    }
+
+    @Test
+    public void testAnonymousIsRejected() throws Exception {
+        SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        when(request.getParameter("path")).thenReturn(ROOT_PATH);
+        SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+
+        servlet.doGet(request, response);
+
+        verify(response).sendError(eq(401), anyString());
+        verify(response, never()).getWriter();
+    }
+
+    @Test
+    public void testUnknownFormatIsRejected() throws Exception {
+        SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        when(request.getParameter("path")).thenReturn(ROOT_PATH);
+        when(request.getParameter("format")).thenReturn("xml");
+        Principal principal = mock(Principal.class);
+        when(principal.getName()).thenReturn("admin");
+        when(request.getUserPrincipal()).thenReturn(principal);
+        SlingHttpServletResponse response = mock(SlingHttpServletResponse.class);
+
+        servlet.doGet(request, response);
+
+        verify(response).sendError(eq(400), anyString());
+        verify(response, never()).getWriter();
+    }
+
+    private void mockResult(final String pagePath, final int score, final String... uris) throws Exception {
+        String contentPath = pagePath + "/" + JcrConstants.JCR_CONTENT;
+        Resource content = mock(Resource.class);
+        when(content.getPath()).thenReturn(contentPath);
+        when(content.getResourceType()).thenReturn("site/components/page");
+        when(content.getValueMap()).thenReturn(new ValueMapDecorator(new HashMap<>()));
+        when(scoreTaxonomyService.scoreOf(content)).thenReturn(score);
+
+        Resource pageResource = mock(Resource.class);
+        when(pageResource.getPath()).thenReturn(pagePath);
+        when(content.getParent()).thenReturn(pageResource);
+        when(pageUriProvider.toUris(pageResource, resourceResolver)).thenReturn(Sets.newLinkedHashSet(
+            Lists.newArrayList(uris)));
+
+        Node node = mock(Node.class);
+        when(node.getPath()).thenReturn(contentPath);
+        when(resourceResolver.getResource(contentPath)).thenReturn(content);
+        results.add(node);
+    }
+}
@@ -0,0 +1,138 @@
+package org.cru.contentscoring.core.servlets;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.cru.contentscoring.core.service.ResourcePathLookupService;
+import org.cru.contentscoring.core.service.SyncScoreService;
+import org.cru.contentscoring.core.util.ResourceResolverLease;
+import org.cru.contentscoring.core.util.SystemUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.jcr.InvalidItemStateException;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SyncScoreBulkServletTest {
+    private static final String PAGE_URI = "https://somewhere.com/path.html";
+    private static final String PAGE_PATH = "/content/somewhere/us/en/path";
+    private static final String OTHER_URI = "https://somewhere.com/other.html";
+    private static final String OTHER_PATH = "/content/somewhere/us/en/other";
+
+    private final SyncScoreBulkServlet servlet = new SyncScoreBulkServlet();
+
+    private SlingHttpServletRequest request;
+    private SlingHttpServletResponse response;
+    private ResourceResolver resourceResolver;
+    private ByteArrayOutputStream outputStream;
+    private PrintWriter printWriter;
+
+    @Before
+    public void setup() throws Exception {
+        servlet.syncScoreService = mock(SyncScoreService.class);
+        servlet.resourcePathLookupService = mock(ResourcePathLookupService.class);
+        servlet.systemUtils = mock(SystemUtils.class);
+
+        resourceResolver = mock(ResourceResolver.class);
+        ResourceResolverLease lease = mock(ResourceResolverLease.class);
+        when(lease.getResourceResolver()).thenReturn(resourceResolver);
+        when(servlet.systemUtils.leaseResourceResolver(anyString())).thenReturn(lease);
+
+        request = mock(SlingHttpServletRequest.class);
+        response = mock(SlingHttpServletResponse.class);
+        outputStream = new ByteArrayOutputStream();
+        printWriter = new PrintWriter(outputStream);
+        when(response.getWriter()).thenReturn(printWriter);
+
+        when(servlet.resourcePathLookupService.lookupResourcePaths(any(Collection.class)))
+            .thenReturn(ImmutableMap.of(PAGE_URI, PAGE_PATH, OTHER_URI, OTHER_PATH));
+    }
+
+    @Test
+    public void testJsonArray() throws Exception {
+        mockBody("[{\"uri\": \"" + PAGE_URI + "\", \"score\": 5},"
+            + "{\"uri\": \"" + OTHER_URI + "\", \"score\": 11},"
+            + "{\"uri\": \"https://somewhere.com/unknown\", \"score\": 3},"
+            + "{\"uri\": \"mobile-app://somewhere\", \"score\": 3}]");
+
+        Map<String, Integer> expectedScores = ImmutableMap.of(PAGE_PATH, 5);
+        when(servlet.syncScoreService.syncScores(resourceResolver, expectedScores))
+            .thenReturn(ImmutableSet.of(PAGE_PATH));
+
+        servlet.doPost(request, response);
+        printWriter.flush();
+
+        verify(servlet.syncScoreService).syncScores(resourceResolver, expectedScores);
+        assertThat(outputStream.toString(), is(equalTo(
+            "{\"counts\":{\"SYNCED\":1,\"SKIPPED\":1,\"INVALID\":1,\"NOT_FOUND\":1},\"results\":["
+                + "{\"uri\":\"" + PAGE_URI + "\",\"path\":\"" + PAGE_PATH + "\",\"status\":\"SYNCED\"},"
+                + "{\"uri\":\"" + OTHER_URI + "\",\"status\":\"INVALID\"},"
+                + "{\"uri\":\"https://somewhere.com/unknown\",\"status\":\"NOT_FOUND\"},"
+                + "{\"uri\":\"mobile-app://somewhere\",\"status\":\"SKIPPED\"}]}")));
+    }
+
+    @Test
+    public void testNdjsonInChunks() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < SyncScoreBulkServlet.CHUNK_SIZE; i++) {
+            body.append("{\"uri\": \"https://somewhere.com/page-").append(i).append(".html\", \"score\": 1}\n");
+        }
+        body.append("{\"uri\": \"").append(PAGE_URI).append("\", \"score\": 2}\n");
+        mockBody(body.toString());
+
+        ImmutableMap.Builder<String, String> paths = ImmutableMap.builder();
+        for (int i = 0; i < SyncScoreBulkServlet.CHUNK_SIZE; i++) {
+            paths.put("https://somewhere.com/page-" + i + ".html", "/content/somewhere/page-" + i);
+        }
+        paths.put(PAGE_URI, PAGE_PATH);
+        when(servlet.resourcePathLookupService.lookupResourcePaths(any(Collection.class))).thenReturn(paths.build());
+
+        when(servlet.syncScoreService.syncScores(eq(resourceResolver), anyMapOf(String.class, Integer.class)))
+            .thenReturn(ImmutableSet.of());
+        when(servlet.syncScoreService.syncScores(resourceResolver, ImmutableMap.of(PAGE_PATH, 2)))
+            .thenThrow(new InvalidItemStateException("Conflict"));
+
+        servlet.doPost(request, response);
+        printWriter.flush();
+
+        // One commit per chunk
+        verify(servlet.syncScoreService, times(2))
+            .syncScores(eq(resourceResolver), anyMapOf(String.class, Integer.class));
+        assertThat(outputStream.toString(), containsString("\"counts\":{\"NOT_FOUND\":500,\"FAILED\":1}"));
+        assertThat(outputStream.toString(), containsString(
+            "{\"uri\":\"" + PAGE_URI + "\",\"path\":\"" + PAGE_PATH + "\",\"status\":\"FAILED\",\"message\":\"Conflict\"}"));
+    }
+
+    @Test
+    public void testInvalidJson() throws Exception {
+        mockBody("[{\"uri\": ");
+
+        servlet.doPost(request, response);
+
+        verify(response).sendError(eq(400), anyString());
+    }
+
+    private void mockBody(final String body) throws Exception {
+        when(request.getReader()).thenReturn(new BufferedReader(new StringReader(body)));
+    }
+}
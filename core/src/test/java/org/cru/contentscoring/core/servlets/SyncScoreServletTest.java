@@ -7,10 +7,6 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.junit.runners.Parameterized.Parameters;
 
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.Invocation.Builder;
-import javax.ws.rs.client.WebTarget;
-import javax.ws.rs.core.Response;
 import java.net.MalformedURLException;
 import java.util.Arrays;
 import java.util.Collection;
@@ -19,7 +15,6 @@ import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
-import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -73,49 +68,4 @@ public class SyncScoreServletTest {
             fail();
         }
     }
-
-    @Test
-    public void testUrlWithoutHtml() throws Exception {
-        String incomingUri = "https://somewhere.com/path";
-        String resourcePath = "/content/somewhere/us/en/path";
-
-        Response mockResponse = mock(Response.class);
-        when(mockResponse.readEntity(String.class)).thenReturn(resourcePath);
-
-        Builder mockBuilder = mock(Builder.class);
-        when(mockBuilder.get()).thenReturn(mockResponse);
-
-        WebTarget mockTarget = mock(WebTarget.class);
-        when(mockTarget.queryParam(anyString(), anyString())).thenReturn(mockTarget);
-        when(mockTarget.request()).thenReturn(mockBuilder);
-
-        Client client = mock(Client.class);
-        when(client.target("https://somewhere.com/bin/cru/path/finder.txt")).thenReturn(mockTarget);
-
-
-        String returnedPath = syncScoreServlet.determineResourcePath(client, incomingUri);
-        assertThat(returnedPath, is(equalTo(resourcePath)));
-    }
-
-    @Test
-    public void testUrlWithHtml() throws Exception {
-        String incomingUri = "http://somewhere.com/path.html";
-        String resourcePath = "/content/somewhere/us/en/path";
-
-        Response mockResponse = mock(Response.class);
-        when(mockResponse.readEntity(String.class)).thenReturn(resourcePath);
-
-        Builder mockBuilder = mock(Builder.class);
-        when(mockBuilder.get()).thenReturn(mockResponse);
-
-        WebTarget mockTarget = mock(WebTarget.class);
-        when(mockTarget.request()).thenReturn(mockBuilder);
-
-        Client client = mock(Client.class);
-        when(client.target("http://somewhere.com/path.find.path.txt")).thenReturn(mockTarget);
-
-
-        String returnedPath = syncScoreServlet.determineResourcePath(client, incomingUri);
-        assertThat(returnedPath, is(equalTo(resourcePath)));
-    }
 }
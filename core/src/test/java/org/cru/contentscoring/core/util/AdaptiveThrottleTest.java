@@ -0,0 +1,38 @@
+package org.cru.contentscoring.core.util;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class AdaptiveThrottleTest {
+    private final AdaptiveThrottle throttle = new AdaptiveThrottle(500L, 100L, 1000L);
+
+    @Test
+    public void testFastCommitsAreNotPaused() {
+        assertThat(throttle.record(200L), is(equalTo(0L)));
+        assertThat(throttle.getPauseMillis(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void testSlowCommitsDoubleThePauseUpToTheMax() {
+        assertThat(throttle.record(600L), is(equalTo(100L)));
+        assertThat(throttle.record(600L), is(equalTo(200L)));
+        assertThat(throttle.record(600L), is(equalTo(400L)));
+        assertThat(throttle.record(600L), is(equalTo(800L)));
+        assertThat(throttle.record(600L), is(equalTo(1000L)));
+        assertThat(throttle.record(600L), is(equalTo(1000L)));
+    }
+
+    @Test
+    public void testFastCommitsHalveThePause() {
+        throttle.record(600L);
+        throttle.record(600L);
+        throttle.record(600L);
+
+        assertThat(throttle.record(100L), is(equalTo(200L)));
+        assertThat(throttle.record(100L), is(equalTo(100L)));
+        assertThat(throttle.record(100L), is(equalTo(0L)));
+    }
+}
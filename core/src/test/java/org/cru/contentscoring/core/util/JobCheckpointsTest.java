@@ -0,0 +1,123 @@
+package org.cru.contentscoring.core.util;
+
+import com.google.common.collect.Lists;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.event.jobs.JobManager;
+import org.cru.contentscoring.core.service.RepositoryWriteService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JobCheckpointsTest {
+    private static final String ROOT = "/var/cru/content-scoring/some-job";
+    private static final String TOPIC = "org/cru/contentscoring/some-job";
+
+    @Mock
+    private JobManager jobManager;
+
+    @Mock
+    private RepositoryWriteService repositoryWriteService;
+
+    @Mock
+    private ResourceResolver resourceResolver;
+
+    @Mock
+    private Session session;
+
+    private JobCheckpoints<String> checkpoints;
+
+    @Before
+    public void setup() throws Exception {
+        checkpoints = new JobCheckpoints<>(ROOT, TOPIC, "runId", Resource::getName, jobManager, repositoryWriteService);
+
+        when(resourceResolver.adaptTo(Session.class)).thenReturn(session);
+        when(repositoryWriteService.write(eq(session), any(RepositoryWriteService.Mutation.class)))
+            .thenAnswer(invocation -> ((RepositoryWriteService.Mutation) invocation.getArguments()[1]).apply());
+    }
+
+    @Test
+    public void testStatusesAreSortedByStart() {
+        Resource root = mock(Resource.class);
+        when(resourceResolver.getResource(ROOT)).thenReturn(root);
+        Iterable<Resource> children = Lists.newArrayList(
+            mockCheckpoint("second", 2000L),
+            mockCheckpoint("third", 3000L),
+            mockCheckpoint("first", 1000L));
+        when(root.getChildren()).thenReturn(children);
+
+        assertThat(
+            checkpoints.getStatuses(resourceResolver),
+            is(equalTo(Lists.newArrayList("first", "second", "third"))));
+    }
+
+    @Test
+    public void testNoStatusesWithoutRoot() {
+        assertThat(checkpoints.getStatuses(resourceResolver), is(equalTo(Collections.<String>emptyList())));
+        assertThat(checkpoints.getStatus(resourceResolver, "some-run"), is(nullValue()));
+    }
+
+    @Test
+    public void testUpdateIsAppliedToCheckpoint() throws Exception {
+        Node checkpoint = mock(Node.class);
+        when(session.getNode(ROOT + "/some-run")).thenReturn(checkpoint);
+
+        checkpoints.update(session, "some-run", node -> node.setProperty(JobCheckpoints.PN_STATE, "DONE"));
+
+        verify(checkpoint).setProperty(JobCheckpoints.PN_STATE, "DONE");
+    }
+
+    @Test
+    public void testRunIsMarkedFailedIfJobIsNotAdded() throws Exception {
+        Node checkpoint = mock(Node.class);
+        when(session.getNode(anyString())).thenReturn(checkpoint);
+        // Leaves creating the checkpoint out, JcrUtil can't create paths in a mocked session
+        doReturn(true)
+            .doAnswer(invocation -> ((RepositoryWriteService.Mutation) invocation.getArguments()[1]).apply())
+            .when(repositoryWriteService)
+            .write(eq(session), any(RepositoryWriteService.Mutation.class));
+        when(jobManager.addJob(eq(TOPIC), anyMapOf(String.class, Object.class))).thenReturn(null);
+
+        try {
+            checkpoints.start(resourceResolver, node -> node.setProperty("rootPath", "/content/site"));
+            fail("Expected the run to fail");
+        } catch (IllegalStateException e) {
+            verify(checkpoint).setProperty(JobCheckpoints.PN_STATE, "FAILED");
+        }
+    }
+
+    private Resource mockCheckpoint(final String name, final long started) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(started);
+        Map<String, Object> properties = Collections.singletonMap(JobCheckpoints.PN_STARTED, calendar);
+
+        Resource checkpoint = mock(Resource.class);
+        when(checkpoint.getName()).thenReturn(name);
+        when(checkpoint.getValueMap()).thenReturn(new ValueMapDecorator(properties));
+        return checkpoint;
+    }
+}
@@ -0,0 +1,171 @@
+package org.cru.contentscoring.core.util;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.commons.metrics.Counter;
+import org.apache.sling.commons.metrics.Meter;
+import org.apache.sling.commons.metrics.MetricsService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResourceResolverPoolTest {
+    private static final String SUBSERVICE = "contentScoreSync";
+    private static final long MAX_AGE = 10000L;
+    private static final long MAX_IDLE_TIME = 1000L;
+    private static final long LEAK_THRESHOLD = 5000L;
+
+    private final AtomicLong now = new AtomicLong(100000L);
+    private final AtomicInteger logins = new AtomicInteger();
+
+    private MetricsService metricsService;
+    private Meter leaks;
+    private ResourceResolverPool pool;
+
+    @Before
+    public void setup() {
+        metricsService = mock(MetricsService.class);
+        when(metricsService.counter(anyString())).thenReturn(mock(Counter.class));
+        when(metricsService.meter(anyString())).thenReturn(mock(Meter.class));
+        leaks = mock(Meter.class);
+        when(metricsService.meter(ResourceResolverPool.METRIC_PREFIX + SUBSERVICE + ".leaks")).thenReturn(leaks);
+
+        pool = new ResourceResolverPool(
+            SUBSERVICE,
+            this::login,
+            2,
+            MAX_AGE,
+            MAX_IDLE_TIME,
+            LEAK_THRESHOLD,
+            metricsService) {
+
+            @Override
+            long currentTimeMillis() {
+                return now.get();
+            }
+        };
+    }
+
+    @Test
+    public void testReturnedResolverIsReusedAfterRefresh() throws Exception {
+        ResourceResolver first;
+        try (ResourceResolverLease lease = pool.lease()) {
+            first = lease.getResourceResolver();
+        }
+        assertThat(pool.getIdleCount(), is(equalTo(1)));
+
+        try (ResourceResolverLease lease = pool.lease()) {
+            assertThat(lease.getResourceResolver(), is(sameInstance(first)));
+            assertThat(pool.getLeasedCount(), is(equalTo(1)));
+        }
+
+        assertThat(logins.get(), is(equalTo(1)));
+        verify(first).refresh();
+        verify(first, never()).close();
+    }
+
+    @Test
+    public void testConcurrentLeasesGetTheirOwnResolver() throws Exception {
+        try (ResourceResolverLease first = pool.lease(); ResourceResolverLease second = pool.lease()) {
+            assertThat(first.getResourceResolver(), is(not(sameInstance(second.getResourceResolver()))));
+        }
+        assertThat(logins.get(), is(equalTo(2)));
+        assertThat(pool.getIdleCount(), is(equalTo(2)));
+    }
+
+    @Test
+    public void testUnsavedChangesAreReverted() throws Exception {
+        ResourceResolver resolver;
+        try (ResourceResolverLease lease = pool.lease()) {
+            resolver = lease.getResourceResolver();
+            when(resolver.hasChanges()).thenReturn(true);
+        }
+        verify(resolver).revert();
+    }
+
+    @Test
+    public void testIdleResolverExpires() throws Exception {
+        ResourceResolver first;
+        try (ResourceResolverLease lease = pool.lease()) {
+            first = lease.getResourceResolver();
+        }
+
+        now.addAndGet(MAX_IDLE_TIME);
+
+        try (ResourceResolverLease lease = pool.lease()) {
+            assertThat(lease.getResourceResolver(), is(not(sameInstance(first))));
+        }
+        verify(first).close();
+    }
+
+    @Test
+    public void testOldResolverIsNotReturnedToThePool() throws Exception {
+        ResourceResolver first;
+        try (ResourceResolverLease lease = pool.lease()) {
+            first = lease.getResourceResolver();
+            now.addAndGet(MAX_AGE);
+        }
+
+        verify(first).close();
+        assertThat(pool.getIdleCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testMaintenanceClosesExpiredResolvers() throws Exception {
+        ResourceResolver first;
+        try (ResourceResolverLease lease = pool.lease()) {
+            first = lease.getResourceResolver();
+        }
+
+        now.addAndGet(MAX_IDLE_TIME);
+        pool.maintain();
+
+        verify(first).close();
+        assertThat(pool.getIdleCount(), is(equalTo(0)));
+    }
+
+    @Test
+    public void testLeakIsReportedOnce() throws Exception {
+        ResourceResolverLease lease = pool.lease();
+
+        now.addAndGet(LEAK_THRESHOLD + 1);
+        pool.maintain();
+        pool.maintain();
+
+        verify(leaks).mark();
+
+        lease.close();
+        lease.close();
+        assertThat(pool.getLeasedCount(), is(equalTo(0)));
+        assertThat(pool.getIdleCount(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testClosedPoolClosesReturnedResolvers() throws Exception {
+        ResourceResolverLease lease = pool.lease();
+        pool.close();
+        lease.close();
+
+        verify(lease.getResourceResolver()).close();
+        assertThat(pool.getIdleCount(), is(equalTo(0)));
+    }
+
+    private ResourceResolver login() {
+        logins.incrementAndGet();
+        ResourceResolver resolver = mock(ResourceResolver.class);
+        when(resolver.isLive()).thenReturn(true);
+        return resolver;
+    }
+}
@@ -0,0 +1,297 @@
+package org.cru.contentscoring.core.util;
+
+import com.google.common.collect.Lists;
+import org.apache.jackrabbit.commons.cnd.CndImporter;
+import org.apache.jackrabbit.commons.iterator.NodeIteratorAdapter;
+import org.apache.jackrabbit.oak.Oak;
+import org.apache.jackrabbit.oak.jcr.Jcr;
+import org.apache.jackrabbit.oak.plugins.index.lucene.LuceneIndexEditorProvider;
+import org.apache.jackrabbit.oak.plugins.index.lucene.LuceneIndexProvider;
+import org.apache.jackrabbit.oak.spi.commit.Observer;
+import org.apache.jackrabbit.oak.spi.query.QueryIndexProvider;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+
+import javax.jcr.Node;
+import javax.jcr.PropertyType;
+import javax.jcr.Repository;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.Workspace;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Verifies against an in-memory Oak repository that every query in {@link ScoringQueries} is served by
+ * one of the index definitions shipped in ui.apps, rather than traversing /content.
+ */
+public class ScoringQueriesTest {
+    private static final File INDEX_DEFINITIONS =
+        new File("../ui.apps/src/main/content/jcr_root/_oak_index");
+    private static final String ROOT = "/content/test";
+
+    // As the plan names them, so that an index whose name starts with another's doesn't pass for it
+    private static final String LUCENE_INDEX = "lucene:cruContentScoring(/oak:index/cruContentScoring)";
+    private static final String SCORE_TAGS_INDEX = "property cruContentScoringScoreTags";
+    private static final String VANITY_PATH_INDEX = "property cruContentScoringVanityPath";
+
+    private Repository repository;
+    private Session session;
+
+    @Before
+    public void setup() throws Exception {
+        LuceneIndexProvider luceneIndexProvider = new LuceneIndexProvider();
+        repository = new Jcr(new Oak())
+            .with((QueryIndexProvider) luceneIndexProvider)
+            .with((Observer) luceneIndexProvider)
+            .with(new LuceneIndexEditorProvider())
+            .createRepository();
+        session = repository.login(new SimpleCredentials("admin", "admin".toCharArray()));
+
+        CndImporter.registerNodeTypes(
+            new InputStreamReader(getClass().getResourceAsStream("aem-nodetypes.cnd"), StandardCharsets.UTF_8),
+            session);
+
+        importIndexDefinitions();
+        session.getRootNode().addNode("content", "nt:folder").addNode("test", "cq:Page");
+        session.save();
+    }
+
+    @After
+    public void tearDown() {
+        if (session != null) {
+            session.logout();
+        }
+    }
+
+    @Test
+    public void testVanityPathQueryUsesIndex() throws Exception {
+        assertIndexed(ScoringQueries.vanityPaths(ROOT), VANITY_PATH_INDEX);
+    }
+
+    @Test
+    public void testScoreTagQueryUsesIndex() throws Exception {
+        assertIndexed(ScoringQueries.pagesWithScoreTag(ROOT), SCORE_TAGS_INDEX);
+    }
+
+    @Test
+    public void testScorePropertyQueryUsesIndex() throws Exception {
+        assertIndexed(ScoringQueries.pagesWithScoreProperty(ROOT), LUCENE_INDEX);
+    }
+
+    @Test
+    public void testScoredBeforeQueryUsesIndex() throws Exception {
+        assertIndexed(ScoringQueries.pagesScoredBefore(ROOT, Calendar.getInstance()), LUCENE_INDEX);
+    }
+
+    @Test
+    public void testNeverScoredQueryUsesIndex() throws Exception {
+        // The Lucene index doesn't keep pages without a sent date, they are the scored pages whose date is missing
+        assertIndexed(ScoringQueries.pagesNeverScored(ROOT), SCORE_TAGS_INDEX);
+    }
+
+    @Test
+    public void testModifiedSinceQueryUsesIndex() throws Exception {
+        assertIndexed(ScoringQueries.pagesModifiedSince(ROOT, Calendar.getInstance()), LUCENE_INDEX);
+    }
+
+    @Test
+    public void testKeysetQueryUsesIndex() throws Exception {
+        assertIndexed(
+            ScoringQueries.keyset(ScoringQueries.pagesWithScoreTag(ROOT), ROOT + "/page"),
+            SCORE_TAGS_INDEX);
+    }
+
+    @Test
+    public void testKeysetStatement() {
+        assertThat(
+            ScoringQueries.keyset("SELECT * FROM [cq:Page] AS page WHERE ISDESCENDANTNODE(page, '/content')", "/a'b"),
+            is(equalTo("SELECT * FROM [cq:Page] AS page WHERE ISDESCENDANTNODE(page, '/content')"
+                + " AND page.[jcr:path] > '/a''b' ORDER BY page.[jcr:path]")));
+    }
+
+    @Test
+    public void testPassSkipsNothingWhenResultsDropOut() throws Exception {
+        addScoredPages(5);
+
+        List<String> visited = new ArrayList<>();
+        Iterator<Resource> pages = ScoringQueries.findResources(
+            mockResourceResolver(),
+            ScoringQueries.pagesWithScoreProperty(ROOT));
+        while (pages.hasNext()) {
+            String path = pages.next().getPath();
+            visited.add(path);
+            // Like moving the score to a tag does
+            session.getNode(path + "/jcr:content/score").remove();
+            session.save();
+        }
+
+        assertThat(visited.size(), is(equalTo(5)));
+    }
+
+    @Test
+    public void testResumedPassStartsAfterPath() throws Exception {
+        addScoredPages(5);
+
+        List<String> visited = new ArrayList<>();
+        Iterator<Resource> pages = ScoringQueries.findResources(
+            mockResourceResolver(),
+            ScoringQueries.pagesWithScoreProperty(ROOT),
+            ROOT + "/page1");
+        while (pages.hasNext()) {
+            visited.add(pages.next().getPath());
+        }
+
+        assertThat(visited, is(equalTo(Lists.newArrayList(ROOT + "/page2", ROOT + "/page3", ROOT + "/page4"))));
+    }
+
+    @Test
+    public void testPassRunsItsQueryOnce() throws Exception {
+        Session mockSession = mock(Session.class);
+        Workspace workspace = mock(Workspace.class);
+        QueryManager queryManager = mock(QueryManager.class);
+        Query query = mock(Query.class);
+        QueryResult queryResult = mock(QueryResult.class);
+        when(mockSession.getWorkspace()).thenReturn(workspace);
+        when(workspace.getQueryManager()).thenReturn(queryManager);
+        when(queryManager.createQuery(anyString(), eq(Query.JCR_SQL2))).thenReturn(query);
+        when(query.execute()).thenReturn(queryResult);
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Node node = mock(Node.class);
+            when(node.getPath()).thenReturn(ROOT + "/page" + i);
+            nodes.add(node);
+        }
+        when(queryResult.getNodes()).thenReturn(new NodeIteratorAdapter(nodes));
+
+        ResourceResolver resourceResolver = mock(ResourceResolver.class);
+        when(resourceResolver.adaptTo(Session.class)).thenReturn(mockSession);
+        when(resourceResolver.getResource(anyString())).thenReturn(mock(Resource.class));
+
+        String statement = ScoringQueries.pagesWithScoreTag(ROOT);
+        Iterator<Resource> results = ScoringQueries.findResources(resourceResolver, statement);
+        int count = 0;
+        while (results.hasNext()) {
+            results.next();
+            count++;
+        }
+
+        assertThat(count, is(equalTo(5)));
+        // Neither sorted nor limited, so Oak reads the results from the index as they are iterated
+        verify(queryManager, times(1)).createQuery(statement, Query.JCR_SQL2);
+        verify(query, never()).setLimit(anyLong());
+    }
+
+    private void addScoredPages(final int count) throws Exception {
+        Node root = session.getNode(ROOT);
+        for (int i = 0; i < count; i++) {
+            root.addNode("page" + i, "cq:Page").addNode("jcr:content", "cq:PageContent").setProperty("score", "5");
+        }
+        session.save();
+    }
+
+    private ResourceResolver mockResourceResolver() {
+        ResourceResolver resourceResolver = mock(ResourceResolver.class);
+        when(resourceResolver.adaptTo(Session.class)).thenReturn(session);
+        when(resourceResolver.getResource(anyString())).thenAnswer(invocation -> {
+            Resource resource = mock(Resource.class);
+            when(resource.getPath()).thenReturn((String) invocation.getArguments()[0]);
+            return resource;
+        });
+        return resourceResolver;
+    }
+
+    private void assertIndexed(final String statement, final String indexName) throws Exception {
+        QueryManager queryManager = session.getWorkspace().getQueryManager();
+        Query explain = queryManager.createQuery("explain " + statement, Query.JCR_SQL2);
+        String plan = explain.execute().getRows().nextRow().getValue("plan").getString();
+
+        assertThat(plan, not(containsString("traverse")));
+        assertThat(plan, containsString(indexName));
+    }
+
+    private void importIndexDefinitions() throws Exception {
+        Node oakIndex = session.getNode("/oak:index");
+        File[] definitions = INDEX_DEFINITIONS.listFiles(File::isDirectory);
+
+        for (File definition : definitions) {
+            Element root = DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder()
+                .parse(new File(definition, ".content.xml"))
+                .getDocumentElement();
+            importNode(oakIndex, definition.getName(), root);
+        }
+    }
+
+    private void importNode(final Node parent, final String name, final Element element) throws Exception {
+        Node node = parent.addNode(name, element.getAttribute("jcr:primaryType"));
+
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            String propertyName = attribute.getName();
+            // Lucene indexes without "async" are updated synchronously, so they can be used right after the save.
+            if (propertyName.startsWith("xmlns") || propertyName.equals("jcr:primaryType") || propertyName.equals("async")) {
+                continue;
+            }
+            setProperty(node, propertyName, attribute.getValue());
+        }
+
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element) {
+                Element child = (Element) children.item(i);
+                importNode(node, child.getTagName(), child);
+            }
+        }
+    }
+
+    /**
+     * Sets a property from its FileVault document view notation, e.g. {@code {Name}[cq:tags]} or {@code {Boolean}true}.
+     */
+    private void setProperty(final Node node, final String name, final String serialized) throws Exception {
+        int type = PropertyType.STRING;
+        String value = serialized;
+
+        if (value.startsWith("{")) {
+            type = PropertyType.valueFromName(value.substring(1, value.indexOf('}')));
+            value = value.substring(value.indexOf('}') + 1);
+        }
+
+        if (value.startsWith("[") && value.endsWith("]")) {
+            node.setProperty(name, value.substring(1, value.length() - 1).split(","), type);
+        } else {
+            node.setProperty(name, value, type);
+        }
+    }
+}
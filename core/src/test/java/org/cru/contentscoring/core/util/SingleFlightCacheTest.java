@@ -0,0 +1,181 @@
+package org.cru.contentscoring.core.util;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class SingleFlightCacheTest {
+    @Test
+    public void testConcurrentCallsShareOneLoad() throws Exception {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(10, 60000, 60000, 5000);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int callers = 8;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executorService.submit(() -> cache.get("key", () -> {
+                    loads.incrementAndGet();
+                    release.await(5, TimeUnit.SECONDS);
+                    return "value";
+                })));
+            }
+            // Give every caller the chance to join the in-flight load before it finishes
+            Thread.sleep(200);
+            release.countDown();
+
+            for (Future<String> result : results) {
+                assertThat(result.get(5, TimeUnit.SECONDS), is(equalTo("value")));
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        assertThat(loads.get(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testMissesAreCachedSeparately() throws Exception {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(10, 60000, 0, 5000);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertThat(cache.get("missing", () -> countLoad(loads, null)), is(nullValue()));
+        assertThat(cache.get("missing", () -> countLoad(loads, null)), is(nullValue()));
+        assertThat(loads.get(), is(equalTo(2)));
+
+        cache.get("found", () -> countLoad(loads, "value"));
+        assertThat(cache.get("found", () -> countLoad(loads, "value")), is(equalTo("value")));
+        assertThat(loads.get(), is(equalTo(3)));
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(10, 60000, 60000, 5000);
+
+        try {
+            cache.get("key", () -> {
+                throw new IllegalStateException("Publisher unavailable");
+            });
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is(equalTo("Publisher unavailable")));
+        }
+
+        assertThat(cache.get("key", () -> "value"), is(equalTo("value")));
+    }
+
+    @Test
+    public void testBatchLoadsOnlyUncachedKeys() throws Exception {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(10, 60000, 60000, 5000);
+        cache.get("found", () -> "value");
+        cache.get("missing", () -> null);
+
+        List<Set<String>> loads = new ArrayList<>();
+        Map<String, String> values = cache.getAll(Lists.newArrayList("found", "missing", "new"), keys -> {
+            loads.add(new HashSet<>(keys));
+            return ImmutableMap.of("new", "other");
+        });
+
+        assertThat(values, is(equalTo(ImmutableMap.of("found", "value", "new", "other"))));
+        assertThat(loads, is(equalTo(Lists.newArrayList(Sets.newHashSet("new")))));
+    }
+
+    @Test
+    public void testBatchCachesMissesButNotLeftOutKeys() throws Exception {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(10, 60000, 60000, 5000);
+        Map<String, String> loaded = new HashMap<>();
+        loaded.put("missing", null);
+        cache.getAll(Lists.newArrayList("missing", "unreachable"), keys -> loaded);
+
+        AtomicInteger loads = new AtomicInteger();
+        assertThat(cache.get("missing", () -> countLoad(loads, "value")), is(nullValue()));
+        assertThat(cache.get("unreachable", () -> countLoad(loads, "value")), is(equalTo("value")));
+        assertThat(loads.get(), is(equalTo(1)));
+    }
+
+    @Test
+    public void testBatchJoinsInFlightLoad() throws Exception {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(10, 60000, 60000, 5000);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> single = executorService.submit(() -> cache.get("key", () -> {
+                loading.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return "value";
+            }));
+            assertThat(loading.await(5, TimeUnit.SECONDS), is(true));
+
+            AtomicInteger loads = new AtomicInteger();
+            new Thread(release::countDown).start();
+            Map<String, String> values = cache.getAll(Lists.newArrayList("key"), keys -> {
+                loads.incrementAndGet();
+                return ImmutableMap.of();
+            });
+
+            assertThat(values, is(equalTo(ImmutableMap.of("key", "value"))));
+            assertThat(single.get(5, TimeUnit.SECONDS), is(equalTo("value")));
+            assertThat(loads.get(), is(equalTo(0)));
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWaitForHungLoadIsBounded() throws Exception {
+        SingleFlightCache<String, String> cache = new SingleFlightCache<>(10, 60000, 60000, 100);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            executorService.submit(() -> cache.get("key", () -> {
+                loading.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return "value";
+            }));
+            assertThat(loading.await(5, TimeUnit.SECONDS), is(true));
+
+            try {
+                cache.get("key", () -> "other");
+                fail("Expected TimeoutException");
+            } catch (TimeoutException e) {
+                // The hung load is still in flight, this caller gave up on it
+            }
+        } finally {
+            release.countDown();
+            executorService.shutdownNow();
+        }
+    }
+
+    private String countLoad(final AtomicInteger loads, final String value) {
+        loads.incrementAndGet();
+        return value;
+    }
+}